@@ -3,14 +3,17 @@ package com.chatalytics.compute;
 import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
 import com.chatalytics.compute.storm.ChatAlyticsService;
 import com.chatalytics.compute.storm.ChatAlyticsStormTopology;
+import com.chatalytics.compute.storm.trident.ChatAlyticsTridentTopology;
 import com.chatalytics.compute.web.realtime.ComputeRealtimeServer;
 import com.chatalytics.compute.web.realtime.ComputeRealtimeServerFactory;
 import com.chatalytics.core.CommonCLIBuilder;
 import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.TopologyConfig;
 import com.chatalytics.core.util.YamlUtils;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Options;
+import org.apache.storm.generated.StormTopology;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,6 +31,10 @@ import java.util.concurrent.TimeoutException;
 public class ChatAlyticsEngineMain {
 
     private static final Logger LOG = LoggerFactory.getLogger(ChatAlyticsEngineMain.class);
+    /**
+     * The service stops itself within its shutdown timeout, so this is only a safety net
+     */
+    private static final long SHUTDOWN_GRACE_SECS = 5;
 
     public static void main(String[] args) throws FileNotFoundException, URISyntaxException {
 
@@ -38,15 +45,23 @@ public class ChatAlyticsEngineMain {
         LOG.info("Loading config {}", configName);
         ChatAlyticsConfig config = YamlUtils.readChatAlyticsConfig(configName);
 
-        ChatAlyticsStormTopology chatTopology = new ChatAlyticsStormTopology(config.inputType);
+        TopologyConfig topologyConfig = config.computeConfig.topologyConfig;
+        StormTopology chatTopology;
+        if (topologyConfig.trident) {
+            chatTopology = new ChatAlyticsTridentTopology(config.inputType, topologyConfig).get();
+        } else {
+            chatTopology = new ChatAlyticsStormTopology(config.inputType,
+                                                        config.computeConfig.fusedMessageAnalysis,
+                                                        topologyConfig).get();
+        }
 
         ComputeRealtimeServer rtServer =
             ComputeRealtimeServerFactory.createComputeRealtimeServer(config);
-        ChatAlyticsService chatalyticsService = new ChatAlyticsService(chatTopology.get(),
+        ChatAlyticsService chatalyticsService = new ChatAlyticsService(chatTopology,
                                                                        rtServer,
                                                                        config);
 
-        addShutdownHook(chatalyticsService);
+        addShutdownHook(chatalyticsService, config.computeConfig.shutdownTimeoutSecs);
         chatalyticsService.startAsync().awaitRunning();
     }
 
@@ -54,14 +69,17 @@ public class ChatAlyticsEngineMain {
      * Closes all open resources
      *
      * @param chatalyticsService The chatalytics service to close
+     * @param shutdownTimeoutSecs The time the service gets to shut down
      */
-    public static void addShutdownHook(ChatAlyticsService chatalyticsService) {
+    public static void addShutdownHook(ChatAlyticsService chatalyticsService,
+                                       long shutdownTimeoutSecs) {
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
                 LOG.info("Shutting down ChatAlytics Compute...");
                 try {
-                    chatalyticsService.stopAsync().awaitTerminated(10, TimeUnit.SECONDS);
+                    chatalyticsService.stopAsync().awaitTerminated(
+                        shutdownTimeoutSecs + SHUTDOWN_GRACE_SECS, TimeUnit.SECONDS);
                 } catch (TimeoutException e) {
                     LOG.error("Shutting down chatalytics service timed out...");
                 }
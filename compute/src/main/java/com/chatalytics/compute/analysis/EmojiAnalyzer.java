@@ -0,0 +1,78 @@
+package com.chatalytics.compute.analysis;
+
+import com.chatalytics.compute.emoji.EmojiScanner;
+import com.chatalytics.core.config.ChatConfig;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the emojis in a chat message and counts their occurrences
+ *
+ * @author giannis
+ */
+public class EmojiAnalyzer implements Serializable {
+
+    private static final long serialVersionUID = -2917270396360781167L;
+    private static final char DEFAULT_EMOJI_CHAR = ':';
+
+    private final EmojiScanner emojiScanner;
+
+    /**
+     * @param chatConfig
+     *            The chat config with the emoji start and end chars. If null, ':' is used
+     */
+    public EmojiAnalyzer(ChatConfig chatConfig) {
+        if (chatConfig == null) {
+            this.emojiScanner = new EmojiScanner(DEFAULT_EMOJI_CHAR, DEFAULT_EMOJI_CHAR);
+        } else {
+            this.emojiScanner = new EmojiScanner(chatConfig.getEmojiStartChar(),
+                                                 chatConfig.getEmojiEndChar());
+        }
+    }
+
+    /**
+     * @param message
+     *            The message to analyze
+     * @return One {@link EmojiEntity} per distinct emoji in the message
+     */
+    public List<EmojiEntity> analyze(MessageEnvelope message) {
+        String text = message.getText();
+
+        if (text == null) {
+            return ImmutableList.of();
+        }
+
+        List<String> emojiNames = emojiScanner.getEmojis(text);
+        if (emojiNames.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        Map<String, EmojiEntity> emojis = Maps.newHashMapWithExpectedSize(emojiNames.size());
+        for (String emoji : emojiNames) {
+            EmojiEntity existingEmoji = emojis.remove(emoji);
+            int occurrences;
+            if (existingEmoji == null) {
+                occurrences = 1;
+            } else {
+                occurrences = existingEmoji.getOccurrences() + 1;
+            }
+
+            emojis.put(emoji, new EmojiEntity(message.getUsername(),
+                                              message.getRoomName(),
+                                              message.getDate(),
+                                              emoji,
+                                              occurrences,
+                                              message.isBot()));
+        }
+
+        return Lists.newArrayList(emojis.values());
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.chatalytics.compute.analysis;
+
+import com.chatalytics.compute.entity.CachingEntityExtractor;
+import com.chatalytics.compute.entity.EntityExtractorFactory;
+import com.chatalytics.compute.entity.EntityPreFilter;
+import com.chatalytics.compute.entity.EntitySpan;
+import com.chatalytics.compute.entity.IEntityExtractor;
+import com.chatalytics.core.config.ComputeConfig;
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.apache.storm.metric.api.MultiCountMetric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the entities of a chat message using the {@link IEntityExtractor} picked by the compute
+ * config. Messages that are rejected by the {@link EntityPreFilter} are never passed to the
+ * extractor and, unless disabled, the extractor results are cached by message text so that
+ * repeated messages are only parsed once.
+ *
+ * @author giannis
+ */
+public class EntityAnalyzer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EntityAnalyzer.class);
+    private static final int MAX_ENTITY_CHARS = 150;
+
+    private final IEntityExtractor extractor;
+    private final CachingEntityExtractor cachingExtractor;
+    private final EntityPreFilter preFilter;
+    private final MultiCountMetric preFilterMetric;
+    private CacheStats lastCacheStats;
+    private long skippedMessages;
+    private long classifiedMessages;
+    private long extractorNanos;
+
+    public EntityAnalyzer(ComputeConfig config) {
+        IEntityExtractor extractor = EntityExtractorFactory.createEntityExtractor(config);
+        if (config.entityCacheMaxSize > 0 || config.entityCacheMaxWeight > 0) {
+            this.cachingExtractor = new CachingEntityExtractor(extractor,
+                                                               config.entityCacheMaxSize,
+                                                               config.entityCacheMaxWeight);
+            this.extractor = cachingExtractor;
+            this.lastCacheStats = cachingExtractor.getStats();
+        } else {
+            this.cachingExtractor = null;
+            this.extractor = extractor;
+        }
+        this.preFilter = new EntityPreFilter(config);
+        this.preFilterMetric = new MultiCountMetric();
+    }
+
+    /**
+     * Extracts the entities of a message
+     *
+     * @param message
+     *            The message containing the text to parse.
+     * @return A list of entities from the text
+     */
+    public List<ChatEntity> analyze(MessageEnvelope message) {
+
+        String messageStr = message.getText();
+
+        if (messageStr == null) {
+            return ImmutableList.of();
+        }
+
+        if (!preFilter.mayContainEntities(message)) {
+            skippedMessages++;
+            preFilterMetric.scope("skipped").incr();
+            LOG.debug("Skipping entity extraction for {}", message);
+            return ImmutableList.of();
+        }
+
+        long startNanos = System.nanoTime();
+        List<EntitySpan> spans = extractor.extractEntities(messageStr);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        classifiedMessages++;
+        extractorNanos += elapsedNanos;
+        preFilterMetric.scope("classified").incr();
+        preFilterMetric.scope("extractor-micros").incrBy(elapsedNanos / 1000);
+        Map<String, ChatEntity> entities = Maps.newHashMapWithExpectedSize(spans.size());
+
+        for (EntitySpan span : spans) {
+            if (span.length() > MAX_ENTITY_CHARS) {
+                continue;
+            }
+            String entity = messageStr.substring(span.getStart(), span.getEnd());
+            ChatEntity existingEntity = entities.remove(entity);
+            int occurrences;
+            if (existingEntity == null) {
+                occurrences = 1;
+            } else {
+                occurrences = existingEntity.getOccurrences() + 1;
+            }
+            entities.put(entity, new ChatEntity(message.getUsername(),
+                                                message.getRoomName(),
+                                                message.getDate(),
+                                                entity,
+                                                occurrences,
+                                                message.isBot()));
+
+        }
+
+        LOG.debug("Extracted {} entities", entities.size());
+
+        return Lists.newArrayList(entities.values());
+    }
+
+    /**
+     * @return The metric with the number of skipped and classified messages and the time spent in
+     *         the extractor
+     */
+    public MultiCountMetric getPreFilterMetric() {
+        return preFilterMetric;
+    }
+
+    /**
+     * @return True if the extractor results are cached
+     */
+    public boolean isCaching() {
+        return cachingExtractor != null;
+    }
+
+    /**
+     * Reports the entity cache activity since the last time this was called
+     *
+     * @return A map with the hits, misses, evictions, hit rate and current size of the cache
+     */
+    public Map<String, Object> getCacheMetrics() {
+        if (cachingExtractor == null) {
+            return ImmutableMap.of();
+        }
+        CacheStats currentStats = cachingExtractor.getStats();
+        CacheStats intervalStats = currentStats.minus(lastCacheStats);
+        lastCacheStats = currentStats;
+        return ImmutableMap.of("hits", intervalStats.hitCount(),
+                               "misses", intervalStats.missCount(),
+                               "evictions", intervalStats.evictionCount(),
+                               "hit-rate", intervalStats.hitRate(),
+                               "size", cachingExtractor.size());
+    }
+
+    /**
+     * @return An estimate of the extractor time saved by the pre-filter, in milliseconds. This is
+     *         the number of skipped messages times the average extraction time.
+     */
+    public long getEstimatedSavedMillis() {
+        if (classifiedMessages == 0) {
+            return 0;
+        }
+        return skippedMessages * (extractorNanos / classifiedMessages) / 1000000;
+    }
+
+    public long getSkippedMessages() {
+        return skippedMessages;
+    }
+
+    /**
+     * Logs how many messages were skipped by the pre-filter and how well the cache did
+     */
+    public void logStats() {
+        LOG.info("Entity pre-filter skipped {} out of {} messages. Estimated extractor time saved "
+                     + "is {}ms", skippedMessages, skippedMessages + classifiedMessages,
+                 getEstimatedSavedMillis());
+        if (cachingExtractor != null) {
+            LOG.info("Entity cache stats: {}", cachingExtractor.getStats());
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.chatalytics.compute.analysis;
+
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.chatalytics.core.model.data.MessageSummary;
+
+import java.io.Serializable;
+
+/**
+ * Summarizes a chat message into a {@link MessageSummary}
+ *
+ * @author giannis
+ */
+public class MessageSummaryAnalyzer implements Serializable {
+
+    private static final long serialVersionUID = 6105409934785367745L;
+
+    /**
+     * @param message
+     *            The message to summarize
+     * @return A summary of the message with an occurrence of 1
+     */
+    public MessageSummary analyze(MessageEnvelope message) {
+        return new MessageSummary(message.getUsername(), message.getRoomName(), message.getDate(),
+                                  message.getType(), 1, message.isBot());
+    }
+
+}
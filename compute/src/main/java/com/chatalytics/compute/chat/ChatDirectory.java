@@ -0,0 +1,231 @@
+package com.chatalytics.compute.chat;
+
+import com.chatalytics.compute.chat.dao.IChatApiDAO;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.AbstractScheduledService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * In memory directory of the users and rooms of a chat, so that enriching a message is a map lookup
+ * instead of a chat API call. The directory is fully loaded when the service starts and reloaded on
+ * a fixed schedule. In between, single users and rooms can be updated from realtime events.
+ * <p/>
+ * Looking up an unknown id reloads the users or rooms from the chat API. Concurrent lookups share
+ * the same reload, reloads are at least <code>minMissReloadMillis</code> apart, and an id that
+ * wasn't found by a reload won't trigger another one until the next scheduled refresh. Entries are
+ * never removed, since the chat APIs keep listing deleted users and archived rooms anyway.
+ *
+ * @author giannis
+ */
+public class ChatDirectory extends AbstractScheduledService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChatDirectory.class);
+
+    private final long refreshIntervalSecs;
+    private final Entries<User> users;
+    private final Entries<Room> rooms;
+
+    /**
+     * @param chatApiDao
+     *            The chat API to load the users and rooms from
+     * @param refreshIntervalSecs
+     *            How often to reload all users and rooms
+     * @param minMissReloadMillis
+     *            Minimum time between two reloads caused by unknown ids
+     */
+    public ChatDirectory(IChatApiDAO chatApiDao, long refreshIntervalSecs,
+                         long minMissReloadMillis) {
+        this(chatApiDao, refreshIntervalSecs, minMissReloadMillis, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    protected ChatDirectory(IChatApiDAO chatApiDao, long refreshIntervalSecs,
+                            long minMissReloadMillis, LongSupplier clock) {
+        this.refreshIntervalSecs = refreshIntervalSecs;
+        this.users = new Entries<>("users", chatApiDao::getUsers, minMissReloadMillis, clock);
+        this.rooms = new Entries<>("rooms", chatApiDao::getRooms, minMissReloadMillis, clock);
+    }
+
+    /**
+     * Loads the users and rooms. Failures are logged so that the service still starts, in which
+     * case the first lookups load the missing entries
+     */
+    @Override
+    protected void startUp() {
+        refresh();
+    }
+
+    @Override
+    protected void runOneIteration() {
+        refresh();
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(refreshIntervalSecs, refreshIntervalSecs,
+                                               TimeUnit.SECONDS);
+    }
+
+    /**
+     * Reloads all users and rooms and forgets about ids that weren't found before
+     */
+    public void refresh() {
+        users.refresh();
+        rooms.refresh();
+    }
+
+    /**
+     * @param userId
+     *            The ID of the user
+     * @return The user, or null if the user doesn't exist
+     */
+    public User getUser(String userId) {
+        return users.get(userId);
+    }
+
+    /**
+     * @param roomId
+     *            The ID of the room
+     * @return The room, or null if the room doesn't exist
+     */
+    public Room getRoom(String roomId) {
+        return rooms.get(roomId);
+    }
+
+    /**
+     * @return An unmodifiable view of all the known users keyed by ID
+     */
+    public Map<String, User> getUsers() {
+        return users.view;
+    }
+
+    /**
+     * @return An unmodifiable view of all the known rooms keyed by ID
+     */
+    public Map<String, Room> getRooms() {
+        return rooms.view;
+    }
+
+    /**
+     * Adds or replaces a user, e.g. after a user changed their profile
+     *
+     * @param user
+     *            The updated user
+     */
+    public void putUser(User user) {
+        users.put(user.getUserId(), user);
+    }
+
+    /**
+     * Adds or replaces a room, e.g. after a room was created
+     *
+     * @param room
+     *            The updated room
+     */
+    public void putRoom(Room room) {
+        rooms.put(room.getRoomId(), room);
+    }
+
+    /**
+     * The entries of one type, with their loader and the state for single flight reloads
+     */
+    private static class Entries<T> {
+
+        private static final long NEVER_LOADED = Long.MIN_VALUE;
+
+        private final String name;
+        private final Supplier<Map<String, T>> loader;
+        private final long minMissReloadMillis;
+        private final LongSupplier clock;
+        private final ConcurrentMap<String, T> entries;
+        private final Map<String, T> view;
+        private final Set<String> misses;
+        private final AtomicReference<CompletableFuture<Void>> inFlightLoad;
+        private volatile long lastLoadMillis;
+
+        private Entries(String name, Supplier<Map<String, T>> loader, long minMissReloadMillis,
+                        LongSupplier clock) {
+            this.name = name;
+            this.loader = loader;
+            this.minMissReloadMillis = minMissReloadMillis;
+            this.clock = clock;
+            this.entries = Maps.newConcurrentMap();
+            this.view = Collections.unmodifiableMap(entries);
+            this.misses = Sets.newConcurrentHashSet();
+            this.inFlightLoad = new AtomicReference<>();
+            this.lastLoadMillis = NEVER_LOADED;
+        }
+
+        private T get(String id) {
+            if (id == null) {
+                return null;
+            }
+            T value = entries.get(id);
+            if (value != null || misses.contains(id)) {
+                return value;
+            }
+            if (lastLoadMillis == NEVER_LOADED
+                || clock.getAsLong() - lastLoadMillis >= minMissReloadMillis) {
+                LOG.debug("Reloading {} after a miss for {}", name, id);
+                load();
+            }
+            value = entries.get(id);
+            if (value == null) {
+                misses.add(id);
+            }
+            return value;
+        }
+
+        private void put(String id, T value) {
+            entries.put(id, value);
+            misses.remove(id);
+        }
+
+        private void refresh() {
+            load();
+            misses.clear();
+        }
+
+        /**
+         * Loads all the entries, or waits for the load that's already in flight
+         */
+        private void load() {
+            CompletableFuture<Void> load = new CompletableFuture<>();
+            while (!inFlightLoad.compareAndSet(null, load)) {
+                CompletableFuture<Void> currentLoad = inFlightLoad.get();
+                if (currentLoad != null) {
+                    currentLoad.join();
+                    return;
+                }
+            }
+            try {
+                Map<String, T> loaded = loader.get();
+                entries.putAll(loaded);
+                LOG.debug("Loaded {} {}", loaded.size(), name);
+            } catch (RuntimeException e) {
+                LOG.error("Can't load {}. Keeping the {} known ones", name, entries.size(), e);
+            } finally {
+                lastLoadMillis = clock.getAsLong();
+                inFlightLoad.set(null);
+                load.complete(null);
+            }
+        }
+    }
+
+}
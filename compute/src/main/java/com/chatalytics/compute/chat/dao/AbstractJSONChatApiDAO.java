@@ -1,57 +1,362 @@
 package com.chatalytics.compute.chat.dao;
 
+import com.chatalytics.compute.exception.ChatApiException;
+import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.ComputeConfig;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.ClientResponse.Status;
 import com.sun.jersey.api.client.UniformInterfaceException;
 import com.sun.jersey.api.client.WebResource;
 
-import java.util.List;
-import java.util.Random;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.UriBuilder;
 
 /**
- * Base class for JSON implementations of {@link IChatApiDAO} classes
+ * Base class for JSON implementations of {@link IChatApiDAO} classes. All requests go through an
+ * {@link ApiTokenPool} that spreads them across the configured auth tokens while keeping every
+ * token within the API rate limits. Subclasses can also make asynchronous requests, which go
+ * through a non blocking {@link AsyncChatApiClient} sharing the same token pool.
  *
  * @author giannis
  *
  */
 public abstract class AbstractJSONChatApiDAO implements IChatApiDAO {
 
-    private final List<String> authTokens;
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractJSONChatApiDAO.class);
+    static final int TOO_MANY_REQUESTS = 429;
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+
+    private final ApiTokenPool tokenPool;
     private final String authTokenParam;
-    private final Random rand;
+    private final String baseApiUrl;
+    private final int maxConcurrentRequests;
+    private final long rateLimitTimeoutMillis;
+    private AsyncChatApiClient asyncClient;
 
-    protected AbstractJSONChatApiDAO(List<String> authTokens, String authTokenParam) {
-        this.authTokens = authTokens;
+    protected AbstractJSONChatApiDAO(ChatAlyticsConfig config, ApiTokenPool tokenPool,
+                                     String authTokenParam) {
+        this.tokenPool = tokenPool;
         this.authTokenParam = authTokenParam;
-        this.rand = new Random(System.currentTimeMillis());
+        this.baseApiUrl = config.computeConfig.chatConfig.getBaseAPIURL();
+        this.maxConcurrentRequests = config.computeConfig.apiMaxConcurrentRequests;
+        this.rateLimitTimeoutMillis = config.computeConfig.apiRateLimitTimeoutMs;
+    }
+
+    /**
+     * Creates the token pool of a chat API out of the compute config
+     *
+     * @param config
+     *            The ChatAlytics config
+     * @param defaultRequestsPerMinute
+     *            The documented limits of the API methods, in requests per minute and token.
+     *            Overridden by <code>apiRequestsPerMinute</code>
+     * @param defaultMethodRequestsPerMinute
+     *            The limit of methods without a documented limit. Overridden by
+     *            <code>apiDefaultRequestsPerMinute</code>
+     * @return The token pool
+     */
+    protected static ApiTokenPool createTokenPool(ChatAlyticsConfig config,
+                                                  Map<String, Integer> defaultRequestsPerMinute,
+                                                  int defaultMethodRequestsPerMinute) {
+        ComputeConfig computeConfig = config.computeConfig;
+        Map<String, Integer> requestsPerMinute = Maps.newHashMap(defaultRequestsPerMinute);
+        if (computeConfig.apiRequestsPerMinute != null) {
+            requestsPerMinute.putAll(computeConfig.apiRequestsPerMinute);
+        }
+        int methodRequestsPerMinute = defaultMethodRequestsPerMinute;
+        if (computeConfig.apiDefaultRequestsPerMinute > 0) {
+            methodRequestsPerMinute = computeConfig.apiDefaultRequestsPerMinute;
+        }
+        return new ApiTokenPool(computeConfig.chatConfig.getAuthTokens(),
+                                requestsPerMinute,
+                                methodRequestsPerMinute,
+                                computeConfig.apiMaxConcurrentRequests,
+                                computeConfig.apiRetryBackoffMs,
+                                computeConfig.apiMaxRetryBackoffMs);
     }
 
     /**
-     * Helper method for doing GETs with <code>retries</code> number of retries in case of 403
-     * errors.
+     * Helper method for doing GETs with <code>retries</code> number of retries. Requests that are
+     * rate limited (429) are retried once the <code>Retry-After</code> time has passed, without
+     * counting against the retries, for up to <code>apiRateLimitTimeoutMs</code>. Requests that
+     * fail with a 403, a server error or a connection error are retried with an exponential
+     * backoff. A request that never reached the API gives its rate limit permit back, so its retry
+     * doesn't wait for the rate limit. Any other error is not retried.
+     * <p/>
+     * The response body is returned as a stream so that it can be parsed with
+     * {@link JsonResponseReader} without first copying it into a string.
      *
      * @param resource
      *            The resource to GET data from
      * @param retries
-     *            The number of retries if a 403 is encountered.
-     * @return The JSON result string.
+     *            The number of retries if the request fails.
+     * @return The JSON result stream. The caller has to close it
+     * @throws ChatApiException
+     *             If the request didn't succeed
      */
     @VisibleForTesting
-    public String getJsonResultWithRetries(WebResource resource, int retries) {
-        resource = addTokenQueryParam(resource);
-        while (retries >= 0) {
+    public InputStream getJsonStreamWithRetries(WebResource resource, int retries) {
+        String rateLimitKey = getRateLimitKey(resource.getURI());
+        long rateLimitDeadlineMillis = System.currentTimeMillis() + rateLimitTimeoutMillis;
+        Exception lastError = null;
+        int attempt = 0;
+        while (true) {
+            ApiTokenPool.Lease lease;
+            try {
+                lease = tokenPool.acquire(rateLimitKey);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ChatApiException("Interrupted before requesting " + rateLimitKey, e);
+            }
             try {
-                String jsonStr = resource.accept(MediaType.APPLICATION_JSON).get(String.class);
-                return jsonStr;
+                return addTokenQueryParam(resource, lease.getToken())
+                    .accept(MediaType.APPLICATION_JSON)
+                    .get(InputStream.class);
             } catch (UniformInterfaceException e) {
-                if (e.getResponse().getStatus() == Status.FORBIDDEN.getStatusCode()) {
-                    retries--;
+                ClientResponse response = e.getResponse();
+                int status = response.getStatus();
+                if (status == TOO_MANY_REQUESTS) {
+                    long retryAfterMillis = getRetryAfterMillis(response);
+                    lease.rateLimited(retryAfterMillis);
+                    if (System.currentTimeMillis() + retryAfterMillis > rateLimitDeadlineMillis) {
+                        throw new ChatApiException(String.format(
+                            "Request to %s was still rate limited after %sms", rateLimitKey,
+                            rateLimitTimeoutMillis), e);
+                    }
+                    LOG.warn("Rate limited on {}. Retrying after {}ms", rateLimitKey,
+                             retryAfterMillis);
+                    continue;
+                } else if (!isRetryable(status)) {
+                    throw new ChatApiException(String.format("Request to %s failed with status %s",
+                                                             rateLimitKey, status), e);
+                }
+                LOG.warn("Request to {} failed with status {}. Attempt {} of {}",
+                         rateLimitKey, status, attempt + 1, retries + 1);
+                lastError = e;
+            } catch (ClientHandlerException e) {
+                if (isNotSent(e)) {
+                    lease.refund();
+                }
+                LOG.warn("Request to {} failed. Attempt {} of {}", rateLimitKey, attempt + 1,
+                         retries + 1, e);
+                lastError = e;
+            } finally {
+                lease.release();
+            }
+            if (attempt >= retries) {
+                throw new ChatApiException(String.format("Request to %s failed after %s attempts",
+                                                         rateLimitKey, attempt + 1), lastError);
+            }
+            try {
+                tokenPool.backoff(attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ChatApiException("Interrupted while retrying " + rateLimitKey, e);
+            }
+            attempt++;
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #getJsonStreamWithRetries(WebResource, int)}. The request is
+     * made by a non blocking HTTP client that's started the first time it's needed
+     *
+     * @param uri
+     *            The URI to GET data from. See {@link #apiUriBuilder(String)}
+     * @param retries
+     *            The number of retries if the request fails.
+     * @return A future with the JSON result stream. It completes exceptionally with a
+     *         {@link ChatApiException} if the request didn't succeed
+     */
+    protected CompletableFuture<InputStream> getJsonStreamAsync(URI uri, int retries) {
+        return getJsonBytesAsync(uri, retries).thenApply(ByteArrayInputStream::new);
+    }
+
+    /**
+     * Same as {@link #getJsonStreamAsync(URI, int)}, but returns the raw response so that it can
+     * also be stored
+     */
+    protected CompletableFuture<byte[]> getJsonBytesAsync(URI uri, int retries) {
+        return getAsyncClient().get(uri, getRateLimitKey(uri), retries);
+    }
+
+    /**
+     * @param method
+     *            The path of the API method, relative to the base API URL
+     * @return A builder for the URI of an API method
+     */
+    protected UriBuilder apiUriBuilder(String method) {
+        return UriBuilder.fromUri(baseApiUrl).path(method);
+    }
+
+    /**
+     * Fetches a value for every key, running at most <code>maxConcurrent</code> fetches at a time.
+     * A new fetch starts as soon as one finishes, so a slow fetch doesn't hold the others back
+     *
+     * @param keys
+     *            The keys to fetch values for
+     * @param fetcher
+     *            Starts the fetch of a key. A fetch that completes with null or exceptionally is
+     *            left out of the result
+     * @param maxConcurrent
+     *            The maximum number of fetches in flight
+     * @return A future with the fetched values by key
+     */
+    protected static <K, V> CompletableFuture<Map<K, V>> fetchAll(
+            Collection<K> keys, Function<K, CompletableFuture<V>> fetcher, int maxConcurrent) {
+        Map<K, V> result = new ConcurrentHashMap<>(keys.size());
+        CompletableFuture<Map<K, V>> done = new CompletableFuture<>();
+        if (keys.isEmpty()) {
+            done.complete(result);
+            return done;
+        }
+        Iterator<K> keyIterator = ImmutableList.copyOf(keys).iterator();
+        AtomicInteger remaining = new AtomicInteger(keys.size());
+        Runnable fetchNext = new Runnable() {
+            @Override
+            public void run() {
+                K key;
+                synchronized (keyIterator) {
+                    if (!keyIterator.hasNext()) {
+                        return;
+                    }
+                    key = keyIterator.next();
+                }
+                CompletableFuture<V> fetch;
+                try {
+                    fetch = fetcher.apply(key);
+                } catch (RuntimeException e) {
+                    fetch = new CompletableFuture<>();
+                    fetch.completeExceptionally(e);
                 }
+                fetch.whenComplete((value, error) -> {
+                    if (error != null) {
+                        LOG.warn("Unable to fetch {}", key, error);
+                    } else if (value != null) {
+                        result.put(key, value);
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        done.complete(result);
+                    } else {
+                        run();
+                    }
+                });
+            }
+        };
+        for (int i = 0; i < Math.min(maxConcurrent, keys.size()); i++) {
+            fetchNext.run();
+        }
+        return done;
+    }
+
+    /**
+     * @return The maximum number of API requests in flight at the same time
+     */
+    protected int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    private synchronized AsyncChatApiClient getAsyncClient() {
+        if (asyncClient == null) {
+            asyncClient = new AsyncChatApiClient(tokenPool, authTokenParam, maxConcurrentRequests,
+                                                 rateLimitTimeoutMillis);
+        }
+        return asyncClient;
+    }
+
+    /**
+     * Stops the asynchronous HTTP client, if it was ever started. The blocking methods can still
+     * be used after this, and the asynchronous ones start a new client
+     */
+    public synchronized void close() {
+        if (asyncClient != null) {
+            asyncClient.stop();
+            asyncClient = null;
+        }
+    }
+
+    /**
+     * Returns the key a request is rate limited by. Requests with the same key and token share the
+     * same limit. By default all the requests of a token share one limit
+     *
+     * @param uri
+     *            The URI about to be requested. Can be null
+     * @return The rate limit key
+     */
+    protected String getRateLimitKey(URI uri) {
+        return "";
+    }
+
+    /**
+     * @return True if a request that failed with the given status should be retried after a
+     *         backoff
+     */
+    static boolean isRetryable(int status) {
+        return status == Status.FORBIDDEN.getStatusCode() || status >= 500;
+    }
+
+    /**
+     * @return True if a request failed before it reached the API, e.g. because the connection
+     *         couldn't be opened
+     */
+    static boolean isNotSent(Throwable error) {
+        for (Throwable cause : Throwables.getCausalChain(error)) {
+            if (cause instanceof ConnectException || cause instanceof NoRouteToHostException
+                || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The <code>Retry-After</code> of a rate limited response in milliseconds
+     */
+    private static long getRetryAfterMillis(ClientResponse response) {
+        String retryAfter = null;
+        if (response.getHeaders() != null) {
+            retryAfter = response.getHeaders().getFirst(RETRY_AFTER_HEADER);
+        }
+        return parseRetryAfterMillis(retryAfter);
+    }
+
+    /**
+     * @param retryAfter
+     *            The value of a <code>Retry-After</code> header in seconds. Can be null
+     * @return The time to wait for in milliseconds
+     */
+    static long parseRetryAfterMillis(String retryAfter) {
+        if (retryAfter != null) {
+            try {
+                return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+            } catch (NumberFormatException e) {
+                LOG.debug("Ignoring non numeric {} header {}", RETRY_AFTER_HEADER, retryAfter);
             }
         }
-        return "{}";
+        return DEFAULT_RETRY_AFTER_MILLIS;
     }
 
     /**
@@ -59,15 +364,15 @@ public abstract class AbstractJSONChatApiDAO implements IChatApiDAO {
      *
      * @param resource
      *            The resource to add the token parameter to.
+     * @param authToken
+     *            The token to add or null if there's none
      * @return Returns a new resource with the token query parameter added.
      */
-    private WebResource addTokenQueryParam(WebResource resource) {
-        if (authTokens == null || authTokens.isEmpty()) {
+    private WebResource addTokenQueryParam(WebResource resource, String authToken) {
+        if (authToken == null) {
             return resource;
         }
-        int tokenSize = authTokens.size();
-        String randomAuthToken = authTokens.get(rand.nextInt(tokenSize));
-        return resource.queryParam(authTokenParam, randomAuthToken);
+        return resource.queryParam(authTokenParam, authToken);
     }
 
 }
@@ -0,0 +1,329 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.function.LongSupplier;
+
+/**
+ * Hands out the auth tokens of a chat API so that every token stays within the API rate limits.
+ * Every token has a {@link TokenBucket} per rate limit key, which is usually the API method, since
+ * APIs like Slack's limit every method separately. A request gets the token that can be used the
+ * soonest and, among those, the one with the fewest requests in flight. The total number of
+ * blocking requests in flight is capped as well.
+ * <p/>
+ * The pool also computes the exponential backoff, with jitter, between retries of failed requests.
+ *
+ * @author giannis
+ */
+public class ApiTokenPool {
+
+    /**
+     * Sleeps for some time. Replaced in tests so that nothing actually waits
+     */
+    @VisibleForTesting
+    interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    private final List<TokenState> tokens;
+    private final Map<String, Integer> requestsPerMinute;
+    private final int defaultRequestsPerMinute;
+    private final Semaphore concurrencyPermits;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final LongSupplier clock;
+    private final Sleeper sleeper;
+    private final Random random;
+
+    /**
+     * @param authTokens
+     *            The tokens to hand out. If there are none, requests are made without a token but
+     *            are still rate limited
+     * @param requestsPerMinute
+     *            The maximum requests per minute and token for every rate limit key
+     * @param defaultRequestsPerMinute
+     *            The maximum requests per minute and token for keys not in
+     *            <code>requestsPerMinute</code>. If 0 or less those keys are not limited
+     * @param maxConcurrentRequests
+     *            The maximum number of requests in flight across all tokens
+     * @param backoffMillis
+     *            The backoff before the first retry. It doubles with every attempt
+     * @param maxBackoffMillis
+     *            The maximum backoff between retries
+     */
+    public ApiTokenPool(List<String> authTokens, Map<String, Integer> requestsPerMinute,
+                        int defaultRequestsPerMinute, int maxConcurrentRequests,
+                        long backoffMillis, long maxBackoffMillis) {
+        this(authTokens, requestsPerMinute, defaultRequestsPerMinute, maxConcurrentRequests,
+             backoffMillis, maxBackoffMillis, System::currentTimeMillis, Thread::sleep,
+             new Random());
+    }
+
+    @VisibleForTesting
+    ApiTokenPool(List<String> authTokens, Map<String, Integer> requestsPerMinute,
+                 int defaultRequestsPerMinute, int maxConcurrentRequests, long backoffMillis,
+                 long maxBackoffMillis, LongSupplier clock, Sleeper sleeper, Random random) {
+        Preconditions.checkArgument(maxConcurrentRequests > 0,
+                                    "Max concurrent requests has to be positive");
+        if (authTokens == null || authTokens.isEmpty()) {
+            this.tokens = ImmutableList.of(new TokenState(null));
+        } else {
+            this.tokens = Lists.newArrayListWithCapacity(authTokens.size());
+            for (String authToken : authTokens) {
+                tokens.add(new TokenState(authToken));
+            }
+        }
+        this.requestsPerMinute = requestsPerMinute == null ? ImmutableMap.of()
+                                                           : ImmutableMap.copyOf(requestsPerMinute);
+        this.defaultRequestsPerMinute = defaultRequestsPerMinute;
+        this.concurrencyPermits = new Semaphore(maxConcurrentRequests, true);
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.clock = clock;
+        this.sleeper = sleeper;
+        this.random = random;
+    }
+
+    /**
+     * Waits until a request can be made and picks the token to make it with. The returned lease
+     * has to be released once the request is done.
+     *
+     * @param rateLimitKey
+     *            The key the request is rate limited by, usually the API method
+     * @return The lease of the token to use
+     * @throws InterruptedException
+     *             If interrupted while waiting
+     */
+    public Lease acquire(String rateLimitKey) throws InterruptedException {
+        concurrencyPermits.acquire();
+        Lease lease = reserve(rateLimitKey, true);
+        if (lease.waitMillis > 0) {
+            try {
+                sleeper.sleep(lease.waitMillis);
+            } catch (InterruptedException e) {
+                lease.release();
+                throw e;
+            }
+        }
+        return lease;
+    }
+
+    /**
+     * Picks the token to make a request with without waiting. Meant for asynchronous clients,
+     * which have to wait for {@link Lease#getWaitMillis()} before making the request and cap the
+     * number of concurrent requests themselves. The returned lease has to be released once the
+     * request is done.
+     *
+     * @param rateLimitKey
+     *            The key the request is rate limited by, usually the API method
+     * @return The lease of the token to use
+     */
+    public Lease reserve(String rateLimitKey) {
+        return reserve(rateLimitKey, false);
+    }
+
+    private Lease reserve(String rateLimitKey, boolean holdsConcurrencyPermit) {
+        TokenState chosenToken = null;
+        long waitMillis = Long.MAX_VALUE;
+        synchronized (this) {
+            long nowMillis = clock.getAsLong();
+            for (TokenState token : tokens) {
+                long tokenWaitMillis = token.getWaitMillis(rateLimitKey, nowMillis);
+                if (tokenWaitMillis < waitMillis
+                    || (tokenWaitMillis == waitMillis && token.inFlight < chosenToken.inFlight)) {
+                    chosenToken = token;
+                    waitMillis = tokenWaitMillis;
+                }
+            }
+            waitMillis = chosenToken.reserve(rateLimitKey, nowMillis);
+            chosenToken.inFlight++;
+        }
+        return new Lease(chosenToken, rateLimitKey, waitMillis, holdsConcurrencyPermit);
+    }
+
+    /**
+     * Sleeps before retrying a failed request
+     *
+     * @param attempt
+     *            The number of the attempt that failed, starting from 0
+     * @throws InterruptedException
+     *             If interrupted while sleeping
+     * @see #getBackoffMillis(int)
+     */
+    public void backoff(int attempt) throws InterruptedException {
+        long delayMillis = getBackoffMillis(attempt);
+        if (delayMillis > 0) {
+            sleeper.sleep(delayMillis);
+        }
+    }
+
+    /**
+     * Returns how long to wait before retrying a failed request. The delay is picked randomly
+     * between half and all of the exponential backoff for the attempt, so that concurrent retries
+     * spread out
+     *
+     * @param attempt
+     *            The number of the attempt that failed, starting from 0
+     * @return The delay in milliseconds
+     */
+    public long getBackoffMillis(int attempt) {
+        long delayMillis = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt, 30));
+        if (delayMillis <= 0) {
+            return 0;
+        }
+        long halfDelayMillis = delayMillis / 2;
+        long jitterMillis = (long) (random.nextDouble() * (delayMillis - halfDelayMillis));
+        return halfDelayMillis + jitterMillis;
+    }
+
+    /**
+     * @return The number of requests in flight for a token
+     */
+    @VisibleForTesting
+    synchronized int getInFlight(String authToken) {
+        for (TokenState token : tokens) {
+            if (authToken == null ? token.authToken == null : authToken.equals(token.authToken)) {
+                return token.inFlight;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The right to make one request with a token
+     */
+    public class Lease {
+
+        private final TokenState token;
+        private final String rateLimitKey;
+        private final long waitMillis;
+        private final boolean holdsConcurrencyPermit;
+        private boolean released;
+
+        private Lease(TokenState token, String rateLimitKey, long waitMillis,
+                      boolean holdsConcurrencyPermit) {
+            this.token = token;
+            this.rateLimitKey = rateLimitKey;
+            this.waitMillis = waitMillis;
+            this.holdsConcurrencyPermit = holdsConcurrencyPermit;
+        }
+
+        /**
+         * @return The token to make the request with, or null if the pool has no tokens
+         */
+        public String getToken() {
+            return token.authToken;
+        }
+
+        /**
+         * @return How many milliseconds the token had to wait for when the lease was handed out
+         */
+        public long getWaitMillis() {
+            return waitMillis;
+        }
+
+        /**
+         * Pauses the token for the rate limit key of this lease, after the API responded that it's
+         * being rate limited
+         *
+         * @param retryAfterMillis
+         *            How long the API asked to wait for
+         */
+        public void rateLimited(long retryAfterMillis) {
+            synchronized (ApiTokenPool.this) {
+                long nowMillis = clock.getAsLong();
+                token.getBucket(rateLimitKey, nowMillis, true)
+                     .pauseUntil(nowMillis + retryAfterMillis, nowMillis);
+            }
+        }
+
+        /**
+         * Gives back the rate limit permit of this lease, after the request failed before reaching
+         * the API, so that retrying it doesn't wait for the rate limit
+         */
+        public void refund() {
+            synchronized (ApiTokenPool.this) {
+                long nowMillis = clock.getAsLong();
+                TokenBucket bucket = token.getBucket(rateLimitKey, nowMillis, false);
+                if (bucket != null) {
+                    bucket.refund(nowMillis);
+                }
+            }
+        }
+
+        /**
+         * Releases the token. Calling this more than once has no effect
+         */
+        public void release() {
+            synchronized (ApiTokenPool.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                token.inFlight--;
+            }
+            if (holdsConcurrencyPermit) {
+                concurrencyPermits.release();
+            }
+        }
+    }
+
+    /**
+     * A token with its buckets and requests in flight. Guarded by the pool
+     */
+    private class TokenState {
+
+        private final String authToken;
+        private final Map<String, TokenBucket> buckets;
+        private int inFlight;
+
+        private TokenState(String authToken) {
+            this.authToken = authToken;
+            this.buckets = Maps.newHashMap();
+        }
+
+        private long getWaitMillis(String rateLimitKey, long nowMillis) {
+            TokenBucket bucket = getBucket(rateLimitKey, nowMillis, false);
+            return bucket == null ? 0 : bucket.getWaitMillis(nowMillis);
+        }
+
+        private long reserve(String rateLimitKey, long nowMillis) {
+            TokenBucket bucket = getBucket(rateLimitKey, nowMillis, false);
+            return bucket == null ? 0 : bucket.reserve(nowMillis);
+        }
+
+        /**
+         * @param force
+         *            Set to true to create a bucket even if the key is not rate limited, so that
+         *            the token can still be paused
+         * @return The bucket of the key or null if the key is not rate limited
+         */
+        private TokenBucket getBucket(String rateLimitKey, long nowMillis, boolean force) {
+            TokenBucket bucket = buckets.get(rateLimitKey);
+            if (bucket != null) {
+                return bucket;
+            }
+            int rate = requestsPerMinute.getOrDefault(rateLimitKey, defaultRequestsPerMinute);
+            if (rate <= 0) {
+                if (!force) {
+                    return null;
+                }
+                rate = Integer.MAX_VALUE;
+            }
+            // allow bursts of up to 10 seconds worth of requests
+            bucket = new TokenBucket(rate, Math.max(1, rate / 6), nowMillis);
+            buckets.put(rateLimitKey, bucket);
+            return bucket;
+        }
+    }
+
+}
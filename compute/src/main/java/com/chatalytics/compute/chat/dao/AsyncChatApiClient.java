@@ -0,0 +1,282 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.chatalytics.compute.exception.ChatApiException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Non blocking HTTP client for chat APIs, backed by the Jetty {@link HttpClient}. Connections to
+ * the API are pooled and kept alive between requests. At most <code>maxConcurrentRequests</code>
+ * requests are in flight across all the callers of a client, and the rest are queued by the client
+ * without holding a thread, so callers that fan out, like one fetch per room, can't overflow the
+ * request queue of the HTTP client. A request holds its slot until it's done, including its
+ * retries. Tokens are picked from the same
+ * {@link ApiTokenPool} as the blocking requests of the DAO, and failed requests are retried with
+ * the same policy, using timers instead of sleeping.
+ *
+ * @author giannis
+ */
+public class AsyncChatApiClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncChatApiClient.class);
+
+    /**
+     * Maximum size of a response. Responses are buffered before being parsed, and some of them,
+     * like the user lists of big teams, can be several megabytes
+     */
+    private static final int MAX_RESPONSE_BYTES = 64 * 1024 * 1024;
+    private static final long REQUEST_TIMEOUT_SECS = 60;
+    private static final long IDLE_TIMEOUT_MILLIS = 30000;
+
+    private final HttpClient httpClient;
+    private final ApiTokenPool tokenPool;
+    private final String authTokenParam;
+    private final int maxConcurrentRequests;
+    private final long rateLimitTimeoutMillis;
+    private final Queue<PendingRequest> pendingRequests;
+    private final AtomicInteger inFlight;
+
+    /**
+     * Creates and starts the client. Its threads are daemons, so a client that's never stopped
+     * doesn't keep the JVM running
+     *
+     * @param tokenPool
+     *            The pool to pick auth tokens from
+     * @param authTokenParam
+     *            The query parameter the auth token is passed in
+     * @param maxConcurrentRequests
+     *            The maximum number of requests in flight and of open connections to the API
+     * @param rateLimitTimeoutMillis
+     *            How long a request keeps being retried while it's rate limited
+     */
+    public AsyncChatApiClient(ApiTokenPool tokenPool, String authTokenParam,
+                              int maxConcurrentRequests, long rateLimitTimeoutMillis) {
+        Preconditions.checkArgument(maxConcurrentRequests > 0,
+                                    "Max concurrent requests has to be positive");
+        this.tokenPool = tokenPool;
+        this.authTokenParam = authTokenParam;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.rateLimitTimeoutMillis = rateLimitTimeoutMillis;
+        this.pendingRequests = new ConcurrentLinkedQueue<>();
+        this.inFlight = new AtomicInteger();
+        this.httpClient = new HttpClient(new SslContextFactory());
+        QueuedThreadPool executor = new QueuedThreadPool();
+        executor.setName("chat-api-client");
+        executor.setDaemon(true);
+        httpClient.setExecutor(executor);
+        httpClient.setScheduler(new ScheduledExecutorScheduler("chat-api-client-scheduler",
+                                                               true));
+        httpClient.setMaxConnectionsPerDestination(maxConcurrentRequests);
+        httpClient.setIdleTimeout(IDLE_TIMEOUT_MILLIS);
+        try {
+            httpClient.start();
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to start the chat API client", e);
+        }
+    }
+
+    /**
+     * GETs a JSON resource. Rate limited requests are retried once the <code>Retry-After</code>
+     * time has passed, without counting against the retries, until the rate limit timeout. Requests
+     * that fail with a 403, a server error or a connection error are retried with an exponential
+     * backoff, and requests that never reached the API give their rate limit permit back. Any
+     * other error is not retried. The request waits in the queue of the client if the maximum
+     * number of requests are in flight.
+     *
+     * @param uri
+     *            The URI of the resource, without the auth token
+     * @param rateLimitKey
+     *            The key the request is rate limited by
+     * @param retries
+     *            The number of retries if the request fails
+     * @return A future with the response body. It completes exceptionally with a
+     *         {@link ChatApiException} if the request didn't succeed
+     */
+    public CompletableFuture<byte[]> get(URI uri, String rateLimitKey, int retries) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        pendingRequests.add(new PendingRequest(uri, rateLimitKey, retries, result));
+        startPendingRequests();
+        return result;
+    }
+
+    /**
+     * Starts queued requests while there are free slots. Called when a request is queued and when
+     * one is done
+     */
+    private void startPendingRequests() {
+        while (!pendingRequests.isEmpty()) {
+            int current = inFlight.get();
+            if (current >= maxConcurrentRequests) {
+                return;
+            }
+            if (!inFlight.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            PendingRequest request = pendingRequests.poll();
+            if (request == null) {
+                // another thread started it. Check again in case one was queued in between
+                inFlight.decrementAndGet();
+                continue;
+            }
+            request.result.whenComplete((content, error) -> {
+                inFlight.decrementAndGet();
+                startPendingRequests();
+            });
+            request.rateLimitDeadlineMillis = System.currentTimeMillis() + rateLimitTimeoutMillis;
+            schedule(() -> send(request, 0), 0, request.result);
+        }
+    }
+
+    private void send(PendingRequest state, int attempt) {
+        ApiTokenPool.Lease lease = tokenPool.reserve(state.rateLimitKey);
+        Runnable request = () -> {
+            try {
+                Request httpRequest = httpClient.newRequest(state.uri)
+                                                .header(HttpHeader.ACCEPT,
+                                                        MediaType.APPLICATION_JSON)
+                                                .timeout(REQUEST_TIMEOUT_SECS, TimeUnit.SECONDS);
+                if (lease.getToken() != null) {
+                    httpRequest.param(authTokenParam, lease.getToken());
+                }
+                httpRequest.send(new BufferingResponseListener(MAX_RESPONSE_BYTES) {
+                    @Override
+                    public void onComplete(Result httpResult) {
+                        onResponse(httpResult, getContent(), state, lease, attempt);
+                    }
+                });
+            } catch (RuntimeException e) {
+                lease.release();
+                throw e;
+            }
+        };
+        schedule(request, lease.getWaitMillis(), state.result);
+    }
+
+    private void onResponse(Result httpResult, byte[] content, PendingRequest state,
+                            ApiTokenPool.Lease lease, int attempt) {
+        String rateLimitKey = state.rateLimitKey;
+        if (httpResult.isFailed()) {
+            if (AbstractJSONChatApiDAO.isNotSent(httpResult.getFailure())) {
+                lease.refund();
+            }
+            lease.release();
+            LOG.warn("Request to {} failed. Attempt {} of {}", rateLimitKey, attempt + 1,
+                     state.retries + 1, httpResult.getFailure());
+            retryAfterBackoff(state, attempt, httpResult.getFailure());
+            return;
+        }
+        lease.release();
+        Response response = httpResult.getResponse();
+        int status = response.getStatus();
+        if (status >= 200 && status < 300) {
+            state.result.complete(content);
+        } else if (status == AbstractJSONChatApiDAO.TOO_MANY_REQUESTS) {
+            long retryAfterMillis = AbstractJSONChatApiDAO.parseRetryAfterMillis(
+                response.getHeaders().get(HttpHeader.RETRY_AFTER));
+            lease.rateLimited(retryAfterMillis);
+            if (System.currentTimeMillis() + retryAfterMillis > state.rateLimitDeadlineMillis) {
+                state.result.completeExceptionally(new ChatApiException(String.format(
+                    "Request to %s was still rate limited after %sms", rateLimitKey,
+                    rateLimitTimeoutMillis)));
+                return;
+            }
+            LOG.warn("Rate limited on {}. Retrying after {}ms", rateLimitKey, retryAfterMillis);
+            send(state, attempt);
+        } else if (AbstractJSONChatApiDAO.isRetryable(status)) {
+            LOG.warn("Request to {} failed with status {}. Attempt {} of {}", rateLimitKey, status,
+                     attempt + 1, state.retries + 1);
+            retryAfterBackoff(state, attempt, null);
+        } else {
+            state.result.completeExceptionally(new ChatApiException(String.format(
+                "Request to %s failed with status %s", rateLimitKey, status)));
+        }
+    }
+
+    private void retryAfterBackoff(PendingRequest state, int attempt, Throwable error) {
+        if (attempt >= state.retries) {
+            state.result.completeExceptionally(new ChatApiException(String.format(
+                "Request to %s failed after %s attempts", state.rateLimitKey, attempt + 1),
+                error));
+            return;
+        }
+        schedule(() -> send(state, attempt + 1), tokenPool.getBackoffMillis(attempt),
+                 state.result);
+    }
+
+    private void schedule(Runnable task, long delayMillis, CompletableFuture<byte[]> result) {
+        Runnable guardedTask = () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.error("Unable to send request", e);
+                result.completeExceptionally(new ChatApiException("Unable to send request", e));
+            }
+        };
+        if (delayMillis <= 0) {
+            guardedTask.run();
+        } else {
+            httpClient.getScheduler().schedule(guardedTask, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return The number of requests waiting for a free slot
+     */
+    @VisibleForTesting
+    int getQueuedRequests() {
+        return pendingRequests.size();
+    }
+
+    /**
+     * Stops the client and closes all its connections
+     */
+    public void stop() {
+        try {
+            httpClient.stop();
+        } catch (Exception e) {
+            LOG.warn("Unable to stop the chat API client", e);
+        }
+    }
+
+    private static class PendingRequest {
+
+        private final URI uri;
+        private final String rateLimitKey;
+        private final int retries;
+        private final CompletableFuture<byte[]> result;
+        /**
+         * Until when a rate limited request is retried. Set when the request is started
+         */
+        private long rateLimitDeadlineMillis;
+
+        private PendingRequest(URI uri, String rateLimitKey, int retries,
+                               CompletableFuture<byte[]> result) {
+            this.uri = uri;
+            this.rateLimitKey = rateLimitKey;
+            this.retries = retries;
+            this.result = result;
+        }
+    }
+
+}
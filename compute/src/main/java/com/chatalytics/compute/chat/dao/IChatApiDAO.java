@@ -1,5 +1,6 @@
 package com.chatalytics.compute.chat.dao;
 
+import com.chatalytics.compute.exception.IncompleteHistoryException;
 import com.chatalytics.core.model.data.Message;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
@@ -8,9 +9,13 @@ import org.joda.time.DateTime;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
- * Interface for interacting with a chat API.
+ * Interface for interacting with a chat API. Every method has an asynchronous variant returning a
+ * {@link CompletableFuture}. By default these call the blocking method on the calling thread, so
+ * implementations backed by a non blocking client should override them.
  *
  * @author giannis
  *
@@ -53,6 +58,27 @@ public interface IChatApiDAO {
      */
     List<Message> getMessages(DateTime start, DateTime end, Room room);
 
+    /**
+     * Gets the messages in a room for a particular date range one page at a time, as they are
+     * returned by the chat API. The default implementation returns all the messages as one page.
+     *
+     * @param start
+     *            The start date time inclusive
+     * @param end
+     *            The end date time exclusive
+     * @param room
+     *            The room or which messages will be fetched from
+     * @param pageConsumer
+     *            Called with every page of messages, in the order the pages are fetched
+     */
+    default void forEachMessagePage(DateTime start, DateTime end, Room room,
+                                    Consumer<List<Message>> pageConsumer) {
+        List<Message> messages = getMessages(start, end, room);
+        if (!messages.isEmpty()) {
+            pageConsumer.accept(messages);
+        }
+    }
+
     /**
      * Gets all the emojis, including custom ones from the chat API
      *
@@ -60,4 +86,51 @@ public interface IChatApiDAO {
      */
     Map<String, String> getEmojis();
 
+    /**
+     * Asynchronous version of {@link #getRooms()}
+     */
+    default CompletableFuture<Map<String, Room>> getRoomsAsync() {
+        return CompletableFuture.supplyAsync(this::getRooms, Runnable::run);
+    }
+
+    /**
+     * Asynchronous version of {@link #getUsers()}
+     */
+    default CompletableFuture<Map<String, User>> getUsersAsync() {
+        return CompletableFuture.supplyAsync(this::getUsers, Runnable::run);
+    }
+
+    /**
+     * Asynchronous version of {@link #getUsersForRoom(Room)}
+     */
+    default CompletableFuture<Map<String, User>> getUsersForRoomAsync(Room room) {
+        return CompletableFuture.supplyAsync(() -> getUsersForRoom(room), Runnable::run);
+    }
+
+    /**
+     * Asynchronous version of {@link #getMessages(DateTime, DateTime, Room)}
+     */
+    default CompletableFuture<List<Message>> getMessagesAsync(DateTime start, DateTime end,
+                                                              Room room) {
+        return CompletableFuture.supplyAsync(() -> getMessages(start, end, room), Runnable::run);
+    }
+
+    /**
+     * Same as {@link #getMessagesAsync(DateTime, DateTime, Room)}, but for callers that save how
+     * far they pulled. If the DAO can tell that part of the history couldn't be fetched, the
+     * future completes exceptionally with an {@link IncompleteHistoryException} instead of leaving
+     * that part out. The default implementation is the same as <code>getMessagesAsync</code>
+     */
+    default CompletableFuture<List<Message>> getCompleteMessagesAsync(DateTime start, DateTime end,
+                                                                      Room room) {
+        return getMessagesAsync(start, end, room);
+    }
+
+    /**
+     * Asynchronous version of {@link #getEmojis()}
+     */
+    default CompletableFuture<Map<String, String>> getEmojisAsync() {
+        return CompletableFuture.supplyAsync(this::getEmojis, Runnable::run);
+    }
+
 }
@@ -0,0 +1,213 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Reads values out of chat API responses with a streaming {@link JsonParser}. The parser walks
+ * down a path of object fields, skipping everything else without building a tree, and binds only
+ * the value at the end of the path. Arrays are bound one element at a time, so a response is never
+ * held in memory as a whole.
+ * <p/>
+ * For example, given the following response
+ *
+ * <pre>
+ * {
+ *     "someElement": {
+ *         "someInnerElement": [
+ *             {...},
+ *             {...}
+ *         ],
+ *         "otherElement": "value"
+ *     }
+ * }
+ * </pre>
+ *
+ * the elements of <code>someInnerElement</code> are read with the path
+ * <code>[someElement, someInnerElement]</code>.
+ * <p/>
+ * All methods close the stream they're given.
+ *
+ * @author giannis
+ */
+public final class JsonResponseReader {
+
+    private JsonResponseReader() {
+        // static helpers only
+    }
+
+    /**
+     * Reads the elements of an array in a response
+     *
+     * @param in
+     *            The response stream
+     * @param path
+     *            The fields to walk down to get to the array
+     * @param clazz
+     *            The class of the array elements
+     * @param objMapper
+     *            The object mapper used to bind the elements
+     * @return The elements or an empty list if the path doesn't exist or isn't an array
+     * @throws IOException
+     *             If the response can't be read or isn't valid JSON
+     */
+    public static <T> List<T> readList(InputStream in, List<String> path, Class<T> clazz,
+                                       ObjectMapper objMapper) throws IOException {
+        List<T> result = Lists.newArrayList();
+        forEachElement(in, path, clazz, objMapper, result::add);
+        if (result.isEmpty()) {
+            return ImmutableList.of();
+        }
+        return result;
+    }
+
+    /**
+     * Binds the elements of an array in a response one at a time and passes them to a consumer
+     *
+     * @param in
+     *            The response stream
+     * @param path
+     *            The fields to walk down to get to the array
+     * @param clazz
+     *            The class of the array elements
+     * @param objMapper
+     *            The object mapper used to bind the elements
+     * @param consumer
+     *            Gets every element, as soon as it's bound
+     * @return The number of elements read
+     * @throws IOException
+     *             If the response can't be read or isn't valid JSON
+     */
+    public static <T> int forEachElement(InputStream in, List<String> path, Class<T> clazz,
+                                         ObjectMapper objMapper, Consumer<T> consumer)
+            throws IOException {
+        int elements = 0;
+        try (JsonParser parser = objMapper.getFactory().createParser(in)) {
+            if (!moveTo(parser, path) || parser.getCurrentToken() != JsonToken.START_ARRAY) {
+                return 0;
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                consumer.accept(objMapper.readValue(parser, clazz));
+                elements++;
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Reads a single value out of a response
+     *
+     * @param in
+     *            The response stream
+     * @param path
+     *            The fields to walk down to get to the value
+     * @param type
+     *            The type of the value
+     * @param objMapper
+     *            The object mapper used to bind the value
+     * @return The value or null if the path doesn't exist
+     * @throws IOException
+     *             If the response can't be read or isn't valid JSON
+     */
+    public static <T> T readValue(InputStream in, List<String> path, JavaType type,
+                                  ObjectMapper objMapper) throws IOException {
+        try (JsonParser parser = objMapper.getFactory().createParser(in)) {
+            if (!moveTo(parser, path)) {
+                return null;
+            }
+            return objMapper.readValue(parser, type);
+        }
+    }
+
+    /**
+     * Reads a single value out of a response
+     *
+     * @see #readValue(InputStream, List, JavaType, ObjectMapper)
+     */
+    public static <T> T readValue(InputStream in, List<String> path, Class<T> clazz,
+                                  ObjectMapper objMapper) throws IOException {
+        return readValue(in, path, objMapper.getTypeFactory().constructType(clazz), objMapper);
+    }
+
+    /**
+     * Reads some of the top level fields of a response as trees and skips all the others
+     *
+     * @param in
+     *            The response stream
+     * @param fields
+     *            The names of the fields to read
+     * @param objMapper
+     *            The object mapper used to read the fields
+     * @return The fields that were found, by name
+     * @throws IOException
+     *             If the response can't be read or isn't valid JSON
+     */
+    public static Map<String, JsonNode> readFields(InputStream in, Set<String> fields,
+                                                   ObjectMapper objMapper) throws IOException {
+        Map<String, JsonNode> result = Maps.newHashMapWithExpectedSize(fields.size());
+        try (JsonParser parser = objMapper.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return result;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if (fields.contains(name)) {
+                    result.put(name, objMapper.readTree(parser));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Walks down the fields of the path
+     *
+     * @return True if the parser points to the first token of the value at the end of the path,
+     *         false if the path doesn't exist
+     */
+    private static boolean moveTo(JsonParser parser, List<String> path) throws IOException {
+        JsonToken token = parser.nextToken();
+        for (String field : path) {
+            if (token != JsonToken.START_OBJECT || !moveToField(parser, field)) {
+                return false;
+            }
+            token = parser.getCurrentToken();
+        }
+        return token != null;
+    }
+
+    /**
+     * Skips the fields of the current object until the given one is found
+     *
+     * @return True if the parser points to the value of the field, false if the object ended
+     *         without it
+     */
+    private static boolean moveToField(JsonParser parser, String field) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if (field.equals(name)) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Token bucket rate limiter whose permits can be reserved ahead of time. A reservation always
+ * succeeds and returns how long the caller has to wait before using it, so that concurrent callers
+ * queue up behind each other instead of retrying. The bucket can also be paused, e.g. when the API
+ * asks to retry after some time, in which case no permits are handed out or refilled until then.
+ * <p/>
+ * Times are passed in by the caller so that all the buckets of a pool share one clock.
+ *
+ * @author giannis
+ */
+public class TokenBucket {
+
+    private final double permitsPerMilli;
+    private final double capacity;
+    private double permits;
+    private long lastRefillMillis;
+
+    /**
+     * @param permitsPerMinute
+     *            The sustained rate
+     * @param capacity
+     *            The maximum number of permits that can be used in a burst
+     * @param nowMillis
+     *            The current time. The bucket starts full
+     */
+    public TokenBucket(double permitsPerMinute, double capacity, long nowMillis) {
+        Preconditions.checkArgument(permitsPerMinute > 0, "The rate has to be positive");
+        Preconditions.checkArgument(capacity >= 1, "The capacity has to be at least 1");
+        this.permitsPerMilli = permitsPerMinute / 60000D;
+        this.capacity = capacity;
+        this.permits = capacity;
+        this.lastRefillMillis = nowMillis;
+    }
+
+    /**
+     * Reserves a permit
+     *
+     * @param nowMillis
+     *            The current time
+     * @return How many milliseconds to wait before using the permit
+     */
+    public synchronized long reserve(long nowMillis) {
+        refill(nowMillis);
+        permits -= 1;
+        return waitMillis(nowMillis, permits);
+    }
+
+    /**
+     * Gives back a reserved permit, e.g. because the request it was reserved for never reached the
+     * API
+     *
+     * @param nowMillis
+     *            The current time
+     */
+    public synchronized void refund(long nowMillis) {
+        refill(nowMillis);
+        permits = Math.min(capacity, permits + 1);
+    }
+
+    /**
+     * @param nowMillis
+     *            The current time
+     * @return How many milliseconds a permit reserved now would have to wait
+     */
+    public synchronized long getWaitMillis(long nowMillis) {
+        refill(nowMillis);
+        return waitMillis(nowMillis, permits - 1);
+    }
+
+    /**
+     * Stops handing out and refilling permits until the given time. Permits that were already
+     * reserved are pushed back accordingly
+     *
+     * @param untilMillis
+     *            The time the bucket resumes at
+     * @param nowMillis
+     *            The current time
+     */
+    public synchronized void pauseUntil(long untilMillis, long nowMillis) {
+        refill(nowMillis);
+        if (untilMillis > lastRefillMillis) {
+            lastRefillMillis = untilMillis;
+            // a single request can go through once the pause is over
+            permits = Math.min(permits, 1);
+        }
+    }
+
+    private void refill(long nowMillis) {
+        if (nowMillis > lastRefillMillis) {
+            double refilled = (nowMillis - lastRefillMillis) * permitsPerMilli;
+            permits = Math.min(capacity, permits + refilled);
+            lastRefillMillis = nowMillis;
+        }
+    }
+
+    private long waitMillis(long nowMillis, double permitsAfterReserve) {
+        long waitMillis = Math.max(0, lastRefillMillis - nowMillis);
+        if (permitsAfterReserve < 0) {
+            waitMillis += (long) Math.ceil(-permitsAfterReserve / permitsPerMilli);
+        }
+        return waitMillis;
+    }
+
+}
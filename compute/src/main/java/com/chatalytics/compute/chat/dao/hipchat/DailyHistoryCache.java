@@ -0,0 +1,98 @@
+package com.chatalytics.compute.chat.dao.hipchat;
+
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * On disk cache of the history responses of past days, one file per room and day. History of a
+ * day that's over doesn't change anymore, so cached days never expire. Files are written to a
+ * temporary file first and then moved in place, so a crash never leaves a partial day behind.
+ * <p/>
+ * Failing to read or write the cache is logged and otherwise treated as a miss.
+ *
+ * @author giannis
+ */
+public class DailyHistoryCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DailyHistoryCache.class);
+    private static final String FILE_SUFFIX = ".json";
+
+    private final Path cacheDir;
+
+    /**
+     * @param cacheDir
+     *            The directory to keep the cached days in. It's created if it doesn't exist
+     */
+    public DailyHistoryCache(String cacheDir) {
+        this.cacheDir = Paths.get(cacheDir);
+    }
+
+    /**
+     * @param roomId
+     *            The ID of the room
+     * @param day
+     *            The day of the history
+     * @return The cached history response or null if it's not cached
+     */
+    public byte[] get(String roomId, LocalDate day) {
+        Path file = getFile(roomId, day);
+        try {
+            return Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.warn("Unable to read cached history from {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Caches the history response of a day. Only call this for days that are over
+     *
+     * @param roomId
+     *            The ID of the room
+     * @param day
+     *            The day of the history
+     * @param response
+     *            The history response
+     */
+    public void put(String roomId, LocalDate day, byte[] response) {
+        Path file = getFile(roomId, day);
+        Path tmpFile = null;
+        try {
+            Files.createDirectories(file.getParent());
+            tmpFile = Files.createTempFile(file.getParent(), day.toString(), ".tmp");
+            Files.write(tmpFile, response);
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Unable to cache history in {}", file, e);
+            deleteQuietly(tmpFile);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.debug("Unable to delete {}", file, e);
+        }
+    }
+
+    private Path getFile(String roomId, LocalDate day) {
+        String roomDir = roomId.replaceAll("[^A-Za-z0-9_.-]", "_");
+        return cacheDir.resolve(roomDir).resolve(day.toString() + FILE_SUFFIX);
+    }
+
+}
@@ -2,15 +2,17 @@ package com.chatalytics.compute.chat.dao.hipchat;
 
 import com.chatalytics.compute.chat.dao.AbstractJSONChatApiDAO;
 import com.chatalytics.compute.chat.dao.IChatApiDAO;
+import com.chatalytics.compute.chat.dao.JsonResponseReader;
+import com.chatalytics.compute.exception.IncompleteHistoryException;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.chatalytics.core.json.JsonObjectMapperFactory;
 import com.chatalytics.core.model.data.Message;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.CollectionType;
-import com.fasterxml.jackson.databind.type.MapType;
-import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.sun.jersey.api.client.Client;
@@ -19,16 +21,20 @@ import com.sun.jersey.api.client.WebResource;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Interval;
+import org.joda.time.LocalDate;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.net.URI;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * JSON implementation of the {@link IChatApiDAO} for HipChat
@@ -39,10 +45,21 @@ import java.util.Map;
 public class JsonHipChatDAO extends AbstractJSONChatApiDAO {
 
     private static final String AUTH_TOKEN_PARAM = "auth_token";
+    /**
+     * HipChat allows 100 requests every 5 minutes per token, across all methods
+     */
+    private static final int REQUESTS_PER_MINUTE = 20;
+    private static final List<String> MESSAGES_PATH = ImmutableList.of("messages");
+    /**
+     * Time after the end of a day before its history is considered final and can be cached
+     */
+    private static final long HISTORY_SETTLE_MILLIS = TimeUnit.HOURS.toMillis(1);
     private static final Logger LOG = LoggerFactory.getLogger(JsonHipChatDAO.class);
 
     private final WebResource resource;
     private final ObjectMapper objMapper;
+    private final JavaType messageListType;
+    private final DailyHistoryCache historyCache;
 
     public final DateTimeZone dtz;
     public final DateTimeFormatter apiDateFormat;
@@ -50,7 +67,8 @@ public class JsonHipChatDAO extends AbstractJSONChatApiDAO {
     private final String timeZoneStr;
 
     public JsonHipChatDAO(ChatAlyticsConfig config, Client client) {
-        super(config.computeConfig.chatConfig.getAuthTokens(), AUTH_TOKEN_PARAM);
+        super(config, createTokenPool(config, ImmutableMap.of(), REQUESTS_PER_MINUTE),
+              AUTH_TOKEN_PARAM);
         this.resource = client.resource(config.computeConfig.chatConfig.getBaseAPIURL());
         this.apiRetries = config.computeConfig.apiRetries;
         this.timeZoneStr = config.timeZone;
@@ -58,6 +76,13 @@ public class JsonHipChatDAO extends AbstractJSONChatApiDAO {
         this.apiDateFormat = DateTimeFormat.forPattern(config.computeConfig.apiDateFormat)
                                            .withZone(dtz);
         this.objMapper = JsonObjectMapperFactory.createObjectMapper(config.inputType);
+        this.messageListType = objMapper.getTypeFactory().constructCollectionType(List.class,
+                                                                                  Message.class);
+        if (config.computeConfig.apiHistoryCacheDir != null) {
+            this.historyCache = new DailyHistoryCache(config.computeConfig.apiHistoryCacheDir);
+        } else {
+            this.historyCache = null;
+        }
     }
 
     /**
@@ -66,8 +91,20 @@ public class JsonHipChatDAO extends AbstractJSONChatApiDAO {
     @Override
     public Map<String, Room> getRooms() {
         WebResource roomResource = resource.path("rooms/list");
-        String jsonStr = getJsonResultWithRetries(roomResource, apiRetries);
-        Collection<Room> roomCol = deserializeJsonStr(jsonStr, "rooms", Room.class, objMapper);
+        return parseRooms(getJsonStreamWithRetries(roomResource, apiRetries));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Map<String, Room>> getRoomsAsync() {
+        URI roomURI = apiUriBuilder("rooms/list").build();
+        return getJsonStreamAsync(roomURI, apiRetries).thenApply(this::parseRooms);
+    }
+
+    private Map<String, Room> parseRooms(InputStream jsonStream) {
+        List<Room> roomCol = readList(jsonStream, "rooms", Room.class);
         Map<String, Room> result = Maps.newHashMapWithExpectedSize(roomCol.size());
         for (Room room : roomCol) {
             result.put(room.getRoomId(), room);
@@ -81,8 +118,20 @@ public class JsonHipChatDAO extends AbstractJSONChatApiDAO {
     @Override
     public Map<String, User> getUsers() {
         WebResource userResource = resource.path("users/list");
-        String jsonStr = getJsonResultWithRetries(userResource, apiRetries);
-        Collection<User> userCol = deserializeJsonStr(jsonStr, "users", User.class, objMapper);
+        return parseUsers(getJsonStreamWithRetries(userResource, apiRetries));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Map<String, User>> getUsersAsync() {
+        URI userURI = apiUriBuilder("users/list").build();
+        return getJsonStreamAsync(userURI, apiRetries).thenApply(this::parseUsers);
+    }
+
+    private Map<String, User> parseUsers(InputStream jsonStream) {
+        List<User> userCol = readList(jsonStream, "users", User.class);
         Map<String, User> result = Maps.newHashMapWithExpectedSize(userCol.size());
         for (User user : userCol) {
             result.put(user.getUserId(), user);
@@ -103,25 +152,120 @@ public class JsonHipChatDAO extends AbstractJSONChatApiDAO {
      */
     @Override
     public List<Message> getMessages(DateTime start, DateTime end, Room room) {
-        DateTime curDate = start;
-        List<Message> messages = Lists.newArrayList();
-        WebResource roomsResource = resource.path("rooms/history");
-        roomsResource = roomsResource.queryParam("room_id", room.getRoomId())
-                                     .queryParam("timezone", timeZoneStr);
+        return getMessagesAsync(start, end, room).join();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * HipChat returns the history of a room one day at a time. The days are fetched concurrently,
+     * with at most <code>apiMaxConcurrentRequests</code> requests in flight, and days that are
+     * over are served from the {@link DailyHistoryCache} if one is configured. Days that can't be
+     * fetched are left out.
+     */
+    @Override
+    public CompletableFuture<List<Message>> getMessagesAsync(DateTime start, DateTime end,
+                                                             Room room) {
+        return getMessagesAsync(start, end, room, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Completes exceptionally if the history of any day can't be fetched
+     */
+    @Override
+    public CompletableFuture<List<Message>> getCompleteMessagesAsync(DateTime start, DateTime end,
+                                                                     Room room) {
+        return getMessagesAsync(start, end, room, true);
+    }
+
+    private CompletableFuture<List<Message>> getMessagesAsync(DateTime start, DateTime end,
+                                                              Room room, boolean complete) {
         Interval messageInterval = new Interval(start, end);
-        while (curDate.isBefore(end) || curDate.equals(end)) {
-            roomsResource = roomsResource.queryParam("date", curDate.toString(apiDateFormat));
-            String jsonStr = getJsonResultWithRetries(roomsResource, apiRetries);
-            Collection<Message> messageCol = deserializeJsonStr(jsonStr, "messages", Message.class,
-                                                                objMapper);
-            for (Message message : messageCol) {
-                if (messageInterval.contains(message.getDate())) {
-                    messages.add(message);
+        List<LocalDate> days = Lists.newArrayList();
+        LocalDate lastDay = end.withZone(dtz).toLocalDate();
+        for (LocalDate day = start.withZone(dtz).toLocalDate(); !day.isAfter(lastDay);
+                day = day.plusDays(1)) {
+            days.add(day);
+        }
+        return fetchAll(days, day -> getDayMessagesAsync(room, day), getMaxConcurrentRequests())
+            .thenApply(messagesByDay -> {
+                List<Message> messages = Lists.newArrayList();
+                for (LocalDate day : days) {
+                    List<Message> dayMessages = messagesByDay.get(day);
+                    if (dayMessages == null && complete) {
+                        throw new IncompleteHistoryException(
+                            String.format("Couldn't fetch the messages of room %s on %s",
+                                          room.getName(), day));
+                    } else if (dayMessages == null) {
+                        continue;
+                    }
+                    if (messageInterval.contains(day.toInterval(dtz))) {
+                        messages.addAll(dayMessages);
+                        continue;
+                    }
+                    for (Message message : dayMessages) {
+                        if (messageInterval.contains(message.getDate())) {
+                            messages.add(message);
+                        }
+                    }
+                }
+                return messages;
+            });
+    }
+
+    /**
+     * @return A future with all the messages of a room on a day, or with null if they couldn't be
+     *         fetched
+     */
+    private CompletableFuture<List<Message>> getDayMessagesAsync(Room room, LocalDate day) {
+        String roomId = room.getRoomId();
+        if (historyCache != null) {
+            byte[] cachedHistory = historyCache.get(roomId, day);
+            if (cachedHistory != null) {
+                List<Message> messages = parseHistory(cachedHistory, roomId, day);
+                if (messages != null) {
+                    return CompletableFuture.completedFuture(messages);
                 }
             }
-            curDate = curDate.plusDays(1);
         }
-        return messages;
+        boolean dayIsOver = isOver(day);
+        URI historyURI = apiUriBuilder("rooms/history").queryParam("room_id", roomId)
+                                                       .queryParam("date",
+                                                                   day.toString(apiDateFormat))
+                                                       .queryParam("timezone", timeZoneStr)
+                                                       .build();
+        return getJsonBytesAsync(historyURI, apiRetries).thenApply(history -> {
+            List<Message> messages = parseHistory(history, roomId, day);
+            if (messages != null && dayIsOver && historyCache != null) {
+                historyCache.put(roomId, day, history);
+            }
+            return messages;
+        });
+    }
+
+    /**
+     * @return The messages of a history response or null if the response has no messages, e.g.
+     *         because the request failed
+     */
+    private List<Message> parseHistory(byte[] history, String roomId, LocalDate day) {
+        try {
+            return JsonResponseReader.readValue(new ByteArrayInputStream(history), MESSAGES_PATH,
+                                                messageListType, objMapper);
+        } catch (IOException e) {
+            LOG.error("Got exception when trying to deserialize messages of room {} on {}",
+                      roomId, day, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return True if the day ended long enough ago for its history to be final
+     */
+    private boolean isOver(LocalDate day) {
+        DateTime dayEnd = day.plusDays(1).toDateTimeAtStartOfDay(dtz);
+        return dayEnd.plus(HISTORY_SETTLE_MILLIS).isBeforeNow();
     }
 
     @Override
@@ -130,34 +274,25 @@ public class JsonHipChatDAO extends AbstractJSONChatApiDAO {
     }
 
     /**
-     * Helper method for deserializing a chat JSON response to a collection of objects.
+     * Helper method for reading a chat JSON response to a list of objects.
      *
-     * @param jsonStr
-     *            The chat JSON response.
+     * @param jsonStream
+     *            The chat JSON response stream.
      * @param mapElement
      *            Chat JSON responses are actually maps with a single element. This argument is
      *            the value of the element to pull out from the map.
      * @param colClassElements
-     *            The types of objects that the collection object will contain.
-     * @param objMapper
-     *            The JSON object mapper used to deserialize the JSON string.
-     * @return A collection of elements of type <code>colClassElements</code>.
+     *            The types of objects that the list will contain.
+     * @return A list of elements of type <code>colClassElements</code>.
      */
-    private <T> Collection<T> deserializeJsonStr(String jsonStr, String mapElement,
-                                                 Class<T> colClassElements,
-                                                 ObjectMapper objMapper) {
-        Map<String, Collection<T>> re;
+    private <T> List<T> readList(InputStream jsonStream, String mapElement,
+                                 Class<T> colClassElements) {
         try {
-            TypeFactory typeFactory = objMapper.getTypeFactory();
-            CollectionType type = typeFactory.constructCollectionType(List.class, colClassElements);
-            MapType thetype = typeFactory.constructMapType(HashMap.class,
-                                                           typeFactory.constructType(String.class),
-                                                           type);
-            re = objMapper.readValue(jsonStr, thetype);
+            return JsonResponseReader.readList(jsonStream, ImmutableList.of(mapElement),
+                                               colClassElements, objMapper);
         } catch (IOException e) {
             LOG.error("Got exception when trying to deserialize list of {}", colClassElements, e);
-            return Lists.newArrayListWithExpectedSize(0);
+            return ImmutableList.of();
         }
-        return re.get(mapElement);
     }
 }
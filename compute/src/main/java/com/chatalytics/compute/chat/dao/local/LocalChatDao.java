@@ -49,6 +49,10 @@ public class LocalChatDao implements IChatApiDAO {
 
         this.users = createRandomUsers(localConfig.numUsers, rand);
         this.rooms = createRandomRooms(localConfig.numRooms, rand);
+        // created last so that the users and rooms are the same with or without bots
+        if (localConfig.targetMessagesPerSec > 0) {
+            this.users.putAll(createRandomBots(localConfig.numBots, rand));
+        }
     }
 
     /**
@@ -120,6 +124,32 @@ public class LocalChatDao implements IChatApiDAO {
         return users;
     }
 
+    /**
+     * Creates random bot users that can be used for generating random bot messages
+     *
+     * @param numBots The number of random bots to create
+     * @return A map of user ID to random bots
+     */
+    private Map<String, User> createRandomBots(int numBots, Random rand) {
+
+        Map<String, User> bots = Maps.newHashMapWithExpectedSize(numBots);
+
+        for (int i = 0; i < numBots; i++) {
+            String userId = RandomStringUtils.generateRandomAlphaNumericString(5, rand);
+            String namePostfix = RandomStringUtils.generateRandomAlphaNumericString(4, rand);
+            String name = String.format("bot-%s", namePostfix);
+
+            User randomBot = new User(userId, null, false, false, true, name, name,
+                                      baseUrl + PHOTO_PATH,
+                                      DateTime.now(DateTimeZone.UTC),
+                                      DateTime.now(DateTimeZone.UTC), null, null, "UTC", null);
+
+            bots.put(userId, randomBot);
+        }
+
+        return bots;
+    }
+
     /**
      * Creates random rooms that can be used for generating random messages
      *
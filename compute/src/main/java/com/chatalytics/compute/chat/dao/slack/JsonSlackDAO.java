@@ -2,6 +2,9 @@ package com.chatalytics.compute.chat.dao.slack;
 
 import com.chatalytics.compute.chat.dao.AbstractJSONChatApiDAO;
 import com.chatalytics.compute.chat.dao.IChatApiDAO;
+import com.chatalytics.compute.chat.dao.JsonResponseReader;
+import com.chatalytics.compute.exception.ChatApiException;
+import com.chatalytics.compute.exception.IncompleteHistoryException;
 import com.chatalytics.compute.exception.NotConnectedException;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.chatalytics.core.json.JsonObjectMapperFactory;
@@ -11,11 +14,11 @@ import com.chatalytics.core.model.data.User;
 import com.chatalytics.core.model.slack.HistoryResult;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.CollectionType;
 import com.fasterxml.jackson.databind.type.MapLikeType;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.sun.jersey.api.client.Client;
@@ -26,14 +29,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
- * JSON implementation of the {@link IChatApiDAO} for Slack
+ * JSON implementation of the {@link IChatApiDAO} for Slack. The blocking methods use the Jersey
+ * client and the asynchronous ones the non blocking client of {@link AbstractJSONChatApiDAO}.
  *
  * @author giannis
  *
@@ -41,6 +48,28 @@ import java.util.Map;
 public class JsonSlackDAO extends AbstractJSONChatApiDAO {
 
     private static final String AUTH_TOKEN_PARAM = "token";
+    /**
+     * The Slack web API tier limits of the methods used, in requests per minute
+     */
+    private static final Map<String, Integer> REQUESTS_PER_MINUTE =
+        ImmutableMap.<String, Integer>builder()
+                    .put("rtm.start", 1)
+                    .put("channels.list", 20)
+                    .put("users.list", 20)
+                    .put("emoji.list", 20)
+                    .put("channels.info", 50)
+                    .put("channels.history", 50)
+                    .put("users.info", 100)
+                    .build();
+    /**
+     * The limit of methods without a tier above, which is the most common tier
+     */
+    private static final int DEFAULT_REQUESTS_PER_MINUTE = 50;
+    private static final Set<String> RTM_START_FIELDS = ImmutableSet.of("ok", "error", "url");
+    private static final List<String> CHANNEL_MEMBERS_PATH = ImmutableList.of("channel",
+                                                                              "members");
+    private static final List<String> USER_PATH = ImmutableList.of("user");
+    private static final List<String> EMOJI_PATH = ImmutableList.of("emoji");
     private static final Logger LOG = LoggerFactory.getLogger(JsonSlackDAO.class);
 
     private final WebResource resource;
@@ -48,7 +77,8 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
     private final int apiRetries;
 
     public JsonSlackDAO(ChatAlyticsConfig config, Client client) {
-        super(config.computeConfig.chatConfig.getAuthTokens(), AUTH_TOKEN_PARAM);
+        super(config, createTokenPool(config, REQUESTS_PER_MINUTE, DEFAULT_REQUESTS_PER_MINUTE),
+              AUTH_TOKEN_PARAM);
         this.resource = client.resource(config.computeConfig.chatConfig.getBaseAPIURL());
         this.apiRetries = config.computeConfig.apiRetries;
         this.objMapper = JsonObjectMapperFactory.createObjectMapper(config.inputType);
@@ -57,8 +87,17 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
     @Override
     public Map<String, Room> getRooms() {
         WebResource roomResource = resource.path("channels.list");
-        String jsonStr = getJsonResultWithRetries(roomResource, apiRetries);
-        Collection<Room> roomCol = deserializeJsonStr(jsonStr, "channels", Room.class, objMapper);
+        return parseRooms(getJsonStreamWithRetries(roomResource, apiRetries));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Room>> getRoomsAsync() {
+        URI roomURI = apiUriBuilder("channels.list").build();
+        return getJsonStreamAsync(roomURI, apiRetries).thenApply(this::parseRooms);
+    }
+
+    private Map<String, Room> parseRooms(InputStream jsonStream) {
+        List<Room> roomCol = readList(jsonStream, "channels", Room.class);
         Map<String, Room> result = Maps.newHashMapWithExpectedSize(roomCol.size());
         for (Room room : roomCol) {
             result.put(room.getRoomId(), room);
@@ -69,8 +108,17 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
     @Override
     public Map<String, User> getUsers() {
         WebResource userResource = resource.path("users.list");
-        String jsonStr = getJsonResultWithRetries(userResource, apiRetries);
-        Collection<User> userCol = deserializeJsonStr(jsonStr, "members", User.class, objMapper);
+        return parseUsers(getJsonStreamWithRetries(userResource, apiRetries));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, User>> getUsersAsync() {
+        URI userURI = apiUriBuilder("users.list").build();
+        return getJsonStreamAsync(userURI, apiRetries).thenApply(this::parseUsers);
+    }
+
+    private Map<String, User> parseUsers(InputStream jsonStream) {
+        List<User> userCol = readList(jsonStream, "members", User.class);
         Map<String, User> result = Maps.newHashMapWithExpectedSize(userCol.size());
         for (User user : userCol) {
             result.put(user.getUserId(), user);
@@ -78,31 +126,34 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
         return result;
     }
 
+    /**
+     * Gets the members of the room and then every member with the asynchronous client, with up to
+     * <code>apiMaxConcurrentRequests</code> members fetched at a time.
+     */
     @Override
     public Map<String, User> getUsersForRoom(Room room) {
-        WebResource roomResource = resource.path("channels.info");
-        roomResource = roomResource.queryParam("channel", room.getRoomId());
-        String jsonStr = getJsonResultWithRetries(roomResource, apiRetries);
-        Collection<String> userIdCol = deserializeJsonStr(jsonStr,
-                                                          Lists.newArrayList("channel", "members"),
-                                                          String.class,
-                                                          objMapper);
-        // get info for user IDs
-        Map<String, User> result = Maps.newHashMapWithExpectedSize(userIdCol.size());
-        for (String userId : userIdCol) {
-            WebResource userResource = resource.path("users.info");
-            userResource = userResource.queryParam("user", userId);
-            jsonStr = getJsonResultWithRetries(userResource, apiRetries);
+        return getUsersForRoomAsync(room).join();
+    }
+
+    @Override
+    public CompletableFuture<Map<String, User>> getUsersForRoomAsync(Room room) {
+        URI roomURI = apiUriBuilder("channels.info").queryParam("channel", room.getRoomId())
+                                                    .build();
+        return getJsonStreamAsync(roomURI, apiRetries)
+            .thenApply(jsonStream -> readList(jsonStream, CHANNEL_MEMBERS_PATH, String.class))
+            .thenCompose(userIds -> fetchAll(userIds, this::getUserAsync,
+                                             getMaxConcurrentRequests()));
+    }
+
+    private CompletableFuture<User> getUserAsync(String userId) {
+        URI userURI = apiUriBuilder("users.info").queryParam("user", userId).build();
+        return getJsonStreamAsync(userURI, apiRetries).thenApply(jsonStream -> {
             try {
-                JsonNode jsonNode = objMapper.readTree(jsonStr);
-                jsonNode = jsonNode.get("user");
-                User user = objMapper.readValue(jsonNode.toString(), User.class);
-                result.put(user.getUserId(), user);
+                return JsonResponseReader.readValue(jsonStream, USER_PATH, User.class, objMapper);
             } catch (IOException e) {
                 throw new RuntimeException("Can't deserialize user with ID:" + userId, e);
             }
-        }
-        return result;
+        });
     }
 
     /**
@@ -110,62 +161,148 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
      */
     public URI getRealtimeWebSocketURI() {
         WebResource rtmResource = resource.path("rtm.start");
-        String jsonStr = getJsonResultWithRetries(rtmResource, apiRetries);
+        InputStream jsonStream = getJsonStreamWithRetries(rtmResource, apiRetries);
 
-        JsonNode tree;
+        // the response also contains the whole team, so only the top level fields are read
+        Map<String, JsonNode> fields;
         try {
-            tree = objMapper.readTree(jsonStr);
+            fields = JsonResponseReader.readFields(jsonStream, RTM_START_FIELDS, objMapper);
         } catch (IOException e) {
             throw new RuntimeException("Unable to parse realtime resource response", e);
 
         }
-        boolean ok = tree.get("ok").asBoolean();
+        boolean ok = fields.containsKey("ok") && fields.get("ok").asBoolean();
         if (!ok) {
+            JsonNode error = fields.get("error");
             throw new NotConnectedException("Failed to connect to Slack API. Reason: "
-                + tree.get("error").asText());
+                + (error == null ? null : error.asText()));
         }
-        String webSocketUrl = tree.get("url").asText();
+        String webSocketUrl = fields.get("url").asText();
         return URI.create(webSocketUrl);
 
     }
 
     @Override
     public List<Message> getMessages(DateTime start, DateTime end, Room room) {
-        WebResource historyResource = resource.path("channels.history");
         List<Message> result = Lists.newArrayList();
-        boolean hasNext = true;
+        forEachMessagePage(start, end, room, result::addAll);
+        return result;
+    }
 
+    /**
+     * Pages through the room history from the newest to the oldest message. Every page is passed
+     * to the consumer as soon as it's deserialized, so callers don't have to hold the whole history
+     * in memory.
+     *
+     * @throws IncompleteHistoryException
+     *             If a page of the history can't be fetched, in which case the pages that were
+     *             already passed to the consumer are only part of the history
+     */
+    @Override
+    public void forEachMessagePage(DateTime start, DateTime end, Room room,
+                                   Consumer<List<Message>> pageConsumer) {
         String startMillisStr = formatDateTime(start);
-
         String endMillisStr = formatDateTime(end);
+        boolean hasNext = true;
 
         while (hasNext) {
+            WebResource historyResource = resource.path("channels.history")
+                                                  .queryParam("channel", room.getRoomId())
+                                                  .queryParam("latest", endMillisStr)
+                                                  .queryParam("oldest", startMillisStr)
+                                                  .queryParam("inclusive", "0")
+                                                  .queryParam("count", "1000");
 
-            historyResource = historyResource.queryParam("channel", room.getRoomId())
-                                             .queryParam("latest", endMillisStr)
-                                             .queryParam("oldest", startMillisStr)
-                                             .queryParam("inclusive", "0")
-                                             .queryParam("count", "1000");
-
-            String jsonStr = getJsonResultWithRetries(historyResource, apiRetries);
+            InputStream historyStream;
             try {
-                HistoryResult history = objMapper.readValue(jsonStr, HistoryResult.class);
-                if (history.getMessages().isEmpty()) {
-                    break;
-                }
-                result.addAll(history.getMessages());
+                historyStream = getJsonStreamWithRetries(historyResource, apiRetries);
+            } catch (ChatApiException e) {
+                throw new IncompleteHistoryException(
+                    "Couldn't fetch the history of room " + room.getName(), e);
+            }
+            HistoryResult history = parseHistory(historyStream, room);
+            if (history.getMessages() == null || history.getMessages().isEmpty()) {
+                break;
+            }
+            pageConsumer.accept(history.getMessages());
+            hasNext = history.isHas_more();
+            endMillisStr = formatDateTime(getEarliestDate(history));
+        }
+    }
 
-                Comparator<Message> comp = (msg1, msg2) -> msg1.getDate().compareTo(msg2.getDate());
-                DateTime earliestDate = history.getMessages().stream().min(comp).get().getDate();
+    /**
+     * Asynchronous version of {@link #getMessages(DateTime, DateTime, Room)}. Pages are still
+     * fetched one after the other since every page starts where the previous one ended. The future
+     * completes exceptionally if any of the pages can't be fetched
+     */
+    @Override
+    public CompletableFuture<List<Message>> getMessagesAsync(DateTime start, DateTime end,
+                                                             Room room) {
+        List<Message> result = Lists.newArrayList();
+        return getMessagePagesAsync(room, formatDateTime(start), formatDateTime(end), result)
+            .thenApply(done -> result);
+    }
 
-                hasNext = history.isHas_more();
-                endMillisStr = formatDateTime(earliestDate);
-            } catch (IOException e) {
-                LOG.error("Can't deserialize history", e);
-                return ImmutableList.of();
+    private CompletableFuture<Void> getMessagePagesAsync(Room room, String startMillisStr,
+                                                         String endMillisStr,
+                                                         List<Message> result) {
+        URI historyURI = apiUriBuilder("channels.history").queryParam("channel", room.getRoomId())
+                                                          .queryParam("latest", endMillisStr)
+                                                          .queryParam("oldest", startMillisStr)
+                                                          .queryParam("inclusive", "0")
+                                                          .queryParam("count", "1000")
+                                                          .build();
+        return getJsonStreamAsync(historyURI, apiRetries).thenCompose(jsonStream -> {
+            HistoryResult history = parseHistory(jsonStream, room);
+            if (history.getMessages() == null || history.getMessages().isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            result.addAll(history.getMessages());
+            if (!history.isHas_more()) {
+                return CompletableFuture.completedFuture(null);
             }
+            return getMessagePagesAsync(room, startMillisStr,
+                                        formatDateTime(getEarliestDate(history)), result);
+        });
+    }
+
+    /**
+     * @return The history page
+     * @throws IncompleteHistoryException
+     *             If the page can't be deserialized or the API didn't return it
+     */
+    private HistoryResult parseHistory(InputStream jsonStream, Room room) {
+        HistoryResult history;
+        try (InputStream historyStream = jsonStream) {
+            history = objMapper.readValue(historyStream, HistoryResult.class);
+        } catch (IOException e) {
+            throw new IncompleteHistoryException(
+                "Can't deserialize the history of room " + room.getName(), e);
         }
-        return result;
+        if (!history.isOk()) {
+            throw new IncompleteHistoryException(String.format(
+                "Couldn't fetch the history of room %s. Reason: %s", room.getName(),
+                history.getError()));
+        }
+        return history;
+    }
+
+    private static DateTime getEarliestDate(HistoryResult history) {
+        Comparator<Message> comp = (msg1, msg2) -> msg1.getDate().compareTo(msg2.getDate());
+        return history.getMessages().stream().min(comp).get().getDate();
+    }
+
+    /**
+     * Slack rate limits every API method separately, so the key is the method name, which is the
+     * last segment of the URI path
+     */
+    @Override
+    protected String getRateLimitKey(URI uri) {
+        if (uri == null || uri.getPath() == null) {
+            return "";
+        }
+        String path = uri.getPath();
+        return path.substring(path.lastIndexOf('/') + 1);
     }
 
     /**
@@ -174,23 +311,25 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
     @Override
     public Map<String, String> getEmojis() {
         WebResource emojiResource = resource.path("emoji.list");
-        String jsonStr = getJsonResultWithRetries(emojiResource, apiRetries);
-        JsonNode node;
-        try {
-            node = objMapper.readTree(jsonStr);
-        } catch (IOException e) {
-            LOG.error("Can't read emoji result from chat API", e);
-            return ImmutableMap.of();
-        }
+        return parseEmojis(getJsonStreamWithRetries(emojiResource, apiRetries));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, String>> getEmojisAsync() {
+        URI emojiURI = apiUriBuilder("emoji.list").build();
+        return getJsonStreamAsync(emojiURI, apiRetries).thenApply(this::parseEmojis);
+    }
+
+    private Map<String, String> parseEmojis(InputStream jsonStream) {
         TypeFactory typeFactory = objMapper.getTypeFactory();
         MapLikeType type = typeFactory.constructMapLikeType(Map.class, String.class, String.class);
 
         try {
-            JsonNode emojiJson = node.get("emoji");
-            if (emojiJson == null) {
+            Map<String, String> apiResponse = JsonResponseReader.readValue(jsonStream, EMOJI_PATH,
+                                                                           type, objMapper);
+            if (apiResponse == null) {
                 return ImmutableMap.of();
             }
-            Map<String, String> apiResponse =  objMapper.readValue(emojiJson.toString(), type);
             for (Map.Entry<String, String> emojiEntry : apiResponse.entrySet()) {
                 String value = emojiEntry.getValue();
                 if (value.startsWith("alias:")) {
@@ -200,80 +339,44 @@ public class JsonSlackDAO extends AbstractJSONChatApiDAO {
             }
             return apiResponse;
         } catch (IOException e) {
-            LOG.error("Can't deserialize emojis");
+            LOG.error("Can't deserialize emojis", e);
             return ImmutableMap.of();
         }
     }
 
     /**
-     * Helper method for deserializing lists of elements of type <code>T</code> from a response JSON
-     * string
+     * Helper method for reading lists of elements of type <code>T</code> from a response
      *
-     * @param jsonStr
-     *            The API returned JSON string
+     * @param jsonStream
+     *            The API response stream
      * @param listElement
-     *            The element in the original response JSON string that contains the list of items
-     *            of type <code>T</code> to deserialize
+     *            The element in the response that contains the list of items of type
+     *            <code>T</code> to deserialize
      * @param clazz
      *            The class to deserialize
-     * @param objMapper
-     *            The JSON object mapper used to deserialize the JSON string.
-     * @return A collection of elements of type <code>clazz</code>.
+     * @return A list of elements of type <code>clazz</code>.
      */
-    private <T> Collection<T> deserializeJsonStr(String jsonStr, String listElement,
-                                                 Class<T> clazz,
-                                                 ObjectMapper objMapper) {
-        return deserializeJsonStr(jsonStr, Lists.newArrayList(listElement), clazz, objMapper);
+    private <T> List<T> readList(InputStream jsonStream, String listElement, Class<T> clazz) {
+        return readList(jsonStream, ImmutableList.of(listElement), clazz);
     }
 
     /**
-     * Helper method for deserializing lists of elements of type <code>T</code> from a response JSON
-     * string
+     * Helper method for reading lists of elements of type <code>T</code> from a response
      *
-     * @param jsonStr
-     *            The API returned JSON string
+     * @param jsonStream
+     *            The API response stream
      * @param listElements
-     *            A list of ordered elements in the original response JSON to traverse down to to
-     *            get to the element that contains the list of items of type <code>T</code> to
-     *            deserialize
-     *            <p/>
-     *            For example given the following JSON string
-     *
-     * <pre>
-     *            {
-     *                "someElement": {
-     *                    "someInnerElement": [
-     *                        {...},
-     *                        {...}
-     *                    ],
-     *                    "otherElement": "value"
-     *                }
-     *            }
-     * </pre>
-     *
-     *            If the collection of <code>T</code>s we were interested in were inside
-     *            <code>someInnerEllement</code> then the list would equal:
-     *            <code>[someElement, someInnterElement]</code>
+     *            A list of ordered elements in the response to traverse down to to get to the
+     *            element that contains the list of items of type <code>T</code> to deserialize.
+     *            See {@link JsonResponseReader}
      * @param clazz
-     *            The class to deserialize The JSON object mapper used to deserialize the JSON
-     *            string.
-     * @return A collection of elements of type <code>clazz</code>.
+     *            The class to deserialize
+     * @return A list of elements of type <code>clazz</code>.
      */
-    private <T> Collection<T> deserializeJsonStr(String jsonStr, List<String> listElements,
-                                                 Class<T> clazz,
-                                                 ObjectMapper objMapper) {
-        TypeFactory typeFactory = objMapper.getTypeFactory();
-        CollectionType type = typeFactory.constructCollectionType(List.class, clazz);
+    private <T> List<T> readList(InputStream jsonStream, List<String> listElements,
+                                 Class<T> clazz) {
         try {
-            JsonNode jsonNode = objMapper.readTree(jsonStr);
-            // traverse down the order of elements until the desired one is reached
-            for (String jsonEl : listElements) {
-                jsonNode = jsonNode.get(jsonEl);
-                if (jsonNode == null) {
-                    return ImmutableList.of();
-                }
-            }
-            return objMapper.readValue(jsonNode.toString(), type);
+            return JsonResponseReader.readList(jsonStream, listElements, clazz, objMapper);
         } catch (IOException e) {
             LOG.error("Got exception when trying to deserialize list of {}", clazz, e);
             return ImmutableList.of();
@@ -43,6 +43,11 @@ public class ChatAlyticsDAOFactory {
         return new MessageSummaryDAOImpl(emf);
     }
 
+    public static IMentionStateDAO createMentionStateDAO(ChatAlyticsConfig config) {
+        EntityManagerFactory emf = getEntityManagerFactory(config);
+        return new MentionStateDAOImpl(emf);
+    }
+
     /**
      * Closes the entity manager factory. This will invalidate all open {@link EntityManager}s
      */
@@ -1,15 +1,25 @@
 package com.chatalytics.compute.db.dao;
 
+import com.chatalytics.core.model.data.IMentionable;
 import com.chatalytics.core.model.data.LastPullTime;
+import com.chatalytics.core.model.data.RoomPullTime;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.AbstractIdleService;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceException;
 
 /**
  * Implementation of the {@link IChatAlyticsDAO} using SQL lite
@@ -19,6 +29,8 @@ import javax.persistence.EntityManagerFactory;
  */
 public class ChatAlyticsDAOImpl extends AbstractIdleService implements IChatAlyticsDAO {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ChatAlyticsDAOImpl.class);
+
     private final EntityManagerFactory entityManagerFactory;
 
     public ChatAlyticsDAOImpl(EntityManagerFactory entityManagerFactory) {
@@ -72,6 +84,94 @@ public class ChatAlyticsDAOImpl extends AbstractIdleService implements IChatAlyt
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, DateTime> getRoomPullTimes() {
+        String query = String.format("FROM %s", RoomPullTime.class.getSimpleName());
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+
+        try {
+            List<RoomPullTime> result = entityManager.createQuery(query, RoomPullTime.class)
+                                                     .getResultList();
+            Map<String, DateTime> roomPullTimes = Maps.newHashMapWithExpectedSize(result.size());
+            for (RoomPullTime roomPullTime : result) {
+                roomPullTimes.put(roomPullTime.getRoomId(), roomPullTime.getTime());
+            }
+            return roomPullTimes;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setRoomPullTime(String roomId, DateTime time) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+
+        RoomPullTime roomPullTime = entityManager.find(RoomPullTime.class, roomId);
+        try {
+            entityManager.getTransaction().begin();
+            if (roomPullTime != null) {
+                roomPullTime.setTime(time);
+            } else {
+                entityManager.persist(new RoomPullTime(roomId, time));
+            }
+            entityManager.getTransaction().commit();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T extends IMentionable<?>> List<T> persistAll(List<T> values) {
+        if (values.isEmpty() || persistInTransaction(values)) {
+            return Collections.emptyList();
+        }
+        LOG.warn("Batch of {} values failed. Persisting them one by one", values.size());
+        List<T> failedValues = Lists.newArrayList();
+        for (T value : values) {
+            if (!persistInTransaction(Collections.singletonList(value))) {
+                failedValues.add(value);
+            }
+        }
+        if (!failedValues.isEmpty()) {
+            LOG.error("Couldn't persist {} of {} values", failedValues.size(), values.size());
+        }
+        return failedValues;
+    }
+
+    /**
+     * @return True if all the values were committed, false if the transaction was rolled back
+     */
+    private boolean persistInTransaction(List<? extends IMentionable<?>> values) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            for (IMentionable<?> value : values) {
+                entityManager.persist(value);
+            }
+            transaction.commit();
+            return true;
+        } catch (PersistenceException e) {
+            LOG.error("Cannot store {}. {}", values, e.getMessage());
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            return false;
+        } finally {
+            entityManager.close();
+        }
+    }
+
     @Override
     protected void shutDown() throws Exception { }
 
@@ -1,9 +1,13 @@
 package com.chatalytics.compute.db.dao;
 
+import com.chatalytics.core.model.data.IMentionable;
 import com.google.common.util.concurrent.Service;
 
 import org.joda.time.DateTime;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * Contains methods for persisting and retrieving objects from the chatalytics store.
  *
@@ -24,4 +28,32 @@ public interface IChatAlyticsDAO extends Service {
      *            The time to update to
      */
     void setLastMessagePullTime(DateTime time);
+
+    /**
+     * @return A map of room IDs to the time up to which the messages of the room have been pulled.
+     *         Rooms that were never pulled are not in the map
+     */
+    Map<String, DateTime> getRoomPullTimes();
+
+    /**
+     * Update the time up to which the messages of a room have been pulled
+     *
+     * @param roomId
+     *            The ID of the room
+     * @param time
+     *            The time to update to
+     */
+    void setRoomPullTime(String roomId, DateTime time);
+
+    /**
+     * Persists a batch of mentionable values, possibly of different types, in a single transaction.
+     * If the transaction fails the values are persisted one by one so that one bad value doesn't
+     * drop the whole batch.
+     *
+     * @param values
+     *            The values to persist
+     * @return The values that couldn't be persisted, so that callers can retry them. Empty if all
+     *         the values were persisted
+     */
+    <T extends IMentionable<?>> List<T> persistAll(List<T> values);
 }
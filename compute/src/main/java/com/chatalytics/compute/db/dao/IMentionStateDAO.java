@@ -0,0 +1,39 @@
+package com.chatalytics.compute.db.dao;
+
+import com.chatalytics.core.model.data.IMentionable;
+import com.chatalytics.core.model.data.MentionState;
+import com.google.common.util.concurrent.Service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Contains methods for storing aggregated mention counts together with their transactional state
+ *
+ * @author giannis
+ *
+ */
+public interface IMentionStateDAO extends Service {
+
+    /**
+     * @param stateKeys
+     *            The keys of the states to get
+     * @return A map of state key to state. Keys without a stored state are not in the map
+     */
+    Map<String, MentionState> getMentionStates(Collection<String> stateKeys);
+
+    /**
+     * Stores the states and sets the occurrences of their mention rows to the current counts, all
+     * in a single transaction. States without a mention ID get a new mention row and their mention
+     * ID is set to its ID.
+     *
+     * @param states
+     *            The states to store
+     * @param mentions
+     *            The mention to persist for the state at the same index, if it has no mention row
+     *            yet. Its occurrences are the current count of the state
+     */
+    void putMentionStates(List<MentionState> states, List<? extends IMentionable<?>> mentions);
+
+}
@@ -0,0 +1,104 @@
+package com.chatalytics.compute.db.dao;
+
+import com.chatalytics.core.model.data.IMentionable;
+import com.chatalytics.core.model.data.MentionState;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AbstractIdleService;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+/**
+ * Implementation of the {@link IMentionStateDAO}
+ *
+ * @author giannis
+ *
+ */
+public class MentionStateDAOImpl extends AbstractIdleService implements IMentionStateDAO {
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    public MentionStateDAOImpl(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, MentionState> getMentionStates(Collection<String> stateKeys) {
+        if (stateKeys.isEmpty()) {
+            return Maps.newHashMap();
+        }
+        String query = String.format("FROM %s WHERE stateKey IN :stateKeys",
+                                     MentionState.class.getSimpleName());
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+
+        try {
+            List<MentionState> result = entityManager.createQuery(query, MentionState.class)
+                                                     .setParameter("stateKeys", stateKeys)
+                                                     .getResultList();
+            Map<String, MentionState> states = Maps.newHashMapWithExpectedSize(result.size());
+            for (MentionState state : result) {
+                states.put(state.getStateKey(), state);
+            }
+            return states;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putMentionStates(List<MentionState> states,
+                                 List<? extends IMentionable<?>> mentions) {
+        Preconditions.checkArgument(states.size() == mentions.size(),
+                                    "Got %s states but %s mentions", states.size(),
+                                    mentions.size());
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            for (int i = 0; i < states.size(); i++) {
+                MentionState state = states.get(i);
+                if (state.getMentionId() == null) {
+                    IMentionable<?> mention = mentions.get(i);
+                    entityManager.persist(mention);
+                    entityManager.flush();
+                    Object mentionId = entityManagerFactory.getPersistenceUnitUtil()
+                                                           .getIdentifier(mention);
+                    state.setMentionId((Long) mentionId);
+                } else {
+                    String query = String.format("UPDATE %s SET occurrences = :occurrences "
+                                                     + "WHERE id = :id", state.getMentionType());
+                    entityManager.createQuery(query)
+                                 .setParameter("occurrences", state.getCurr().intValue())
+                                 .setParameter("id", state.getMentionId())
+                                 .executeUpdate();
+                }
+                entityManager.merge(state);
+            }
+            transaction.commit();
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            entityManager.close();
+        }
+    }
+
+    @Override
+    protected void shutDown() throws Exception { }
+
+    @Override
+    protected void startUp() throws Exception { }
+}
@@ -0,0 +1,239 @@
+package com.chatalytics.compute.emoji;
+
+import com.chatalytics.core.emoji.LocalEmojiUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Finds the emojis in a message in a single indexed pass. Two kinds of emojis are recognized:
+ * <ul>
+ * <li>Named emojis surrounded by the configured start and end characters, e.g. <code>:smile:</code>
+ * for Slack or <code>(allthethings)</code> for HipChat</li>
+ * <li>Unicode emojis, which are reported using their name from {@link LocalEmojiUtils}</li>
+ * </ul>
+ * No allocations happen for text without emojis. Named emojis are extracted with
+ * {@link String#substring(int, int)} and Unicode emojis are matched against a char trie.
+ *
+ * @author giannis
+ */
+public class EmojiScanner implements Serializable {
+
+    private static final long serialVersionUID = -4580386736010707373L;
+
+    private static final char[] BLACKLISTED_CHARS = { ' ', ',', '{', '}', '\t', '\n', '/', '\\' };
+    private static final boolean[] BLACKLISTED = new boolean[128];
+    static {
+        for (char ch : BLACKLISTED_CHARS) {
+            BLACKLISTED[ch] = true;
+        }
+    }
+
+    private static final char VARIATION_SELECTOR = '\uFE0F';
+    private static final int SKIN_TONE_START = 0x1F3FB;
+    private static final int SKIN_TONE_END = 0x1F3FF;
+
+    private final char startChar;
+    private final char endChar;
+
+    public EmojiScanner(char startChar, char endChar) {
+        this.startChar = startChar;
+        this.endChar = endChar;
+    }
+
+    /**
+     * Finds all the emojis in a message
+     *
+     * @param message
+     *            The message text
+     * @return The emoji names, in the order they appear in. An emoji appears once per occurrence
+     */
+    public List<String> getEmojis(String message) {
+        List<String> emojis = null;
+        int length = message.length();
+        int captureStart = -1;
+        int index = 0;
+
+        while (index < length) {
+            char ch = message.charAt(index);
+
+            if (ch >= 128 && UnicodeEmojis.isCandidate(ch)) {
+                int matchEnd = UnicodeEmojis.match(message, index);
+                if (matchEnd > index) {
+                    if (emojis == null) {
+                        emojis = Lists.newArrayList();
+                    }
+                    emojis.add(UnicodeEmojis.getName(message, index, matchEnd));
+                    captureStart = -1;
+                    index = skipModifiers(message, matchEnd);
+                    continue;
+                }
+            }
+
+            if (captureStart >= 0) {
+                if (ch == endChar) {
+                    if (index > captureStart) {
+                        if (emojis == null) {
+                            emojis = Lists.newArrayList();
+                        }
+                        emojis.add(message.substring(captureStart, index));
+                        captureStart = -1;
+                    } else {
+                        // empty emoji, e.g. "::", so start capturing again from here
+                        captureStart = index + 1;
+                    }
+                } else if (ch == startChar) {
+                    captureStart = index + 1;
+                } else if (ch < 128 && BLACKLISTED[ch]) {
+                    captureStart = -1;
+                }
+            } else if (ch == startChar) {
+                captureStart = index + 1;
+            }
+            index++;
+        }
+
+        if (emojis == null) {
+            return ImmutableList.of();
+        }
+        return emojis;
+    }
+
+    /**
+     * Skips the variation selectors and skin tone modifiers that can follow a Unicode emoji
+     */
+    private static int skipModifiers(String message, int index) {
+        while (index < message.length()) {
+            int codePoint = message.codePointAt(index);
+            if (codePoint == VARIATION_SELECTOR
+                || (codePoint >= SKIN_TONE_START && codePoint <= SKIN_TONE_END)) {
+                index += Character.charCount(codePoint);
+            } else {
+                break;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Lookup tables for the Unicode emojis. They're loaded once, the first time a message with non
+     * ASCII characters is scanned. The emojis are stored in a char trie so that matching the
+     * longest emoji at a position doesn't allocate.
+     */
+    @VisibleForTesting
+    static class UnicodeEmojis {
+
+        private static final Node ROOT;
+
+        static {
+            Map<String, String> unicodeEmojis =
+                new TreeMap<>(LocalEmojiUtils.getUnicodeEmojis(new ObjectMapper()));
+            Map<String, String> names = Maps.newHashMap();
+            for (Map.Entry<String, String> entry : unicodeEmojis.entrySet()) {
+                String unicode = entry.getValue();
+                // emojis that start with an ASCII char (e.g. keycaps) are left out so that ASCII
+                // text never needs a lookup
+                if (unicode.isEmpty() || unicode.charAt(0) < 128) {
+                    continue;
+                }
+                String stripped = unicode.replace(String.valueOf(VARIATION_SELECTOR), "");
+                names.putIfAbsent(unicode, entry.getKey());
+                if (!stripped.isEmpty()) {
+                    names.putIfAbsent(stripped, entry.getKey());
+                }
+            }
+            ROOT = Node.build(names, "");
+        }
+
+        static boolean isCandidate(char ch) {
+            return ROOT.child(ch) != null;
+        }
+
+        /**
+         * @return The end of the longest emoji starting at <code>start</code> or
+         *         <code>start</code> if there's none
+         */
+        static int match(String message, int start) {
+            int matchEnd = start;
+            Node node = ROOT;
+            for (int index = start; index < message.length(); index++) {
+                node = node.child(message.charAt(index));
+                if (node == null) {
+                    break;
+                }
+                if (node.name != null) {
+                    matchEnd = index + 1;
+                }
+            }
+            return matchEnd;
+        }
+
+        /**
+         * @return The name of the emoji between <code>start</code> and <code>end</code>, which
+         *         has to be a match returned by {@link #match(String, int)}
+         */
+        static String getName(String message, int start, int end) {
+            Node node = ROOT;
+            for (int index = start; index < end; index++) {
+                node = node.child(message.charAt(index));
+            }
+            return node.name;
+        }
+
+        /**
+         * Trie node with its children sorted by char
+         */
+        private static class Node {
+
+            private final char[] chars;
+            private final Node[] children;
+            private final String name;
+
+            private Node(char[] chars, Node[] children, String name) {
+                this.chars = chars;
+                this.children = children;
+                this.name = name;
+            }
+
+            private Node child(char ch) {
+                int index = Arrays.binarySearch(chars, ch);
+                return index < 0 ? null : children[index];
+            }
+
+            /**
+             * Builds the node for <code>prefix</code> out of the emojis that start with it
+             */
+            private static Node build(Map<String, String> names, String prefix) {
+                SortedSet<Character> nextChars = new TreeSet<>();
+                for (String unicode : names.keySet()) {
+                    if (unicode.length() > prefix.length() && unicode.startsWith(prefix)) {
+                        nextChars.add(unicode.charAt(prefix.length()));
+                    }
+                }
+                char[] chars = new char[nextChars.size()];
+                Node[] children = new Node[nextChars.size()];
+                int index = 0;
+                for (char ch : nextChars) {
+                    String childPrefix = prefix + ch;
+                    Map<String, String> childNames = Maps.newHashMap(
+                        Maps.filterKeys(names, unicode -> unicode.startsWith(childPrefix)));
+                    chars[index] = ch;
+                    children[index] = build(childNames, childPrefix);
+                    index++;
+                }
+                return new Node(chars, children, names.get(prefix));
+            }
+        }
+    }
+
+}
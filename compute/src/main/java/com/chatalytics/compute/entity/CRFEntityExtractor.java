@@ -0,0 +1,57 @@
+package com.chatalytics.compute.entity;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+
+import edu.stanford.nlp.ie.AbstractSequenceClassifier;
+import edu.stanford.nlp.ie.crf.CRFClassifier;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.util.Triple;
+
+import java.net.URL;
+import java.util.List;
+
+/**
+ * {@link IEntityExtractor} backed by the Stanford CRF named entity classifier
+ *
+ * @author giannis
+ */
+public class CRFEntityExtractor implements IEntityExtractor {
+
+    private final AbstractSequenceClassifier<CoreLabel> classifier;
+
+    public CRFEntityExtractor(String classifierResource) {
+        this(getClassifier(classifierResource));
+    }
+
+    public CRFEntityExtractor(AbstractSequenceClassifier<CoreLabel> classifier) {
+        this.classifier = classifier;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<EntitySpan> extractEntities(String text) {
+        List<Triple<String, Integer, Integer>> classification =
+            classifier.classifyToCharacterOffsets(text);
+        List<EntitySpan> result = Lists.newArrayListWithCapacity(classification.size());
+        for (Triple<String, Integer, Integer> triple : classification) {
+            result.add(new EntitySpan(triple.second, triple.third));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the classifier to use for parsing text
+     *
+     * @param classifierStr
+     *            The classpath resource of the serialized classifier to load
+     * @return The classifier to use for extracting entities.
+     */
+    private static AbstractSequenceClassifier<CoreLabel> getClassifier(String classifierStr) {
+        URL classifierURL = Resources.getResource(classifierStr);
+        return CRFClassifier.getClassifierNoExceptions(classifierURL.getPath());
+    }
+
+}
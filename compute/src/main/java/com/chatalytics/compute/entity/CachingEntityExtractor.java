@@ -0,0 +1,89 @@
+package com.chatalytics.compute.entity;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * {@link IEntityExtractor} that memoizes the entities extracted by another extractor. Bot messages,
+ * CI notifications and pasted alerts repeat the same text many times a day, so the expensive
+ * extractor only needs to run on the first copy.
+ * <p/>
+ * The key is the exact message text since the cached offsets have to point to the same characters
+ * in every copy. Only offsets are cached, so the user, room and time of every message are still
+ * taken from the message itself. Entries are evicted in LRU order either by number of entries or,
+ * if a maximum weight is set, by the approximate number of characters they hold.
+ *
+ * @author giannis
+ */
+public class CachingEntityExtractor implements IEntityExtractor {
+
+    /**
+     * Approximate weight of a cached span, in characters
+     */
+    private static final int SPAN_WEIGHT = 4;
+
+    private final IEntityExtractor delegate;
+    private final Cache<String, List<EntitySpan>> cache;
+
+    /**
+     * @param delegate
+     *            The extractor whose results are cached
+     * @param maxSize
+     *            The maximum number of cached messages. Ignored if <code>maxWeight</code> is set
+     * @param maxWeight
+     *            If greater than 0, the maximum number of characters of text and spans to cache
+     */
+    public CachingEntityExtractor(IEntityExtractor delegate, long maxSize, long maxWeight) {
+        Preconditions.checkArgument(maxSize > 0 || maxWeight > 0,
+                                    "Either the max size or the max weight has to be set");
+        this.delegate = delegate;
+        // bolts call this from a single thread, and one segment keeps the eviction order exact LRU
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                                                           .concurrencyLevel(1)
+                                                           .recordStats();
+        if (maxWeight > 0) {
+            this.cache = builder.maximumWeight(maxWeight)
+                                .<String, List<EntitySpan>>weigher(CachingEntityExtractor::weigh)
+                                .build();
+        } else {
+            this.cache = builder.maximumSize(maxSize).build();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<EntitySpan> extractEntities(String text) {
+        List<EntitySpan> result = cache.getIfPresent(text);
+        if (result == null) {
+            result = ImmutableList.copyOf(delegate.extractEntities(text));
+            cache.put(text, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return The cumulative hit, miss and eviction counts of the cache
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return The approximate number of cached messages
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    private static int weigh(String text, List<EntitySpan> spans) {
+        return text.length() + spans.size() * SPAN_WEIGHT;
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.chatalytics.compute.entity;
+
+import com.chatalytics.core.EntityExtractorType;
+import com.chatalytics.core.config.ComputeConfig;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Factory for creating the {@link IEntityExtractor} configured in the {@link ComputeConfig}
+ *
+ * @author giannis
+ */
+public class EntityExtractorFactory {
+
+    private static final String COMMENT_PREFIX = "#";
+
+    private EntityExtractorFactory() {
+        // hide constructor
+    }
+
+    /**
+     * Creates a new {@link IEntityExtractor} based on {@link ComputeConfig#entityExtractor}
+     *
+     * @param config
+     *            The compute config
+     * @return A newly created {@link IEntityExtractor}
+     */
+    public static IEntityExtractor createEntityExtractor(ComputeConfig config) {
+        EntityExtractorType type = config.entityExtractor;
+        if (type == EntityExtractorType.CRF) {
+            return new CRFEntityExtractor(config.classifier);
+        } else if (type == EntityExtractorType.GAZETTEER) {
+            return createGazetteer(config);
+        } else if (type == EntityExtractorType.HYBRID) {
+            EntityPreFilter preFilter = new EntityPreFilter(config);
+            return new HybridEntityExtractor(createGazetteer(config),
+                                             new CRFEntityExtractor(config.classifier),
+                                             preFilter::hasCandidateToken);
+        } else {
+            throw new IllegalArgumentException("Can't create entity extractor of type " + type);
+        }
+    }
+
+    private static GazetteerEntityExtractor createGazetteer(ComputeConfig config) {
+        return new GazetteerEntityExtractor(readDictionary(config),
+                                            config.entityDictionaryIgnoreCase);
+    }
+
+    /**
+     * Reads all the entity names from {@link ComputeConfig#entityDictionary} and the
+     * {@link ComputeConfig#entityDictionaryFile} resource. Blank lines and lines starting with
+     * <code>#</code> in the file are ignored.
+     *
+     * @param config
+     *            The compute config
+     * @return The list of entity names
+     */
+    @VisibleForTesting
+    protected static List<String> readDictionary(ComputeConfig config) {
+        List<String> dictionary = Lists.newArrayList();
+        if (config.entityDictionary != null) {
+            dictionary.addAll(config.entityDictionary);
+        }
+        if (config.entityDictionaryFile != null) {
+            try {
+                List<String> lines = Resources.readLines(
+                    Resources.getResource(config.entityDictionaryFile), StandardCharsets.UTF_8);
+                for (String line : lines) {
+                    String trimmed = line.trim();
+                    if (!trimmed.isEmpty() && !trimmed.startsWith(COMMENT_PREFIX)) {
+                        dictionary.add(trimmed);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Can't read entity dictionary. Specified: "
+                    + config.entityDictionaryFile, e);
+            }
+        }
+        return dictionary;
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.chatalytics.compute.entity;
+
+import com.chatalytics.core.EntityExtractorType;
+import com.chatalytics.core.config.ChatConfig;
+import com.chatalytics.core.config.ComputeConfig;
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cheap pre-classification stage that runs before the entity classifier. It uses the shape of the
+ * tokens in a message to decide whether the message could possibly contain an entity. Messages
+ * that are too short, that only contain links, emojis or lower case words, or that come from a
+ * room or user in the configured skip lists are rejected so that the expensive classifier never
+ * sees them.
+ * <p/>
+ * The token shape check only makes sense for the CRF classifier. When a gazetteer is configured
+ * only the length and the skip lists are checked, since dictionary matches can be lower case.
+ *
+ * @author giannis
+ */
+public class EntityPreFilter {
+
+    private static final String HTTP_PREFIX = "http://";
+    private static final String HTTPS_PREFIX = "https://";
+    private static final String WWW_PREFIX = "www.";
+    private static final char MARKUP_START_CHAR = '<';
+    private static final char DEFAULT_EMOJI_CHAR = ':';
+
+    private final boolean enabled;
+    private final boolean checkTokenShape;
+    private final int minMessageLength;
+    private final Set<String> skipRooms;
+    private final Set<String> skipUsers;
+    private final char emojiStartChar;
+    private final char emojiEndChar;
+
+    public EntityPreFilter(ComputeConfig config) {
+        this.enabled = config.entityPreFilter;
+        this.checkTokenShape = config.entityExtractor == EntityExtractorType.CRF;
+        this.minMessageLength = config.entityMinMessageLength;
+        this.skipRooms = toSet(config.entitySkipRooms);
+        this.skipUsers = toSet(config.entitySkipUsers);
+        ChatConfig chatConfig = config.chatConfig;
+        if (chatConfig == null) {
+            this.emojiStartChar = DEFAULT_EMOJI_CHAR;
+            this.emojiEndChar = DEFAULT_EMOJI_CHAR;
+        } else {
+            this.emojiStartChar = chatConfig.getEmojiStartChar();
+            this.emojiEndChar = chatConfig.getEmojiEndChar();
+        }
+    }
+
+    /**
+     * Decides whether a message should be run through the entity classifier
+     *
+     * @param message
+     *            The message to inspect
+     * @return False if the message can't contain any entities, true otherwise
+     */
+    public boolean mayContainEntities(MessageEnvelope message) {
+        String messageStr = message.getText();
+        if (messageStr == null) {
+            return false;
+        }
+        if (!enabled) {
+            return true;
+        }
+
+        if (message.getRoomName() != null && skipRooms.contains(message.getRoomName())) {
+            return false;
+        }
+
+        if (message.getUsername() != null && skipUsers.contains(message.getUsername())) {
+            return false;
+        }
+
+        if (checkTokenShape) {
+            return hasCandidateToken(messageStr);
+        }
+        return hasMinLength(messageStr);
+    }
+
+    /**
+     * Walks the message once, token by token, without allocating. A message is a candidate if it
+     * is long enough and it has at least one token that starts with a capital letter and is not a
+     * link, an emoji or chat markup.
+     *
+     * @param messageStr
+     *            The message text
+     * @return True if the message could contain an entity
+     */
+    public boolean hasCandidateToken(String messageStr) {
+        int length = messageStr.length();
+        int nonWhitespaceChars = 0;
+        boolean foundCapitalized = false;
+        int index = 0;
+
+        while (index < length) {
+            while (index < length && Character.isWhitespace(messageStr.charAt(index))) {
+                index++;
+            }
+            int tokenStart = index;
+            while (index < length && !Character.isWhitespace(messageStr.charAt(index))) {
+                index++;
+            }
+            int tokenEnd = index;
+            if (tokenStart == tokenEnd) {
+                break;
+            }
+
+            nonWhitespaceChars += tokenEnd - tokenStart;
+            if (!foundCapitalized
+                && !isIgnoredToken(messageStr, tokenStart, tokenEnd)
+                && startsCapitalized(messageStr, tokenStart, tokenEnd)) {
+                foundCapitalized = true;
+            }
+            if (foundCapitalized && nonWhitespaceChars >= minMessageLength) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean hasMinLength(String messageStr) {
+        int nonWhitespaceChars = 0;
+        for (int index = 0; index < messageStr.length(); index++) {
+            if (!Character.isWhitespace(messageStr.charAt(index))) {
+                nonWhitespaceChars++;
+                if (nonWhitespaceChars >= minMessageLength) {
+                    return true;
+                }
+            }
+        }
+        return nonWhitespaceChars >= minMessageLength;
+    }
+
+    private boolean isIgnoredToken(String messageStr, int start, int end) {
+        char firstChar = messageStr.charAt(start);
+        if (firstChar == MARKUP_START_CHAR) {
+            return true;
+        }
+        if (end - start > 1 && firstChar == emojiStartChar
+            && messageStr.charAt(end - 1) == emojiEndChar) {
+            return true;
+        }
+        return messageStr.regionMatches(true, start, HTTP_PREFIX, 0, HTTP_PREFIX.length())
+            || messageStr.regionMatches(true, start, HTTPS_PREFIX, 0, HTTPS_PREFIX.length())
+            || messageStr.regionMatches(true, start, WWW_PREFIX, 0, WWW_PREFIX.length());
+    }
+
+    /**
+     * @return True if the first letter or digit of the token is an upper or title case letter
+     */
+    private boolean startsCapitalized(String messageStr, int start, int end) {
+        int index = start;
+        while (index < end) {
+            int codePoint = messageStr.codePointAt(index);
+            if (Character.isLetterOrDigit(codePoint)) {
+                return Character.isUpperCase(codePoint) || Character.isTitleCase(codePoint);
+            }
+            index += Character.charCount(codePoint);
+        }
+        return false;
+    }
+
+    private static Set<String> toSet(List<String> values) {
+        if (values == null) {
+            return ImmutableSet.of();
+        }
+        return ImmutableSet.copyOf(values);
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.chatalytics.compute.entity;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * The character offsets of an entity in a message. The start offset is inclusive and the end
+ * offset is exclusive so that {@link String#substring(int, int)} can be called directly with them.
+ *
+ * @author giannis
+ */
+public class EntitySpan {
+
+    private final int start;
+    private final int end;
+
+    public EntitySpan(int start, int end) {
+        Preconditions.checkArgument(start >= 0 && start <= end, "Invalid span [%s, %s)", start,
+                                    end);
+        this.start = start;
+        this.end = end;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof EntitySpan)) {
+            return false;
+        }
+        EntitySpan other = (EntitySpan) obj;
+        return start == other.start && end == other.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * start + end;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this.getClass())
+                          .add("start", start)
+                          .add("end", end)
+                          .toString();
+    }
+
+}
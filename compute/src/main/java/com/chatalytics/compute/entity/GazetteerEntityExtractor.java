@@ -0,0 +1,201 @@
+package com.chatalytics.compute.entity;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Chars;
+import com.google.common.primitives.Ints;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedMap;
+
+/**
+ * {@link IEntityExtractor} that matches a dictionary of known entity names (product names, team
+ * names, etc.) using an Aho-Corasick automaton. The automaton is built once and then every message
+ * is matched in a single linear pass without allocating, regardless of the size of the dictionary.
+ * Allocations only happen for the returned matches.
+ * <p/>
+ * Only whole word matches are returned. When matches overlap the leftmost longest one wins.
+ *
+ * @author giannis
+ */
+public class GazetteerEntityExtractor implements IEntityExtractor {
+
+    private static final int ROOT = 0;
+    private static final int NO_STATE = -1;
+
+    private static final Comparator<EntitySpan> LEFTMOST_LONGEST =
+        (span1, span2) -> span1.getStart() != span2.getStart()
+            ? Integer.compare(span1.getStart(), span2.getStart())
+            : Integer.compare(span2.length(), span1.length());
+
+    private final boolean ignoreCase;
+
+    /**
+     * For every state, the sorted characters it has transitions for and the states they lead to
+     */
+    private final char[][] transitionChars;
+    private final int[][] transitionStates;
+
+    private final int[] failure;
+
+    /**
+     * Length of the dictionary entry ending at a state or 0 if no entry ends there
+     */
+    private final int[] matchLength;
+
+    /**
+     * The closest state in the failure chain where a dictionary entry ends or {@link #NO_STATE}
+     */
+    private final int[] outputLink;
+
+    public GazetteerEntityExtractor(Collection<String> dictionary, boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+
+        // build the trie
+        List<SortedMap<Character, Integer>> trie = Lists.newArrayList();
+        List<Integer> lengths = Lists.newArrayList();
+        trie.add(Maps.newTreeMap());
+        lengths.add(0);
+        for (String entry : dictionary) {
+            String name = entry.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            int state = ROOT;
+            for (int i = 0; i < name.length(); i++) {
+                char ch = normalize(name.charAt(i));
+                Integer next = trie.get(state).get(ch);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(Maps.newTreeMap());
+                    lengths.add(0);
+                    trie.get(state).put(ch, next);
+                }
+                state = next;
+            }
+            lengths.set(state, name.length());
+        }
+
+        // freeze it into arrays
+        int numStates = trie.size();
+        this.transitionChars = new char[numStates][];
+        this.transitionStates = new int[numStates][];
+        for (int state = 0; state < numStates; state++) {
+            Map<Character, Integer> transitions = trie.get(state);
+            transitionChars[state] = Chars.toArray(transitions.keySet());
+            transitionStates[state] = Ints.toArray(transitions.values());
+        }
+        this.matchLength = Ints.toArray(lengths);
+        this.failure = new int[numStates];
+        this.outputLink = new int[numStates];
+        Arrays.fill(outputLink, NO_STATE);
+
+        // breadth first traversal to compute the failure and output links
+        Queue<Integer> queue = new ArrayDeque<>();
+        queue.add(ROOT);
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            for (int i = 0; i < transitionChars[state].length; i++) {
+                char ch = transitionChars[state][i];
+                int child = transitionStates[state][i];
+                int fallback = state == ROOT ? NO_STATE : failure[state];
+                while (fallback != NO_STATE && transition(fallback, ch) == NO_STATE) {
+                    fallback = fallback == ROOT ? NO_STATE : failure[fallback];
+                }
+                failure[child] = fallback == NO_STATE ? ROOT : transition(fallback, ch);
+                int childFailure = failure[child];
+                outputLink[child] = matchLength[childFailure] > 0 ? childFailure
+                                                                  : outputLink[childFailure];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<EntitySpan> extractEntities(String text) {
+        List<EntitySpan> matches = null;
+        int state = ROOT;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char ch = normalize(text.charAt(i));
+            int next = transition(state, ch);
+            while (next == NO_STATE && state != ROOT) {
+                state = failure[state];
+                next = transition(state, ch);
+            }
+            state = next == NO_STATE ? ROOT : next;
+
+            int matchState = matchLength[state] > 0 ? state : outputLink[state];
+            while (matchState != NO_STATE) {
+                int end = i + 1;
+                int start = end - matchLength[matchState];
+                if (isWholeWord(text, start, end)) {
+                    if (matches == null) {
+                        matches = Lists.newArrayList();
+                    }
+                    matches.add(new EntitySpan(start, end));
+                }
+                matchState = outputLink[matchState];
+            }
+        }
+
+        if (matches == null) {
+            return ImmutableList.of();
+        }
+        return removeOverlaps(matches);
+    }
+
+    /**
+     * @return The number of states in the automaton
+     */
+    protected int getNumStates() {
+        return matchLength.length;
+    }
+
+    private int transition(int state, char ch) {
+        int index = Arrays.binarySearch(transitionChars[state], ch);
+        if (index < 0) {
+            return NO_STATE;
+        }
+        return transitionStates[state][index];
+    }
+
+    private char normalize(char ch) {
+        return ignoreCase ? Character.toLowerCase(ch) : ch;
+    }
+
+    private static boolean isWholeWord(String text, int start, int end) {
+        return (start == 0 || !Character.isLetterOrDigit(text.charAt(start - 1)))
+            && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)));
+    }
+
+    /**
+     * Keeps the leftmost longest matches out of a list of possibly overlapping matches
+     */
+    private static List<EntitySpan> removeOverlaps(List<EntitySpan> matches) {
+        if (matches.size() == 1) {
+            return matches;
+        }
+        matches.sort(LEFTMOST_LONGEST);
+        List<EntitySpan> result = Lists.newArrayListWithCapacity(matches.size());
+        int lastEnd = 0;
+        for (EntitySpan match : matches) {
+            if (match.getStart() >= lastEnd) {
+                result.add(match);
+                lastEnd = match.getEnd();
+            }
+        }
+        return result;
+    }
+
+}
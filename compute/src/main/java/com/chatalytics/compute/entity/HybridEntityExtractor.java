@@ -0,0 +1,52 @@
+package com.chatalytics.compute.entity;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * {@link IEntityExtractor} that runs a cheap extractor first and only falls back to an expensive
+ * one when the cheap extractor didn't find anything. The fallback is additionally guarded by a
+ * predicate so that messages that can't contain entities never reach it.
+ *
+ * @author giannis
+ */
+public class HybridEntityExtractor implements IEntityExtractor {
+
+    private final IEntityExtractor primary;
+    private final IEntityExtractor fallback;
+    private final Predicate<String> fallbackFilter;
+
+    /**
+     * @param primary
+     *            The extractor to run first, usually the {@link GazetteerEntityExtractor}
+     * @param fallback
+     *            The extractor to run when the primary one finds nothing, usually the
+     *            {@link CRFEntityExtractor}
+     * @param fallbackFilter
+     *            Returns true if the fallback extractor should run for a message text
+     */
+    public HybridEntityExtractor(IEntityExtractor primary, IEntityExtractor fallback,
+                                 Predicate<String> fallbackFilter) {
+        this.primary = primary;
+        this.fallback = fallback;
+        this.fallbackFilter = fallbackFilter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<EntitySpan> extractEntities(String text) {
+        List<EntitySpan> result = primary.extractEntities(text);
+        if (!result.isEmpty()) {
+            return result;
+        }
+        if (!fallbackFilter.test(text)) {
+            return ImmutableList.of();
+        }
+        return fallback.extractEntities(text);
+    }
+
+}
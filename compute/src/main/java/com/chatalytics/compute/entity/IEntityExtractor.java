@@ -0,0 +1,24 @@
+package com.chatalytics.compute.entity;
+
+import java.util.List;
+
+/**
+ * Interface for engines that can find entities in a chat message. Implementations are created
+ * once per bolt by the {@link EntityExtractorFactory} and are only called from a single thread.
+ *
+ * @author giannis
+ */
+public interface IEntityExtractor {
+
+    /**
+     * Finds entities in a message
+     *
+     * @param text
+     *            The message text. Never null
+     * @return A list of the character offsets of every entity occurrence in <code>text</code>, in
+     *         no particular order. An entity that occurs multiple times is returned multiple
+     *         times.
+     */
+    List<EntitySpan> extractEntities(String text);
+
+}
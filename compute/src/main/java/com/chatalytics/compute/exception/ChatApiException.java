@@ -0,0 +1,19 @@
+package com.chatalytics.compute.exception;
+
+/**
+ * Thrown when a request to the chat API fails and can't be retried any more
+ *
+ * @author giannis
+ */
+public class ChatApiException extends RuntimeException {
+
+    private static final long serialVersionUID = 6305726187313690471L;
+
+    public ChatApiException(String msg) {
+        super(msg);
+    }
+
+    public ChatApiException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
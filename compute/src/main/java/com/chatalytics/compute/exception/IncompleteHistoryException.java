@@ -0,0 +1,19 @@
+package com.chatalytics.compute.exception;
+
+/**
+ * Thrown when part of the message history of a room can't be fetched from the chat API
+ *
+ * @author giannis
+ */
+public class IncompleteHistoryException extends RuntimeException {
+
+    private static final long serialVersionUID = -2466016813546829174L;
+
+    public IncompleteHistoryException(String msg) {
+        super(msg);
+    }
+
+    public IncompleteHistoryException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
@@ -0,0 +1,84 @@
+package com.chatalytics.compute.metrics;
+
+import org.apache.storm.task.TopologyContext;
+
+import java.util.function.Supplier;
+
+/**
+ * The metrics of a single spout or bolt task. Every metric is registered both with storm, under
+ * the same name with dashes, and with the {@link MetricsRegistry} of the JVM, labeled with the
+ * component and task ID. Call {@link #close()} when the task is cleaned up.
+ *
+ * @author giannis
+ */
+public class ComponentMetrics {
+
+    public static final int METRICS_INTERVAL_SECS = 60;
+
+    public static final String EXECUTE_LATENCY = "execute_latency_seconds";
+    public static final String TUPLES = "tuples_total";
+    public static final String DB_PERSIST_LATENCY = "db_persist_latency_seconds";
+    public static final String DB_DROPPED_VALUES = "db_dropped_values_total";
+    public static final String REALTIME_PUBLISH_LATENCY = "realtime_publish_latency_seconds";
+    public static final String REALTIME_QUEUE_DEPTH = "realtime_queue_depth";
+    public static final String REALTIME_DROPPED_EVENTS = "realtime_dropped_events_total";
+    public static final String SPOUT_BUFFER_DEPTH = "spout_buffer_depth";
+    public static final String SPOUT_PENDING = "spout_pending";
+
+    private final TopologyContext context;
+    private final MetricsRegistry registry;
+    private final String component;
+    private final int task;
+
+    public ComponentMetrics(TopologyContext context) {
+        this(context, MetricsRegistry.getDefault());
+    }
+
+    public ComponentMetrics(TopologyContext context, MetricsRegistry registry) {
+        this.context = context;
+        this.registry = registry;
+        this.component = context.getThisComponentId();
+        this.task = context.getThisTaskId();
+    }
+
+    /**
+     * Creates and registers a latency histogram whose quantiles cover the last one to two metric
+     * intervals
+     */
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = new LatencyHistogram(METRICS_INTERVAL_SECS);
+        context.registerMetric(toStormName(name), histogram, METRICS_INTERVAL_SECS);
+        registry.registerHistogram(name, component, task, histogram);
+        return histogram;
+    }
+
+    /**
+     * Creates and registers a counter
+     */
+    public Counter counter(String name) {
+        Counter counter = new Counter();
+        context.registerMetric(toStormName(name), counter, METRICS_INTERVAL_SECS);
+        registry.registerCounter(name, component, task, counter);
+        return counter;
+    }
+
+    /**
+     * Registers a gauge. It has to be safe to call from any thread
+     */
+    public void gauge(String name, Supplier<? extends Number> gauge) {
+        context.registerMetric(toStormName(name), gauge::get, METRICS_INTERVAL_SECS);
+        registry.registerGauge(name, component, task, gauge);
+    }
+
+    /**
+     * Removes the metrics of this task from the registry
+     */
+    public void close() {
+        registry.unregister(component, task);
+    }
+
+    private static String toStormName(String name) {
+        return name.replace('_', '-');
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.chatalytics.compute.metrics;
+
+import org.apache.storm.metric.api.IMetric;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonic counter. It's exposed as a total, since rates are computed by whoever scrapes it, and
+ * reported to storm as the count since the last report.
+ *
+ * @author giannis
+ */
+public class Counter implements IMetric {
+
+    private final LongAdder count = new LongAdder();
+    private long lastReportedCount;
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long value) {
+        count.add(value);
+    }
+
+    /**
+     * @return The total count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public synchronized Object getValueAndReset() {
+        long total = count.sum();
+        long delta = total - lastReportedCount;
+        lastReportedCount = total;
+        return delta;
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.chatalytics.compute.metrics;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.storm.metric.api.IMetric;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram backed by an HdrHistogram {@link Recorder}, so recording is wait free and can
+ * be done from any thread. Quantiles are computed over a rolling window: a snapshot covers the last
+ * completed window and the one in progress, i.e. between one and two windows of latencies. The
+ * total count and sum of the latencies are kept since the histogram was created.
+ * <p/>
+ * This is also a storm {@link IMetric} that reports the quantiles of a snapshot in milliseconds.
+ *
+ * @author giannis
+ */
+public class LatencyHistogram implements IMetric {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Recorder recorder;
+    private final long windowNanos;
+    private final LongAdder count;
+    private final LongAdder sumNanos;
+    private Histogram completedWindow;
+    private Histogram currentWindow;
+    private long windowStartNanos;
+
+    /**
+     * @param windowSecs
+     *            The size of the window quantiles are computed over
+     */
+    public LatencyHistogram(long windowSecs) {
+        this.recorder = new Recorder(SIGNIFICANT_DIGITS);
+        this.windowNanos = TimeUnit.SECONDS.toNanos(windowSecs);
+        this.count = new LongAdder();
+        this.sumNanos = new LongAdder();
+        this.completedWindow = new Histogram(SIGNIFICANT_DIGITS);
+        this.currentWindow = new Histogram(SIGNIFICANT_DIGITS);
+        this.windowStartNanos = System.nanoTime();
+    }
+
+    /**
+     * @param latencyNanos
+     *            The latency to record. Negative latencies are recorded as 0
+     */
+    public void record(long latencyNanos) {
+        long latency = Math.max(0, latencyNanos);
+        recorder.recordValue(latency);
+        count.increment();
+        sumNanos.add(latency);
+    }
+
+    /**
+     * Records the time passed since <code>startNanos</code>
+     *
+     * @param startNanos
+     *            A {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Runs the runnable and records how long it took, even if it failed
+     */
+    public void time(Runnable runnable) {
+        long startNanos = System.nanoTime();
+        try {
+            runnable.run();
+        } finally {
+            recordSince(startNanos);
+        }
+    }
+
+    /**
+     * @return The latencies of the last one to two windows, in nanoseconds
+     */
+    public synchronized Histogram getSnapshot() {
+        currentWindow.add(recorder.getIntervalHistogram());
+        long nowNanos = System.nanoTime();
+        if (nowNanos - windowStartNanos >= windowNanos) {
+            completedWindow = currentWindow;
+            currentWindow = new Histogram(SIGNIFICANT_DIGITS);
+            windowStartNanos = nowNanos;
+        }
+        Histogram snapshot = completedWindow.copy();
+        snapshot.add(currentWindow);
+        return snapshot;
+    }
+
+    /**
+     * @return The number of latencies recorded since this histogram was created
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return The sum of all the latencies recorded since this histogram was created
+     */
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    @Override
+    public Object getValueAndReset() {
+        Histogram snapshot = getSnapshot();
+        Map<String, Object> values = ImmutableMap.<String, Object>builder()
+            .put("count", snapshot.getTotalCount())
+            .put("p50_ms", snapshot.getValueAtPercentile(50) / NANOS_PER_MILLI)
+            .put("p99_ms", snapshot.getValueAtPercentile(99) / NANOS_PER_MILLI)
+            .put("p999_ms", snapshot.getValueAtPercentile(99.9) / NANOS_PER_MILLI)
+            .put("max_ms", snapshot.getMaxValue() / NANOS_PER_MILLI)
+            .build();
+        return values;
+    }
+
+}
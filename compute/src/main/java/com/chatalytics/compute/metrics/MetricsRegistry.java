@@ -0,0 +1,160 @@
+package com.chatalytics.compute.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ComparisonChain;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the metrics of the topology components running in this JVM, keyed by metric name,
+ * component ID and task ID. It's written out in the Prometheus text format: latency histograms as
+ * summaries in seconds, counters as totals and gauges as their current value. When the topology
+ * runs in a local cluster this has the metrics of all the components. Workers of a remote cluster
+ * only report theirs through the storm metrics API.
+ *
+ * @author giannis
+ */
+public class MetricsRegistry {
+
+    public static final String PREFIX = "chatalytics_";
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    private static final double NANOS_PER_SEC = TimeUnit.SECONDS.toNanos(1);
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final Map<MetricKey, Object> metrics;
+
+    @VisibleForTesting
+    protected MetricsRegistry() {
+        this.metrics = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * @return The registry shared by all the components in this JVM
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    public void registerHistogram(String name, String component, int task,
+                                  LatencyHistogram histogram) {
+        metrics.put(new MetricKey(name, component, task), histogram);
+    }
+
+    public void registerCounter(String name, String component, int task, Counter counter) {
+        metrics.put(new MetricKey(name, component, task), counter);
+    }
+
+    public void registerGauge(String name, String component, int task,
+                              Supplier<? extends Number> gauge) {
+        metrics.put(new MetricKey(name, component, task), gauge);
+    }
+
+    /**
+     * Removes all the metrics of a component task
+     */
+    public void unregister(String component, int task) {
+        String componentId = String.valueOf(component);
+        metrics.keySet().removeIf(key -> key.task == task && key.component.equals(componentId));
+    }
+
+    /**
+     * @return All the metrics in the Prometheus text format
+     */
+    @SuppressWarnings("unchecked")
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        String lastName = null;
+        for (Map.Entry<MetricKey, Object> entry : metrics.entrySet()) {
+            MetricKey key = entry.getKey();
+            Object metric = entry.getValue();
+            String name = PREFIX + key.name;
+            boolean firstOfName = !key.name.equals(lastName);
+            lastName = key.name;
+            if (metric instanceof LatencyHistogram) {
+                if (firstOfName) {
+                    text.append("# TYPE ").append(name).append(" summary\n");
+                }
+                appendHistogram(text, name, key, (LatencyHistogram) metric);
+            } else if (metric instanceof Counter) {
+                if (firstOfName) {
+                    text.append("# TYPE ").append(name).append(" counter\n");
+                }
+                appendSample(text, name, key, null, ((Counter) metric).getCount());
+            } else {
+                if (firstOfName) {
+                    text.append("# TYPE ").append(name).append(" gauge\n");
+                }
+                Number value = ((Supplier<? extends Number>) metric).get();
+                appendSample(text, name, key, null, value == null ? Double.NaN : value);
+            }
+        }
+        return text.toString();
+    }
+
+    private static void appendHistogram(StringBuilder text, String name, MetricKey key,
+                                        LatencyHistogram histogram) {
+        Histogram snapshot = histogram.getSnapshot();
+        for (double quantile : QUANTILES) {
+            double seconds = snapshot.getValueAtPercentile(quantile * 100) / NANOS_PER_SEC;
+            appendSample(text, name, key, String.valueOf(quantile), seconds);
+        }
+        appendSample(text, name + "_sum", key, null, histogram.getSumNanos() / NANOS_PER_SEC);
+        appendSample(text, name + "_count", key, null, histogram.getCount());
+    }
+
+    private static void appendSample(StringBuilder text, String name, MetricKey key,
+                                     String quantile, Number value) {
+        text.append(name)
+            .append("{component=\"").append(escape(key.component))
+            .append("\",task=\"").append(key.task).append('"');
+        if (quantile != null) {
+            text.append(",quantile=\"").append(quantile).append('"');
+        }
+        text.append("} ").append(value).append('\n');
+    }
+
+    private static String escape(String labelValue) {
+        return String.valueOf(labelValue).replace("\\", "\\\\")
+                                         .replace("\"", "\\\"")
+                                         .replace("\n", "\\n");
+    }
+
+    private static class MetricKey implements Comparable<MetricKey> {
+
+        private final String name;
+        private final String component;
+        private final int task;
+
+        private MetricKey(String name, String component, int task) {
+            this.name = name;
+            this.component = String.valueOf(component);
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(MetricKey other) {
+            return ComparisonChain.start()
+                                  .compare(name, other.name)
+                                  .compare(component, other.component)
+                                  .compare(task, other.task)
+                                  .result();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof MetricKey && compareTo((MetricKey) obj) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, component, task);
+        }
+    }
+
+}
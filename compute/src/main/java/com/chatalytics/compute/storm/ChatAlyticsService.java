@@ -2,29 +2,41 @@ package com.chatalytics.compute.storm;
 
 import com.chatalytics.compute.ChatAlyticsEngineMain;
 import com.chatalytics.compute.config.ConfigurationConstants;
+import com.chatalytics.compute.storm.serialization.TupleSerializers;
 import com.chatalytics.compute.web.realtime.ComputeRealtimeServer;
 import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.TopologyConfig;
 import com.chatalytics.core.util.YamlUtils;
 import com.google.common.util.concurrent.AbstractIdleService;
 
 import org.apache.storm.Config;
 import org.apache.storm.LocalCluster;
+import org.apache.storm.StormSubmitter;
 import org.apache.storm.generated.AlreadyAliveException;
+import org.apache.storm.generated.AuthorizationException;
 import org.apache.storm.generated.InvalidTopologyException;
+import org.apache.storm.generated.KillOptions;
 import org.apache.storm.generated.StormTopology;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 /**
  * Service that configures the storm topology and then starts it up. This is started by
- * {@link ChatAlyticsEngineMain}.
+ * {@link ChatAlyticsEngineMain}. The topology either runs in a local cluster inside this process or
+ * is submitted to a remote cluster, in which case it outlives this service.
  *
  * @author giannis
  *
  */
 public class ChatAlyticsService extends AbstractIdleService {
 
-    private static final String TOPOLOGY_NAME = "chat-topology";
+    /**
+     * Time the topology gets to process the tuples in flight after its spouts are deactivated
+     */
+    private static final int TOPOLOGY_KILL_WAIT_SECS = 2;
     private static final Logger LOG = LoggerFactory.getLogger(ChatAlyticsService.class);
 
     private final StormTopology chatTopology;
@@ -40,18 +52,28 @@ public class ChatAlyticsService extends AbstractIdleService {
         this.rtServer = rtServer;
     }
 
+    /**
+     * @return The local cluster the topology was submitted to or null if it was submitted to a
+     *         remote cluster
+     */
     private LocalCluster submitTopology() throws AlreadyAliveException,
-            InvalidTopologyException {
+            InvalidTopologyException, AuthorizationException {
+        TopologyConfig topologyConfig = chatalyticsConfig.computeConfig.topologyConfig;
         Config stormConfig = new Config();
         stormConfig.setDebug(false);
-        stormConfig.setFallBackOnJavaSerialization(true);
-        stormConfig.setNumWorkers(1);
+        stormConfig.setNumWorkers(topologyConfig.numWorkers);
+        stormConfig.setMaxSpoutPending(chatalyticsConfig.computeConfig.maxSpoutPending);
         stormConfig.setSkipMissingKryoRegistrations(true);
+        TupleSerializers.register(stormConfig);
         stormConfig.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt,
                         YamlUtils.writeYaml(chatalyticsConfig));
 
+        if (topologyConfig.remoteCluster) {
+            StormSubmitter.submitTopology(topologyConfig.topologyName, stormConfig, chatTopology);
+            return null;
+        }
         LocalCluster cluster = new LocalCluster();
-        cluster.submitTopology(TOPOLOGY_NAME, stormConfig, chatTopology);
+        cluster.submitTopology(topologyConfig.topologyName, stormConfig, chatTopology);
         return cluster;
     }
 
@@ -63,14 +85,52 @@ public class ChatAlyticsService extends AbstractIdleService {
         cluster = submitTopology();
     }
 
+    /**
+     * Kills the topology and shuts down the storm cluster and the realtime server. The whole
+     * shutdown takes at most <code>shutdownTimeoutSecs</code>. Whatever didn't stop by then is
+     * abandoned, so that a stuck component can't keep the process from exiting. A topology running
+     * on a remote cluster is left running
+     */
     @Override
     protected void shutDown() throws Exception {
         LOG.info("Shutting down...");
-        cluster.killTopology(TOPOLOGY_NAME);
-        LOG.info("Waiting a bit for the topology to die...");
-        Thread.sleep(2000L);
-        LOG.info("Shutting down storm cluster...");
-        cluster.shutdown();
-        rtServer.stopAsync().awaitTerminated();
+        long deadlineMillis = System.currentTimeMillis()
+            + TimeUnit.SECONDS.toMillis(chatalyticsConfig.computeConfig.shutdownTimeoutSecs);
+        String topologyName = chatalyticsConfig.computeConfig.topologyConfig.topologyName;
+        if (cluster == null) {
+            LOG.info("Topology {} runs on a remote cluster. Kill it with storm kill {}",
+                     topologyName, topologyName);
+        } else {
+            KillOptions killOptions = new KillOptions();
+            killOptions.set_wait_secs(TOPOLOGY_KILL_WAIT_SECS);
+            cluster.killTopologyWithOpts(topologyName, killOptions);
+            LOG.info("Waiting a bit for the topology to die...");
+            Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(TOPOLOGY_KILL_WAIT_SECS),
+                                  getRemainingMillis(deadlineMillis)));
+
+            LOG.info("Shutting down storm cluster...");
+            Thread clusterShutdown = new Thread(cluster::shutdown, "storm-cluster-shutdown");
+            clusterShutdown.setDaemon(true);
+            clusterShutdown.start();
+            clusterShutdown.join(getRemainingMillis(deadlineMillis));
+            if (clusterShutdown.isAlive()) {
+                LOG.warn("Storm cluster didn't shut down in time. Abandoning it...");
+            }
+        }
+
+        try {
+            rtServer.stopAsync().awaitTerminated(getRemainingMillis(deadlineMillis),
+                                                 TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOG.warn("Realtime server didn't stop in time. Abandoning it...");
+        }
+    }
+
+    /**
+     * @return The time left until the deadline, but at least a millisecond so that it can be used
+     *         as a timeout
+     */
+    private static long getRemainingMillis(long deadlineMillis) {
+        return Math.max(1, deadlineMillis - System.currentTimeMillis());
     }
 }
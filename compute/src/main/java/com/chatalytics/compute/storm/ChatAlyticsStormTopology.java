@@ -2,6 +2,7 @@ package com.chatalytics.compute.storm;
 
 import com.chatalytics.compute.storm.bolt.EmojiCounterBolt;
 import com.chatalytics.compute.storm.bolt.EntityExtractionBolt;
+import com.chatalytics.compute.storm.bolt.MessageAnalysisBolt;
 import com.chatalytics.compute.storm.bolt.MessageSummaryBolt;
 import com.chatalytics.compute.storm.bolt.RealtimeBolt;
 import com.chatalytics.compute.storm.spout.HipChatMessageSpout;
@@ -9,61 +10,166 @@ import com.chatalytics.compute.storm.spout.LocalTestSpout;
 import com.chatalytics.compute.storm.spout.SlackBackfillSpout;
 import com.chatalytics.compute.storm.spout.SlackMessageSpout;
 import com.chatalytics.core.InputSourceType;
+import com.chatalytics.core.config.TopologyConfig;
 
+import org.apache.storm.Config;
 import org.apache.storm.generated.StormTopology;
+import org.apache.storm.topology.BoltDeclarer;
+import org.apache.storm.topology.ComponentConfigurationDeclarer;
+import org.apache.storm.topology.IRichBolt;
+import org.apache.storm.topology.IRichSpout;
 import org.apache.storm.topology.TopologyBuilder;
 
+import java.util.Map;
 
 /**
- * Declares and sets up the Storm topology.
+ * Declares and sets up the Storm topology. Messages are analyzed either by three separate bolts,
+ * one for entities, one for emojis and one for message summaries, or, in fused mode, by a single
+ * {@link MessageAnalysisBolt}. The parallelism of every component and how messages are grouped
+ * among the analysis bolt tasks come from the {@link TopologyConfig}.
  *
  * @author giannis
  */
 public class ChatAlyticsStormTopology {
 
     private final InputSourceType type;
+    private final boolean fusedAnalysis;
+    private final TopologyConfig topologyConfig;
 
     public ChatAlyticsStormTopology(InputSourceType type) {
+        this(type, false);
+    }
+
+    public ChatAlyticsStormTopology(InputSourceType type, boolean fusedAnalysis) {
+        this(type, fusedAnalysis, new TopologyConfig());
+    }
+
+    public ChatAlyticsStormTopology(InputSourceType type, boolean fusedAnalysis,
+                                    TopologyConfig topologyConfig) {
         this.type = type;
+        this.fusedAnalysis = fusedAnalysis;
+        this.topologyConfig = topologyConfig;
     }
 
     public StormTopology get() {
         TopologyBuilder topologyBuilder = new TopologyBuilder();
         String inputSpoutId;
+        IRichSpout inputSpout;
         if (type == InputSourceType.HIPCHAT) {
             inputSpoutId = HipChatMessageSpout.SPOUT_ID;
-            topologyBuilder.setSpout(inputSpoutId, new HipChatMessageSpout());
+            inputSpout = new HipChatMessageSpout();
         } else if (type == InputSourceType.SLACK) {
             inputSpoutId = SlackMessageSpout.SPOUT_ID;
-            topologyBuilder.setSpout(inputSpoutId, new SlackMessageSpout());
+            inputSpout = new SlackMessageSpout();
         } else if (type == InputSourceType.SLACK_BACKFILL) {
             inputSpoutId = SlackBackfillSpout.SPOUT_ID;
-            topologyBuilder.setSpout(inputSpoutId, new SlackBackfillSpout());
+            inputSpout = new SlackBackfillSpout();
         } else if (type == InputSourceType.LOCAL_TEST) {
             inputSpoutId = LocalTestSpout.SPOUT_ID;
-            topologyBuilder.setSpout(inputSpoutId, new LocalTestSpout());
+            inputSpout = new LocalTestSpout();
         } else {
             throw new RuntimeException("Can't determine input source type from " + type);
         }
+        setNumTasks(inputSpoutId, topologyBuilder.setSpout(inputSpoutId, inputSpout,
+                                                           getParallelism(inputSpoutId)));
 
+        if (fusedAnalysis) {
+            setFusedAnalysisBolts(topologyBuilder, inputSpoutId);
+        } else {
+            setAnalysisBolts(topologyBuilder, inputSpoutId);
+        }
+
+        return topologyBuilder.createTopology();
+    }
+
+    private void setAnalysisBolts(TopologyBuilder topologyBuilder, String inputSpoutId) {
         // entity extraction bolt
-        topologyBuilder.setBolt(EntityExtractionBolt.BOLT_ID, new EntityExtractionBolt())
-                       .shuffleGrouping(inputSpoutId);
+        groupMessages(setBolt(topologyBuilder, EntityExtractionBolt.BOLT_ID,
+                              new EntityExtractionBolt()),
+                      inputSpoutId);
 
         // emoji bolt
-        topologyBuilder.setBolt(EmojiCounterBolt.BOLT_ID, new EmojiCounterBolt())
-                       .shuffleGrouping(inputSpoutId);
+        groupMessages(setAggregatingBolt(topologyBuilder, EmojiCounterBolt.BOLT_ID,
+                                         new EmojiCounterBolt()),
+                      inputSpoutId);
 
         // message summary bolt
-        topologyBuilder.setBolt(MessageSummaryBolt.BOLT_ID, new MessageSummaryBolt())
-                       .shuffleGrouping(inputSpoutId);
+        groupMessages(setAggregatingBolt(topologyBuilder, MessageSummaryBolt.BOLT_ID,
+                                         new MessageSummaryBolt()),
+                      inputSpoutId);
 
         // realtime bolt
-        topologyBuilder.setBolt(RealtimeBolt.BOLT_ID, new RealtimeBolt())
+        setBolt(topologyBuilder, RealtimeBolt.BOLT_ID, new RealtimeBolt())
                        .shuffleGrouping(EmojiCounterBolt.BOLT_ID)
                        .shuffleGrouping(EntityExtractionBolt.BOLT_ID)
                        .shuffleGrouping(MessageSummaryBolt.BOLT_ID);
+    }
 
-        return topologyBuilder.createTopology();
+    private void setFusedAnalysisBolts(TopologyBuilder topologyBuilder, String inputSpoutId) {
+        // message analysis bolt
+        groupMessages(setBolt(topologyBuilder, MessageAnalysisBolt.BOLT_ID,
+                              new MessageAnalysisBolt()),
+                      inputSpoutId);
+
+        // realtime bolt
+        setBolt(topologyBuilder, RealtimeBolt.BOLT_ID, new RealtimeBolt())
+                       .shuffleGrouping(MessageAnalysisBolt.BOLT_ID,
+                                        MessageAnalysisBolt.EMOJI_ENTITY_STREAM_ID)
+                       .shuffleGrouping(MessageAnalysisBolt.BOLT_ID,
+                                        MessageAnalysisBolt.CHAT_ENTITY_STREAM_ID)
+                       .shuffleGrouping(MessageAnalysisBolt.BOLT_ID,
+                                        MessageAnalysisBolt.MESSAGE_SUMMARY_STREAM_ID);
+    }
+
+    private BoltDeclarer setBolt(TopologyBuilder topologyBuilder, String boltId, IRichBolt bolt) {
+        return setNumTasks(boltId, topologyBuilder.setBolt(boltId, bolt, getParallelism(boltId)));
+    }
+
+    /**
+     * Sets a bolt that persists its counts in time buckets. It gets a tick tuple every time it
+     * should persist the buckets that are over
+     */
+    private BoltDeclarer setAggregatingBolt(TopologyBuilder topologyBuilder, String boltId,
+                                            IRichBolt bolt) {
+        BoltDeclarer declarer = setBolt(topologyBuilder, boltId, bolt);
+        if (topologyConfig.aggregationBucketSecs > 0) {
+            declarer.addConfiguration(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS,
+                                      topologyConfig.aggregationFlushSecs);
+        }
+        return declarer;
+    }
+
+    /**
+     * Subscribes an analysis bolt to the spout messages with the configured grouping
+     */
+    private void groupMessages(BoltDeclarer bolt, String inputSpoutId) {
+        switch (topologyConfig.analysisGrouping) {
+            case ROOM:
+            case USER:
+                bolt.customGrouping(inputSpoutId,
+                                    new MessageEnvelopeGrouping(topologyConfig.analysisGrouping));
+                break;
+            default:
+                bolt.shuffleGrouping(inputSpoutId);
+                break;
+        }
+    }
+
+    private int getParallelism(String componentId) {
+        Integer parallelism = get(topologyConfig.parallelism, componentId);
+        return parallelism == null ? 1 : parallelism;
+    }
+
+    private <T extends ComponentConfigurationDeclarer<?>> T setNumTasks(String componentId,
+                                                                         T declarer) {
+        Integer numTasks = get(topologyConfig.numTasks, componentId);
+        if (numTasks != null) {
+            declarer.setNumTasks(numTasks);
+        }
+        return declarer;
+    }
+
+    private static Integer get(Map<String, Integer> componentValues, String componentId) {
+        return componentValues == null ? null : componentValues.get(componentId);
     }
 }
@@ -0,0 +1,59 @@
+package com.chatalytics.compute.storm;
+
+import com.chatalytics.core.MessageGrouping;
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import org.apache.storm.generated.GlobalStreamId;
+import org.apache.storm.grouping.CustomStreamGrouping;
+import org.apache.storm.task.WorkerTopologyContext;
+
+import java.util.List;
+
+/**
+ * Fields grouping on the room or user of the {@link MessageEnvelope} a spout emits. The room and
+ * user IDs are read from the envelope itself, so spouts don't have to emit them as separate fields
+ * and every tuple stays a single envelope.
+ *
+ * @author giannis
+ */
+public class MessageEnvelopeGrouping implements CustomStreamGrouping {
+
+    private static final long serialVersionUID = 4233938307470893542L;
+
+    private final MessageGrouping grouping;
+    private List<List<Integer>> targetTasks;
+
+    /**
+     * @param grouping
+     *            Either {@link MessageGrouping#ROOM} or {@link MessageGrouping#USER}
+     */
+    public MessageEnvelopeGrouping(MessageGrouping grouping) {
+        Preconditions.checkArgument(grouping == MessageGrouping.ROOM
+                                        || grouping == MessageGrouping.USER,
+                                    "Can't group messages by %s", grouping);
+        this.grouping = grouping;
+    }
+
+    @Override
+    public void prepare(WorkerTopologyContext context, GlobalStreamId stream,
+                        List<Integer> targetTasks) {
+        // one immutable list per task so that choosing a task doesn't allocate
+        ImmutableList.Builder<List<Integer>> tasks = ImmutableList.builder();
+        for (Integer task : targetTasks) {
+            tasks.add(ImmutableList.of(task));
+        }
+        this.targetTasks = tasks.build();
+    }
+
+    @Override
+    public List<Integer> chooseTasks(int taskId, List<Object> values) {
+        MessageEnvelope envelope = (MessageEnvelope) values.get(0);
+        String key = grouping == MessageGrouping.ROOM ? envelope.getRoomId()
+                                                      : envelope.getUserId();
+        int hash = key == null ? 0 : key.hashCode();
+        return targetTasks.get(Math.floorMod(hash, targetTasks.size()));
+    }
+
+}
@@ -1,18 +1,30 @@
 package com.chatalytics.compute.storm.bolt;
 
+import com.chatalytics.compute.chat.ChatDirectory;
+import com.chatalytics.compute.chat.dao.ChatAPIFactory;
 import com.chatalytics.compute.config.ConfigurationConstants;
+import com.chatalytics.compute.metrics.ComponentMetrics;
+import com.chatalytics.compute.metrics.Counter;
+import com.chatalytics.compute.metrics.LatencyHistogram;
 import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.ComputeConfig;
+import com.chatalytics.core.model.data.MessageEnvelope;
 import com.chatalytics.core.util.YamlUtils;
 
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.base.BaseRichBolt;
+import org.apache.storm.tuple.Tuple;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Inherit from this bolt if you want your prepare method to be called with a
- * {@link ChatAlyticsConfig}
+ * {@link ChatAlyticsConfig}. Bolts that need more of a user or room than what's in a
+ * {@link MessageEnvelope} can look them up with {@link #getChatDirectory()}. The latency and count
+ * of every processed tuple are recorded in the {@link ComponentMetrics} of the bolt, which
+ * subclasses can add their own metrics to.
  *
  * @author giannis
  */
@@ -20,14 +32,49 @@ public abstract class ChatAlyticsBaseBolt extends BaseRichBolt {
 
     private static final long serialVersionUID = -7961960405946887688L;
 
+    private ChatAlyticsConfig config;
+    private ChatDirectory chatDirectory;
+    private transient ComponentMetrics metrics;
+    private transient LatencyHistogram executeLatency;
+    private transient Counter tuples;
+
     @Override
     public void prepare(@SuppressWarnings("rawtypes") Map stormConf, TopologyContext context,
                         OutputCollector collector) {
         String configStr = (String) stormConf.get(ConfigurationConstants.CHATALYTICS_CONFIG.txt);
-        ChatAlyticsConfig config = YamlUtils.readChatAlyticsConfigFromString(configStr);
+        this.config = YamlUtils.readChatAlyticsConfigFromString(configStr);
+        this.metrics = new ComponentMetrics(context);
+        this.executeLatency = metrics.histogram(ComponentMetrics.EXECUTE_LATENCY);
+        this.tuples = metrics.counter(ComponentMetrics.TUPLES);
         prepare(config, stormConf, context, collector);
     }
 
+    @Override
+    public final void execute(Tuple input) {
+        long startNanos = System.nanoTime();
+        try {
+            process(input);
+        } finally {
+            executeLatency.recordSince(startNanos);
+            tuples.increment();
+        }
+    }
+
+    /**
+     * Processes a tuple. This is what <code>execute</code> would be in a storm bolt
+     *
+     * @param input
+     *            The tuple to process
+     */
+    protected abstract void process(Tuple input);
+
+    /**
+     * @return The metrics of this bolt task
+     */
+    protected ComponentMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Prepare method to implement that also passes a {@link ChatAlyticsConfig}
      *
@@ -41,4 +88,32 @@ public abstract class ChatAlyticsBaseBolt extends BaseRichBolt {
                                  TopologyContext context,
                                  OutputCollector collector);
 
+    /**
+     * Returns the directory of the users and rooms of the chat. It's created and loaded from the
+     * chat API the first time it's called, so bolts that never call this don't pay for it.
+     *
+     * @return The chat directory of this bolt
+     */
+    protected synchronized ChatDirectory getChatDirectory() {
+        if (chatDirectory == null) {
+            ComputeConfig computeConfig = config.computeConfig;
+            chatDirectory = new ChatDirectory(ChatAPIFactory.getChatApiDao(config),
+                                              computeConfig.chatDirectoryRefreshSecs,
+                                              TimeUnit.SECONDS.toMillis(
+                                                  computeConfig.chatDirectoryMinMissReloadSecs));
+            chatDirectory.startAsync().awaitRunning();
+        }
+        return chatDirectory;
+    }
+
+    @Override
+    public void cleanup() {
+        if (chatDirectory != null) {
+            chatDirectory.stopAsync();
+        }
+        if (metrics != null) {
+            metrics.close();
+        }
+    }
+
 }
@@ -1,133 +1,134 @@
 package com.chatalytics.compute.storm.bolt;
 
+import com.chatalytics.compute.analysis.EmojiAnalyzer;
 import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
+import com.chatalytics.compute.db.dao.IChatAlyticsDAO;
 import com.chatalytics.compute.db.dao.IEmojiDAO;
+import com.chatalytics.compute.metrics.ComponentMetrics;
+import com.chatalytics.compute.metrics.LatencyHistogram;
 import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.TopologyConfig;
 import com.chatalytics.core.model.data.EmojiEntity;
-import com.chatalytics.core.model.data.FatMessage;
-import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.MessageEnvelope;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
 
-import org.apache.storm.shade.com.google.common.collect.ImmutableList;
-import org.apache.storm.shade.com.google.common.collect.Lists;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
 import org.apache.storm.tuple.Fields;
 import org.apache.storm.tuple.Tuple;
 import org.apache.storm.tuple.Values;
+import org.apache.storm.utils.TupleUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
 import java.util.Map;
-import java.util.PrimitiveIterator.OfInt;
-import java.util.Set;
-
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bolt that extracts the emojis of every chat message and emits them. When enabled with
+ * {@link TopologyConfig#aggregationBucketSecs}, emoji counts are summed up per time bucket and the
+ * buckets that are over are persisted in one transaction on every tick tuple. Buckets that couldn't
+ * be persisted are kept and retried on the next tick.
+ *
+ * @author giannis
+ */
 public class EmojiCounterBolt extends ChatAlyticsBaseBolt {
 
     private static final long serialVersionUID = -3543087188985057557L;
     public static final String BOLT_ID = "EMOJI_COUNTER_BOLT_ID";
-    private static final String EMOJI_ENTITY_FIELD_STR = "emoji-entity";
+    public static final String EMOJI_ENTITY_FIELD_STR = "emoji-entity";
     private static final Logger LOG = LoggerFactory.getLogger(EmojiCounterBolt.class);
-    private static Set<Character> BLACKLISTED_CHARS = ImmutableSet.of(' ', ',', '{', '}', '\t',
-                                                                      '\n', '/', '\\');
 
     private IEmojiDAO emojiDao;
+    private IChatAlyticsDAO dao;
+    private MentionAggregator<EmojiEntity> aggregator;
+    private LatencyHistogram persistLatency;
     private OutputCollector collector;
+    private EmojiAnalyzer emojiAnalyzer = new EmojiAnalyzer(null);
 
     @Override
     public void prepare(ChatAlyticsConfig config, @SuppressWarnings("rawtypes") Map conf,
                         TopologyContext context, OutputCollector collector) {
-        this.emojiDao = ChatAlyticsDAOFactory.createEmojiDAO(config);
+        this.emojiAnalyzer = new EmojiAnalyzer(config.computeConfig.chatConfig);
+        this.persistLatency = getMetrics().histogram(ComponentMetrics.DB_PERSIST_LATENCY);
+        int bucketSecs = config.computeConfig.topologyConfig.aggregationBucketSecs;
+        if (bucketSecs > 0) {
+            this.aggregator = new MentionAggregator<>(
+                TimeUnit.SECONDS.toMillis(bucketSecs),
+                (emoji, bucketStart, occurrences) ->
+                    new EmojiEntity(emoji.getUsername(), emoji.getRoomName(), bucketStart,
+                                    emoji.getValue(), occurrences, emoji.isBot()));
+            this.dao = ChatAlyticsDAOFactory.createChatAlyticsDao(config);
+            if (!dao.isRunning()) {
+                dao.startAsync().awaitRunning();
+            }
+        } else {
+            this.emojiDao = ChatAlyticsDAOFactory.createEmojiDAO(config);
+        }
         this.collector = collector;
     }
 
     @Override
-    public void execute(Tuple input) {
+    protected void process(Tuple input) {
+        if (TupleUtils.isTick(input)) {
+            if (aggregator != null) {
+                flushClosedBuckets();
+            }
+            return;
+        }
         LOG.debug("Got tuple: {}", input);
-        FatMessage fatMessage = (FatMessage) input.getValue(0);
+        MessageEnvelope message = (MessageEnvelope) input.getValue(0);
 
-        List<EmojiEntity> emojis = getEmojisFromMessage(fatMessage);
+        List<EmojiEntity> emojis = getEmojisFromMessage(message);
 
         for (EmojiEntity emoji : emojis) {
-            emojiDao.persistEmoji(emoji);
+            if (aggregator == null) {
+                persistLatency.time(() -> emojiDao.persistEmoji(emoji));
+            } else {
+                aggregator.add(emoji);
+            }
             collector.emit(new Values(emoji));
         }
+        collector.ack(input);
     }
 
-    @VisibleForTesting
-    protected List<EmojiEntity> getEmojisFromMessage(FatMessage fatMessage) {
-        String message = fatMessage.getMessage().getMessage();
-
-        if (message == null) {
-            return ImmutableList.of();
-        }
-
-        Map<String, EmojiEntity> emojis = Maps.newHashMap();
-
-        OfInt charIterator = message.chars().iterator();
-
-        Room room = fatMessage.getRoom();
-        String roomName = null;
-        if (room != null) {
-            roomName = room.getName();
+    /**
+     * Persists the buckets that are over. The ones that fail are kept for the next tick
+     */
+    private void flushClosedBuckets() {
+        int failedBuckets = aggregator.flushClosed(System.currentTimeMillis(), this::persist);
+        if (failedBuckets > 0) {
+            LOG.warn("Couldn't persist {} emoji buckets. Will retry on the next tick",
+                     failedBuckets);
         }
+    }
 
-        boolean capturingEmoji = false;
-        StringBuilder emojiStrBuilder = new StringBuilder();
-
-        while (charIterator.hasNext()) {
-            int asciiValue = charIterator.next();
-            char ch = (char) asciiValue;
-            if (ch == ':') {
-                // done capturing
-                if (capturingEmoji) {
-
-                    // There's another : right after so continue capturing from there but skip this
-                    if (emojiStrBuilder.length() <= 0) {
-                        emojiStrBuilder = new StringBuilder();
-                        continue;
-                    }
-
-                    String emoji = emojiStrBuilder.toString();
-
-                    EmojiEntity existingEmoji = emojis.remove(emoji);
-                    int occurrences;
-                    if (existingEmoji == null) {
-                        occurrences = 1;
-                    } else {
-                        occurrences = existingEmoji.getOccurrences() + 1;
-                    }
-
-                    emojis.put(emoji, new EmojiEntity(fatMessage.getUser().getMentionName(),
-                                                      roomName,
-                                                      fatMessage.getMessage().getDate(),
-                                                      emoji,
-                                                      occurrences,
-                                                      fatMessage.getUser().isBot()));
-                    emojiStrBuilder = new StringBuilder();
-                }
-                capturingEmoji = !capturingEmoji;
-                continue;
-            }
-            if (capturingEmoji) {
-
-                if (BLACKLISTED_CHARS.contains(ch)) {
-                    capturingEmoji = !capturingEmoji;
-                    emojiStrBuilder = new StringBuilder();
-                    continue;
-                }
+    /**
+     * @return The emojis that couldn't be persisted
+     */
+    private List<EmojiEntity> persist(List<EmojiEntity> emojis) {
+        LOG.debug("Persisting {} aggregated emojis", emojis.size());
+        long startNanos = System.nanoTime();
+        List<EmojiEntity> failedEmojis = dao.persistAll(emojis);
+        persistLatency.recordSince(startNanos);
+        return failedEmojis;
+    }
 
-                emojiStrBuilder.append(ch);
-            }
-        }
+    /**
+     * @return The number of emoji buckets that weren't persisted yet
+     */
+    @VisibleForTesting
+    protected int getPendingBuckets() {
+        return aggregator == null ? 0 : aggregator.size();
+    }
 
+    @VisibleForTesting
+    protected List<EmojiEntity> getEmojisFromMessage(MessageEnvelope message) {
+        List<EmojiEntity> emojis = emojiAnalyzer.analyze(message);
         LOG.debug("Extracted {} emojis", emojis.size());
-
-        return Lists.newArrayList(emojis.values());
+        return emojis;
     }
 
     @Override
@@ -138,6 +139,14 @@ public class EmojiCounterBolt extends ChatAlyticsBaseBolt {
     @Override
     public void cleanup() {
         LOG.debug("Cleaning up {}", this.getClass().getSimpleName());
+        super.cleanup();
+        if (aggregator != null && dao != null && dao.isRunning()) {
+            int failedBuckets = aggregator.flushAll(this::persist);
+            if (failedBuckets > 0) {
+                LOG.error("Couldn't persist {} emoji buckets on shutdown", failedBuckets);
+            }
+            dao.stopAsync().awaitTerminated();
+        }
         if (emojiDao != null && emojiDao.isRunning()) {
             emojiDao.stopAsync().awaitTerminated();
         }
@@ -1,18 +1,16 @@
 package com.chatalytics.compute.storm.bolt;
 
+import com.chatalytics.compute.analysis.EntityAnalyzer;
 import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
 import com.chatalytics.compute.db.dao.IEntityDAO;
+import com.chatalytics.compute.entity.IEntityExtractor;
+import com.chatalytics.compute.metrics.ComponentMetrics;
+import com.chatalytics.compute.metrics.LatencyHistogram;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.chatalytics.core.model.data.ChatEntity;
-import com.chatalytics.core.model.data.FatMessage;
-import com.chatalytics.core.model.data.Message;
-import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.MessageEnvelope;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.io.Resources;
 
-import org.apache.storm.shade.com.google.common.collect.ImmutableList;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
@@ -22,19 +20,15 @@ import org.apache.storm.tuple.Values;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import edu.stanford.nlp.ie.AbstractSequenceClassifier;
-import edu.stanford.nlp.ie.crf.CRFClassifier;
-import edu.stanford.nlp.ling.CoreLabel;
-import edu.stanford.nlp.util.Triple;
-
-import java.net.URL;
 import java.util.List;
 import java.util.Map;
 
 /**
  * This bolt received one message at a time, parses the text of the message and extract entities.
  * Once the entities are extracted and a {@link ChatEntity} object is created, it's persisted to a
- * database.
+ * database. The engine used for extracting entities is an {@link IEntityExtractor} picked by the
+ * compute config. Unless disabled, its results are cached by message text so that repeated messages
+ * are only parsed once.
  *
  * @author giannis
  *
@@ -46,17 +40,22 @@ public class EntityExtractionBolt extends ChatAlyticsBaseBolt {
 
     public static final String BOLT_ID = "ENTITY_EXTRACTION_BOLT_ID";
     public static final String CHAT_ENTITY_FIELD_STR = "chat-entity";
-    private static final int MAX_ENTITY_CHARS = 150;
+    public static final String PRE_FILTER_METRIC = "entity-pre-filter";
+    public static final String CACHE_METRIC = "entity-cache";
+    public static final int METRICS_INTERVAL_SECS = 60;
 
-    private AbstractSequenceClassifier<CoreLabel> classifier;
+    private EntityAnalyzer entityAnalyzer;
     private IEntityDAO entityDao;
+    private LatencyHistogram persistLatency;
     private OutputCollector collector;
 
     @Override
     public void prepare(ChatAlyticsConfig config, @SuppressWarnings("rawtypes") Map conf,
                         TopologyContext context, OutputCollector collector) {
-        classifier = getClassifier(config.computeConfig.classifier);
+        entityAnalyzer = new EntityAnalyzer(config.computeConfig);
+        registerMetrics(entityAnalyzer, context);
         entityDao = ChatAlyticsDAOFactory.createEntityDAO(config);
+        persistLatency = getMetrics().histogram(ComponentMetrics.DB_PERSIST_LATENCY);
         if (!entityDao.isRunning()) {
             entityDao.startAsync().awaitRunning();
         }
@@ -64,82 +63,41 @@ public class EntityExtractionBolt extends ChatAlyticsBaseBolt {
     }
 
     /**
-     * Gets the classifier to use for parsing text
-     *
-     * @param config
-     *            The configuration object containing information about which classifier to use.
-     * @return The classifier to use for extracting entities.
+     * Registers the pre-filter and cache metrics of an {@link EntityAnalyzer}
      */
-    private AbstractSequenceClassifier<CoreLabel> getClassifier(String classifierStr) {
-        URL classifierURL = Resources.getResource(classifierStr);
-        AbstractSequenceClassifier<CoreLabel> classifier =
-            CRFClassifier.getClassifierNoExceptions(classifierURL.getPath());
-        return classifier;
+    protected static void registerMetrics(EntityAnalyzer entityAnalyzer, TopologyContext context) {
+        context.registerMetric(PRE_FILTER_METRIC, entityAnalyzer.getPreFilterMetric(),
+                               METRICS_INTERVAL_SECS);
+        if (entityAnalyzer.isCaching()) {
+            context.registerMetric(CACHE_METRIC, entityAnalyzer::getCacheMetrics,
+                                   METRICS_INTERVAL_SECS);
+        }
     }
 
     @Override
-    public void execute(Tuple input) {
+    protected void process(Tuple input) {
         LOG.debug("Got tuple: {}", input);
-        FatMessage fatMessage = (FatMessage) input.getValue(0);
+        MessageEnvelope message = (MessageEnvelope) input.getValue(0);
 
-        List<ChatEntity> entities = extractEntities(fatMessage);
+        List<ChatEntity> entities = extractEntities(message);
 
         for (ChatEntity entity : entities) {
-            entityDao.persistEntity(entity);
+            persistLatency.time(() -> entityDao.persistEntity(entity));
             collector.emit(new Values(entity));
         }
+        collector.ack(input);
     }
 
     /**
-     * Given a message this method uses a classifier to extract entities.
+     * Given a message this method uses an {@link EntityAnalyzer} to extract entities.
      *
-     * @param fatMessage
+     * @param message
      *            The message containing the text to parse.
      * @return A list of entities from the text
      */
     @VisibleForTesting
-    protected List<ChatEntity> extractEntities(FatMessage fatMessage) {
-
-        Message message = fatMessage.getMessage();
-        String messageStr = message.getMessage();
-
-        if (messageStr == null) {
-            return ImmutableList.of();
-        }
-
-        List<Triple<String,Integer,Integer>> classification =
-                classifier.classifyToCharacterOffsets(messageStr);
-        Map<String, ChatEntity> entities = Maps.newHashMapWithExpectedSize(classification.size());
-
-        for (Triple<String, Integer, Integer> triple : classification) {
-            if (triple.third - triple.second > MAX_ENTITY_CHARS) {
-                continue;
-            }
-            String entity = messageStr.substring(triple.second, triple.third);
-            ChatEntity existingEntity = entities.remove(entity);
-            int occurrences;
-            if (existingEntity == null) {
-                occurrences = 1;
-            } else {
-                occurrences = existingEntity.getOccurrences() + 1;
-            }
-            Room room = fatMessage.getRoom();
-            String roomName = null;
-            if (room != null) {
-                roomName = room.getName();
-            }
-            entities.put(entity, new ChatEntity(fatMessage.getUser().getMentionName(),
-                                                roomName,
-                                                message.getDate(),
-                                                entity,
-                                                occurrences,
-                                                fatMessage.getUser().isBot()));
-
-        }
-
-        LOG.debug("Extracted {} entities", entities.size());
-
-        return Lists.newArrayList(entities.values());
+    protected List<ChatEntity> extractEntities(MessageEnvelope message) {
+        return entityAnalyzer.analyze(message);
     }
 
     @Override
@@ -147,9 +105,28 @@ public class EntityExtractionBolt extends ChatAlyticsBaseBolt {
         fields.declare(new Fields(CHAT_ENTITY_FIELD_STR));
     }
 
+    @VisibleForTesting
+    protected long getEstimatedSavedMillis() {
+        return entityAnalyzer.getEstimatedSavedMillis();
+    }
+
+    @VisibleForTesting
+    protected long getSkippedMessages() {
+        return entityAnalyzer.getSkippedMessages();
+    }
+
+    @VisibleForTesting
+    protected Map<String, Object> getCacheMetrics() {
+        return entityAnalyzer.getCacheMetrics();
+    }
+
     @Override
     public void cleanup() {
         LOG.debug("Cleaning up {}", this.getClass().getSimpleName());
+        super.cleanup();
+        if (entityAnalyzer != null) {
+            entityAnalyzer.logStats();
+        }
         if (entityDao != null && entityDao.isRunning()) {
             entityDao.stopAsync().awaitTerminated();
         }
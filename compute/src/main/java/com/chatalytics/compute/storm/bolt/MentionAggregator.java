@@ -0,0 +1,234 @@
+package com.chatalytics.compute.storm.bolt;
+
+import com.chatalytics.core.model.data.IMentionable;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.joda.time.DateTime;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Sums the occurrences of mentionable values per user, room, value and time bucket, so that a bolt
+ * can persist one row per bucket instead of one row per message. Values are dated with the start
+ * of their bucket. Since all the stored counts are summed up when they're queried, a value that
+ * arrives after its bucket was flushed is simply persisted with the next flush. A bucket that
+ * couldn't be persisted is kept and persisted with the next flush.
+ * <p/>
+ * This class is not thread safe. It's meant to be used from the executor thread of a bolt.
+ *
+ * @author giannis
+ *
+ * @param <T>
+ *            The type of the aggregated values
+ */
+public class MentionAggregator<T extends IMentionable<?>> {
+
+    private final long bucketMillis;
+    private final Factory<T> factory;
+    private final Map<BucketKey, Bucket<T>> buckets;
+
+    /**
+     * @param bucketMillis
+     *            The size of the time buckets
+     * @param factory
+     *            Creates the aggregated value of a bucket
+     */
+    public MentionAggregator(long bucketMillis, Factory<T> factory) {
+        Preconditions.checkArgument(bucketMillis > 0, "Bucket size has to be positive");
+        this.bucketMillis = bucketMillis;
+        this.factory = factory;
+        this.buckets = Maps.newHashMap();
+    }
+
+    /**
+     * Adds the occurrences of a value to its bucket
+     */
+    public void add(T value) {
+        DateTime mentionTime = value.getMentionTime();
+        DateTime bucketStart = null;
+        if (mentionTime != null) {
+            long millis = mentionTime.getMillis();
+            bucketStart = new DateTime(millis - Math.floorMod(millis, bucketMillis),
+                                       mentionTime.getZone());
+        }
+        BucketKey key = new BucketKey(value, bucketStart);
+        Bucket<T> bucket = buckets.get(key);
+        if (bucket == null) {
+            buckets.put(key, new Bucket<>(value, bucketStart));
+        } else {
+            bucket.occurrences += value.getOccurrences();
+        }
+    }
+
+    /**
+     * Removes the buckets that ended by the given time. Values without a mention time are always
+     * removed
+     *
+     * @param nowMillis
+     *            The current time
+     * @return The aggregated values of the removed buckets
+     */
+    public List<T> flushClosed(long nowMillis) {
+        List<T> values = Lists.newArrayList();
+        flushClosed(nowMillis, closedValues -> {
+            values.addAll(closedValues);
+            return Collections.emptyList();
+        });
+        return values;
+    }
+
+    /**
+     * Writes the aggregated values of the buckets that ended by the given time, and removes the
+     * buckets that were written. The buckets whose values couldn't be written are kept, along with
+     * anything added to them later, and are written again with the next flush. Values without a
+     * mention time are always flushed
+     *
+     * @param nowMillis
+     *            The current time
+     * @param writer
+     *            Writes the aggregated values
+     * @return The number of values that couldn't be written
+     */
+    public int flushClosed(long nowMillis, Writer<T> writer) {
+        Map<T, BucketKey> values = Maps.newIdentityHashMap();
+        for (Map.Entry<BucketKey, Bucket<T>> entry : buckets.entrySet()) {
+            Bucket<T> bucket = entry.getValue();
+            if (bucket.start == null || bucket.start.getMillis() + bucketMillis <= nowMillis) {
+                values.put(factory.create(bucket.first, bucket.start, bucket.occurrences),
+                           entry.getKey());
+            }
+        }
+        if (values.isEmpty()) {
+            return 0;
+        }
+        Set<T> failedValues = Sets.newIdentityHashSet();
+        failedValues.addAll(writer.write(Lists.newArrayList(values.keySet())));
+        for (Map.Entry<T, BucketKey> entry : values.entrySet()) {
+            if (!failedValues.contains(entry.getKey())) {
+                buckets.remove(entry.getValue());
+            }
+        }
+        return failedValues.size();
+    }
+
+    /**
+     * Removes all the buckets, including the ones that are still open
+     *
+     * @return The aggregated values of all the buckets
+     */
+    public List<T> flushAll() {
+        return flushClosed(Long.MAX_VALUE);
+    }
+
+    /**
+     * Writes all the buckets, including the ones that are still open, and removes the ones that
+     * were written
+     *
+     * @param writer
+     *            Writes the aggregated values
+     * @return The number of values that couldn't be written
+     */
+    public int flushAll(Writer<T> writer) {
+        return flushClosed(Long.MAX_VALUE, writer);
+    }
+
+    /**
+     * @return The number of buckets that weren't flushed yet
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    /**
+     * Creates the value persisted for a bucket
+     */
+    @FunctionalInterface
+    public interface Factory<T> {
+
+        /**
+         * @param first
+         *            The first value added to the bucket. Its user, room and value are the ones of
+         *            the bucket
+         * @param bucketStart
+         *            The start of the bucket or null if the values have no mention time
+         * @param occurrences
+         *            The total occurrences in the bucket
+         * @return The aggregated value
+         */
+        T create(T first, DateTime bucketStart, int occurrences);
+    }
+
+    /**
+     * Writes the aggregated values of flushed buckets
+     */
+    @FunctionalInterface
+    public interface Writer<T> {
+
+        /**
+         * @param values
+         *            The aggregated values to write
+         * @return The given values that couldn't be written. Their buckets are kept for the next
+         *         flush
+         */
+        List<T> write(List<T> values);
+    }
+
+    private static class Bucket<T extends IMentionable<?>> {
+
+        private final T first;
+        private final DateTime start;
+        private int occurrences;
+
+        private Bucket(T first, DateTime start) {
+            this.first = first;
+            this.start = start;
+            this.occurrences = first.getOccurrences();
+        }
+    }
+
+    private static class BucketKey {
+
+        private final Object value;
+        private final String username;
+        private final String roomName;
+        private final boolean bot;
+        private final DateTime start;
+
+        private BucketKey(IMentionable<?> mentionable, DateTime start) {
+            this.value = mentionable.getValue();
+            this.username = mentionable.getUsername();
+            this.roomName = mentionable.getRoomName();
+            this.bot = mentionable.isBot();
+            this.start = start;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof BucketKey)) {
+                return false;
+            }
+            BucketKey other = (BucketKey) obj;
+            return bot == other.bot
+                && Objects.equals(value, other.value)
+                && Objects.equals(username, other.username)
+                && Objects.equals(roomName, other.roomName)
+                && Objects.equals(start, other.start);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(value, username, roomName, bot, start);
+        }
+    }
+
+}
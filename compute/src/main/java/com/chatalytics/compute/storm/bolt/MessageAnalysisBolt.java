@@ -0,0 +1,165 @@
+package com.chatalytics.compute.storm.bolt;
+
+import com.chatalytics.compute.analysis.EmojiAnalyzer;
+import com.chatalytics.compute.analysis.EntityAnalyzer;
+import com.chatalytics.compute.analysis.MessageSummaryAnalyzer;
+import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
+import com.chatalytics.compute.db.dao.IChatAlyticsDAO;
+import com.chatalytics.compute.metrics.ComponentMetrics;
+import com.chatalytics.compute.metrics.Counter;
+import com.chatalytics.compute.metrics.LatencyHistogram;
+import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.IMentionable;
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.topology.OutputFieldsDeclarer;
+import org.apache.storm.tuple.Fields;
+import org.apache.storm.tuple.Tuple;
+import org.apache.storm.tuple.Values;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bolt that runs the entity, emoji and message summary analysis on a message in a single pass. It
+ * replaces the {@link EntityExtractionBolt}, {@link EmojiCounterBolt} and
+ * {@link MessageSummaryBolt} when the topology runs in fused mode, so every message is transferred
+ * once and all its results are persisted in one transaction. Results are emitted on a separate
+ * stream per type. A message is failed if none of its results could be persisted. Results that
+ * still can't be persisted after a retry, while others of the same message were, are dropped and
+ * counted, since replaying the message would count the others twice.
+ *
+ * @author giannis
+ */
+public class MessageAnalysisBolt extends ChatAlyticsBaseBolt {
+
+    private static final long serialVersionUID = 8010585005497938153L;
+    private static final Logger LOG = LoggerFactory.getLogger(MessageAnalysisBolt.class);
+
+    public static final String BOLT_ID = "MESSAGE_ANALYSIS_BOLT_ID";
+    public static final String CHAT_ENTITY_STREAM_ID = "chat-entity-stream";
+    public static final String EMOJI_ENTITY_STREAM_ID = "emoji-entity-stream";
+    public static final String MESSAGE_SUMMARY_STREAM_ID = "message-summary-stream";
+
+    private EntityAnalyzer entityAnalyzer;
+    private EmojiAnalyzer emojiAnalyzer;
+    private MessageSummaryAnalyzer messageSummaryAnalyzer;
+    private IChatAlyticsDAO dao;
+    private LatencyHistogram persistLatency;
+    private Counter droppedValues;
+    private OutputCollector collector;
+
+    @Override
+    public void prepare(ChatAlyticsConfig config, @SuppressWarnings("rawtypes") Map conf,
+                        TopologyContext context, OutputCollector collector) {
+        this.entityAnalyzer = new EntityAnalyzer(config.computeConfig);
+        EntityExtractionBolt.registerMetrics(entityAnalyzer, context);
+        this.emojiAnalyzer = new EmojiAnalyzer(config.computeConfig.chatConfig);
+        this.messageSummaryAnalyzer = new MessageSummaryAnalyzer();
+        this.dao = createDao(config);
+        this.persistLatency = getMetrics().histogram(ComponentMetrics.DB_PERSIST_LATENCY);
+        this.droppedValues = getMetrics().counter(ComponentMetrics.DB_DROPPED_VALUES);
+        if (!dao.isRunning()) {
+            dao.startAsync().awaitRunning();
+        }
+        this.collector = collector;
+    }
+
+    @Override
+    protected void process(Tuple input) {
+        LOG.debug("Got tuple: {}", input);
+        MessageEnvelope message = (MessageEnvelope) input.getValue(0);
+
+        List<ChatEntity> entities = entityAnalyzer.analyze(message);
+        List<EmojiEntity> emojis = emojiAnalyzer.analyze(message);
+        MessageSummary messageSummary = messageSummaryAnalyzer.analyze(message);
+
+        List<IMentionable<?>> batch = toBatch(entities, emojis, messageSummary);
+        List<IMentionable<?>> failedValues = persist(batch);
+        if (failedValues.size() == batch.size()) {
+            // nothing was stored, so the message can be replayed without double counting
+            LOG.warn("Couldn't persist any of the results of {}. Failing it", message);
+            collector.fail(input);
+            return;
+        }
+        if (!failedValues.isEmpty()) {
+            failedValues = persist(failedValues);
+            if (!failedValues.isEmpty()) {
+                LOG.error("Dropping {} of the {} results of {}. They were: {}",
+                          failedValues.size(), batch.size(), message, failedValues);
+                droppedValues.add(failedValues.size());
+            }
+        }
+
+        for (ChatEntity entity : entities) {
+            collector.emit(CHAT_ENTITY_STREAM_ID, new Values(entity));
+        }
+        for (EmojiEntity emoji : emojis) {
+            collector.emit(EMOJI_ENTITY_STREAM_ID, new Values(emoji));
+        }
+        collector.emit(MESSAGE_SUMMARY_STREAM_ID, new Values(messageSummary));
+        collector.ack(input);
+    }
+
+    /**
+     * @return The values that couldn't be persisted
+     */
+    private List<IMentionable<?>> persist(List<IMentionable<?>> values) {
+        long startNanos = System.nanoTime();
+        List<IMentionable<?>> failedValues = dao.persistAll(values);
+        persistLatency.recordSince(startNanos);
+        return failedValues;
+    }
+
+    @VisibleForTesting
+    protected IChatAlyticsDAO createDao(ChatAlyticsConfig config) {
+        return ChatAlyticsDAOFactory.createChatAlyticsDao(config);
+    }
+
+    /**
+     * @return All the results of a message in the order they should be persisted
+     */
+    @VisibleForTesting
+    protected static List<IMentionable<?>> toBatch(List<ChatEntity> entities,
+                                                   List<EmojiEntity> emojis,
+                                                   MessageSummary messageSummary) {
+        List<IMentionable<?>> batch =
+            Lists.newArrayListWithCapacity(entities.size() + emojis.size() + 1);
+        batch.addAll(entities);
+        batch.addAll(emojis);
+        batch.add(messageSummary);
+        return batch;
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer fields) {
+        fields.declareStream(CHAT_ENTITY_STREAM_ID,
+                             new Fields(EntityExtractionBolt.CHAT_ENTITY_FIELD_STR));
+        fields.declareStream(EMOJI_ENTITY_STREAM_ID,
+                             new Fields(EmojiCounterBolt.EMOJI_ENTITY_FIELD_STR));
+        fields.declareStream(MESSAGE_SUMMARY_STREAM_ID,
+                             new Fields(MessageSummaryBolt.MESSAGE_SUMMARY_FIELD_STR));
+    }
+
+    @Override
+    public void cleanup() {
+        LOG.debug("Cleaning up {}", this.getClass().getSimpleName());
+        super.cleanup();
+        if (entityAnalyzer != null) {
+            entityAnalyzer.logStats();
+        }
+        if (dao != null && dao.isRunning()) {
+            dao.stopAsync().awaitTerminated();
+        }
+    }
+
+}
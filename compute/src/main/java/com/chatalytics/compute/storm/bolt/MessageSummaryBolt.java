@@ -1,11 +1,16 @@
 package com.chatalytics.compute.storm.bolt;
 
+import com.chatalytics.compute.analysis.MessageSummaryAnalyzer;
 import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
+import com.chatalytics.compute.db.dao.IChatAlyticsDAO;
 import com.chatalytics.compute.db.dao.IMessageSummaryDAO;
+import com.chatalytics.compute.metrics.ComponentMetrics;
+import com.chatalytics.compute.metrics.LatencyHistogram;
 import com.chatalytics.core.config.ChatAlyticsConfig;
-import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.config.TopologyConfig;
+import com.chatalytics.core.model.data.MessageEnvelope;
 import com.chatalytics.core.model.data.MessageSummary;
-import com.chatalytics.core.model.data.MessageType;
+import com.google.common.annotations.VisibleForTesting;
 
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
@@ -13,51 +18,105 @@ import org.apache.storm.topology.OutputFieldsDeclarer;
 import org.apache.storm.tuple.Fields;
 import org.apache.storm.tuple.Tuple;
 import org.apache.storm.tuple.Values;
-import org.joda.time.DateTime;
+import org.apache.storm.utils.TupleUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Bolt that simply emits a summarized event for every chat message
+ * Bolt that simply emits a summarized event for every chat message. When enabled with
+ * {@link TopologyConfig#aggregationBucketSecs}, the summaries are counted per time bucket and the
+ * buckets that are over are persisted in one transaction on every tick tuple. Buckets that couldn't
+ * be persisted are kept and retried on the next tick.
  *
  * @author giannis
  */
 public class MessageSummaryBolt extends ChatAlyticsBaseBolt {
 
     private static final long serialVersionUID = 2580435620776513082L;
+    private static final Logger LOG = LoggerFactory.getLogger(MessageSummaryBolt.class);
 
     public static final String BOLT_ID = "MESSAGE_COUNTER_BOLT_ID";
-    private static final String MESSAGE_SUMMARY_FIELD_STR = "message-summary";
+    public static final String MESSAGE_SUMMARY_FIELD_STR = "message-summary";
 
     private OutputCollector collector;
     private IMessageSummaryDAO messageSummaryDao;
+    private IChatAlyticsDAO dao;
+    private MentionAggregator<MessageSummary> aggregator;
+    private LatencyHistogram persistLatency;
+    private final MessageSummaryAnalyzer messageSummaryAnalyzer = new MessageSummaryAnalyzer();
 
     @Override
     public void prepare(ChatAlyticsConfig config, @SuppressWarnings("rawtypes") Map stormConf,
                         TopologyContext context, OutputCollector collector) {
         this.collector = collector;
-        this.messageSummaryDao = ChatAlyticsDAOFactory.createMessageSummaryDAO(config);
+        this.persistLatency = getMetrics().histogram(ComponentMetrics.DB_PERSIST_LATENCY);
+        int bucketSecs = config.computeConfig.topologyConfig.aggregationBucketSecs;
+        if (bucketSecs > 0) {
+            this.aggregator = new MentionAggregator<>(
+                TimeUnit.SECONDS.toMillis(bucketSecs),
+                (summary, bucketStart, occurrences) ->
+                    new MessageSummary(summary.getUsername(), summary.getRoomName(), bucketStart,
+                                       summary.getValue(), occurrences, summary.isBot()));
+            this.dao = ChatAlyticsDAOFactory.createChatAlyticsDao(config);
+            if (!dao.isRunning()) {
+                dao.startAsync().awaitRunning();
+            }
+        } else {
+            this.messageSummaryDao = ChatAlyticsDAOFactory.createMessageSummaryDAO(config);
+        }
     }
 
     @Override
-    public void execute(Tuple input) {
-        FatMessage fatMessage = (FatMessage) input.getValue(0);
-        String username = null;
-        String roomName = null;
-        boolean isBot = true;
-        if (fatMessage.getUser() != null) {
-            username = fatMessage.getUser().getMentionName();
-            isBot = fatMessage.getUser().isBot();
-        }
-        if (fatMessage.getRoom() != null) {
-            roomName = fatMessage.getRoom().getName();
+    protected void process(Tuple input) {
+        if (TupleUtils.isTick(input)) {
+            if (aggregator != null) {
+                flushClosedBuckets();
+            }
+            return;
         }
-        DateTime messageDate = fatMessage.getMessage().getDate();
-        MessageType type = fatMessage.getMessage().getType();
-        MessageSummary chatSummary = new MessageSummary(username, roomName, messageDate, type, 1,
-                                                        isBot);
+        MessageEnvelope message = (MessageEnvelope) input.getValue(0);
+        MessageSummary chatSummary = messageSummaryAnalyzer.analyze(message);
         collector.emit(new Values(chatSummary));
-        messageSummaryDao.persistMessageSummary(chatSummary);
+        if (aggregator == null) {
+            persistLatency.time(() -> messageSummaryDao.persistMessageSummary(chatSummary));
+        } else {
+            aggregator.add(chatSummary);
+        }
+        collector.ack(input);
+    }
+
+    /**
+     * Persists the buckets that are over. The ones that fail are kept for the next tick
+     */
+    private void flushClosedBuckets() {
+        int failedBuckets = aggregator.flushClosed(System.currentTimeMillis(), this::persist);
+        if (failedBuckets > 0) {
+            LOG.warn("Couldn't persist {} message summary buckets. Will retry on the next tick",
+                     failedBuckets);
+        }
+    }
+
+    /**
+     * @return The message summaries that couldn't be persisted
+     */
+    private List<MessageSummary> persist(List<MessageSummary> summaries) {
+        LOG.debug("Persisting {} aggregated message summaries", summaries.size());
+        long startNanos = System.nanoTime();
+        List<MessageSummary> failedSummaries = dao.persistAll(summaries);
+        persistLatency.recordSince(startNanos);
+        return failedSummaries;
+    }
+
+    /**
+     * @return The number of message summary buckets that weren't persisted yet
+     */
+    @VisibleForTesting
+    protected int getPendingBuckets() {
+        return aggregator == null ? 0 : aggregator.size();
     }
 
     @Override
@@ -65,4 +124,17 @@ public class MessageSummaryBolt extends ChatAlyticsBaseBolt {
         fields.declare(new Fields(MESSAGE_SUMMARY_FIELD_STR));
     }
 
+    @Override
+    public void cleanup() {
+        LOG.debug("Cleaning up {}", this.getClass().getSimpleName());
+        super.cleanup();
+        if (aggregator != null && dao != null && dao.isRunning()) {
+            int failedBuckets = aggregator.flushAll(this::persist);
+            if (failedBuckets > 0) {
+                LOG.error("Couldn't persist {} message summary buckets on shutdown", failedBuckets);
+            }
+            dao.stopAsync().awaitTerminated();
+        }
+    }
+
 }
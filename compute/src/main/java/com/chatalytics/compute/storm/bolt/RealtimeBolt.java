@@ -1,10 +1,10 @@
 package com.chatalytics.compute.storm.bolt;
 
+import com.chatalytics.compute.metrics.ComponentMetrics;
 import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.ComputeConfig;
 import com.chatalytics.core.model.data.ChatAlyticsEvent;
-import com.chatalytics.core.realtime.ChatAlyticsEventEncoder;
 import com.chatalytics.core.realtime.ConnectionType;
-import com.chatalytics.core.realtime.ConnectionTypeEncoderDecoder;
 
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
@@ -15,16 +15,12 @@ import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.io.Serializable;
 import java.net.URI;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-import javax.websocket.ClientEndpoint;
 import javax.websocket.ContainerProvider;
-import javax.websocket.DeploymentException;
-import javax.websocket.EncodeException;
-import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
 
 import static com.chatalytics.compute.web.realtime.RealtimeResource.RT_COMPUTE_ENDPOINT;
@@ -33,28 +29,41 @@ import static com.google.common.base.CaseFormat.UPPER_CAMEL;
 
 /**
  * Realtime bolt that can subscribe to any ChatAlytics {@link Serializable} object and publish it
- * out to the socket clients.
+ * out to the socket clients. Events are handed to a {@link RealtimePublisher}, which batches and
+ * sends them from its own thread, so this bolt never waits on the realtime server.
  *
  * @author giannis
  */
-@ClientEndpoint(encoders = { ChatAlyticsEventEncoder.class, ConnectionTypeEncoderDecoder.class })
 public class RealtimeBolt extends ChatAlyticsBaseBolt {
 
     private static final long serialVersionUID = -214311696491358951L;
     private static final Logger LOG = LoggerFactory.getLogger(RealtimeBolt.class);
     public static final String BOLT_ID = "RT_SOCKET_BOLT_ID";
-    private Session session;
+    private RealtimePublisher publisher;
+    private long shutdownTimeoutSecs;
 
     @Override
     public void prepare(ChatAlyticsConfig config, @SuppressWarnings("rawtypes") Map conf,
                         TopologyContext context, OutputCollector collector) {
-        WebSocketContainer webSocketContainer = getWebSocketContainer();
-        this.session = openRealtimeConnection(webSocketContainer,
-                                              config.computeConfig.rtComputePort);
+        ComputeConfig computeConfig = config.computeConfig;
+        this.shutdownTimeoutSecs = computeConfig.shutdownTimeoutSecs;
+        ComponentMetrics metrics = getMetrics();
+        URI rtURI = URI.create(String.format("ws://%s:%d%s/%s",
+                                             computeConfig.rtComputeHost,
+                                             computeConfig.rtComputePort,
+                                             RT_COMPUTE_ENDPOINT,
+                                             ConnectionType.PUBLISHER));
+        this.publisher = new RealtimePublisher(getWebSocketContainer(), rtURI, computeConfig,
+                                               metrics.histogram(
+                                                   ComponentMetrics.REALTIME_PUBLISH_LATENCY),
+                                               metrics.counter(
+                                                   ComponentMetrics.REALTIME_DROPPED_EVENTS));
+        metrics.gauge(ComponentMetrics.REALTIME_QUEUE_DEPTH, publisher::getQueueDepth);
+        publisher.start();
     }
 
     @Override
-    public void execute(Tuple input) {
+    protected void process(Tuple input) {
         for (Object obj : input.getValues()) {
             Serializable serObj;
             if (obj instanceof Serializable) {
@@ -69,38 +78,7 @@ public class RealtimeBolt extends ChatAlyticsBaseBolt {
                                                           type,
                                                           serObj);
 
-            publishEvent(event);
-        }
-    }
-
-    private void publishEvent(ChatAlyticsEvent event) {
-        try {
-            session.getBasicRemote().sendObject(event);
-        } catch (IOException | EncodeException e) {
-            LOG.error("Can't publish event to realtime compute server. {}", event, e);
-        }
-    }
-
-    /**
-     * Opens a connection to the compute socket. This method will return an optional session. If the
-     * session is absent then this resource will reject user connections
-     *
-     * @param webSocketContainer
-     *            The container
-     * @param config
-     *            ChatAlytics config
-     * @return An optional session
-     */
-    private Session openRealtimeConnection(WebSocketContainer webSocketContainer, int rtPort) {
-        URI rtURI = URI.create(String.format("ws://localhost:%d%s/%s",
-                                             rtPort,
-                                             RT_COMPUTE_ENDPOINT,
-                                             ConnectionType.PUBLISHER));
-        try {
-            LOG.info("Connecting to {}", rtURI);
-            return webSocketContainer.connectToServer(this, rtURI);
-        } catch (DeploymentException | IOException e) {
-            throw new RuntimeException("Unable to connect to RT compute server. Is it up?");
+            publisher.publish(event);
         }
     }
 
@@ -116,10 +94,9 @@ public class RealtimeBolt extends ChatAlyticsBaseBolt {
     @Override
     public void cleanup() {
         LOG.debug("Cleaning up {}", this.getClass().getSimpleName());
-        try {
-            session.close();
-        } catch (IOException e) {
-            LOG.warn("Unable to close session. Reason: {}", e.getMessage());
+        super.cleanup();
+        if (publisher != null) {
+            publisher.stop(shutdownTimeoutSecs, TimeUnit.SECONDS);
         }
     }
 }
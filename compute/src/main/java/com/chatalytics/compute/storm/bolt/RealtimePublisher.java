@@ -0,0 +1,340 @@
+package com.chatalytics.compute.storm.bolt;
+
+import com.chatalytics.compute.metrics.Counter;
+import com.chatalytics.compute.metrics.LatencyHistogram;
+import com.chatalytics.core.config.ComputeConfig;
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.ChatAlyticsEventBatch;
+import com.chatalytics.core.realtime.ChatAlyticsEventBatchEncoder;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.CloseReason;
+import javax.websocket.DeploymentException;
+import javax.websocket.EncodeException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+
+/**
+ * Publishes realtime events to the compute realtime server from a dedicated sender thread, so that
+ * a slow or restarting realtime server never stalls the bolt that produces the events.
+ * <p/>
+ * Events are queued in a bounded queue and dropped when it's full. The sender thread batches them
+ * into frames of up to <code>rtPublishBatchSize</code> events, waiting at most
+ * <code>rtPublishLingerMs</code> for a frame to fill up, encodes them as a JSON array and sends
+ * them asynchronously with at most <code>rtPublishMaxInFlight</code> frames in flight. When the
+ * connection is lost the sender thread reconnects with an exponential backoff, while new events
+ * keep getting queued. Realtime events are best effort, so the events of frames that failed to
+ * send are dropped.
+ *
+ * @author giannis
+ */
+public class RealtimePublisher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RealtimePublisher.class);
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final WebSocketContainer webSocketContainer;
+    private final URI uri;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final int maxInFlight;
+    private final long reconnectBackoffMillis;
+    private final long maxReconnectBackoffMillis;
+    private final LatencyHistogram sendLatency;
+    private final Counter lostEvents;
+    private final BlockingQueue<ChatAlyticsEvent> queue;
+    private final ChatAlyticsEventBatchEncoder encoder;
+    private final ExecutorService executor;
+    private final LongAdder droppedEvents;
+    private final LongAdder failedEvents;
+
+    private volatile boolean stopped;
+    private volatile Session session;
+    /**
+     * Replaced on every connect, so that frames lost with an old session don't hold its permits
+     */
+    private volatile Semaphore inFlight;
+
+    /**
+     * @param webSocketContainer
+     *            The container to connect with
+     * @param uri
+     *            The URI of the compute realtime server
+     * @param config
+     *            The batching, queueing and reconnect settings
+     * @param sendLatency
+     *            Records the time from sending a frame until it's sent
+     * @param lostEvents
+     *            Counts the events that were dropped or failed to send
+     */
+    public RealtimePublisher(WebSocketContainer webSocketContainer, URI uri, ComputeConfig config,
+                             LatencyHistogram sendLatency, Counter lostEvents) {
+        Preconditions.checkArgument(config.rtPublishBatchSize > 0, "Batch size has to be positive");
+        Preconditions.checkArgument(config.rtPublishMaxInFlight > 0,
+                                    "Max in flight frames has to be positive");
+        this.webSocketContainer = webSocketContainer;
+        this.uri = uri;
+        this.batchSize = config.rtPublishBatchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(config.rtPublishLingerMs);
+        this.maxInFlight = config.rtPublishMaxInFlight;
+        this.reconnectBackoffMillis = Math.max(1, config.rtReconnectBackoffMs);
+        this.maxReconnectBackoffMillis = Math.max(reconnectBackoffMillis,
+                                                  config.rtMaxReconnectBackoffMs);
+        this.sendLatency = sendLatency;
+        this.lostEvents = lostEvents;
+        this.queue = new ArrayBlockingQueue<>(config.rtPublishQueueCapacity);
+        this.encoder = new ChatAlyticsEventBatchEncoder();
+        this.executor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("realtime-publisher").setDaemon(true).build());
+        this.droppedEvents = new LongAdder();
+        this.failedEvents = new LongAdder();
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Starts the sender thread, which connects to the realtime server
+     */
+    public void start() {
+        executor.execute(this::run);
+    }
+
+    /**
+     * Queues an event to be published. Never blocks
+     *
+     * @param event
+     *            The event to publish
+     * @return False if the event was dropped because the queue is full
+     */
+    public boolean publish(ChatAlyticsEvent event) {
+        if (queue.offer(event)) {
+            return true;
+        }
+        droppedEvents.increment();
+        lostEvents.increment();
+        LOG.debug("Realtime publish queue is full. Dropping {}", event);
+        return false;
+    }
+
+    /**
+     * Stops the sender thread and closes the connection. Events that are still queued are sent if
+     * there's a connection and they can be sent within the timeout
+     *
+     * @param timeout
+     *            Maximum time to wait for the queued events to be sent
+     * @param unit
+     *            The unit of the timeout
+     * @return True if the sender thread stopped within the timeout
+     */
+    public boolean stop(long timeout, TimeUnit unit) {
+        stopped = true;
+        executor.shutdown();
+        boolean terminated = false;
+        try {
+            terminated = executor.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!terminated) {
+            LOG.warn("Realtime publisher didn't stop within {} {}. Dropping {} events", timeout,
+                     unit, queue.size());
+            executor.shutdownNow();
+        }
+        closeSession();
+        return terminated;
+    }
+
+    /**
+     * @return The number of events waiting to be sent
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return The number of events dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return droppedEvents.sum();
+    }
+
+    /**
+     * @return The number of events whose frames failed to send
+     */
+    public long getFailedCount() {
+        return failedEvents.sum();
+    }
+
+    /**
+     * @return True if there's an open connection to the realtime server
+     */
+    public boolean isConnected() {
+        Session currentSession = session;
+        return currentSession != null && currentSession.isOpen();
+    }
+
+    private void run() {
+        List<ChatAlyticsEvent> batch = Lists.newArrayListWithCapacity(batchSize);
+        long backoffMillis = reconnectBackoffMillis;
+        try {
+            while (!stopped || !queue.isEmpty()) {
+                if (!isConnected()) {
+                    if (stopped) {
+                        break;
+                    }
+                    if (!connect(backoffMillis)) {
+                        Thread.sleep(backoffMillis);
+                        backoffMillis = Math.min(backoffMillis * 2, maxReconnectBackoffMillis);
+                        continue;
+                    }
+                    backoffMillis = reconnectBackoffMillis;
+                }
+                fillBatch(batch);
+                if (!batch.isEmpty()) {
+                    send(batch);
+                    batch.clear();
+                }
+            }
+            if (isConnected()) {
+                // wait for the frames in flight before the session is closed
+                inFlight.acquire(maxInFlight);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.info("Realtime publisher stopped");
+    }
+
+    private boolean connect(long backoffMillis) {
+        try {
+            LOG.info("Connecting to {}", uri);
+            ClientEndpointConfig endpointConfig = ClientEndpointConfig.Builder.create().build();
+            Session newSession = webSocketContainer.connectToServer(new PublisherEndpoint(),
+                                                                    endpointConfig, uri);
+            inFlight = new Semaphore(maxInFlight);
+            session = newSession;
+            return true;
+        } catch (DeploymentException | IOException | RuntimeException e) {
+            LOG.warn("Unable to connect to RT compute server {}. Retrying in {}ms. Reason: {}",
+                     uri, backoffMillis, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Waits for the first event and then for more events until the batch is full or the linger
+     * time is over
+     */
+    private void fillBatch(List<ChatAlyticsEvent> batch) throws InterruptedException {
+        ChatAlyticsEvent first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadlineNanos = System.nanoTime() + lingerNanos;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            if (batch.size() >= batchSize || remainingNanos <= 0) {
+                break;
+            }
+            ChatAlyticsEvent event = queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+            if (event == null) {
+                break;
+            }
+            batch.add(event);
+        }
+    }
+
+    private void send(List<ChatAlyticsEvent> batch) throws InterruptedException {
+        int size = batch.size();
+        String frame;
+        try {
+            frame = encoder.encode(new ChatAlyticsEventBatch(batch));
+        } catch (EncodeException e) {
+            LOG.error("Can't encode {} realtime events", size, e);
+            onFailed(size);
+            return;
+        }
+
+        Semaphore permits = inFlight;
+        while (!permits.tryAcquire(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (!isConnected()) {
+                onFailed(size);
+                return;
+            }
+        }
+        long startNanos = System.nanoTime();
+        try {
+            session.getAsyncRemote().sendText(frame, result -> {
+                permits.release();
+                sendLatency.recordSince(startNanos);
+                if (!result.isOK()) {
+                    onFailed(size);
+                    LOG.warn("Can't publish {} events to realtime compute server. Reason: {}",
+                             size, result.getException().getMessage());
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            onFailed(size);
+            LOG.warn("Can't publish {} events to realtime compute server. Reason: {}", size,
+                     e.getMessage());
+        }
+    }
+
+    private void onFailed(int size) {
+        failedEvents.add(size);
+        lostEvents.add(size);
+    }
+
+    private void closeSession() {
+        Session currentSession = session;
+        if (currentSession == null) {
+            return;
+        }
+        try {
+            currentSession.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to close session. Reason: {}", e.getMessage());
+        }
+    }
+
+    private static class PublisherEndpoint extends Endpoint {
+
+        @Override
+        public void onOpen(Session session, EndpointConfig config) {
+            LOG.info("Connected to realtime compute server with session {}", session.getId());
+        }
+
+        @Override
+        public void onClose(Session session, CloseReason closeReason) {
+            LOG.info("Realtime compute server closed session {}. Reason {}", session.getId(),
+                     closeReason);
+        }
+
+        @Override
+        public void onError(Session session, Throwable t) {
+            LOG.warn("Error in realtime compute session {}", session.getId(), t);
+        }
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.chatalytics.compute.storm.serialization;
+
+import com.chatalytics.core.model.data.ChatEntity;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.joda.time.DateTime;
+
+/**
+ * Serializes {@link ChatEntity}s
+ *
+ * @author giannis
+ */
+public class ChatEntitySerializer extends MentionableSerializer<String, ChatEntity> {
+
+    @Override
+    protected void writeValue(Output output, String value) {
+        output.writeString(value);
+    }
+
+    @Override
+    protected String readValue(Input input) {
+        return input.readString();
+    }
+
+    @Override
+    protected ChatEntity create(String username, String roomName, DateTime mentionTime,
+                                String value, int occurrences, boolean bot) {
+        return new ChatEntity(username, roomName, mentionTime, value, occurrences, bot);
+    }
+
+}
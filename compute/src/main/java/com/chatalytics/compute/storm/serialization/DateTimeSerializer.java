@@ -0,0 +1,70 @@
+package com.chatalytics.compute.storm.serialization;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Writes a {@link DateTime} as its zone ID followed by the variable length milliseconds since the
+ * epoch. The zone ID of UTC, which is what almost all the dates in a tuple are in, is written as an
+ * empty string, so a UTC date takes 7 bytes instead of the hundreds Java serialization takes. The
+ * chronology is not written and is always ISO when read.
+ * <p/>
+ * The static methods are used by the serializers of the objects that have dates and also write
+ * null.
+ *
+ * @author giannis
+ */
+public class DateTimeSerializer extends Serializer<DateTime> {
+
+    private static final String UTC_ID = "";
+
+    public DateTimeSerializer() {
+        setImmutable(true);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, DateTime date) {
+        writeDateTime(output, date);
+    }
+
+    @Override
+    public DateTime read(Kryo kryo, Input input, Class<DateTime> type) {
+        return readDateTime(input);
+    }
+
+    /**
+     * @param output
+     *            The output to write to
+     * @param date
+     *            The date to write. Can be null
+     */
+    public static void writeDateTime(Output output, DateTime date) {
+        if (date == null) {
+            output.writeString(null);
+            return;
+        }
+        DateTimeZone zone = date.getZone();
+        output.writeString(DateTimeZone.UTC.equals(zone) ? UTC_ID : zone.getID());
+        output.writeVarLong(date.getMillis(), true);
+    }
+
+    /**
+     * @param input
+     *            The input to read from
+     * @return The date written by {@link #writeDateTime(Output, DateTime)} or null
+     */
+    public static DateTime readDateTime(Input input) {
+        String zoneId = input.readString();
+        if (zoneId == null) {
+            return null;
+        }
+        DateTimeZone zone = UTC_ID.equals(zoneId) ? DateTimeZone.UTC : DateTimeZone.forID(zoneId);
+        return new DateTime(input.readVarLong(true), zone);
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.chatalytics.compute.storm.serialization;
+
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.joda.time.DateTime;
+
+/**
+ * Serializes {@link EmojiEntity}s
+ *
+ * @author giannis
+ */
+public class EmojiEntitySerializer extends MentionableSerializer<String, EmojiEntity> {
+
+    @Override
+    protected void writeValue(Output output, String value) {
+        output.writeString(value);
+    }
+
+    @Override
+    protected String readValue(Input input) {
+        return input.readString();
+    }
+
+    @Override
+    protected EmojiEntity create(String username, String roomName, DateTime mentionTime,
+                                String value, int occurrences, boolean bot) {
+        return new EmojiEntity(username, roomName, mentionTime, value, occurrences, bot);
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.chatalytics.compute.storm.serialization;
+
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Writes the {@link Message}, {@link User} and {@link Room} of a {@link FatMessage} with their own
+ * serializers. Any of them can be null.
+ *
+ * @author giannis
+ */
+public class FatMessageSerializer extends Serializer<FatMessage> {
+
+    private final MessageSerializer messageSerializer = new MessageSerializer();
+    private final UserSerializer userSerializer = new UserSerializer();
+    private final RoomSerializer roomSerializer = new RoomSerializer();
+
+    public FatMessageSerializer() {
+        setImmutable(true);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, FatMessage fatMessage) {
+        kryo.writeObjectOrNull(output, fatMessage.getMessage(), messageSerializer);
+        kryo.writeObjectOrNull(output, fatMessage.getUser(), userSerializer);
+        kryo.writeObjectOrNull(output, fatMessage.getRoom(), roomSerializer);
+    }
+
+    @Override
+    public FatMessage read(Kryo kryo, Input input, Class<FatMessage> type) {
+        Message message = kryo.readObjectOrNull(input, Message.class, messageSerializer);
+        User user = kryo.readObjectOrNull(input, User.class, userSerializer);
+        Room room = kryo.readObjectOrNull(input, Room.class, roomSerializer);
+        return new FatMessage(message, user, room);
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.chatalytics.compute.storm.serialization;
+
+import com.chatalytics.core.model.data.IMentionable;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.joda.time.DateTime;
+
+import java.io.Serializable;
+
+import static com.chatalytics.compute.storm.serialization.DateTimeSerializer.readDateTime;
+import static com.chatalytics.compute.storm.serialization.DateTimeSerializer.writeDateTime;
+
+/**
+ * Base serializer for the {@link IMentionable}s the bolts emit. It writes the fields that all of
+ * them have and leaves the value to the subclasses. The database ID is not written, since the
+ * mentionables are only persisted after they're received.
+ *
+ * @author giannis
+ *
+ * @param <V>
+ *            The type of the mentioned value
+ * @param <T>
+ *            The type of the mentionable
+ */
+public abstract class MentionableSerializer<V extends Serializable, T extends IMentionable<V>>
+        extends Serializer<T> {
+
+    @Override
+    public void write(Kryo kryo, Output output, T mentionable) {
+        writeValue(output, mentionable.getValue());
+        output.writeString(mentionable.getUsername());
+        output.writeString(mentionable.getRoomName());
+        writeDateTime(output, mentionable.getMentionTime());
+        output.writeVarInt(mentionable.getOccurrences(), true);
+        output.writeBoolean(mentionable.isBot());
+    }
+
+    @Override
+    public T read(Kryo kryo, Input input, Class<T> type) {
+        V value = readValue(input);
+        String username = input.readString();
+        String roomName = input.readString();
+        DateTime mentionTime = readDateTime(input);
+        int occurrences = input.readVarInt(true);
+        boolean bot = input.readBoolean();
+        return create(username, roomName, mentionTime, value, occurrences, bot);
+    }
+
+    protected abstract void writeValue(Output output, V value);
+
+    protected abstract V readValue(Input input);
+
+    protected abstract T create(String username, String roomName, DateTime mentionTime, V value,
+                                int occurrences, boolean bot);
+
+}
@@ -0,0 +1,63 @@
+package com.chatalytics.compute.storm.serialization;
+
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import org.joda.time.DateTime;
+
+import static com.chatalytics.compute.storm.serialization.DateTimeSerializer.readDateTime;
+import static com.chatalytics.compute.storm.serialization.DateTimeSerializer.writeDateTime;
+import static com.chatalytics.compute.storm.serialization.MessageSerializer.readMessageType;
+import static com.chatalytics.compute.storm.serialization.MessageSerializer.writeMessageType;
+
+/**
+ * Writes the fields of a {@link MessageEnvelope} in order. The user and room IDs and names that are
+ * read are interned, so that the envelopes of the same user or room share the same strings in a
+ * worker instead of every tuple holding its own copies.
+ *
+ * @author giannis
+ */
+public class MessageEnvelopeSerializer extends Serializer<MessageEnvelope> {
+
+    private static final Interner<String> NAMES = Interners.newWeakInterner();
+
+    public MessageEnvelopeSerializer() {
+        setImmutable(true);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, MessageEnvelope envelope) {
+        writeDateTime(output, envelope.getDate());
+        writeMessageType(output, envelope.getType());
+        output.writeString(envelope.getText());
+        output.writeString(envelope.getUserId());
+        output.writeString(envelope.getUsername());
+        output.writeBoolean(envelope.isBot());
+        output.writeString(envelope.getRoomId());
+        output.writeString(envelope.getRoomName());
+    }
+
+    @Override
+    public MessageEnvelope read(Kryo kryo, Input input, Class<MessageEnvelope> type) {
+        DateTime date = readDateTime(input);
+        return new MessageEnvelope(date,
+                                   readMessageType(input),
+                                   input.readString(),
+                                   readName(input),
+                                   readName(input),
+                                   input.readBoolean(),
+                                   readName(input),
+                                   readName(input));
+    }
+
+    private static String readName(Input input) {
+        String name = input.readString();
+        return name == null ? null : NAMES.intern(name);
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.chatalytics.compute.storm.serialization;
+
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageType;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import static com.chatalytics.compute.storm.serialization.DateTimeSerializer.readDateTime;
+import static com.chatalytics.compute.storm.serialization.DateTimeSerializer.writeDateTime;
+
+/**
+ * Writes the fields of a {@link Message} in order. The {@link MessageType} is written as its
+ * variable length ordinal, since both ends of a tuple run the same code.
+ *
+ * @author giannis
+ */
+public class MessageSerializer extends Serializer<Message> {
+
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+
+    public MessageSerializer() {
+        setImmutable(true);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, Message message) {
+        writeDateTime(output, message.getDate());
+        output.writeString(message.getFromName());
+        output.writeString(message.getFromUserId());
+        output.writeString(message.getMessage());
+        output.writeString(message.getRoomId());
+        writeMessageType(output, message.getType());
+    }
+
+    @Override
+    public Message read(Kryo kryo, Input input, Class<Message> type) {
+        return new Message(readDateTime(input),
+                           input.readString(),
+                           input.readString(),
+                           input.readString(),
+                           input.readString(),
+                           readMessageType(input));
+    }
+
+    /**
+     * @param output
+     *            The output to write to
+     * @param type
+     *            The type to write. Can be null
+     */
+    public static void writeMessageType(Output output, MessageType type) {
+        output.writeVarInt(type == null ? 0 : type.ordinal() + 1, true);
+    }
+
+    /**
+     * @param input
+     *            The input to read from
+     * @return The type written by {@link #writeMessageType(Output, MessageType)} or null
+     */
+    public static MessageType readMessageType(Input input) {
+        int ordinal = input.readVarInt(true) - 1;
+        return ordinal < 0 ? null : MESSAGE_TYPES[ordinal];
+    }
+
+}
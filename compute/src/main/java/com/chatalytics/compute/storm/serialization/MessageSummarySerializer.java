@@ -0,0 +1,36 @@
+package com.chatalytics.compute.storm.serialization;
+
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.joda.time.DateTime;
+
+import static com.chatalytics.compute.storm.serialization.MessageSerializer.readMessageType;
+import static com.chatalytics.compute.storm.serialization.MessageSerializer.writeMessageType;
+
+/**
+ * Serializes {@link MessageSummary}s
+ *
+ * @author giannis
+ */
+public class MessageSummarySerializer extends MentionableSerializer<MessageType, MessageSummary> {
+
+    @Override
+    protected void writeValue(Output output, MessageType value) {
+        writeMessageType(output, value);
+    }
+
+    @Override
+    protected MessageType readValue(Input input) {
+        return readMessageType(input);
+    }
+
+    @Override
+    protected MessageSummary create(String username, String roomName, DateTime mentionTime,
+                                    MessageType value, int occurrences, boolean bot) {
+        return new MessageSummary(username, roomName, mentionTime, value, occurrences, bot);
+    }
+
+}
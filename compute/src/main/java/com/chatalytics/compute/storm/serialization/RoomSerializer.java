@@ -0,0 +1,63 @@
+package com.chatalytics.compute.storm.serialization;
+
+import com.chatalytics.core.model.data.Room;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.joda.time.DateTime;
+
+import static com.chatalytics.compute.storm.serialization.DateTimeSerializer.readDateTime;
+import static com.chatalytics.compute.storm.serialization.DateTimeSerializer.writeDateTime;
+
+/**
+ * Writes the fields of a {@link Room} in order, with the two flags packed in a single byte
+ *
+ * @author giannis
+ */
+public class RoomSerializer extends Serializer<Room> {
+
+    private static final int ARCHIVED = 1;
+    private static final int PRIVATE_ROOM = 1 << 1;
+
+    public RoomSerializer() {
+        setImmutable(true);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, Room room) {
+        output.writeString(room.getRoomId());
+        output.writeString(room.getName());
+        output.writeString(room.getTopic());
+        writeDateTime(output, room.getLastActiveDate());
+        writeDateTime(output, room.getCreationDate());
+        output.writeString(room.getOwnerUserId());
+        output.writeByte((room.isArchived() ? ARCHIVED : 0)
+                         | (room.isPrivateRoom() ? PRIVATE_ROOM : 0));
+        output.writeString(room.getGuestAccessURL());
+        output.writeString(room.getXmppJid());
+    }
+
+    @Override
+    public Room read(Kryo kryo, Input input, Class<Room> type) {
+        String roomId = input.readString();
+        String name = input.readString();
+        String topic = input.readString();
+        DateTime lastActiveDate = readDateTime(input);
+        DateTime creationDate = readDateTime(input);
+        String ownerUserId = input.readString();
+        int flags = input.readByte();
+        return new Room(roomId,
+                        name,
+                        topic,
+                        lastActiveDate,
+                        creationDate,
+                        ownerUserId,
+                        (flags & ARCHIVED) != 0,
+                        (flags & PRIVATE_ROOM) != 0,
+                        input.readString(),
+                        input.readString());
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.chatalytics.compute.storm.serialization;
+
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+
+import org.apache.storm.Config;
+import org.joda.time.DateTime;
+
+/**
+ * Registers the Kryo serializers of all the objects that are emitted in ChatAlytics tuples. Storm
+ * serializes a tuple whenever it's sent to another worker, and without these it falls back to Java
+ * serialization, which is a lot slower and writes the full class descriptors with every tuple.
+ * <p/>
+ * Spouts emit {@link MessageEnvelope}s. The {@link FatMessage} serializers are kept for topologies
+ * that emit whole users and rooms.
+ *
+ * @author giannis
+ */
+public final class TupleSerializers {
+
+    private TupleSerializers() {
+        // static methods only
+    }
+
+    /**
+     * Registers the serializers and turns off the fallback to Java serialization, so that emitting
+     * an object without a registered serializer fails instead of silently being slow
+     *
+     * @param stormConfig
+     *            The topology config
+     */
+    public static void register(Config stormConfig) {
+        stormConfig.registerSerialization(DateTime.class, DateTimeSerializer.class);
+        stormConfig.registerSerialization(Message.class, MessageSerializer.class);
+        stormConfig.registerSerialization(User.class, UserSerializer.class);
+        stormConfig.registerSerialization(Room.class, RoomSerializer.class);
+        stormConfig.registerSerialization(FatMessage.class, FatMessageSerializer.class);
+        stormConfig.registerSerialization(MessageEnvelope.class, MessageEnvelopeSerializer.class);
+        stormConfig.registerSerialization(ChatEntity.class, ChatEntitySerializer.class);
+        stormConfig.registerSerialization(EmojiEntity.class, EmojiEntitySerializer.class);
+        stormConfig.registerSerialization(MessageSummary.class, MessageSummarySerializer.class);
+        stormConfig.setFallBackOnJavaSerialization(false);
+    }
+
+}
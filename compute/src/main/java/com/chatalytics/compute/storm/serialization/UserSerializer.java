@@ -0,0 +1,66 @@
+package com.chatalytics.compute.storm.serialization;
+
+import com.chatalytics.core.model.data.User;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import static com.chatalytics.compute.storm.serialization.DateTimeSerializer.readDateTime;
+import static com.chatalytics.compute.storm.serialization.DateTimeSerializer.writeDateTime;
+
+/**
+ * Writes the fields of a {@link User} in order, with the three flags packed in a single byte
+ *
+ * @author giannis
+ */
+public class UserSerializer extends Serializer<User> {
+
+    private static final int DELETED = 1;
+    private static final int GROUP_ADMIN = 1 << 1;
+    private static final int BOT = 1 << 2;
+
+    public UserSerializer() {
+        setImmutable(true);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, User user) {
+        output.writeString(user.getUserId());
+        output.writeString(user.getEmail());
+        output.writeByte((user.isDeleted() ? DELETED : 0)
+                         | (user.isGroupAdmin() ? GROUP_ADMIN : 0)
+                         | (user.isBot() ? BOT : 0));
+        output.writeString(user.getName());
+        output.writeString(user.getMentionName());
+        output.writeString(user.getPhotoUrl());
+        writeDateTime(output, user.getLastActiveDate());
+        writeDateTime(output, user.getCreationDate());
+        output.writeString(user.getStatus());
+        output.writeString(user.getStatusMessage());
+        output.writeString(user.getTimezone());
+        output.writeString(user.getTitle());
+    }
+
+    @Override
+    public User read(Kryo kryo, Input input, Class<User> type) {
+        String userId = input.readString();
+        String email = input.readString();
+        int flags = input.readByte();
+        return new User(userId,
+                        email,
+                        (flags & DELETED) != 0,
+                        (flags & GROUP_ADMIN) != 0,
+                        (flags & BOT) != 0,
+                        input.readString(),
+                        input.readString(),
+                        input.readString(),
+                        readDateTime(input),
+                        readDateTime(input),
+                        input.readString(),
+                        input.readString(),
+                        input.readString(),
+                        input.readString());
+    }
+
+}
@@ -1,17 +1,20 @@
 package com.chatalytics.compute.storm.spout;
 
+import com.chatalytics.compute.chat.ChatDirectory;
 import com.chatalytics.compute.chat.dao.IChatApiDAO;
 import com.chatalytics.compute.chat.dao.hipchat.HipChatApiDAOFactory;
 import com.chatalytics.compute.config.ConfigurationConstants;
 import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
 import com.chatalytics.compute.db.dao.IChatAlyticsDAO;
+import com.chatalytics.compute.metrics.ComponentMetrics;
 import com.chatalytics.core.config.ChatAlyticsConfig;
-import com.chatalytics.core.model.data.FatMessage;
 import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageEnvelope;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
 import com.chatalytics.core.util.YamlUtils;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import org.apache.storm.spout.SpoutOutputCollector;
 import org.apache.storm.task.TopologyContext;
@@ -26,9 +29,21 @@ import org.slf4j.LoggerFactory;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Spout that pulls messages from the hipchat API and emits {@link FatMessage}s to subscribed bolts.
+ * Spout that pulls messages from the hipchat API and emits {@link MessageEnvelope}s to subscribed
+ * bolts. Users and rooms are looked up in a {@link ChatDirectory} instead of being fetched for
+ * every room, and the history of all rooms is fetched concurrently.
+ * <p/>
+ * The history is pulled once an hour by a {@link ScheduledPoller}, so <code>nextTuple</code> never
+ * waits for the chat API. The time the history was pulled up to is saved after all the pulled
+ * messages are emitted, and only if the history of every room was fetched. Otherwise the rooms
+ * that were fetched save their own pull times, and the failed ones are pulled again on the next
+ * poll.
  *
  * @author giannis
  */
@@ -38,11 +53,29 @@ public class HipChatMessageSpout extends BaseRichSpout {
     public static final String SPOUT_ID = "HIP_CHAT_MESSAGE_SPOUT_ID";
     public static final String HIPCHAT_MESSAGE_FIELD_STR = "hipchat-message";
     private static final Logger LOG = LoggerFactory.getLogger(HipChatMessageSpout.class);
+    /**
+     * Maximum number of rooms whose pulled messages wait to be emitted
+     */
+    private static final int MAX_QUEUED_ROOMS = 16;
 
     private IChatApiDAO hipchatDao;
+    private ChatDirectory directory;
     private DateTimeZone dtz;
     private SpoutOutputCollector collector;
     private IChatAlyticsDAO dbDao;
+    private ScheduledPoller<PulledMessages> poller;
+    private ComponentMetrics metrics;
+    private long shutdownTimeoutSecs;
+    /**
+     * The time the history was pulled up to, ahead of the saved one while the pulled messages are
+     * waiting to be emitted. Only accessed by the poller thread
+     */
+    private DateTime pulledUpTo;
+    /**
+     * The times rooms were pulled up to while other rooms failed, ahead of the saved last pull
+     * time. Only accessed by the poller thread
+     */
+    private Map<String, DateTime> roomsPulledUpTo;
 
     @Override
     public void open(@SuppressWarnings("rawtypes") Map conf, TopologyContext context,
@@ -54,40 +87,116 @@ public class HipChatMessageSpout extends BaseRichSpout {
         hipchatDao = HipChatApiDAOFactory.getHipChatApiDao(config);
         LOG.info("Got HipChat API DAO...");
 
+        directory = new ChatDirectory(hipchatDao, config.computeConfig.chatDirectoryRefreshSecs,
+                                      TimeUnit.SECONDS.toMillis(
+                                          config.computeConfig.chatDirectoryMinMissReloadSecs));
+        directory.startAsync().awaitRunning();
+        LOG.info("Loaded {} users and {} rooms...", directory.getUsers().size(),
+                 directory.getRooms().size());
+
         dbDao = ChatAlyticsDAOFactory.createChatAlyticsDao(config);
         LOG.info("Got database DAO...");
 
         dtz = DateTimeZone.forID(config.timeZone);
         this.collector = collector;
+        this.shutdownTimeoutSecs = config.computeConfig.shutdownTimeoutSecs;
+        this.poller = new ScheduledPoller<>("hipchat-poller",
+                                            TimeUnit.SECONDS.toMillis(
+                                                config.computeConfig.spoutPollIntervalSecs),
+                                            MAX_QUEUED_ROOMS, this::pullMessages);
+        this.roomsPulledUpTo = Maps.newHashMap();
+        this.metrics = new ComponentMetrics(context);
+        metrics.gauge(ComponentMetrics.SPOUT_BUFFER_DEPTH, poller::getDepth);
     }
 
+    /**
+     * Emits the next room of pulled messages, if there's one, and saves its checkpoint. Returns
+     * right away otherwise
+     */
     @Override
     public void nextTuple() {
+        if (!poller.isStarted()) {
+            poller.start();
+        }
+        PulledMessages pulledMessages = poller.poll();
+        if (pulledMessages == null) {
+            return;
+        }
+        for (MessageEnvelope message : pulledMessages.getMessages()) {
+            collector.emit(new Values(message));
+        }
+        if (pulledMessages.getCheckpoint() != null) {
+            pulledMessages.getCheckpoint().run();
+        }
+    }
+
+    /**
+     * Pulls the history of all the rooms since the last pull, if the hour has changed since then.
+     * If the history of any room can't be fetched, the last pull time isn't saved. Only the rooms
+     * that were fetched are checkpointed, and the rest are pulled again on the next poll. Runs on
+     * the poller thread
+     */
+    private void pullMessages(ScheduledPoller.Sink<PulledMessages> sink)
+            throws InterruptedException {
         DateTime newPullEndDate = truncateDateTimeToHour(DateTime.now(dtz));
         DateTime lastPullTime = truncateDateTimeToHour(dbDao.getLastMessagePullTime());
+        if (pulledUpTo != null && pulledUpTo.isAfter(lastPullTime)) {
+            lastPullTime = pulledUpTo;
+        }
         if (lastPullTime.isEqual(newPullEndDate) || lastPullTime.isAfter(newPullEndDate)) {
-            LOG.info("Not ready to pull data yet. Last pull time was {}, new pull end date was {}",
-                     lastPullTime, newPullEndDate);
+            LOG.debug("Not ready to pull data yet. Last pull time was {}, new pull end date was {}",
+                      lastPullTime, newPullEndDate);
             return;
         }
-        Map<String, Room> rooms = hipchatDao.getRooms();
-        List<FatMessage> messagesToEmit = Lists.newArrayList();
-        for (Room room : rooms.values()) {
-            List<Message> messages = hipchatDao.getMessages(lastPullTime, newPullEndDate, room);
-            Map<String, User> users = hipchatDao.getUsers();
-            for (Message message : messages) {
-                User user = users.get(message.getFromUserId());
-                messagesToEmit.add(new FatMessage(message, user, room));
+        Map<String, DateTime> roomPullTimes = dbDao.getRoomPullTimes();
+        // start fetching all rooms at once. The HTTP client of the DAO queues the requests of all
+        // the rooms and keeps at most apiMaxConcurrentRequests of them in flight
+        Map<Room, CompletableFuture<List<Message>>> roomMessages = Maps.newLinkedHashMap();
+        for (Room room : directory.getRooms().values()) {
+            DateTime roomStart = latest(lastPullTime, roomPullTimes.get(room.getRoomId()));
+            roomStart = latest(roomStart, roomsPulledUpTo.get(room.getRoomId()));
+            if (!roomStart.isBefore(newPullEndDate)) {
+                LOG.debug("Room {} is already pulled up to {}", room.getName(), roomStart);
+                continue;
             }
+            roomMessages.put(room,
+                             hipchatDao.getCompleteMessagesAsync(roomStart, newPullEndDate, room));
         }
-        for (FatMessage fatMessage : messagesToEmit) {
-            collector.emit(new Values(fatMessage));
+        List<String> pulledRoomIds = Lists.newArrayList();
+        int failedRooms = 0;
+        for (Map.Entry<Room, CompletableFuture<List<Message>>> entry : roomMessages.entrySet()) {
+            Room room = entry.getKey();
+            List<Message> roomHistory;
+            try {
+                roomHistory = entry.getValue().join();
+            } catch (CompletionException | CancellationException e) {
+                LOG.warn("Couldn't pull the history of room {}. Will retry on the next pull",
+                         room.getName(), e);
+                failedRooms++;
+                continue;
+            }
+            List<MessageEnvelope> messages = Lists.newArrayList();
+            for (Message message : roomHistory) {
+                User user = directory.getUser(message.getFromUserId());
+                messages.add(MessageEnvelope.of(message, user, room));
+            }
+            sink.put(PulledMessages.of(messages));
+            pulledRoomIds.add(room.getRoomId());
+            roomsPulledUpTo.put(room.getRoomId(), newPullEndDate);
         }
-        try {
-            Thread.sleep(1 * 60 * 60 * 1000); // sleep for 1h.
-        } catch (InterruptedException e) {
-            LOG.error("Got interrupted while sleeping.", e);
+        if (failedRooms > 0) {
+            LOG.warn("{} rooms failed. Not saving the last pull time of {}", failedRooms,
+                     newPullEndDate);
+            sink.put(PulledMessages.checkpoint(() -> {
+                for (String roomId : pulledRoomIds) {
+                    dbDao.setRoomPullTime(roomId, newPullEndDate);
+                }
+            }));
+            return;
         }
+        sink.put(PulledMessages.checkpoint(() -> dbDao.setLastMessagePullTime(newPullEndDate)));
+        pulledUpTo = newPullEndDate;
+        roomsPulledUpTo.values().removeIf(roomPulledUpTo -> !roomPulledUpTo.isAfter(pulledUpTo));
     }
 
     @Override
@@ -95,6 +204,26 @@ public class HipChatMessageSpout extends BaseRichSpout {
         fields.declare(new Fields(HIPCHAT_MESSAGE_FIELD_STR));
     }
 
+    @Override
+    public void close() {
+        if (poller != null) {
+            poller.stop(shutdownTimeoutSecs, TimeUnit.SECONDS);
+        }
+        if (directory != null) {
+            directory.stopAsync();
+        }
+        if (metrics != null) {
+            metrics.close();
+        }
+    }
+
+    /**
+     * @return The later of the two times. The second one can be <code>null</code>
+     */
+    private DateTime latest(DateTime time, DateTime otherTime) {
+        return otherTime != null && otherTime.isAfter(time) ? otherTime : time;
+    }
+
     private DateTime truncateDateTimeToHour(DateTime dateTime) {
         return dateTime.withMinuteOfHour(0).withSecondOfMinute(0).withMillisOfSecond(0);
     }
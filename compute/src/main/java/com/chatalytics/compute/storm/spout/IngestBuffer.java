@@ -0,0 +1,348 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.chatalytics.core.IngestOverflowPolicy;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded buffer between a thread that receives chat messages and the spout thread that emits them.
+ * Messages are kept in a lock-free {@link RingBuffer} and when it's full the configured
+ * {@link IngestOverflowPolicy} is applied:
+ * <ul>
+ * <li>{@link IngestOverflowPolicy#BLOCK} parks the receiving thread until there's room</li>
+ * <li>{@link IngestOverflowPolicy#DROP_OLDEST} evicts the oldest buffered message</li>
+ * <li>{@link IngestOverflowPolicy#SPILL} appends messages to a local file until the spout catches
+ * up. While the file has messages all new messages go to it as well, so that they're still polled
+ * in the order they were received. A spill file left over from a previous run is drained first.
+ * </li>
+ * </ul>
+ *
+ * @author giannis
+ *
+ * @param <T>
+ *            The type of the buffered messages
+ */
+public class IngestBuffer<T extends Serializable> implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestBuffer.class);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final RingBuffer<T> ringBuffer;
+    private final IngestOverflowPolicy overflowPolicy;
+    private final SpillFile<T> spillFile;
+    private final Object spillLock;
+    private volatile boolean spilling;
+    private volatile boolean closed;
+
+    private final AtomicLong dropped;
+    private final AtomicLong spilled;
+    private final AtomicLong blocked;
+    private long lastDropped;
+    private long lastSpilled;
+    private long lastBlocked;
+
+    /**
+     * @param capacity
+     *            The number of messages to keep in memory
+     * @param overflowPolicy
+     *            What to do when the in memory buffer is full
+     * @param spillFile
+     *            The file to spill messages to. Only required for
+     *            {@link IngestOverflowPolicy#SPILL}
+     */
+    public IngestBuffer(int capacity, IngestOverflowPolicy overflowPolicy, File spillFile) {
+        this.ringBuffer = new RingBuffer<>(capacity);
+        this.overflowPolicy = Preconditions.checkNotNull(overflowPolicy);
+        this.spillLock = new Object();
+        this.dropped = new AtomicLong();
+        this.spilled = new AtomicLong();
+        this.blocked = new AtomicLong();
+        if (overflowPolicy == IngestOverflowPolicy.SPILL) {
+            Preconditions.checkNotNull(spillFile, "A spill file is required for %s",
+                                       overflowPolicy);
+            try {
+                this.spillFile = new SpillFile<>(spillFile);
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't open spill file " + spillFile, e);
+            }
+            this.spilling = !this.spillFile.isEmpty();
+            if (spilling) {
+                LOG.info("Found {} bytes of spilled messages in {}", this.spillFile.size(),
+                         spillFile);
+            }
+        } else {
+            this.spillFile = null;
+        }
+    }
+
+    /**
+     * Adds a message to the buffer, applying the overflow policy if it's full
+     *
+     * @param value
+     *            The message to add
+     * @return False if the message couldn't be buffered, either because the buffer was closed
+     *         while waiting for room or because it couldn't be spilled
+     */
+    public boolean add(T value) {
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                while (!ringBuffer.offer(value)) {
+                    if (ringBuffer.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                return true;
+            case SPILL:
+                if (!spilling && ringBuffer.offer(value)) {
+                    return true;
+                }
+                return spill(value);
+            case BLOCK:
+            default:
+                if (ringBuffer.offer(value)) {
+                    return true;
+                }
+                blocked.incrementAndGet();
+                while (!ringBuffer.offer(value)) {
+                    if (closed) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                }
+                return true;
+        }
+    }
+
+    private boolean spill(T value) {
+        synchronized (spillLock) {
+            if (!spilling && ringBuffer.offer(value)) {
+                return true;
+            }
+            try {
+                spillFile.append(value);
+            } catch (IOException e) {
+                LOG.error("Can't spill message {}", value, e);
+                dropped.incrementAndGet();
+                return false;
+            }
+            spilling = true;
+            spilled.incrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Removes the oldest message from the buffer
+     *
+     * @return The oldest message or null if there are none
+     */
+    public T poll() {
+        T value = ringBuffer.poll();
+        if (value != null || !spilling) {
+            return value;
+        }
+        synchronized (spillLock) {
+            value = ringBuffer.poll();
+            if (value != null) {
+                return value;
+            }
+            while (value == null && !spillFile.isEmpty()) {
+                value = spillFile.read();
+            }
+            spilling = !spillFile.isEmpty();
+            return value;
+        }
+    }
+
+    /**
+     * @return The approximate number of messages in memory
+     */
+    public int getDepth() {
+        return ringBuffer.size();
+    }
+
+    /**
+     * @return The number of bytes of spilled messages that haven't been polled yet
+     */
+    public long getSpillBytes() {
+        if (spillFile == null) {
+            return 0;
+        }
+        synchronized (spillLock) {
+            return spillFile.size();
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    /**
+     * @return The number of messages whose receiving thread had to wait for room in the buffer
+     */
+    public long getBlockedCount() {
+        return blocked.get();
+    }
+
+    /**
+     * Reports the current depth of the buffer and the overflow activity since the last time this
+     * was called
+     *
+     * @return A map with the depth, spill bytes and the dropped, spilled and blocked counts
+     */
+    public Map<String, Object> getMetrics() {
+        long currentDropped = dropped.get();
+        long currentSpilled = spilled.get();
+        long currentBlocked = blocked.get();
+        Map<String, Object> metrics = ImmutableMap.<String, Object>builder()
+            .put("depth", getDepth())
+            .put("spill-bytes", getSpillBytes())
+            .put("dropped", currentDropped - lastDropped)
+            .put("spilled", currentSpilled - lastSpilled)
+            .put("blocked", currentBlocked - lastBlocked)
+            .build();
+        lastDropped = currentDropped;
+        lastSpilled = currentSpilled;
+        lastBlocked = currentBlocked;
+        return metrics;
+    }
+
+    /**
+     * Wakes up any blocked threads and closes the spill file. Spilled messages that weren't
+     * polled stay in the file
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (spillFile != null) {
+            synchronized (spillLock) {
+                spillFile.close();
+            }
+        }
+    }
+
+    /**
+     * Append only file of length prefixed, Java serialized messages. The file starts with the
+     * position of the next message to read so that a reopened file resumes where it left off, and
+     * it's truncated every time all of its messages have been read. Not thread safe.
+     */
+    private static class SpillFile<T> implements Closeable {
+
+        private static final int HEADER_BYTES = 8;
+
+        private final File path;
+        private final RandomAccessFile file;
+        private long readPosition;
+        private long writePosition;
+
+        private SpillFile(File path) throws IOException {
+            this.path = path;
+            this.file = new RandomAccessFile(path, "rw");
+            if (file.length() < HEADER_BYTES) {
+                reset();
+            } else {
+                this.readPosition = file.readLong();
+                this.writePosition = file.length();
+                if (readPosition < HEADER_BYTES || readPosition > writePosition) {
+                    LOG.error("Discarding spill file {} with invalid read position", path);
+                    reset();
+                }
+            }
+        }
+
+        private boolean isEmpty() {
+            return readPosition >= writePosition;
+        }
+
+        private long size() {
+            return writePosition - readPosition;
+        }
+
+        private void append(T value) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(value);
+            }
+            file.seek(writePosition);
+            file.writeInt(bytes.size());
+            file.write(bytes.toByteArray());
+            writePosition = file.getFilePointer();
+        }
+
+        /**
+         * @return The next message or null if it couldn't be read, in which case it's skipped
+         */
+        @SuppressWarnings("unchecked")
+        private T read() {
+            byte[] bytes;
+            try {
+                file.seek(readPosition);
+                int length = file.readInt();
+                if (length < 0 || readPosition + 4 + length > writePosition) {
+                    LOG.error("Discarding truncated spill file {} at position {}", path,
+                              readPosition);
+                    reset();
+                    return null;
+                }
+                bytes = new byte[length];
+                file.readFully(bytes);
+                readPosition = file.getFilePointer();
+                if (isEmpty()) {
+                    reset();
+                } else {
+                    file.seek(0);
+                    file.writeLong(readPosition);
+                }
+            } catch (IOException e) {
+                LOG.error("Can't read spill file {}. Discarding it", path, e);
+                reset();
+                return null;
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return (T) in.readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                LOG.error("Skipping unreadable spilled message", e);
+                return null;
+            }
+        }
+
+        private void reset() {
+            readPosition = HEADER_BYTES;
+            writePosition = HEADER_BYTES;
+            try {
+                file.setLength(0);
+                file.seek(0);
+                file.writeLong(readPosition);
+            } catch (IOException e) {
+                LOG.error("Can't truncate spill file {}", path, e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+}
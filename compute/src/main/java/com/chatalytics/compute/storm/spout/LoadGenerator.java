@@ -0,0 +1,245 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.chatalytics.core.config.LocalTestConfig;
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import org.joda.time.DateTime;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Generates chat messages on an open loop schedule for load testing. Message times are a Poisson
+ * process whose rate follows the daily cycle and the bursts of the {@link LocalTestConfig}, and
+ * don't depend on how fast the messages are consumed. Every message is dated with the time it was
+ * scheduled for, so a consumer that falls behind shows up as latency instead of a lower rate.
+ * <p/>
+ * Users, rooms, sentences, emojis and entities are picked with a Zipf distribution, so a few of
+ * them show up in most messages, like in a real chat. All choices are made with the given random
+ * number generator, so the same seed generates the same messages at the same times, relative to
+ * the start. The daily cycle starts at the time of day the generator was created at.
+ * <p/>
+ * Times are in nanoseconds since the generator was created. This class is not thread safe.
+ *
+ * @author giannis
+ */
+public class LoadGenerator {
+
+    private static final double NANOS_PER_SEC = TimeUnit.SECONDS.toNanos(1);
+    private static final double NANOS_PER_HOUR = TimeUnit.HOURS.toNanos(1);
+
+    @VisibleForTesting
+    static final List<String> EMOJIS = ImmutableList.of(
+        "+1", "smile", "joy", "heart", "tada", "thinking_face", "fire", "eyes", "pray", "100",
+        "rocket", "laughing", "white_check_mark", "wave", "clap", "ok_hand", "sweat_smile", "sob",
+        "raised_hands", "muscle", "sunglasses", "coffee", "beers", "bug", "shipit");
+
+    @VisibleForTesting
+    static final List<String> ENTITIES = ImmutableList.of(
+        "New York", "San Francisco", "London", "Berlin", "Tokyo", "Google", "Amazon", "Microsoft",
+        "Apple", "Facebook", "Barack Obama", "Angela Merkel", "Elon Musk", "Jeff Bezos",
+        "John Smith", "Mary Johnson", "Storm", "Kafka", "Hadoop", "Jenkins", "Boston", "Chicago",
+        "Paris", "Seattle", "Netflix");
+
+    private final Random rand;
+    private final DateTime start;
+    private final List<User> users;
+    private final List<User> bots;
+    private final List<Room> rooms;
+    private final List<String> sentences;
+    private final List<String> entities;
+    private final ZipfSampler userSampler;
+    private final ZipfSampler botSampler;
+    private final ZipfSampler roomSampler;
+    private final ZipfSampler sentenceSampler;
+    private final ZipfSampler emojiSampler;
+    private final ZipfSampler entitySampler;
+
+    private final double targetRatePerNano;
+    private final double maxRatePerNano;
+    private final double diurnalAmplitude;
+    private final double startDayFraction;
+    private final double peakDayFraction;
+    private final long dayLengthNanos;
+    private final double burstsPerNano;
+    private final double burstMultiplier;
+    private final long burstDurationNanos;
+    private final double botMessageRatio;
+    private final double emojiMessageRatio;
+    private final double entityMessageRatio;
+    private final String emojiStart;
+    private final String emojiEnd;
+
+    private long nextSendNanos;
+    private long burstStartNanos;
+
+    /**
+     * @param config
+     *            The load generation settings
+     * @param users
+     *            The users to send messages from, including bots
+     * @param rooms
+     *            The rooms to send messages to
+     * @param sentences
+     *            The sentences messages are made of
+     * @param entities
+     *            The entity names to mention. Defaults to a built in list if empty
+     * @param start
+     *            The time the generator starts at. Message dates are relative to it
+     * @param rand
+     *            The random number generator
+     */
+    public LoadGenerator(LocalTestConfig config, Collection<User> users, Collection<Room> rooms,
+                         List<String> sentences, List<String> entities, DateTime start,
+                         Random rand) {
+        Preconditions.checkArgument(config.targetMessagesPerSec > 0,
+                                    "Target messages per sec has to be positive");
+        Preconditions.checkArgument(config.diurnalAmplitude >= 0 && config.diurnalAmplitude <= 1,
+                                    "Diurnal amplitude has to be between 0 and 1");
+        Preconditions.checkArgument(config.dayLengthSecs > 0, "Day length has to be positive");
+        Preconditions.checkArgument(!sentences.isEmpty(), "There are no sentences");
+        this.rand = rand;
+        this.start = start;
+        // sort so that the same users and rooms get the same popularity every time
+        Comparator<User> userIdOrder = Comparator.comparing(User::getUserId);
+        this.users = users.stream().filter(user -> !user.isBot()).sorted(userIdOrder)
+                          .collect(Collectors.toList());
+        this.bots = users.stream().filter(User::isBot).sorted(userIdOrder)
+                         .collect(Collectors.toList());
+        this.rooms = rooms.stream().sorted(Comparator.comparing(Room::getRoomId))
+                          .collect(Collectors.toList());
+        Preconditions.checkArgument(!this.users.isEmpty(), "There are no users");
+        Preconditions.checkArgument(!this.rooms.isEmpty(), "There are no rooms");
+        this.sentences = sentences;
+        this.entities = entities.isEmpty() ? ENTITIES : entities;
+
+        double exponent = config.zipfExponent;
+        this.userSampler = new ZipfSampler(this.users.size(), exponent);
+        this.botSampler = this.bots.isEmpty() ? null : new ZipfSampler(this.bots.size(), exponent);
+        this.roomSampler = new ZipfSampler(this.rooms.size(), exponent);
+        this.sentenceSampler = new ZipfSampler(sentences.size(), exponent);
+        this.emojiSampler = new ZipfSampler(EMOJIS.size(), exponent);
+        this.entitySampler = new ZipfSampler(this.entities.size(), exponent);
+
+        this.targetRatePerNano = config.targetMessagesPerSec / NANOS_PER_SEC;
+        this.diurnalAmplitude = config.diurnalAmplitude;
+        this.dayLengthNanos = TimeUnit.SECONDS.toNanos(config.dayLengthSecs);
+        this.startDayFraction = start.getMillisOfDay() / (double) TimeUnit.DAYS.toMillis(1);
+        this.peakDayFraction = config.diurnalPeakHour / 24.0;
+        this.burstsPerNano = config.burstsPerHour / NANOS_PER_HOUR;
+        this.burstMultiplier = burstsPerNano > 0 ? Math.max(1, config.burstMultiplier) : 1;
+        this.burstDurationNanos = TimeUnit.SECONDS.toNanos(config.burstDurationSecs);
+        this.maxRatePerNano = targetRatePerNano * (1 + diurnalAmplitude) * burstMultiplier;
+        this.botMessageRatio = config.botMessageRatio;
+        this.emojiMessageRatio = config.emojiMessageRatio;
+        this.entityMessageRatio = config.entityMessageRatio;
+        this.emojiStart = String.valueOf(config.emojiStartChar);
+        this.emojiEnd = String.valueOf(config.emojiEndChar);
+
+        this.burstStartNanos = burstsPerNano > 0 ? exponential(burstsPerNano) : Long.MAX_VALUE;
+        this.nextSendNanos = scheduleAfter(0);
+    }
+
+    /**
+     * @return The time the next message is scheduled for
+     */
+    public long getNextSendNanos() {
+        return nextSendNanos;
+    }
+
+    /**
+     * Generates the next scheduled message and schedules the one after it
+     *
+     * @return The message, dated with the time it was scheduled for
+     */
+    public FatMessage next() {
+        DateTime date = start.plus(TimeUnit.NANOSECONDS.toMillis(nextSendNanos));
+        User user;
+        MessageType type;
+        if (botSampler != null && rand.nextDouble() < botMessageRatio) {
+            user = bots.get(botSampler.sample(rand));
+            type = MessageType.BOT_MESSAGE;
+        } else {
+            user = users.get(userSampler.sample(rand));
+            type = MessageType.MESSAGE;
+        }
+        Room room = rooms.get(roomSampler.sample(rand));
+        StringBuilder text = new StringBuilder(sentences.get(sentenceSampler.sample(rand)));
+        if (rand.nextDouble() < entityMessageRatio) {
+            text.append(' ').append(entities.get(entitySampler.sample(rand)));
+        }
+        if (rand.nextDouble() < emojiMessageRatio) {
+            text.append(' ').append(emojiStart).append(EMOJIS.get(emojiSampler.sample(rand)))
+                .append(emojiEnd);
+        }
+        Message message = new Message(date, user.getName(), user.getUserId(), text.toString(),
+                                      room.getRoomId(), type);
+        nextSendNanos = scheduleAfter(nextSendNanos);
+        return new FatMessage(message, user, room);
+    }
+
+    /**
+     * @param timeNanos
+     *            The time to get the rate at
+     * @return The message rate at a time, in messages per second
+     */
+    @VisibleForTesting
+    double getRate(long timeNanos) {
+        return getRatePerNano(timeNanos) * NANOS_PER_SEC;
+    }
+
+    /**
+     * Picks the time of the next message by thinning a Poisson process with the maximum rate,
+     * which gives a Poisson process with the rate at every point in time
+     */
+    private long scheduleAfter(long timeNanos) {
+        long candidateNanos = timeNanos;
+        do {
+            candidateNanos += Math.max(1, exponential(maxRatePerNano));
+        } while (rand.nextDouble() * maxRatePerNano > getRatePerNano(candidateNanos));
+        return candidateNanos;
+    }
+
+    private double getRatePerNano(long timeNanos) {
+        double rate = targetRatePerNano;
+        if (diurnalAmplitude > 0) {
+            double dayFraction = startDayFraction + timeNanos / (double) dayLengthNanos;
+            rate *= 1 + diurnalAmplitude * Math.cos(2 * Math.PI * (dayFraction - peakDayFraction));
+        }
+        if (isInBurst(timeNanos)) {
+            rate *= burstMultiplier;
+        }
+        return rate;
+    }
+
+    /**
+     * Bursts start as a Poisson process. Times only move forward, so bursts that are over are
+     * replaced by the next one
+     */
+    private boolean isInBurst(long timeNanos) {
+        while (burstStartNanos != Long.MAX_VALUE && timeNanos >= burstStartNanos
+                + burstDurationNanos) {
+            burstStartNanos += burstDurationNanos + exponential(burstsPerNano);
+        }
+        return timeNanos >= burstStartNanos;
+    }
+
+    /**
+     * @return A sample of an exponential distribution with the given rate
+     */
+    private long exponential(double ratePerNano) {
+        return (long) (-Math.log(1 - rand.nextDouble()) / ratePerNano);
+    }
+
+}
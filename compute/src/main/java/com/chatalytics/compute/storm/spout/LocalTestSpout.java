@@ -5,12 +5,14 @@ import com.chatalytics.compute.chat.dao.IChatApiDAO;
 import com.chatalytics.compute.config.ConfigurationConstants;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.chatalytics.core.config.LocalTestConfig;
-import com.chatalytics.core.model.data.FatMessage;
 import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageEnvelope;
 import com.chatalytics.core.model.data.MessageType;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
 import com.chatalytics.core.util.YamlUtils;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 import org.apache.storm.shade.com.google.common.collect.Lists;
 import org.apache.storm.spout.SpoutOutputCollector;
@@ -32,9 +34,13 @@ import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 /**
- * This spout will
+ * Spout that emits random messages from the users and rooms of the local chat API. By default it
+ * emits one message every <code>sleepMs</code>. When <code>targetMessagesPerSec</code> is set, it
+ * emits messages from a {@link LoadGenerator} instead, as fast as they're scheduled, without ever
+ * sleeping. At most <code>spoutMaxBatchSize</code> messages are emitted per call.
  *
  * @author giannis
  */
@@ -44,6 +50,8 @@ public class LocalTestSpout extends BaseRichSpout {
     private static final Logger LOG = LoggerFactory.getLogger(LocalTestSpout.class);
     public static final String SPOUT_ID = "LOCAL_TEST_SPOUT_ID";
     public static final String LOCAL_TEST_MESSAGE_FIELD_STR = "test-message";
+    public static final String LOAD_GENERATOR_METRIC = "load-generator";
+    public static final int METRICS_INTERVAL_SECS = 60;
 
     private SpoutOutputCollector collector;
     private long sleepMs;
@@ -53,6 +61,10 @@ public class LocalTestSpout extends BaseRichSpout {
     private List<Room> rooms;
     private List<String> sentences;
     private IChatApiDAO localChatDao;
+    private LoadGenerator loadGenerator;
+    private long startNanos;
+    private int maxBatchSize;
+    private long emittedMessages;
 
     @Override
     public void open(@SuppressWarnings("rawtypes") Map conf, TopologyContext context,
@@ -92,10 +104,28 @@ public class LocalTestSpout extends BaseRichSpout {
         this.localChatDao = ChatAPIFactory.getChatApiDao(config);
         this.users = Lists.newArrayList(localChatDao.getUsers().values());
         this.rooms = Lists.newArrayList(localChatDao.getRooms().values());
+        this.maxBatchSize = config.computeConfig.spoutMaxBatchSize;
+
+        if (localConfig.targetMessagesPerSec > 0) {
+            List<String> entities = config.computeConfig.entityDictionary;
+            if (entities == null) {
+                entities = ImmutableList.of();
+            }
+            this.loadGenerator = new LoadGenerator(localConfig, users, rooms, sentences, entities,
+                                                   DateTime.now(dtZone), rand);
+            this.startNanos = System.nanoTime();
+            context.registerMetric(LOAD_GENERATOR_METRIC, this::getLoadMetrics,
+                                   METRICS_INTERVAL_SECS);
+            LOG.info("Generating {} messages per second", localConfig.targetMessagesPerSec);
+        }
     }
 
     @Override
     public void nextTuple() {
+        if (loadGenerator != null) {
+            emitScheduledMessages();
+            return;
+        }
 
         User fromUser = users.get(rand.nextInt(users.size()));
         Room room = rooms.get(rand.nextInt(rooms.size()));
@@ -106,9 +136,7 @@ public class LocalTestSpout extends BaseRichSpout {
                                       fromUser.getUserId(), messageStr, room.getRoomId(),
                                       MessageType.MESSAGE);
 
-        FatMessage fatMessage = new FatMessage(message, fromUser, room);
-
-        collector.emit(new Values(fatMessage));
+        collector.emit(new Values(MessageEnvelope.of(message, fromUser, room)));
 
         try {
             Thread.sleep(sleepMs);
@@ -117,6 +145,34 @@ public class LocalTestSpout extends BaseRichSpout {
         }
     }
 
+    /**
+     * Emits the messages whose scheduled time has passed. Messages that are late are still emitted,
+     * with the time they were scheduled for
+     */
+    private void emitScheduledMessages() {
+        long nowNanos = System.nanoTime() - startNanos;
+        for (int emitted = 0; emitted < maxBatchSize; emitted++) {
+            if (loadGenerator.getNextSendNanos() > nowNanos) {
+                break;
+            }
+            collector.emit(new Values(MessageEnvelope.of(loadGenerator.next())));
+            emittedMessages++;
+        }
+    }
+
+    /**
+     * @return The number of messages emitted since the last report, and how far behind schedule
+     *         the spout is
+     */
+    private Map<String, Object> getLoadMetrics() {
+        long lagNanos = System.nanoTime() - startNanos - loadGenerator.getNextSendNanos();
+        Map<String, Object> metrics = ImmutableMap.of(
+            "emitted", emittedMessages,
+            "lag-ms", Math.max(0, TimeUnit.NANOSECONDS.toMillis(lagNanos)));
+        emittedMessages = 0;
+        return metrics;
+    }
+
     @Override
     public void declareOutputFields(OutputFieldsDeclarer fields) {
         fields.declare(new Fields(LOCAL_TEST_MESSAGE_FIELD_STR));
@@ -0,0 +1,49 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Messages pulled by a polling spout, together with the checkpoint to save once they're emitted,
+ * e.g. the time a room was pulled up to. Either of them can be missing.
+ *
+ * @author giannis
+ */
+public class PulledMessages {
+
+    private final List<MessageEnvelope> messages;
+    private final Runnable checkpoint;
+
+    public PulledMessages(List<MessageEnvelope> messages, Runnable checkpoint) {
+        this.messages = messages;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * @return Pulled messages without a checkpoint
+     */
+    public static PulledMessages of(List<MessageEnvelope> messages) {
+        return new PulledMessages(messages, null);
+    }
+
+    /**
+     * @return A checkpoint without any messages
+     */
+    public static PulledMessages checkpoint(Runnable checkpoint) {
+        return new PulledMessages(ImmutableList.of(), checkpoint);
+    }
+
+    public List<MessageEnvelope> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return The checkpoint or null if there's none
+     */
+    public Runnable getCheckpoint() {
+        return checkpoint;
+    }
+
+}
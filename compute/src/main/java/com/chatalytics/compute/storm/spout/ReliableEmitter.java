@@ -0,0 +1,173 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import org.apache.storm.spout.SpoutOutputCollector;
+import org.apache.storm.tuple.Values;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.function.LongSupplier;
+
+/**
+ * Emits values from a spout with a message id so that Storm tracks them, and keeps every emitted
+ * value until it's acked. Failed values are replayed with an exponential backoff, up to a maximum
+ * number of times. The number of pending values is bounded, so a spout should stop pulling new
+ * values when {@link #canEmit()} returns false.
+ * <p/>
+ * Storm calls <code>nextTuple</code>, <code>ack</code> and <code>fail</code> of a spout from the
+ * same thread, so this class is not thread safe.
+ *
+ * @author giannis
+ *
+ * @param <T>
+ *            The type of the emitted value
+ */
+public class ReliableEmitter<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReliableEmitter.class);
+
+    private final int maxPending;
+    private final int maxReplays;
+    private final long replayBackoffMillis;
+    private final long maxReplayBackoffMillis;
+    private final LongSupplier clock;
+
+    private final Map<Long, PendingValue<T>> pending;
+    private final Queue<PendingValue<T>> replays;
+    private long nextMessageId;
+    private long droppedValues;
+
+    public ReliableEmitter(int maxPending, int maxReplays, long replayBackoffMillis,
+                           long maxReplayBackoffMillis) {
+        this(maxPending, maxReplays, replayBackoffMillis, maxReplayBackoffMillis,
+             System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    protected ReliableEmitter(int maxPending, int maxReplays, long replayBackoffMillis,
+                              long maxReplayBackoffMillis, LongSupplier clock) {
+        Preconditions.checkArgument(maxPending > 0, "Max pending has to be positive");
+        this.maxPending = maxPending;
+        this.maxReplays = maxReplays;
+        this.replayBackoffMillis = replayBackoffMillis;
+        this.maxReplayBackoffMillis = maxReplayBackoffMillis;
+        this.clock = clock;
+        this.pending = Maps.newHashMapWithExpectedSize(maxPending);
+        this.replays = new PriorityQueue<>(Comparator.comparingLong(value -> value.replayAtMillis));
+    }
+
+    /**
+     * @return True if there's room for emitting another new value
+     */
+    public boolean canEmit() {
+        return pending.size() < maxPending;
+    }
+
+    /**
+     * Emits a new value and starts tracking it
+     *
+     * @param collector
+     *            The spout collector
+     * @param value
+     *            The value to emit
+     */
+    public void emit(SpoutOutputCollector collector, T value) {
+        PendingValue<T> pendingValue = new PendingValue<>(nextMessageId++, value);
+        pending.put(pendingValue.messageId, pendingValue);
+        collector.emit(new Values(value), pendingValue.messageId);
+    }
+
+    /**
+     * Emits again all the failed values whose backoff has expired
+     *
+     * @param collector
+     *            The spout collector
+     * @return The number of replayed values
+     */
+    public int emitReplays(SpoutOutputCollector collector) {
+        long now = clock.getAsLong();
+        int replayed = 0;
+        while (!replays.isEmpty() && replays.peek().replayAtMillis <= now) {
+            PendingValue<T> pendingValue = replays.remove();
+            collector.emit(new Values(pendingValue.value), pendingValue.messageId);
+            replayed++;
+        }
+        return replayed;
+    }
+
+    /**
+     * Stops tracking an acked value
+     *
+     * @param messageId
+     *            The message id the value was emitted with
+     */
+    public void ack(Object messageId) {
+        pending.remove(messageId);
+    }
+
+    /**
+     * Schedules a failed value for replay or drops it if it was replayed too many times
+     *
+     * @param messageId
+     *            The message id the value was emitted with
+     */
+    public void fail(Object messageId) {
+        PendingValue<T> pendingValue = pending.get(messageId);
+        if (pendingValue == null) {
+            return;
+        }
+        if (pendingValue.replays >= maxReplays) {
+            LOG.error("Dropping {} after {} replays", pendingValue.value, pendingValue.replays);
+            pending.remove(messageId);
+            droppedValues++;
+            return;
+        }
+        long backoff = replayBackoffMillis << Math.min(pendingValue.replays, 30);
+        pendingValue.replays++;
+        pendingValue.replayAtMillis = clock.getAsLong() + Math.min(backoff, maxReplayBackoffMillis);
+        replays.add(pendingValue);
+    }
+
+    /**
+     * @return The number of emitted values that haven't been acked yet, including the ones waiting
+     *         to be replayed
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return The number of values waiting to be replayed
+     */
+    public int getReplayCount() {
+        return replays.size();
+    }
+
+    /**
+     * @return The number of values that were dropped after failing too many times
+     */
+    public long getDroppedCount() {
+        return droppedValues;
+    }
+
+    private static class PendingValue<T> {
+
+        private final long messageId;
+        private final T value;
+        private int replays;
+        private long replayAtMillis;
+
+        private PendingValue(long messageId, T value) {
+            this.messageId = messageId;
+            this.value = value;
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue backed by an array. Every slot carries a sequence number that tells
+ * producers and consumers whether it's free or filled for their turn, so that offering and polling
+ * only need a single compare-and-set on the tail or head counter. Any number of threads can offer
+ * and poll concurrently.
+ * <p/>
+ * The capacity is rounded up to the next power of two, and is at least two.
+ *
+ * @author giannis
+ *
+ * @param <T>
+ *            The type of the buffered values
+ */
+public class RingBuffer<T> {
+
+    private final int mask;
+    private final AtomicReferenceArray<T> values;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head;
+    private final AtomicLong tail;
+
+    public RingBuffer(int capacity) {
+        Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 30,
+                                    "Capacity has to be between 1 and 2^30");
+        // a slot's "filled" sequence has to differ from the next lap's "free" one
+        int size = Math.max(2, Integer.highestOneBit(capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.values = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int index = 0; index < size; index++) {
+            sequences.set(index, index);
+        }
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+    }
+
+    /**
+     * Adds a value to the end of the buffer if there's room
+     *
+     * @param value
+     *            The non null value to add
+     * @return False if the buffer is full
+     */
+    public boolean offer(T value) {
+        Preconditions.checkNotNull(value);
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    values.lazySet(index, value);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the value at the head of the buffer
+     *
+     * @return The oldest value or null if the buffer is empty
+     */
+    public T poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long diff = sequences.get(index) - (position + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    T value = values.get(index);
+                    values.lazySet(index, null);
+                    sequences.set(index, position + mask + 1);
+                    return value;
+                }
+                position = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * @return The approximate number of buffered values
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the pulls of a polling spout on a background thread and hands the pulled values to the spout
+ * through a bounded queue, so that <code>nextTuple</code> only polls the queue and never blocks the
+ * executor thread that also processes acks, fails and heartbeats. A pull blocks when the queue is
+ * full until the spout catches up.
+ * <p/>
+ * The next pull is scheduled <code>pollIntervalMillis</code> after the spout has polled all the
+ * values of the previous one. Whatever the spout does with a value, like checkpointing the time it
+ * pulled up to, is done by the time the next pull starts. A pull that fails is logged and retried
+ * in the next run.
+ *
+ * @author giannis
+ *
+ * @param <T>
+ *            The type of the pulled values
+ */
+public class ScheduledPoller<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScheduledPoller.class);
+    private static final Object END_OF_PULL = new Object();
+
+    private final String name;
+    private final long pollIntervalMillis;
+    private final Pull<T> pull;
+    private final BlockingQueue<Object> values;
+    private final ScheduledExecutorService executor;
+    private volatile boolean started;
+    private long completedPulls;
+
+    /**
+     * @param name
+     *            The name of the poller thread
+     * @param pollIntervalMillis
+     *            Time between the end of a pull and the start of the next one
+     * @param capacity
+     *            Maximum number of pulled values waiting to be polled
+     * @param pull
+     *            The pull to run
+     */
+    public ScheduledPoller(String name, long pollIntervalMillis, int capacity, Pull<T> pull) {
+        Preconditions.checkArgument(capacity > 0, "Capacity has to be positive");
+        this.name = name;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.pull = pull;
+        this.values = new ArrayBlockingQueue<>(capacity);
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat(name).setDaemon(true).build());
+    }
+
+    /**
+     * Starts the first pull right away. Does nothing if the poller was already started
+     */
+    public synchronized void start() {
+        if (!started) {
+            started = true;
+            schedulePull(0);
+        }
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Called from the spout thread only
+     *
+     * @return The next pulled value or null if there's none
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        Object value = values.poll();
+        while (value == END_OF_PULL) {
+            completedPulls++;
+            schedulePull(pollIntervalMillis);
+            value = values.poll();
+        }
+        return (T) value;
+    }
+
+    /**
+     * @return The number of pulled values, and ends of pulls, waiting to be polled
+     */
+    public int getDepth() {
+        return values.size();
+    }
+
+    /**
+     * @return The number of pulls whose values were all polled
+     */
+    @VisibleForTesting
+    protected long getCompletedPulls() {
+        return completedPulls;
+    }
+
+    /**
+     * Stops the poller and interrupts a running pull
+     *
+     * @param timeout
+     *            Maximum time to wait for a running pull to stop
+     * @param unit
+     *            The unit of the timeout
+     * @return True if the poller stopped within the timeout
+     */
+    public boolean stop(long timeout, TimeUnit unit) {
+        executor.shutdownNow();
+        try {
+            if (executor.awaitTermination(timeout, unit)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.warn("{} didn't stop within {} {}", name, timeout, unit);
+        return false;
+    }
+
+    private void schedulePull(long delayMillis) {
+        try {
+            executor.schedule(this::runPull, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("{} is stopped. Not scheduling another pull", name);
+        }
+    }
+
+    private void runPull() {
+        try {
+            pull.run(values::put);
+        } catch (InterruptedException e) {
+            LOG.info("{} was interrupted", name);
+            Thread.currentThread().interrupt();
+            return;
+        } catch (RuntimeException e) {
+            LOG.error("{} failed. It will be retried in {}ms", name, pollIntervalMillis, e);
+        }
+        try {
+            values.put(END_OF_PULL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A single pull of a polling spout
+     */
+    @FunctionalInterface
+    public interface Pull<T> {
+
+        /**
+         * @param sink
+         *            Takes the pulled values
+         * @throws InterruptedException
+         *             If the poller was stopped
+         */
+        void run(Sink<T> sink) throws InterruptedException;
+    }
+
+    /**
+     * Takes the values of a pull, blocking while the queue is full
+     */
+    @FunctionalInterface
+    public interface Sink<T> {
+
+        void put(T value) throws InterruptedException;
+    }
+
+}
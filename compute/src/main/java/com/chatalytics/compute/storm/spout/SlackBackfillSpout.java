@@ -5,16 +5,21 @@ import com.chatalytics.compute.chat.dao.slack.SlackApiDAOFactory;
 import com.chatalytics.compute.config.ConfigurationConstants;
 import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
 import com.chatalytics.compute.db.dao.IChatAlyticsDAO;
+import com.chatalytics.compute.metrics.ComponentMetrics;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.chatalytics.core.config.SlackBackfillerConfig;
-import com.chatalytics.core.model.data.FatMessage;
 import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageEnvelope;
 import com.chatalytics.core.model.data.MessageType;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
 import com.chatalytics.core.util.YamlUtils;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.storm.shade.com.google.common.base.Preconditions;
 import org.apache.storm.shade.com.google.common.collect.Sets;
@@ -33,10 +38,22 @@ import org.slf4j.LoggerFactory;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Spout to be used for batching and/or back filling. Look at {@link SlackBackfillerConfig} for
- * configuration options. Note that this spout only supports {@link #MAX_BACKFILL_DAYS}
+ * configuration options. Rooms are fetched in parallel and every room keeps track of the time it
+ * was pulled up to, so an interrupted backfill resumes where each room left off.
+ * <p/>
+ * Backfill runs are pulled in the background by a {@link ScheduledPoller}, and
+ * <code>nextTuple</code> only emits pages that were already fetched, so it never blocks.
  *
  * @author giannis
  */
@@ -47,12 +64,26 @@ public class SlackBackfillSpout extends BaseRichSpout {
 
     public static final String SPOUT_ID = "SLACK_BACKFILL_MESSAGE_SPOUT_ID";
     public static final String BACKFILL_SLACK_MESSAGE_FIELD_STR = "slack-message";
+    private static final long MIN_POLL_INTERVAL_MILLIS = 1000;
+    private static final long DEFAULT_SHUTDOWN_TIMEOUT_SECS = 30;
 
     private DateTime initDate;
     private SpoutOutputCollector collector;
     private int granularityMins;
     private IChatApiDAO slackDao;
     private IChatAlyticsDAO dbDao;
+    private int windowDays;
+    private int maxBufferedPages;
+    private RateLimiter rateLimiter;
+    private ExecutorService fetchExecutor;
+    private ScheduledPoller<PulledMessages> poller;
+    private ComponentMetrics metrics;
+    private long shutdownTimeoutSecs = DEFAULT_SHUTDOWN_TIMEOUT_SECS;
+    /**
+     * The end of the last complete run, ahead of the saved last pull time while the run's pages are
+     * waiting to be emitted. Only accessed by the poller thread
+     */
+    private DateTime pulledUpTo;
 
     @Override
     public void open(@SuppressWarnings("rawtypes") Map conf, TopologyContext context,
@@ -62,6 +93,10 @@ public class SlackBackfillSpout extends BaseRichSpout {
         ChatAlyticsConfig config = YamlUtils.readChatAlyticsConfigFromString(configYaml);
         SlackBackfillerConfig chatConfig = (SlackBackfillerConfig) config.computeConfig.chatConfig;
         Preconditions.checkArgument(chatConfig.granularityMins >= 0, "Granularity has to be >= 0");
+        Preconditions.checkArgument(chatConfig.roomParallelism > 0,
+                                    "Room parallelism has to be > 0");
+        Preconditions.checkArgument(chatConfig.windowDays > 0, "Window days have to be > 0");
+        this.shutdownTimeoutSecs = config.computeConfig.shutdownTimeoutSecs;
 
         open(chatConfig, SlackApiDAOFactory.getSlackApiDao(config),
              ChatAlyticsDAOFactory.createChatAlyticsDao(config), context, collector);
@@ -76,6 +111,20 @@ public class SlackBackfillSpout extends BaseRichSpout {
         this.collector = collector;
         this.slackDao = slackApiDao;
         this.dbDao = dbDao;
+        this.windowDays = chatConfig.windowDays;
+        this.maxBufferedPages = chatConfig.maxBufferedPages;
+        if (chatConfig.maxRequestsPerSec > 0) {
+            this.rateLimiter = RateLimiter.create(chatConfig.maxRequestsPerSec);
+        }
+        this.fetchExecutor = Executors.newFixedThreadPool(
+            chatConfig.roomParallelism,
+            new ThreadFactoryBuilder().setNameFormat("slack-backfill-%d").setDaemon(true).build());
+        long pollIntervalMillis = Math.max(MIN_POLL_INTERVAL_MILLIS,
+                                           TimeUnit.MINUTES.toMillis(granularityMins));
+        this.poller = new ScheduledPoller<>("slack-backfill-poller", pollIntervalMillis,
+                                            maxBufferedPages, this::pull);
+        this.metrics = new ComponentMetrics(context);
+        metrics.gauge(ComponentMetrics.SPOUT_BUFFER_DEPTH, poller::getDepth);
 
         if (chatConfig.startDate == null) {
             // go back a day
@@ -88,21 +137,46 @@ public class SlackBackfillSpout extends BaseRichSpout {
     }
 
     /**
-     * Iterates over all the rooms and for each room gets the history of the messages in the given
-     * time period and builds a {@link FatMessage} and emits it
+     * Emits the next fetched page, if there's one, and saves the time its room was pulled up to.
+     * Returns right away otherwise. The first call starts the backfill runs
      */
     @Override
     public void nextTuple() {
+        if (!poller.isStarted()) {
+            poller.start();
+        }
+        PulledMessages page = poller.poll();
+        if (page != null) {
+            emit(page);
+        }
+    }
+
+    @VisibleForTesting
+    protected void emit(PulledMessages page) {
+        for (MessageEnvelope message : page.getMessages()) {
+            collector.emit(new Values(message));
+        }
+        if (page.getCheckpoint() != null) {
+            page.getCheckpoint().run();
+        }
+    }
 
+    /**
+     * Backfills all the rooms for the next run interval, if there's one. Runs on the poller
+     * thread. The last pull time is only moved forward if every room was backfilled, so that rooms
+     * that failed are retried in the next run
+     *
+     * @param sink
+     *            Takes the fetched pages
+     * @throws InterruptedException
+     *             If the backfill was cancelled
+     */
+    @VisibleForTesting
+    protected void pull(ScheduledPoller.Sink<PulledMessages> sink) throws InterruptedException {
         Optional<Interval> optionalInterval = getRunInterval();
         if (!optionalInterval.isPresent()) {
-            try {
-                LOG.info("Waiting for a few more minutes to go by. Granularity is {}",
-                         granularityMins);
-                Thread.sleep(granularityMins * 60 * 1000);
-            } catch (InterruptedException e) {
-                LOG.warn("Interrupted while sleeping...");
-            }
+            LOG.debug("Waiting for a few more minutes to go by. Granularity is {}",
+                      granularityMins);
             return;
         }
         Interval runInterval = optionalInterval.get();
@@ -112,52 +186,174 @@ public class SlackBackfillSpout extends BaseRichSpout {
         Map<String, User> users = slackDao.getUsers();
         // get all the rooms and for each room get the messages
         Map<String, Room> rooms = slackDao.getRooms();
-        backfillRooms(users, rooms, runInterval);
-        dbDao.setLastMessagePullTime(runInterval.getEnd());
+        if (backfillRooms(users, rooms, runInterval, sink)) {
+            DateTime runEnd = runInterval.getEnd();
+            sink.put(PulledMessages.checkpoint(() -> dbDao.setLastMessagePullTime(runEnd)));
+            pulledUpTo = runEnd;
+        } else {
+            LOG.warn("Not all rooms were backfilled. They will be retried in the next run");
+        }
     }
 
+    /**
+     * Fetches the history of the rooms in parallel, at most <code>roomParallelism</code> rooms at a
+     * time. Every room resumes from the time it was last pulled up to, and its history is fetched
+     * in windows of <code>windowDays</code>, oldest first. Every page of messages is passed to the
+     * sink from the calling thread as soon as it's fetched, followed by the room pull time after
+     * every window.
+     *
+     * @param users
+     *            The users keyed by ID
+     * @param rooms
+     *            The rooms to backfill keyed by ID
+     * @param runInterval
+     *            The interval to backfill
+     * @param sink
+     *            Takes the fetched pages
+     * @return True if all the rooms were backfilled, false if any of them failed
+     * @throws InterruptedException
+     *             If the backfill was cancelled, in which case the room fetches are cancelled too
+     */
     @VisibleForTesting
-    protected void backfillRooms(Map<String, User> users, Map<String, Room> rooms,
-                                 Interval runInterval) {
+    protected boolean backfillRooms(Map<String, User> users, Map<String, Room> rooms,
+                                    Interval runInterval, ScheduledPoller.Sink<PulledMessages> sink)
+            throws InterruptedException {
         Set<String> skippedRoomNames = Sets.newHashSet();
-        int skippedUnknownMessages = 0;
-        LOG.info("Backfilling {} rooms", rooms.size());
-        int roomNum = 0;
-        for (Room room : rooms.values()) {
-            roomNum++;
+        AtomicInteger skippedUnknownMessages = new AtomicInteger();
+        Map<String, DateTime> roomPullTimes = dbDao.getRoomPullTimes();
+        BlockingQueue<BackfillPage> pages = new ArrayBlockingQueue<>(maxBufferedPages);
+        List<Future<?>> fetches = Lists.newArrayList();
 
+        for (Room room : rooms.values()) {
             if (room.isArchived()) {
                 LOG.debug("Skipping archived room {}", room.getName());
                 skippedRoomNames.add(room.getName());
                 continue;
             }
+            DateTime roomStart = runInterval.getStart();
+            DateTime roomPullTime = roomPullTimes.get(room.getRoomId());
+            if (roomPullTime != null && roomPullTime.isAfter(roomStart)) {
+                roomStart = roomPullTime;
+            }
+            if (!roomStart.isBefore(runInterval.getEnd())) {
+                LOG.debug("Room {} is already backfilled up to {}", room.getName(), roomPullTime);
+                continue;
+            }
+            Interval roomInterval = new Interval(roomStart, runInterval.getEnd());
+            fetches.add(fetchExecutor.submit(
+                () -> fetchRoom(users, room, roomInterval, pages, skippedUnknownMessages)));
+        }
 
-            List<Message> messages = slackDao.getMessages(runInterval.getStart(),
-                                                          runInterval.getEnd(),
-                                                          room);
-            for (Message message : messages) {
-                User user = users.get(message.getFromUserId());
-                if (message.getType() == MessageType.UNKNOWN) {
-                    LOG.debug("Skipping unkown message type. {}", message);
-                    skippedUnknownMessages++;
-                    continue;
-                } else if  (user == null && message.getType() == MessageType.BOT_MESSAGE) {
-                    user = new User(message.getFromUserId(), null, false, false, true,
-                                    message.getFromName(), message.getFromName(), null,
-                                    DateTime.now(), null, null, null, null, null);
+        LOG.info("Backfilling {} rooms", fetches.size());
+        int finishedRooms = 0;
+        int failedRooms = 0;
+        try {
+            while (finishedRooms < fetches.size()) {
+                BackfillPage page = pages.take();
+                Runnable checkpoint = null;
+                if (page.pulledUpTo != null) {
+                    String roomId = page.room.getRoomId();
+                    DateTime roomPulledUpTo = page.pulledUpTo;
+                    checkpoint = () -> dbDao.setRoomPullTime(roomId, roomPulledUpTo);
+                }
+                if (!page.messages.isEmpty() || checkpoint != null) {
+                    sink.put(new PulledMessages(page.messages, checkpoint));
                 }
-                if (user == null) {
-                    LOG.warn("Can't find user with userId: {}. Skipping", message.getFromUserId());
-                    continue;
+                if (page.finished) {
+                    finishedRooms++;
+                    if (!page.succeeded) {
+                        failedRooms++;
+                    }
+                    logProgress(finishedRooms, fetches.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while backfilling. Cancelling the remaining rooms");
+            fetches.forEach(fetch -> fetch.cancel(true));
+            throw e;
+        }
+
+        LOG.info("Finished backfilling. Skipped {} unknown msgs. Skipped {} rooms. They were: {}. "
+                     + "{} rooms failed", skippedUnknownMessages.get(), skippedRoomNames.size(),
+                 skippedRoomNames, failedRooms);
+        return failedRooms == 0;
+    }
+
+    /**
+     * Fetches the history of a room window by window and queues every page of messages, followed by
+     * the time the room was pulled up to after every window. A window is only checkpointed once all
+     * of its pages were fetched, so a room whose history can't be fetched resumes from the start of
+     * the failed window in the next run. The last queued page marks the room as finished.
+     */
+    private void fetchRoom(Map<String, User> users, Room room, Interval roomInterval,
+                           BlockingQueue<BackfillPage> pages,
+                           AtomicInteger skippedUnknownMessages) {
+        boolean succeeded = false;
+        try {
+            DateTime windowStart = roomInterval.getStart();
+            while (windowStart.isBefore(roomInterval.getEnd())) {
+                DateTime windowEnd = windowStart.plusDays(windowDays);
+                if (windowEnd.isAfter(roomInterval.getEnd())) {
+                    windowEnd = roomInterval.getEnd();
                 }
-                FatMessage fatMessage = new FatMessage(message, user, room);
-                collector.emit(new Values(fatMessage));
+                acquireRequestPermit();
+                slackDao.forEachMessagePage(windowStart, windowEnd, room, messages -> {
+                    List<MessageEnvelope> envelopes = toEnvelopes(users, room, messages,
+                                                                  skippedUnknownMessages);
+                    putPage(pages, new BackfillPage(room, envelopes, null, false, false));
+                    // the chat API fetches the next page right after this returns
+                    acquireRequestPermit();
+                });
+                putPage(pages, new BackfillPage(room, ImmutableList.of(), windowEnd, false, false));
+                windowStart = windowEnd;
+            }
+            succeeded = true;
+        } catch (RuntimeException e) {
+            LOG.error("Failed to backfill room {}", room.getName(), e);
+        } finally {
+            if (!Thread.currentThread().isInterrupted()) {
+                putPage(pages, new BackfillPage(room, ImmutableList.of(), null, true, succeeded));
+            }
+        }
+    }
+
+    private List<MessageEnvelope> toEnvelopes(Map<String, User> users, Room room,
+                                              List<Message> messages,
+                                              AtomicInteger skippedUnknownMessages) {
+        List<MessageEnvelope> envelopes = Lists.newArrayListWithCapacity(messages.size());
+        for (Message message : messages) {
+            User user = users.get(message.getFromUserId());
+            if (message.getType() == MessageType.UNKNOWN) {
+                LOG.debug("Skipping unkown message type. {}", message);
+                skippedUnknownMessages.incrementAndGet();
+                continue;
+            } else if  (user == null && message.getType() == MessageType.BOT_MESSAGE) {
+                user = new User(message.getFromUserId(), null, false, false, true,
+                                message.getFromName(), message.getFromName(), null,
+                                DateTime.now(), null, null, null, null, null);
+            }
+            if (user == null) {
+                LOG.warn("Can't find user with userId: {}. Skipping", message.getFromUserId());
+                continue;
             }
-            logProgress(roomNum, rooms.size());
+            envelopes.add(MessageEnvelope.of(message, user, room));
+        }
+        return envelopes;
+    }
+
+    private void acquireRequestPermit() {
+        if (rateLimiter != null) {
+            rateLimiter.acquire();
+        }
+    }
 
+    private static void putPage(BlockingQueue<BackfillPage> pages, BackfillPage page) {
+        try {
+            pages.put(page);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Backfill was cancelled");
         }
-        LOG.info("Finished backfilling. Skipped {} unknown msgs. Skipped {} rooms. They were: {}",
-                 skippedUnknownMessages, skippedRoomNames.size(), skippedRoomNames);
     }
 
     private void logProgress(int roomNum, int totalRooms) {
@@ -167,9 +363,6 @@ public class SlackBackfillSpout extends BaseRichSpout {
     }
 
     /**
-     * Note that a call to this method may block up to a configurable amount of time if the next
-     * start time is after now
-     *
      * @return The next run interval to get messages for based on the last pull time, the
      *         granularity of batch gets and the initial start date set in the yaml config
      */
@@ -178,6 +371,9 @@ public class SlackBackfillSpout extends BaseRichSpout {
         DateTime startDate;
         DateTime endDate = new DateTime(System.currentTimeMillis(), DateTimeZone.UTC);
         DateTime lastRunDate = dbDao.getLastMessagePullTime();
+        if (pulledUpTo != null && pulledUpTo.isAfter(lastRunDate)) {
+            lastRunDate = pulledUpTo;
+        }
 
         if (initDate.isAfter(lastRunDate)) {
             startDate = initDate;
@@ -193,16 +389,51 @@ public class SlackBackfillSpout extends BaseRichSpout {
         return Optional.of(runInterval);
     }
 
+    @VisibleForTesting
+    protected ScheduledPoller<PulledMessages> getPoller() {
+        return poller;
+    }
+
     @Override
     public void declareOutputFields(OutputFieldsDeclarer fields) {
         fields.declare(new Fields(BACKFILL_SLACK_MESSAGE_FIELD_STR));
     }
 
+    /**
+     * A page of messages of a room, or the time a room was pulled up to, or the end of a room
+     */
+    private static class BackfillPage {
+
+        private final Room room;
+        private final List<MessageEnvelope> messages;
+        private final DateTime pulledUpTo;
+        private final boolean finished;
+        private final boolean succeeded;
+
+        private BackfillPage(Room room, List<MessageEnvelope> messages, DateTime pulledUpTo,
+                             boolean finished, boolean succeeded) {
+            this.room = room;
+            this.messages = messages;
+            this.pulledUpTo = pulledUpTo;
+            this.finished = finished;
+            this.succeeded = succeeded;
+        }
+    }
+
     @Override
     public void close() {
+        if (poller != null) {
+            poller.stop(shutdownTimeoutSecs, TimeUnit.SECONDS);
+        }
+        if (fetchExecutor != null) {
+            fetchExecutor.shutdownNow();
+        }
         if (dbDao != null && dbDao.isRunning()) {
             dbDao.stopAsync().awaitTerminated();
         }
+        if (metrics != null) {
+            metrics.close();
+        }
     }
 
 }
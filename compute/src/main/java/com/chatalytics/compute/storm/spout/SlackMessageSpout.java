@@ -1,16 +1,23 @@
 package com.chatalytics.compute.storm.spout;
 
+import com.chatalytics.compute.chat.ChatDirectory;
 import com.chatalytics.compute.chat.dao.ChatAPIFactory;
 import com.chatalytics.compute.chat.dao.IChatApiDAO;
 import com.chatalytics.compute.chat.dao.slack.JsonSlackDAO;
 import com.chatalytics.compute.config.ConfigurationConstants;
+import com.chatalytics.compute.metrics.ComponentMetrics;
+import com.chatalytics.core.InputSourceType;
 import com.chatalytics.core.config.ChatAlyticsConfig;
-import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.config.ComputeConfig;
+import com.chatalytics.core.json.JsonObjectMapperFactory;
 import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageEnvelope;
 import com.chatalytics.core.model.data.MessageType;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
 import com.chatalytics.core.util.YamlUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 
@@ -19,17 +26,17 @@ import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
 import org.apache.storm.topology.base.BaseRichSpout;
 import org.apache.storm.tuple.Fields;
-import org.apache.storm.tuple.Values;
 import org.glassfish.tyrus.container.jdk.client.JdkContainerProvider;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.websocket.ClientEndpoint;
 import javax.websocket.DeploymentException;
@@ -39,28 +46,40 @@ import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
 
 /**
- * Spout that pulls messages from the slack API and emits {@link FatMessage}s to subscribed bolts.
+ * Spout that pulls messages from the slack API and emits {@link MessageEnvelope}s to subscribed
+ * bolts. Messages are emitted with a message id and kept by a {@link ReliableEmitter} until they're
+ * acked, so that failed or timed out messages are replayed instead of lost. Received messages are
+ * held in a bounded {@link IngestBuffer} until the spout has room to emit them. Users and rooms are
+ * looked up in a {@link ChatDirectory} that is kept up to date from the realtime events.
  *
  * @author giannis
  */
-@ClientEndpoint(decoders = { WebSocketMessageDecoder.class })
+@ClientEndpoint
 public class SlackMessageSpout extends BaseRichSpout {
 
     private static final long serialVersionUID = -6294446748544704853L;
     private static final Logger LOG = LoggerFactory.getLogger(SlackMessageSpout.class);
     public static final String SPOUT_ID = "SLACK_MESSAGE_SPOUT_ID";
     public static final String SLACK_MESSAGE_FIELD_STR = "slack-message";
+    public static final String INGEST_BUFFER_METRIC = "ingest-buffer";
+    public static final int METRICS_INTERVAL_SECS = 60;
+    private static final String MESSAGE_EVENT = "message";
+    private static final String USER_CHANGE_EVENT = "user_change";
+    private static final String TEAM_JOIN_EVENT = "team_join";
+    private static final String CHANNEL_CREATED_EVENT = "channel_created";
+    private static final String CHANNEL_RENAME_EVENT = "channel_rename";
 
     private IChatApiDAO slackDao;
+    private ChatDirectory directory;
+    private ObjectMapper objMapper;
     private SpoutOutputCollector collector;
+    private ReliableEmitter<MessageEnvelope> emitter;
+    private IngestBuffer<MessageEnvelope> unemittedMessages;
+    private ComponentMetrics metrics;
+    private int maxBatchSize;
 
-    private final ConcurrentLinkedQueue<FatMessage> unemittedMessages;
     private Session session;
 
-    public SlackMessageSpout() {
-        unemittedMessages = new ConcurrentLinkedQueue<>();
-    }
-
     @Override
     public void open(@SuppressWarnings("rawtypes") Map conf, TopologyContext context,
                      SpoutOutputCollector collector) {
@@ -79,10 +98,45 @@ public class SlackMessageSpout extends BaseRichSpout {
                         SpoutOutputCollector collector) {
         this.slackDao = slackDao;
         this.collector = collector;
+        this.objMapper = JsonObjectMapperFactory.createObjectMapper(InputSourceType.SLACK);
+        ComputeConfig computeConfig = config.computeConfig;
+        this.directory = new ChatDirectory(slackDao, computeConfig.chatDirectoryRefreshSecs,
+                                           TimeUnit.SECONDS.toMillis(
+                                               computeConfig.chatDirectoryMinMissReloadSecs));
+        directory.startAsync().awaitRunning();
+        this.emitter = new ReliableEmitter<>(computeConfig.maxSpoutPending,
+                                             computeConfig.spoutMaxReplays,
+                                             computeConfig.spoutReplayBackoffMs,
+                                             computeConfig.spoutMaxReplayBackoffMs);
+        this.maxBatchSize = computeConfig.spoutMaxBatchSize;
+        this.unemittedMessages = createIngestBuffer(computeConfig, context);
+        context.registerMetric(INGEST_BUFFER_METRIC, unemittedMessages::getMetrics,
+                               METRICS_INTERVAL_SECS);
+        this.metrics = new ComponentMetrics(context);
+        metrics.gauge(ComponentMetrics.SPOUT_BUFFER_DEPTH, unemittedMessages::getDepth);
+        // only approximate when scraped, since the emitter belongs to the spout thread
+        metrics.gauge(ComponentMetrics.SPOUT_PENDING, emitter::getPendingCount);
         URI webSocketUri = getRealtimeWebSocketURI();
         openRealtimeConnection(config, webSocketUri, webSocketContainer);
     }
 
+    /**
+     * Creates the buffer that holds the received messages until they're emitted. The spill file, if
+     * any, is named after the task so that a restarted task picks up its own spilled messages
+     */
+    private IngestBuffer<MessageEnvelope> createIngestBuffer(ComputeConfig computeConfig,
+                                                             TopologyContext context) {
+        String spillDir = computeConfig.ingestSpillDir;
+        if (spillDir == null) {
+            spillDir = System.getProperty("java.io.tmpdir");
+        }
+        File spillFile = new File(spillDir, String.format("slack-ingest-%d.spill",
+                                                          context.getThisTaskId()));
+        return new IngestBuffer<>(computeConfig.ingestBufferCapacity,
+                                  computeConfig.ingestOverflowPolicy,
+                                  spillFile);
+    }
+
     /**
      * Opens the websocket and connects to the slack realtime server
      *
@@ -116,21 +170,78 @@ public class SlackMessageSpout extends BaseRichSpout {
     }
 
     /**
-     * Called when a new chat message event is received. A {@link FatMessage} is created and pushed
-     * to a concurrent queue for consumption.
+     * Called for every realtime event. Message events are passed on to
+     * {@link #onMessageEvent(Message, Session)} and user and channel events update the directory.
+     * All other events are ignored.
+     *
+     * @param event
+     *            The JSON event
+     * @param session
+     *            The active websocket session
+     */
+    @OnMessage
+    public void onRealtimeEvent(String event, Session session) {
+        JsonNode eventNode;
+        try {
+            eventNode = objMapper.readTree(event);
+        } catch (IOException e) {
+            LOG.error("Could not parse event {}. Will not process it...", event);
+            return;
+        }
+        String type = eventNode.path("type").asText();
+        try {
+            switch (type) {
+                case MESSAGE_EVENT:
+                    onMessageEvent(objMapper.treeToValue(eventNode, Message.class), session);
+                    break;
+                case USER_CHANGE_EVENT:
+                case TEAM_JOIN_EVENT:
+                    User user = objMapper.treeToValue(eventNode.get("user"), User.class);
+                    LOG.debug("Updating user {}", user);
+                    directory.putUser(user);
+                    break;
+                case CHANNEL_CREATED_EVENT:
+                case CHANNEL_RENAME_EVENT:
+                    updateRoom(objMapper.treeToValue(eventNode.get("channel"), Room.class));
+                    break;
+                default:
+                    LOG.trace("Ignoring {} event", type);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Could not decode {} event {}", type, event, e);
+        }
+    }
+
+    /**
+     * Updates a room in the directory. Rename events only carry the ID, name and creation date, so
+     * the rest of the fields are kept from the existing room
+     */
+    private void updateRoom(Room room) {
+        Room existingRoom = directory.getRooms().get(room.getRoomId());
+        if (existingRoom != null) {
+            room = new Room(room.getRoomId(), room.getName(), existingRoom.getTopic(),
+                            existingRoom.getLastActiveDate(), existingRoom.getCreationDate(),
+                            existingRoom.getOwnerUserId(), existingRoom.isArchived(),
+                            existingRoom.isPrivateRoom(), existingRoom.getGuestAccessURL(),
+                            existingRoom.getXmppJid());
+        }
+        LOG.debug("Updating room {}", room);
+        directory.putRoom(room);
+    }
+
+    /**
+     * Called when a new chat message event is received. A {@link MessageEnvelope} is created and
+     * pushed to the ingest buffer for consumption. Depending on the overflow policy this may block
+     * when the buffer is full.
      *
      * @param message
      *            The message event
      * @param session
      *            The active websocket session
      */
-    @OnMessage
     public void onMessageEvent(Message message, Session session) {
         LOG.debug("Got event {}", message);
-        Map<String, User> users = slackDao.getUsers();
-        Map<String, Room> rooms = slackDao.getRooms();
-
-        User fromUser = users.get(message.getFromUserId());
+        User fromUser = directory.getUser(message.getFromUserId());
         if (fromUser == null && message.getType() == MessageType.BOT_MESSAGE) {
             fromUser = new User(message.getFromUserId(), null, false, false, true,
                                 message.getFromName(), message.getFromName(), null, DateTime.now(),
@@ -142,13 +253,15 @@ public class SlackMessageSpout extends BaseRichSpout {
             return;
         }
 
-        Room room = rooms.get(message.getRoomId());
+        Room room = directory.getRoom(message.getRoomId());
         if (room == null && message.getRoomId() != null) {
             room = new Room(message.getRoomId(), message.getRoomId(), null,
                             DateTime.now(DateTimeZone.UTC), null, null, false, true, null, null);
         }
-        FatMessage fatMessage = new FatMessage(message, fromUser, room);
-        unemittedMessages.add(fatMessage);
+        MessageEnvelope envelope = MessageEnvelope.of(message, fromUser, room);
+        if (!unemittedMessages.add(envelope)) {
+            LOG.warn("Couldn't buffer {}. Skipping", envelope);
+        }
     }
 
     /**
@@ -163,17 +276,49 @@ public class SlackMessageSpout extends BaseRichSpout {
     }
 
     /**
-     * Consumes from a queue that is populated by the {@link #onMessageEvent(Message, Session)}
-     * method
+     * Replays failed messages whose backoff expired and then consumes from the buffer that is
+     * populated by the {@link #onMessageEvent(Message, Session)} method, as long as there's room
+     * for more pending messages. At most <code>spoutMaxBatchSize</code> new messages are emitted
+     * per call so that acks and fails are processed in between.
      */
     @Override
     public void nextTuple() {
-        while (!unemittedMessages.isEmpty()) {
-            FatMessage fatMessage = unemittedMessages.remove();
-            collector.emit(new Values(fatMessage));
+        emitter.emitReplays(collector);
+        for (int emitted = 0; emitted < maxBatchSize && emitter.canEmit(); emitted++) {
+            MessageEnvelope envelope = unemittedMessages.poll();
+            if (envelope == null) {
+                break;
+            }
+            emitter.emit(collector, envelope);
         }
     }
 
+    @Override
+    public void ack(Object msgId) {
+        emitter.ack(msgId);
+    }
+
+    @Override
+    public void fail(Object msgId) {
+        LOG.debug("Message {} failed", msgId);
+        emitter.fail(msgId);
+    }
+
+    @VisibleForTesting
+    protected ReliableEmitter<MessageEnvelope> getEmitter() {
+        return emitter;
+    }
+
+    @VisibleForTesting
+    protected ChatDirectory getDirectory() {
+        return directory;
+    }
+
+    @VisibleForTesting
+    protected IngestBuffer<MessageEnvelope> getIngestBuffer() {
+        return unemittedMessages;
+    }
+
     @Override
     public void declareOutputFields(OutputFieldsDeclarer fields) {
         fields.declare(new Fields(SLACK_MESSAGE_FIELD_STR));
@@ -188,6 +333,19 @@ public class SlackMessageSpout extends BaseRichSpout {
                 LOG.error("Session did not close cleanly. Got {}", e.getMessage());
             }
         }
+        if (directory != null) {
+            directory.stopAsync();
+        }
+        if (unemittedMessages != null) {
+            try {
+                unemittedMessages.close();
+            } catch (IOException e) {
+                LOG.error("Ingest buffer did not close cleanly. Got {}", e.getMessage());
+            }
+        }
+        if (metrics != null) {
+            metrics.close();
+        }
     }
 
 }
@@ -0,0 +1,52 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Samples ranks from a Zipf distribution, where the probability of rank <code>k</code> is
+ * proportional to <code>1 / k^exponent</code>. The cumulative probabilities are computed once, so
+ * a sample is a binary search.
+ *
+ * @author giannis
+ */
+public class ZipfSampler {
+
+    private final double[] cumulativeProbabilities;
+
+    /**
+     * @param size
+     *            The number of ranks
+     * @param exponent
+     *            The skew of the distribution. 0 samples all ranks uniformly
+     */
+    public ZipfSampler(int size, double exponent) {
+        Preconditions.checkArgument(size > 0, "Size has to be positive");
+        Preconditions.checkArgument(exponent >= 0, "Exponent can't be negative");
+        this.cumulativeProbabilities = new double[size];
+        double sum = 0;
+        for (int rank = 1; rank <= size; rank++) {
+            sum += 1 / Math.pow(rank, exponent);
+            cumulativeProbabilities[rank - 1] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cumulativeProbabilities[i] /= sum;
+        }
+    }
+
+    /**
+     * @param rand
+     *            The random number generator to use
+     * @return A rank from 0, the most likely, to size - 1
+     */
+    public int sample(Random rand) {
+        int index = Arrays.binarySearch(cumulativeProbabilities, rand.nextDouble());
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return Math.min(index, cumulativeProbabilities.length - 1);
+    }
+
+}
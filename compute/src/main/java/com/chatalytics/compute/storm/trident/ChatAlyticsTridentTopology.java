@@ -0,0 +1,84 @@
+package com.chatalytics.compute.storm.trident;
+
+import com.chatalytics.compute.storm.spout.SlackMessageSpout;
+import com.chatalytics.core.InputSourceType;
+import com.chatalytics.core.config.TopologyConfig;
+
+import org.apache.storm.generated.StormTopology;
+import org.apache.storm.topology.IRichSpout;
+import org.apache.storm.trident.Stream;
+import org.apache.storm.trident.TridentTopology;
+import org.apache.storm.trident.operation.builtin.Sum;
+import org.apache.storm.tuple.Fields;
+
+import java.util.Map;
+
+/**
+ * Declares a trident topology that counts mentions exactly once. It's an alternative to the
+ * {@link com.chatalytics.compute.storm.ChatAlyticsStormTopology}, picked with
+ * {@link TopologyConfig#trident}. Every message is analyzed by a {@link MentionFunction}, the
+ * mentions are grouped by user, room, value and time bucket and their occurrences are summed up
+ * into an opaque state created by the {@link MentionStateFactory}.
+ * <p/>
+ * The input spout is wrapped by trident, so a failed batch fails its messages back to the spout.
+ * The opaque state makes sure that a batch that's replayed with different messages doesn't count
+ * the messages of its earlier attempts. Counts are only exactly once if the spout replays the
+ * messages it's failed, so only the {@link SlackMessageSpout} is supported. The other spouts emit
+ * without message ids, and their failed messages would be lost.
+ *
+ * @author giannis
+ */
+public class ChatAlyticsTridentTopology {
+
+    public static final String TX_ID_PREFIX = "chatalytics-";
+    public static final String MENTION_FUNCTION_ID = "MENTION_FUNCTION_ID";
+    public static final String MENTION_STATE_ID = "MENTION_STATE_ID";
+    public static final String COUNT_FIELD_STR = "count";
+
+    private final InputSourceType type;
+    private final TopologyConfig topologyConfig;
+
+    public ChatAlyticsTridentTopology(InputSourceType type, TopologyConfig topologyConfig) {
+        this.type = type;
+        this.topologyConfig = topologyConfig;
+    }
+
+    /**
+     * @return The trident topology
+     * @throws IllegalArgumentException
+     *             If the spout of the input source type can't replay failed messages
+     */
+    public StormTopology get() {
+        // trident can only replay a failed batch if its spout replays the failed messages. The
+        // other spouts emit without message ids, so their failed messages would be undercounted
+        if (type != InputSourceType.SLACK) {
+            throw new IllegalArgumentException(String.format(
+                "The trident topology can't count %s messages exactly once, since its spout "
+                    + "doesn't replay failed messages. Only %s is supported", type,
+                InputSourceType.SLACK));
+        }
+        String inputSpoutId = SlackMessageSpout.SPOUT_ID;
+        IRichSpout inputSpout = new SlackMessageSpout();
+
+        TridentTopology topology = new TridentTopology();
+        Stream messages = topology.newStream(TX_ID_PREFIX + inputSpoutId, inputSpout)
+                                  .parallelismHint(getParallelism(inputSpoutId));
+        messages.each(messages.getOutputFields(), new MentionFunction(),
+                      MentionFunction.MENTION_FIELDS)
+                .name(MENTION_FUNCTION_ID)
+                .parallelismHint(getParallelism(MENTION_FUNCTION_ID))
+                .groupBy(MentionFunction.MENTION_KEY_FIELDS)
+                .persistentAggregate(new MentionStateFactory(),
+                                     new Fields(MentionFunction.OCCURRENCES_FIELD_STR), new Sum(),
+                                     new Fields(COUNT_FIELD_STR))
+                .parallelismHint(getParallelism(MENTION_STATE_ID));
+        return topology.build();
+    }
+
+    private int getParallelism(String componentId) {
+        Map<String, Integer> parallelism = topologyConfig.parallelism;
+        Integer componentParallelism = parallelism == null ? null : parallelism.get(componentId);
+        return componentParallelism == null ? 1 : componentParallelism;
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.chatalytics.compute.storm.trident;
+
+import com.chatalytics.compute.db.dao.IMentionStateDAO;
+import com.chatalytics.core.model.data.IMentionable;
+import com.chatalytics.core.model.data.MentionState;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+
+import org.apache.storm.trident.state.OpaqueValue;
+import org.apache.storm.trident.state.map.IBackingMap;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores opaque mention counts in the mention tables, with one row per user, room, value and time
+ * bucket whose occurrences are the current count. The batch ID and the previous count of every
+ * row are kept in a {@link MentionState}. A whole batch of updates is written in one transaction,
+ * so a failed write leaves the counts as they were and the batch is simply replayed.
+ * <p/>
+ * Keys are the values of {@link MentionFunction#MENTION_KEY_FIELDS}.
+ *
+ * @author giannis
+ */
+@SuppressWarnings("rawtypes")
+public class MentionBackingMap implements IBackingMap<OpaqueValue> {
+
+    private static final Joiner KEY_JOINER = Joiner.on('\0').useForNull("\1");
+
+    private final IMentionStateDAO dao;
+
+    public MentionBackingMap(IMentionStateDAO dao) {
+        this.dao = dao;
+    }
+
+    @Override
+    public List<OpaqueValue> multiGet(List<List<Object>> keys) {
+        List<String> stateKeys = Lists.newArrayListWithCapacity(keys.size());
+        for (List<Object> key : keys) {
+            stateKeys.add(toStateKey(key));
+        }
+        Map<String, MentionState> states = dao.getMentionStates(stateKeys);
+        List<OpaqueValue> values = Lists.newArrayListWithCapacity(keys.size());
+        for (String stateKey : stateKeys) {
+            MentionState state = states.get(stateKey);
+            if (state == null) {
+                values.add(null);
+            } else {
+                values.add(new OpaqueValue<>(state.getTxid(), state.getCurr(), state.getPrev()));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void multiPut(List<List<Object>> keys, List<OpaqueValue> values) {
+        List<String> stateKeys = Lists.newArrayListWithCapacity(keys.size());
+        for (List<Object> key : keys) {
+            stateKeys.add(toStateKey(key));
+        }
+        Map<String, MentionState> storedStates = dao.getMentionStates(stateKeys);
+        List<MentionState> states = Lists.newArrayListWithCapacity(keys.size());
+        List<IMentionable<?>> mentions = Lists.newArrayListWithCapacity(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            List<Object> key = keys.get(i);
+            OpaqueValue value = values.get(i);
+            Long curr = toLong(value.getCurr());
+            Long prev = toLong(value.getPrev());
+            MentionType type = MentionType.valueOf((String) key.get(0));
+            MentionState state = storedStates.get(stateKeys.get(i));
+            if (state == null) {
+                state = new MentionState(stateKeys.get(i), type.getMentionClass().getSimpleName(),
+                                         null, value.getCurrTxid(), curr, prev);
+            } else {
+                state.setTxid(value.getCurrTxid());
+                state.setCurr(curr);
+                state.setPrev(prev);
+            }
+            states.add(state);
+            mentions.add(toMention(type, key, curr));
+        }
+        dao.putMentionStates(states, mentions);
+    }
+
+    private static IMentionable<?> toMention(MentionType type, List<Object> key, Long curr) {
+        Long bucketStart = (Long) key.get(5);
+        DateTime mentionTime = bucketStart == null ? null
+                                                   : new DateTime(bucketStart, DateTimeZone.UTC);
+        return type.create((String) key.get(2), (String) key.get(3), mentionTime,
+                           (String) key.get(1), curr == null ? 0 : curr.intValue(),
+                           (Boolean) key.get(4));
+    }
+
+    private static Long toLong(Object count) {
+        return count == null ? null : ((Number) count).longValue();
+    }
+
+    /**
+     * @return A fixed size hash of the key, since values like entity names can get long
+     */
+    @VisibleForTesting
+    protected static String toStateKey(List<Object> key) {
+        return Hashing.sha256().hashString(KEY_JOINER.join(key), StandardCharsets.UTF_8)
+                      .toString();
+    }
+
+}
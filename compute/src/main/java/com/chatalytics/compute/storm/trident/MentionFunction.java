@@ -0,0 +1,123 @@
+package com.chatalytics.compute.storm.trident;
+
+import com.chatalytics.compute.analysis.EmojiAnalyzer;
+import com.chatalytics.compute.analysis.EntityAnalyzer;
+import com.chatalytics.compute.analysis.MessageSummaryAnalyzer;
+import com.chatalytics.compute.config.ConfigurationConstants;
+import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.IMentionable;
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.chatalytics.core.util.YamlUtils;
+
+import org.apache.storm.trident.operation.BaseFunction;
+import org.apache.storm.trident.operation.TridentCollector;
+import org.apache.storm.trident.operation.TridentOperationContext;
+import org.apache.storm.trident.tuple.TridentTuple;
+import org.apache.storm.tuple.Fields;
+import org.apache.storm.tuple.Values;
+import org.joda.time.DateTime;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the entity, emoji and message summary analysis on a message and emits a tuple per mention
+ * with its {@link #MENTION_KEY_FIELDS} and its occurrences. Mention times are truncated to the
+ * start of their time bucket, so that all the mentions of a bucket are counted together.
+ *
+ * @author giannis
+ */
+public class MentionFunction extends BaseFunction {
+
+    private static final long serialVersionUID = -6310453720932541375L;
+
+    public static final String MENTION_TYPE_FIELD_STR = "mention-type";
+    public static final String VALUE_FIELD_STR = "value";
+    public static final String USERNAME_FIELD_STR = "username";
+    public static final String ROOM_NAME_FIELD_STR = "room-name";
+    public static final String BOT_FIELD_STR = "bot";
+    public static final String BUCKET_START_FIELD_STR = "bucket-start";
+    public static final String OCCURRENCES_FIELD_STR = "occurrences";
+
+    /**
+     * The fields mentions are counted by
+     */
+    public static final Fields MENTION_KEY_FIELDS = new Fields(MENTION_TYPE_FIELD_STR,
+                                                               VALUE_FIELD_STR,
+                                                               USERNAME_FIELD_STR,
+                                                               ROOM_NAME_FIELD_STR,
+                                                               BOT_FIELD_STR,
+                                                               BUCKET_START_FIELD_STR);
+
+    /**
+     * All the fields this function emits
+     */
+    public static final Fields MENTION_FIELDS = new Fields(MENTION_TYPE_FIELD_STR,
+                                                           VALUE_FIELD_STR,
+                                                           USERNAME_FIELD_STR,
+                                                           ROOM_NAME_FIELD_STR,
+                                                           BOT_FIELD_STR,
+                                                           BUCKET_START_FIELD_STR,
+                                                           OCCURRENCES_FIELD_STR);
+
+    private EntityAnalyzer entityAnalyzer;
+    private EmojiAnalyzer emojiAnalyzer;
+    private MessageSummaryAnalyzer messageSummaryAnalyzer;
+    private long bucketMillis;
+
+    @Override
+    public void prepare(@SuppressWarnings("rawtypes") Map conf,
+                        TridentOperationContext context) {
+        String configStr = (String) conf.get(ConfigurationConstants.CHATALYTICS_CONFIG.txt);
+        ChatAlyticsConfig config = YamlUtils.readChatAlyticsConfigFromString(configStr);
+        this.entityAnalyzer = new EntityAnalyzer(config.computeConfig);
+        this.emojiAnalyzer = new EmojiAnalyzer(config.computeConfig.chatConfig);
+        this.messageSummaryAnalyzer = new MessageSummaryAnalyzer();
+        this.bucketMillis =
+            TimeUnit.SECONDS.toMillis(config.computeConfig.topologyConfig.aggregationBucketSecs);
+    }
+
+    @Override
+    public void execute(TridentTuple tuple, TridentCollector collector) {
+        MessageEnvelope message = (MessageEnvelope) tuple.getValue(0);
+        for (ChatEntity entity : entityAnalyzer.analyze(message)) {
+            collector.emit(toValues(MentionType.ENTITY, entity));
+        }
+        for (EmojiEntity emoji : emojiAnalyzer.analyze(message)) {
+            collector.emit(toValues(MentionType.EMOJI, emoji));
+        }
+        collector.emit(toValues(MentionType.MESSAGE_SUMMARY,
+                                messageSummaryAnalyzer.analyze(message)));
+    }
+
+    private Values toValues(MentionType type, IMentionable<?> mention) {
+        return new Values(type.name(),
+                          String.valueOf(mention.getValue()),
+                          mention.getUsername(),
+                          mention.getRoomName(),
+                          mention.isBot(),
+                          getBucketStart(mention.getMentionTime(), bucketMillis),
+                          mention.getOccurrences());
+    }
+
+    /**
+     * @return The start of the time bucket in milliseconds, or null if there's no mention time
+     */
+    protected static Long getBucketStart(DateTime mentionTime, long bucketMillis) {
+        if (mentionTime == null) {
+            return null;
+        }
+        long millis = mentionTime.getMillis();
+        return bucketMillis > 0 ? millis - Math.floorMod(millis, bucketMillis) : millis;
+    }
+
+    @Override
+    public void cleanup() {
+        if (entityAnalyzer != null) {
+            entityAnalyzer.logStats();
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.chatalytics.compute.storm.trident;
+
+import com.chatalytics.compute.config.ConfigurationConstants;
+import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
+import com.chatalytics.compute.db.dao.IMentionStateDAO;
+import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.util.YamlUtils;
+
+import org.apache.storm.task.IMetricsContext;
+import org.apache.storm.trident.state.OpaqueValue;
+import org.apache.storm.trident.state.State;
+import org.apache.storm.trident.state.StateFactory;
+import org.apache.storm.trident.state.map.CachedMap;
+import org.apache.storm.trident.state.map.OpaqueMap;
+
+import java.util.Map;
+
+/**
+ * Creates opaque map states over a {@link MentionBackingMap}, with a cache of the most recently
+ * used counts in front of it. Since the stream is grouped by the mention key before it's
+ * aggregated, every key is only ever updated by the same state partition and its cached count is
+ * never stale.
+ *
+ * @author giannis
+ */
+public class MentionStateFactory implements StateFactory {
+
+    private static final long serialVersionUID = 3792960315093838722L;
+
+    @Override
+    public State makeState(@SuppressWarnings("rawtypes") Map conf, IMetricsContext metrics,
+                           int partitionIndex, int numPartitions) {
+        String configStr = (String) conf.get(ConfigurationConstants.CHATALYTICS_CONFIG.txt);
+        ChatAlyticsConfig config = YamlUtils.readChatAlyticsConfigFromString(configStr);
+        IMentionStateDAO dao = ChatAlyticsDAOFactory.createMentionStateDAO(config);
+        if (!dao.isRunning()) {
+            dao.startAsync().awaitRunning();
+        }
+        int cacheSize = config.computeConfig.topologyConfig.tridentStateCacheSize;
+        return OpaqueMap.build(new CachedMap<OpaqueValue>(new MentionBackingMap(dao), cacheSize));
+    }
+
+}
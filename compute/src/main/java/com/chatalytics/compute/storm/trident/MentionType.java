@@ -0,0 +1,66 @@
+package com.chatalytics.compute.storm.trident;
+
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.IMentionable;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+
+import org.joda.time.DateTime;
+
+/**
+ * The kinds of mentions counted by the {@link ChatAlyticsTridentTopology}. Every kind is stored in
+ * its own mention table
+ *
+ * @author giannis
+ */
+public enum MentionType {
+
+    ENTITY(ChatEntity.class) {
+        @Override
+        public IMentionable<?> create(String username, String roomName, DateTime mentionTime,
+                                      String value, int occurrences, boolean bot) {
+            return new ChatEntity(username, roomName, mentionTime, value, occurrences, bot);
+        }
+    },
+
+    EMOJI(EmojiEntity.class) {
+        @Override
+        public IMentionable<?> create(String username, String roomName, DateTime mentionTime,
+                                      String value, int occurrences, boolean bot) {
+            return new EmojiEntity(username, roomName, mentionTime, value, occurrences, bot);
+        }
+    },
+
+    MESSAGE_SUMMARY(MessageSummary.class) {
+        @Override
+        public IMentionable<?> create(String username, String roomName, DateTime mentionTime,
+                                      String value, int occurrences, boolean bot) {
+            return new MessageSummary(username, roomName, mentionTime, MessageType.valueOf(value),
+                                      occurrences, bot);
+        }
+    };
+
+    private final Class<? extends IMentionable<?>> mentionClass;
+
+    private MentionType(Class<? extends IMentionable<?>> mentionClass) {
+        this.mentionClass = mentionClass;
+    }
+
+    /**
+     * @return The entity class of the mentions of this type
+     */
+    public Class<? extends IMentionable<?>> getMentionClass() {
+        return mentionClass;
+    }
+
+    /**
+     * Creates a mention of this type. Values are passed around as strings so that the trident
+     * tuples only contain types kryo already knows about
+     *
+     * @return The mention
+     */
+    public abstract IMentionable<?> create(String username, String roomName, DateTime mentionTime,
+                                           String value, int occurrences, boolean bot);
+
+}
@@ -1,5 +1,6 @@
 package com.chatalytics.compute.web.realtime;
 
+import com.chatalytics.compute.metrics.MetricsRegistry;
 import com.chatalytics.compute.web.resources.StatusResource;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.sun.jersey.api.core.PackagesResourceConfig;
@@ -13,6 +14,8 @@ import org.eclipse.jetty.websocket.jsr356.server.deploy.WebSocketServerContainer
 import javax.servlet.ServletException;
 import javax.websocket.DeploymentException;
 import javax.websocket.server.ServerContainer;
+import javax.websocket.server.ServerEndpointConfig;
+import javax.websocket.server.ServerEndpointConfig.Configurator;
 
 /**
  * Factory for building the realtime compute server
@@ -40,7 +43,21 @@ public class ComputeRealtimeServerFactory {
         ServerContainer wscontainer;
         try {
             wscontainer = WebSocketServerContainerInitializer.configureContext(context);
-            wscontainer.addEndpoint(RealtimeResource.class);
+            // a single resource, so that publishers and subscribers share the subscriber queues
+            RealtimeResource realtimeResource =
+                new RealtimeResource(config.computeConfig, MetricsRegistry.getDefault());
+            ServerEndpointConfig endpointConfig =
+                ServerEndpointConfig.Builder
+                                    .create(RealtimeResource.class,
+                                            RealtimeResource.RT_FULL_ENDPOINT)
+                                    .configurator(new Configurator() {
+                                        @Override
+                                        public <T> T getEndpointInstance(Class<T> endpointClass)
+                                                throws InstantiationException {
+                                            return endpointClass.cast(realtimeResource);
+                                        }
+                                    }).build();
+            wscontainer.addEndpoint(endpointConfig);
         } catch (ServletException | DeploymentException e) {
             throw new RuntimeException("Can't instantiate websocket. Reason: " + e.getMessage());
         }
@@ -1,19 +1,30 @@
 package com.chatalytics.compute.web.realtime;
 
+import com.chatalytics.compute.metrics.MetricsRegistry;
+import com.chatalytics.core.config.ComputeConfig;
 import com.chatalytics.core.model.data.ChatAlyticsEvent;
-import com.chatalytics.core.realtime.ChatAlyticsEventDecoder;
+import com.chatalytics.core.model.data.ChatAlyticsEventBatch;
+import com.chatalytics.core.realtime.ChatAlyticsEventBatchDecoder;
 import com.chatalytics.core.realtime.ChatAlyticsEventEncoder;
 import com.chatalytics.core.realtime.ConnectionType;
 import com.chatalytics.core.realtime.ConnectionTypeEncoderDecoder;
-import com.google.common.collect.Sets;
+import com.chatalytics.core.realtime.EventBroadcaster;
+import com.chatalytics.core.realtime.SubscriberQueue;
+import com.chatalytics.core.realtime.SubscriptionFilter;
+import com.chatalytics.core.realtime.SubscriptionFilterEncoderDecoder;
+import com.google.common.annotations.VisibleForTesting;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.websocket.CloseReason;
+import javax.websocket.DecodeException;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
@@ -24,14 +35,17 @@ import javax.websocket.server.ServerEndpoint;
 
 /**
  * Resource for the bolts to post realtime chatalytics and for the web server to connect to and get
- * the stream of chatalytics
+ * the stream of chatalytics. Events are encoded once and queued to every subscriber through a
+ * bounded queue, whose depth, lag and dropped events are registered as metrics labeled with the
+ * subscriber ID. Subscribers can send {@link SubscriptionFilter}s at any time to only get the
+ * events that pass them
  *
  * @author giannis
  *
  */
 @ServerEndpoint(value = RealtimeResource.RT_FULL_ENDPOINT,
                 encoders = { ChatAlyticsEventEncoder.class, ConnectionTypeEncoderDecoder.class },
-                decoders = { ChatAlyticsEventDecoder.class, ConnectionTypeEncoderDecoder.class })
+                decoders = { ConnectionTypeEncoderDecoder.class })
 public class RealtimeResource {
 
     public static final String RT_COMPUTE_ENDPOINT = "/rtcompute";
@@ -39,12 +53,28 @@ public class RealtimeResource {
     public static final String RT_FULL_ENDPOINT =
         RT_COMPUTE_ENDPOINT + "/{" + RT_COMPUTE_ENDPOINT_PARAM + "}";
 
+    public static final String SUBSCRIBER_COMPONENT = "realtime-subscriber";
+    public static final String SUBSCRIBER_QUEUE_DEPTH = "realtime_subscriber_queue_depth";
+    public static final String SUBSCRIBER_LAG = "realtime_subscriber_lag_seconds";
+    public static final String SUBSCRIBER_DROPPED = "realtime_subscriber_dropped_events";
+
     private static final Logger LOG = LoggerFactory.getLogger(RealtimeResource.class);
 
-    private static Set<Session> sessions;
+    private final EventBroadcaster broadcaster;
+    private final MetricsRegistry metricsRegistry;
+    private final ChatAlyticsEventBatchDecoder batchDecoder;
+    private final SubscriptionFilterEncoderDecoder filterDecoder;
 
     public RealtimeResource() {
-        sessions = Sets.newConcurrentHashSet();
+        this(new ComputeConfig(), MetricsRegistry.getDefault());
+    }
+
+    public RealtimeResource(ComputeConfig config, MetricsRegistry metricsRegistry) {
+        this.broadcaster = new EventBroadcaster(config.rtSubscriberQueueCapacity,
+                                                config.rtSlowSubscriberPolicy);
+        this.metricsRegistry = metricsRegistry;
+        this.batchDecoder = new ChatAlyticsEventBatchDecoder();
+        this.filterDecoder = new SubscriptionFilterEncoderDecoder();
     }
 
     /**
@@ -60,32 +90,54 @@ public class RealtimeResource {
                      session.getId());
 
             // cleanup sessions
-            Set<Session> closedSessions = Sets.newHashSet();
-            for (Session existingSession : sessions) {
-                if (!existingSession.isOpen()) {
-                    closedSessions.add(existingSession);
-                }
-            }
-            sessions.removeAll(closedSessions);
+            unregisterMetrics(broadcaster.removeClosedSessions());
 
-            sessions.add(session);
+            registerMetrics(broadcaster.addSession(session));
         } else {
             LOG.info("Got a new publisher connection request with ID {}", session.getId());
         }
     }
 
+    /**
+     * Called whenever a message is received. Subscribers send the filters of the events they want
+     * and publishers send batches of events. An endpoint can only have one text message handler, so
+     * messages are decoded here depending on who sent them
+     *
+     * @param message
+     *            The received message
+     * @param session
+     *            The session that sent the message
+     */
     @OnMessage
-    public void publishEvent(ChatAlyticsEvent event) {
-        Set<Session> closedSessions = Sets.newHashSet();
-        for (Session session : sessions) {
-            if (!session.isOpen()) {
-                closedSessions.add(session);
-                continue;
+    public void onMessage(String message, Session session) {
+        try {
+            if (broadcaster.getSessions().contains(session)) {
+                List<SubscriptionFilter> filters = filterDecoder.decode(message);
+                LOG.info("Subscriber {} set filters {}", session.getId(), filters);
+                broadcaster.setFilters(session, filters);
+            } else {
+                publishEvents(batchDecoder.decode(message));
             }
-            session.getAsyncRemote().sendObject(event);
+        } catch (DecodeException e) {
+            LOG.warn("Can't decode message from session {}. Reason: {}", session.getId(),
+                     e.getMessage());
+        }
+    }
+
+    /**
+     * Publishes a batch of events sent by a bolt. The events are sent to the subscribers one by one
+     *
+     * @param batch
+     *            The events to publish
+     */
+    public void publishEvents(ChatAlyticsEventBatch batch) {
+        for (ChatAlyticsEvent event : batch.getEvents()) {
+            publishEvent(event);
         }
+    }
 
-        sessions.removeAll(closedSessions);
+    private void publishEvent(ChatAlyticsEvent event) {
+        unregisterMetrics(broadcaster.broadcast(event));
     }
 
     /**
@@ -99,9 +151,12 @@ public class RealtimeResource {
     @OnClose
     public void close(Session session, CloseReason reason) {
         LOG.info("Closing session {}. Reason {}", session.getId(), reason);
+        SubscriberQueue queue = broadcaster.removeSession(session);
+        if (queue != null) {
+            metricsRegistry.unregister(SUBSCRIBER_COMPONENT, queue.getId());
+        }
         try {
             session.close();
-            sessions.remove(session);
         } catch (IOException e) {
             LOG.warn("Couldn't close {}", session.getId());
         }
@@ -118,4 +173,26 @@ public class RealtimeResource {
         LOG.error("Uncought exception in realtime resource", t);
     }
 
+    @VisibleForTesting
+    protected Set<Session> getSessions() {
+        return broadcaster.getSessions();
+    }
+
+    private void registerMetrics(SubscriberQueue queue) {
+        int id = queue.getId();
+        metricsRegistry.registerGauge(SUBSCRIBER_QUEUE_DEPTH, SUBSCRIBER_COMPONENT, id,
+                                      queue::getQueueDepth);
+        metricsRegistry.registerGauge(SUBSCRIBER_LAG, SUBSCRIBER_COMPONENT, id,
+                                      () -> queue.getLagMillis()
+                                          / (double) TimeUnit.SECONDS.toMillis(1));
+        metricsRegistry.registerGauge(SUBSCRIBER_DROPPED, SUBSCRIBER_COMPONENT, id,
+                                      queue::getDroppedCount);
+    }
+
+    private void unregisterMetrics(Collection<SubscriberQueue> queues) {
+        for (SubscriberQueue queue : queues) {
+            metricsRegistry.unregister(SUBSCRIBER_COMPONENT, queue.getId());
+        }
+    }
+
 }
@@ -1,7 +1,11 @@
 package com.chatalytics.compute.web.resources;
 
+import com.chatalytics.compute.metrics.MetricsRegistry;
+
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
 
 @Path(StatusResource.STATUS_ENDPOINT)
 public class StatusResource {
@@ -14,4 +18,15 @@ public class StatusResource {
         return "OK";
     }
 
+    /**
+     * @return The metrics of the spouts and bolts running in this JVM, in the Prometheus text
+     *         format
+     */
+    @GET
+    @Path("metrics")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String metrics() {
+        return MetricsRegistry.getDefault().toText();
+    }
+
 }
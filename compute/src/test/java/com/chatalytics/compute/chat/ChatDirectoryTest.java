@@ -0,0 +1,154 @@
+package com.chatalytics.compute.chat;
+
+import com.chatalytics.compute.chat.dao.IChatApiDAO;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link ChatDirectory}
+ *
+ * @author giannis
+ */
+public class ChatDirectoryTest {
+
+    private IChatApiDAO chatApiDao;
+    private AtomicLong clock;
+    private ChatDirectory underTest;
+
+    @Before
+    public void setUp() {
+        chatApiDao = mock(IChatApiDAO.class);
+        when(chatApiDao.getUsers()).thenReturn(ImmutableMap.of("u1", createUser("u1")));
+        when(chatApiDao.getRooms()).thenReturn(ImmutableMap.of("r1", createRoom("r1", "room")));
+        clock = new AtomicLong(1000);
+        underTest = new ChatDirectory(chatApiDao, 60, 100, clock::get);
+    }
+
+    @Test
+    public void testStartUp() {
+        underTest.startAsync().awaitRunning();
+        assertEquals("u1", underTest.getUser("u1").getUserId());
+        assertEquals("room", underTest.getRoom("r1").getName());
+        assertEquals(1, underTest.getUsers().size());
+        assertEquals(1, underTest.getRooms().size());
+        underTest.stopAsync().awaitTerminated();
+        verify(chatApiDao).getUsers();
+        verify(chatApiDao).getRooms();
+    }
+
+    /**
+     * Makes sure that unknown ids reload the users, but no more often than the min reload interval
+     * and only once per id until the next refresh
+     */
+    @Test
+    public void testGetUser_miss() {
+        underTest.refresh();
+        when(chatApiDao.getUsers()).thenReturn(ImmutableMap.of("u1", createUser("u1"),
+                                                               "u2", createUser("u2")));
+        // too soon after the last load
+        assertNull(underTest.getUser("u2"));
+        verify(chatApiDao).getUsers();
+
+        // the miss for u2 is remembered until the next refresh
+        clock.addAndGet(100);
+        assertNull(underTest.getUser("u2"));
+        verify(chatApiDao).getUsers();
+
+        assertNull(underTest.getUser("u3"));
+        verify(chatApiDao, times(2)).getUsers();
+        assertEquals("u2", underTest.getUser("u2").getUserId());
+
+        underTest.refresh();
+        clock.addAndGet(100);
+        assertNull(underTest.getUser("u3"));
+        verify(chatApiDao, times(4)).getUsers();
+        assertNull(underTest.getUser(null));
+    }
+
+    @Test
+    public void testPutUserAndRoom() {
+        underTest.refresh();
+        clock.addAndGet(100);
+        assertNull(underTest.getRoom("r2"));
+        underTest.putRoom(createRoom("r2", "new room"));
+        underTest.putRoom(createRoom("r1", "renamed"));
+        assertEquals("new room", underTest.getRoom("r2").getName());
+        assertEquals("renamed", underTest.getRoom("r1").getName());
+
+        underTest.putUser(createUser("u2"));
+        assertEquals("u2", underTest.getUser("u2").getUserId());
+        verify(chatApiDao).getUsers();
+        verify(chatApiDao, times(2)).getRooms();
+    }
+
+    /**
+     * Makes sure that a failed load keeps the known entries
+     */
+    @Test
+    public void testRefresh_withException() {
+        underTest.refresh();
+        when(chatApiDao.getUsers()).thenThrow(new RuntimeException("test"));
+        underTest.refresh();
+        assertEquals("u1", underTest.getUser("u1").getUserId());
+    }
+
+    /**
+     * Makes sure that concurrent misses share a single load
+     */
+    @Test
+    public void testGetUser_singleFlight() throws Exception {
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch finishLoad = new CountDownLatch(1);
+        when(chatApiDao.getUsers()).thenAnswer(invocation -> {
+            loadStarted.countDown();
+            finishLoad.await(5, TimeUnit.SECONDS);
+            return ImmutableMap.of("u1", createUser("u1"));
+        });
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<User>> futures = Lists.newArrayList();
+        futures.add(executor.submit(() -> underTest.getUser("u1")));
+        loadStarted.await(5, TimeUnit.SECONDS);
+        for (int i = 1; i < threads; i++) {
+            futures.add(executor.submit(() -> underTest.getUser("u1")));
+        }
+        Thread.sleep(50);
+        finishLoad.countDown();
+        for (Future<User> future : futures) {
+            assertEquals("u1", future.get(5, TimeUnit.SECONDS).getUserId());
+        }
+        executor.shutdown();
+        verify(chatApiDao).getUsers();
+    }
+
+    private User createUser(String userId) {
+        return new User(userId, "email", false, false, false, "name", "mention_name", null,
+                        DateTime.now(), DateTime.now(), null, null, null, null);
+    }
+
+    private Room createRoom(String roomId, String name) {
+        return new Room(roomId, name, null, DateTime.now(), DateTime.now(), null, false, false,
+                        null, null);
+    }
+}
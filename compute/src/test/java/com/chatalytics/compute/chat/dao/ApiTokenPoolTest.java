@@ -0,0 +1,173 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link ApiTokenPool}
+ *
+ * @author giannis
+ */
+public class ApiTokenPoolTest {
+
+    private AtomicLong clock;
+    private List<Long> sleeps;
+    private ApiTokenPool.Sleeper sleeper;
+
+    @Before
+    public void setUp() {
+        clock = new AtomicLong();
+        sleeps = Lists.newArrayList();
+        sleeper = millis -> {
+            sleeps.add(millis);
+            clock.addAndGet(millis);
+        };
+    }
+
+    private ApiTokenPool createPool(List<String> tokens, int maxConcurrentRequests) {
+        return new ApiTokenPool(tokens, ImmutableMap.of("slow", 6), 0, maxConcurrentRequests, 100,
+                                1000, clock::get, sleeper, new Random(0));
+    }
+
+    /**
+     * Makes sure that requests go to the token with the fewest requests in flight
+     */
+    @Test
+    public void testAcquire_leastLoaded() throws Exception {
+        ApiTokenPool underTest = createPool(ImmutableList.of("a", "b"), 10);
+        ApiTokenPool.Lease first = underTest.acquire("fast");
+        ApiTokenPool.Lease second = underTest.acquire("fast");
+        assertNotEquals(first.getToken(), second.getToken());
+
+        first.release();
+        ApiTokenPool.Lease third = underTest.acquire("fast");
+        assertEquals(first.getToken(), third.getToken());
+        assertEquals(1, underTest.getInFlight("a"));
+        assertEquals(1, underTest.getInFlight("b"));
+        assertTrue(sleeps.isEmpty());
+
+        // releasing twice doesn't count twice
+        third.release();
+        third.release();
+        assertEquals(0, underTest.getInFlight(third.getToken()));
+    }
+
+    /**
+     * Makes sure that a rate limited key uses the other tokens before waiting
+     */
+    @Test
+    public void testAcquire_rateLimited() throws Exception {
+        ApiTokenPool underTest = createPool(ImmutableList.of("a", "b"), 10);
+        underTest.acquire("slow").release();
+        underTest.acquire("slow").release();
+        assertTrue(sleeps.isEmpty());
+
+        // 6 requests per minute with a burst of 1 means 10 seconds between requests
+        underTest.acquire("slow").release();
+        assertEquals(ImmutableList.of(10000L), sleeps);
+    }
+
+    /**
+     * Makes sure that reserving a token returns how long to wait instead of sleeping
+     */
+    @Test
+    public void testReserve() throws Exception {
+        ApiTokenPool underTest = createPool(ImmutableList.of("a", "b"), 1);
+        ApiTokenPool.Lease first = underTest.reserve("slow");
+        ApiTokenPool.Lease second = underTest.reserve("slow");
+        ApiTokenPool.Lease third = underTest.reserve("slow");
+        assertEquals(0, first.getWaitMillis());
+        assertEquals(0, second.getWaitMillis());
+        assertEquals(10000, third.getWaitMillis());
+        assertTrue(sleeps.isEmpty());
+
+        // reservations don't take concurrency permits
+        underTest.acquire("fast").release();
+    }
+
+    /**
+     * Makes sure that a token that got rate limited by the API is avoided until the retry time
+     */
+    @Test
+    public void testRateLimited() throws Exception {
+        ApiTokenPool underTest = createPool(ImmutableList.of("a", "b"), 10);
+        ApiTokenPool.Lease lease = underTest.acquire("fast");
+        String limitedToken = lease.getToken();
+        lease.rateLimited(5000);
+        lease.release();
+
+        for (int i = 0; i < 3; i++) {
+            lease = underTest.acquire("fast");
+            assertNotEquals(limitedToken, lease.getToken());
+            lease.release();
+        }
+        assertTrue(sleeps.isEmpty());
+    }
+
+    /**
+     * Makes sure that a pool without tokens still hands out leases
+     */
+    @Test
+    public void testAcquire_noTokens() throws Exception {
+        ApiTokenPool underTest = createPool(ImmutableList.of(), 10);
+        ApiTokenPool.Lease lease = underTest.acquire("fast");
+        assertNull(lease.getToken());
+        lease.release();
+    }
+
+    /**
+     * Makes sure that no more than the max concurrent requests are in flight
+     */
+    @Test
+    public void testAcquire_concurrencyCap() throws Exception {
+        ApiTokenPool underTest = createPool(ImmutableList.of("a", "b"), 1);
+        ApiTokenPool.Lease lease = underTest.acquire("fast");
+        Thread waiter = new Thread(() -> {
+            try {
+                underTest.acquire("fast").release();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        waiter.join(200);
+        assertTrue(waiter.isAlive());
+
+        lease.release();
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+    }
+
+    /**
+     * Makes sure that the backoff grows exponentially, is capped and is jittered
+     */
+    @Test
+    public void testBackoff() throws Exception {
+        Random random = mock(Random.class);
+        when(random.nextDouble()).thenReturn(0.0, 1.0, 0.0, 0.0);
+        ApiTokenPool underTest = new ApiTokenPool(ImmutableList.of("a"), ImmutableMap.of(), 0, 1,
+                                                  100, 1000, clock::get, sleeper, random);
+        underTest.backoff(0);
+        underTest.backoff(1);
+        underTest.backoff(2);
+        underTest.backoff(10);
+        assertEquals(ImmutableList.of(50L, 200L, 200L, 500L), sleeps);
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.chatalytics.compute.exception.ChatApiException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link AsyncChatApiClient} against a {@link StubChatApiServer}
+ *
+ * @author giannis
+ */
+public class AsyncChatApiClientTest {
+
+    private static final int RETRIES = 2;
+
+    private StubChatApiServer server;
+    private AsyncChatApiClient underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubChatApiServer();
+        server.start();
+        ApiTokenPool tokenPool = new ApiTokenPool(ImmutableList.of("t1"), ImmutableMap.of(), 0, 4,
+                                                  1, 10);
+        underTest = new AsyncChatApiClient(tokenPool, "token", 4, 10000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        underTest.stop();
+        server.stop();
+    }
+
+    /**
+     * Makes sure that the response body is returned and that the token is added to the request
+     */
+    @Test
+    public void testGet() throws Exception {
+        server.enqueue("users.list", "{\"ok\":true}");
+        assertEquals("{\"ok\":true}", get("users.list?presence=1"));
+        assertEquals(ImmutableList.of("users.list?presence=1&token=t1"), server.getRequests());
+    }
+
+    /**
+     * Makes sure that rate limited requests are retried
+     */
+    @Test
+    public void testGet_rateLimited() throws Exception {
+        server.enqueue("users.list", 429, "{}", "0");
+        server.enqueue("users.list", "{\"ok\":true}");
+        assertEquals("{\"ok\":true}", get("users.list"));
+        assertEquals(2, server.getRequests().size());
+    }
+
+    /**
+     * Makes sure that rate limited attempts don't count against the retries
+     */
+    @Test
+    public void testGet_rateLimitedMoreThanRetries() throws Exception {
+        for (int i = 0; i < RETRIES + 2; i++) {
+            server.enqueue("users.list", 429, "{}", "0");
+        }
+        server.enqueue("users.list", "{\"ok\":true}");
+        assertEquals("{\"ok\":true}", get("users.list"));
+        assertEquals(RETRIES + 3, server.getRequests().size());
+    }
+
+    /**
+     * Makes sure that server errors are retried up to the number of retries and then fail
+     */
+    @Test
+    public void testGet_serverError() throws Exception {
+        server.enqueue("users.list", 500, "{\"error\":true}", null);
+        assertFailed("users.list");
+        assertEquals(RETRIES + 1, server.getRequests().size());
+    }
+
+    /**
+     * Makes sure that client errors are not retried
+     */
+    @Test
+    public void testGet_clientError() throws Exception {
+        assertFailed("users.list");
+        assertEquals(1, server.getRequests().size());
+    }
+
+    /**
+     * Makes sure that no more than the max concurrent requests are in flight, no matter how many
+     * are made at once, and that the queued ones are sent as the others finish
+     */
+    @Test
+    public void testGet_maxConcurrentRequests() throws Exception {
+        server.setResponseDelayMillis(50);
+        List<CompletableFuture<byte[]>> results = Lists.newArrayList();
+        for (int i = 0; i < 12; i++) {
+            server.enqueue("rooms.history", "{\"ok\":true}");
+            results.add(underTest.get(URI.create(server.getBaseUrl() + "rooms.history"), "",
+                                      RETRIES));
+        }
+        assertTrue(underTest.getQueuedRequests() > 0);
+        for (CompletableFuture<byte[]> result : results) {
+            assertEquals("{\"ok\":true}", new String(result.get(), StandardCharsets.UTF_8));
+        }
+        assertEquals(12, server.getRequests().size());
+        assertTrue(server.getMaxInFlight() <= 4);
+        assertEquals(0, underTest.getQueuedRequests());
+    }
+
+    private String get(String method) throws Exception {
+        URI uri = URI.create(server.getBaseUrl() + method);
+        byte[] response = underTest.get(uri, "", RETRIES).get();
+        return new String(response, StandardCharsets.UTF_8);
+    }
+
+    private void assertFailed(String method) throws Exception {
+        URI uri = URI.create(server.getBaseUrl() + method);
+        try {
+            underTest.get(uri, "", RETRIES).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ChatApiException);
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.chatalytics.core.InputSourceType;
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.Message;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.type.CollectionType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Resources;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading the messages of a <code>channels.history</code> page with
+ * {@link JsonResponseReader} against reading the response into a string, parsing it into a tree
+ * and binding the <code>messages</code> subtree, which is what the Slack DAO used to do. The page
+ * is made out of the captured response in the test resources, repeated up to the page size. Run
+ * {@link #main(String[])} from the compute test classpath, or
+ * <code>org.openjdk.jmh.Main JsonResponseReaderBenchmark -prof gc</code> to also see the
+ * allocations per operation.
+ *
+ * @author giannis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonResponseReaderBenchmark {
+
+    private static final List<String> MESSAGES_PATH = ImmutableList.of("messages");
+
+    @Param({ "100", "1000" })
+    public int pageSize;
+
+    private ObjectMapper objMapper;
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws IOException {
+        objMapper = JsonObjectMapperFactory.createObjectMapper(InputSourceType.SLACK);
+        byte[] captured = Resources.toByteArray(
+            Resources.getResource("slack_api_responses/channels.history.txt"));
+        ObjectNode page = (ObjectNode) objMapper.readTree(captured);
+        ArrayNode capturedMessages = (ArrayNode) page.get("messages");
+        ArrayNode messages = page.putArray("messages");
+        for (int i = 0; i < pageSize; i++) {
+            messages.add(capturedMessages.get(i % capturedMessages.size()));
+        }
+        response = objMapper.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public List<Message> streaming() throws IOException {
+        return JsonResponseReader.readList(responseStream(), MESSAGES_PATH, Message.class,
+                                           objMapper);
+    }
+
+    @Benchmark
+    public List<Message> treeThenRebind() throws IOException {
+        // the DAO used to get the response as a string from the client
+        String jsonStr = new String(ByteStreams.toByteArray(responseStream()),
+                                    StandardCharsets.UTF_8);
+        JsonNode jsonNode = objMapper.readTree(jsonStr).get("messages");
+        CollectionType type = objMapper.getTypeFactory().constructCollectionType(List.class,
+                                                                                 Message.class);
+        return objMapper.readValue(jsonNode.toString(), type);
+    }
+
+    private InputStream responseStream() {
+        return new ByteArrayInputStream(response);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(JsonResponseReaderBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
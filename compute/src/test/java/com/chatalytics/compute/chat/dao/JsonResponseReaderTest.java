@@ -0,0 +1,113 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link JsonResponseReader}
+ *
+ * @author giannis
+ */
+public class JsonResponseReaderTest {
+
+    private static final String RESPONSE = "{\"ok\":true,"
+        + "\"skipped\":{\"members\":[\"x\"],\"nested\":[[1,2],{\"a\":{}}]},"
+        + "\"channel\":{\"name\":\"general\",\"members\":[\"U1\",\"U2\",\"U3\"]},"
+        + "\"url\":\"wss://host\"}";
+
+    private ObjectMapper objMapper;
+
+    @Before
+    public void setUp() {
+        objMapper = new ObjectMapper();
+    }
+
+    /**
+     * Makes sure that the array at the end of the path is read and that other fields with the same
+     * name at different levels are skipped
+     */
+    @Test
+    public void testReadList() throws Exception {
+        List<String> result = JsonResponseReader.readList(toStream(RESPONSE),
+                                                          ImmutableList.of("channel", "members"),
+                                                          String.class, objMapper);
+        assertEquals(ImmutableList.of("U1", "U2", "U3"), result);
+    }
+
+    /**
+     * Makes sure that missing paths and paths that don't point to arrays return nothing
+     */
+    @Test
+    public void testReadList_missingPath() throws Exception {
+        assertTrue(JsonResponseReader.readList(toStream(RESPONSE), ImmutableList.of("members"),
+                                               String.class, objMapper).isEmpty());
+        assertTrue(JsonResponseReader.readList(toStream(RESPONSE),
+                                               ImmutableList.of("channel", "name"),
+                                               String.class, objMapper).isEmpty());
+        assertTrue(JsonResponseReader.readList(toStream("{}"), ImmutableList.of("channel"),
+                                               String.class, objMapper).isEmpty());
+    }
+
+    /**
+     * Makes sure that elements are passed to the consumer one at a time
+     */
+    @Test
+    public void testForEachElement() throws Exception {
+        StringBuilder consumed = new StringBuilder();
+        int elements = JsonResponseReader.forEachElement(toStream(RESPONSE),
+                                                         ImmutableList.of("channel", "members"),
+                                                         String.class, objMapper,
+                                                         consumed::append);
+        assertEquals(3, elements);
+        assertEquals("U1U2U3", consumed.toString());
+    }
+
+    @Test
+    public void testReadValue() throws Exception {
+        assertEquals("general", JsonResponseReader.readValue(toStream(RESPONSE),
+                                                             ImmutableList.of("channel", "name"),
+                                                             String.class, objMapper));
+        assertNull(JsonResponseReader.readValue(toStream(RESPONSE), ImmutableList.of("user"),
+                                                String.class, objMapper));
+    }
+
+    @Test
+    public void testReadFields() throws Exception {
+        Map<String, JsonNode> fields = JsonResponseReader.readFields(toStream(RESPONSE),
+                                                                     ImmutableSet.of("ok", "url",
+                                                                                     "error"),
+                                                                     objMapper);
+        assertEquals(2, fields.size());
+        assertTrue(fields.get("ok").asBoolean());
+        assertEquals("wss://host", fields.get("url").asText());
+        assertFalse(fields.containsKey("error"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadList_malformedJson() throws Exception {
+        JsonResponseReader.readList(toStream("{\"channel\": [1, "), ImmutableList.of("channel"),
+                                    Integer.class, objMapper);
+    }
+
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.chatalytics.compute.chat.dao;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Resources;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Local HTTP server that stands in for a chat API in tests. Every API method answers with the
+ * responses queued for it, in order, and keeps repeating the last one. Methods without responses
+ * answer with a 404. The server also records the requests it got.
+ *
+ * @author giannis
+ */
+public class StubChatApiServer {
+
+    private final Server server;
+    private final Map<String, Deque<StubResponse>> responses;
+    private final List<String> requests;
+    private final AtomicInteger inFlight;
+    private final AtomicInteger maxInFlight;
+    private volatile long responseDelayMillis;
+
+    public StubChatApiServer() {
+        this.server = new Server(0);
+        this.responses = Maps.newConcurrentMap();
+        this.requests = Lists.newCopyOnWriteArrayList();
+        this.inFlight = new AtomicInteger();
+        this.maxInFlight = new AtomicInteger();
+        server.setHandler(new StubHandler());
+    }
+
+    public void start() throws Exception {
+        server.start();
+    }
+
+    public void stop() throws Exception {
+        server.stop();
+    }
+
+    /**
+     * @return The base API URL, ending with a slash
+     */
+    public String getBaseUrl() {
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        return String.format("http://localhost:%d/api/", port);
+    }
+
+    /**
+     * Queues a response for an API method
+     */
+    public void enqueue(String method, int status, String body, String retryAfter) {
+        responses.computeIfAbsent(method, key -> new ConcurrentLinkedDeque<>())
+                 .add(new StubResponse(status, body, retryAfter));
+    }
+
+    public void enqueue(String method, String body) {
+        enqueue(method, HttpServletResponse.SC_OK, body, null);
+    }
+
+    /**
+     * Queues the contents of a test resource as a response for an API method
+     */
+    public void enqueueResource(String method, String resource) throws IOException {
+        enqueue(method, Resources.toString(Resources.getResource(resource),
+                                           StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Makes every response take some time, so that requests overlap
+     */
+    public void setResponseDelayMillis(long responseDelayMillis) {
+        this.responseDelayMillis = responseDelayMillis;
+    }
+
+    /**
+     * @return The requests received so far, as the API method followed by the query string
+     */
+    public List<String> getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return The maximum number of requests that were being served at the same time
+     */
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    private class StubHandler extends AbstractHandler {
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request,
+                           HttpServletResponse response) throws IOException {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                String method = target.substring(target.lastIndexOf("/api/") + "/api/".length());
+                requests.add(method + "?" + request.getQueryString());
+                if (responseDelayMillis > 0) {
+                    Thread.sleep(responseDelayMillis);
+                }
+                StubResponse stubResponse = nextResponse(method);
+                response.setStatus(stubResponse.status);
+                if (stubResponse.retryAfter != null) {
+                    response.setHeader("Retry-After", stubResponse.retryAfter);
+                }
+                response.setContentType("application/json");
+                byte[] body = stubResponse.body.getBytes(StandardCharsets.UTF_8);
+                response.getOutputStream().write(body);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+                baseRequest.setHandled(true);
+            }
+        }
+
+        private StubResponse nextResponse(String method) {
+            Deque<StubResponse> methodResponses = responses.get(method);
+            if (methodResponses == null || methodResponses.isEmpty()) {
+                return new StubResponse(HttpServletResponse.SC_NOT_FOUND, "{}", null);
+            }
+            synchronized (methodResponses) {
+                return methodResponses.size() > 1 ? methodResponses.poll() : methodResponses.peek();
+            }
+        }
+    }
+
+    private static class StubResponse {
+
+        private final int status;
+        private final String body;
+        private final String retryAfter;
+
+        private StubResponse(int status, String body, String retryAfter) {
+            this.status = status;
+            this.body = body;
+            this.retryAfter = retryAfter;
+        }
+    }
+
+}
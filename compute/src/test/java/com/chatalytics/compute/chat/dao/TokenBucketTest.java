@@ -0,0 +1,78 @@
+package com.chatalytics.compute.chat.dao;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link TokenBucket}
+ *
+ * @author giannis
+ */
+public class TokenBucketTest {
+
+    /**
+     * Makes sure that a burst up to the capacity doesn't wait and that later permits are spaced by
+     * the rate
+     */
+    @Test
+    public void testReserve() {
+        TokenBucket underTest = new TokenBucket(60, 2, 0);
+        assertEquals(0, underTest.reserve(0));
+        assertEquals(0, underTest.reserve(0));
+        assertEquals(1000, underTest.getWaitMillis(0));
+        assertEquals(1000, underTest.reserve(0));
+        assertEquals(2000, underTest.reserve(0));
+
+        // all the reserved permits have been refilled and used by now
+        assertEquals(0, underTest.reserve(3000));
+        assertEquals(500, underTest.reserve(3500));
+    }
+
+    /**
+     * Makes sure that the bucket stays full when unused
+     */
+    @Test
+    public void testReserve_refillCapped() {
+        TokenBucket underTest = new TokenBucket(60, 2, 0);
+        underTest.reserve(0);
+        assertEquals(0, underTest.reserve(100000));
+        assertEquals(0, underTest.reserve(100000));
+        assertEquals(1000, underTest.reserve(100000));
+    }
+
+    /**
+     * Makes sure that a refunded permit can be reserved again right away but doesn't overfill the
+     * bucket
+     */
+    @Test
+    public void testRefund() {
+        TokenBucket underTest = new TokenBucket(60, 1, 0);
+        assertEquals(0, underTest.reserve(0));
+        assertEquals(1000, underTest.getWaitMillis(0));
+        underTest.refund(0);
+        assertEquals(0, underTest.getWaitMillis(0));
+        underTest.refund(0);
+        assertEquals(0, underTest.reserve(0));
+        assertEquals(1000, underTest.getWaitMillis(0));
+    }
+
+    /**
+     * Makes sure that no permits are handed out while paused and that the bucket doesn't refill
+     * during the pause
+     */
+    @Test
+    public void testPauseUntil() {
+        TokenBucket underTest = new TokenBucket(60, 5, 0);
+        underTest.pauseUntil(10000, 0);
+        assertEquals(10000, underTest.getWaitMillis(0));
+        assertEquals(10000, underTest.reserve(0));
+        assertEquals(10000, underTest.reserve(1000));
+        assertEquals(0, underTest.reserve(12000));
+
+        // pausing for less than what's already paused has no effect
+        underTest.pauseUntil(5000, 12000);
+        assertEquals(0, underTest.getWaitMillis(13000));
+    }
+
+}
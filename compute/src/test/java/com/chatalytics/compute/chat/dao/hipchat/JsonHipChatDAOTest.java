@@ -0,0 +1,192 @@
+package com.chatalytics.compute.chat.dao.hipchat;
+
+import com.chatalytics.compute.chat.dao.StubChatApiServer;
+import com.chatalytics.compute.exception.IncompleteHistoryException;
+import com.chatalytics.core.InputSourceType;
+import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.config.HipChatConfig;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.Room;
+import com.google.common.collect.Lists;
+import com.sun.jersey.api.client.Client;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests {@link JsonHipChatDAO} against a local stub of the HipChat API.
+ *
+ * @author giannis
+ */
+public class JsonHipChatDAOTest {
+
+    private static final DateTimeZone DTZ = DateTimeZone.forID("America/New_York");
+    private static final String HISTORY = "{\"messages\":["
+        + "{\"date\":\"2015-01-02T09:00:00-0500\",\"from\":{\"name\":\"a\",\"user_id\":\"1\"},"
+        + "\"message\":\"early\"},"
+        + "{\"date\":\"2015-01-02T12:00:00-0500\",\"from\":{\"name\":\"a\",\"user_id\":\"1\"},"
+        + "\"message\":\"noon\"},"
+        + "{\"date\":\"2015-01-02T15:00:00-0500\",\"from\":{\"name\":\"b\",\"user_id\":\"2\"},"
+        + "\"message\":\"late\"}]}";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private JsonHipChatDAO underTest;
+    private StubChatApiServer server;
+    private ChatAlyticsConfig config;
+    private Room room;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubChatApiServer();
+        server.start();
+        config = new ChatAlyticsConfig();
+        config.inputType = InputSourceType.HIPCHAT;
+        config.timeZone = DTZ.getID();
+        config.computeConfig.apiDateFormat = "YYYY-MM-dd";
+        config.computeConfig.apiDefaultRequestsPerMinute = 6000;
+        HipChatConfig chatConfig = new HipChatConfig();
+        chatConfig.authTokens = Lists.newArrayList("0");
+        chatConfig.baseAPIURL = server.getBaseUrl();
+        config.computeConfig.chatConfig = chatConfig;
+        room = new Room("42", "room", null, DateTime.now(), DateTime.now(), null, false, false,
+                        null, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (underTest != null) {
+            underTest.close();
+        }
+        server.stop();
+    }
+
+    /**
+     * Makes sure that only the messages within the interval are returned
+     */
+    @Test
+    public void testGetMessages_filtersPartialDay() {
+        server.enqueue("rooms/history", HISTORY);
+        underTest = new JsonHipChatDAO(config, mock(Client.class));
+        List<Message> messages = underTest.getMessages(new DateTime(2015, 1, 2, 10, 0, DTZ),
+                                                       new DateTime(2015, 1, 2, 14, 0, DTZ),
+                                                       room);
+        assertEquals(1, messages.size());
+        assertEquals("noon", messages.get(0).getMessage());
+        assertEquals(Lists.newArrayList("rooms/history?room_id=42&date=2015-01-02"
+                                            + "&timezone=America/New_York&auth_token=0"),
+                     server.getRequests());
+    }
+
+    /**
+     * Makes sure that every day the interval touches is fetched exactly once, even when the
+     * interval is shorter than the number of days it spans
+     */
+    @Test
+    public void testGetMessages_fetchesEveryDay() {
+        server.enqueue("rooms/history", HISTORY);
+        underTest = new JsonHipChatDAO(config, mock(Client.class));
+        underTest.getMessages(new DateTime(2015, 1, 1, 23, 0, DTZ),
+                              new DateTime(2015, 1, 3, 1, 0, DTZ), room);
+        List<String> requests = server.getRequests();
+        assertEquals(3, requests.size());
+        for (String day : Lists.newArrayList("2015-01-01", "2015-01-02", "2015-01-03")) {
+            assertEquals(1, requests.stream().filter(request -> request.contains("date=" + day))
+                                    .count());
+        }
+        for (String request : requests) {
+            assertEquals(request.indexOf("date="), request.lastIndexOf("date="));
+        }
+    }
+
+    /**
+     * Makes sure that days that are over are only fetched once when there's a cache
+     */
+    @Test
+    public void testGetMessages_cachesPastDays() throws Exception {
+        server.enqueue("rooms/history", HISTORY);
+        config.computeConfig.apiHistoryCacheDir = tempFolder.newFolder().getAbsolutePath();
+        underTest = new JsonHipChatDAO(config, mock(Client.class));
+        DateTime start = new DateTime(2015, 1, 2, 0, 0, DTZ);
+        DateTime end = new DateTime(2015, 1, 2, 23, 0, DTZ);
+        List<Message> messages = underTest.getMessages(start, end, room);
+        assertEquals(3, messages.size());
+        assertEquals(1, server.getRequests().size());
+
+        underTest.close();
+        underTest = new JsonHipChatDAO(config, mock(Client.class));
+        assertEquals(messages, underTest.getMessages(start, end, room));
+        assertEquals(1, server.getRequests().size());
+    }
+
+    /**
+     * Makes sure that the current day is never cached, since it can still get messages
+     */
+    @Test
+    public void testGetMessages_doesNotCacheCurrentDay() throws Exception {
+        server.enqueue("rooms/history", HISTORY);
+        config.computeConfig.apiHistoryCacheDir = tempFolder.newFolder().getAbsolutePath();
+        underTest = new JsonHipChatDAO(config, mock(Client.class));
+        DateTime end = DateTime.now(DTZ);
+        DateTime start = end.minusMinutes(10);
+        underTest.getMessages(start, end, room);
+        int requests = server.getRequests().size();
+        assertTrue(requests > 0);
+
+        underTest.getMessages(start, end, room);
+        assertEquals(2 * requests, server.getRequests().size());
+    }
+
+    /**
+     * Makes sure that failed days are left out and not cached
+     */
+    @Test
+    public void testGetMessages_failedDay() throws Exception {
+        config.computeConfig.apiHistoryCacheDir = tempFolder.newFolder().getAbsolutePath();
+        config.computeConfig.apiRetries = 0;
+        server.enqueue("rooms/history", 400, "{\"error\":{\"code\":400}}", null);
+        server.enqueue("rooms/history", HISTORY);
+        underTest = new JsonHipChatDAO(config, mock(Client.class));
+        DateTime start = new DateTime(2015, 1, 2, 0, 0, DTZ);
+        DateTime end = new DateTime(2015, 1, 2, 23, 0, DTZ);
+        assertTrue(underTest.getMessages(start, end, room).isEmpty());
+        assertEquals(3, underTest.getMessages(start, end, room).size());
+        assertEquals(3, underTest.getMessages(start, end, room).size());
+        assertEquals(2, server.getRequests().size());
+    }
+
+    /**
+     * Makes sure that the complete history fails when a day can't be fetched
+     */
+    @Test
+    public void testGetCompleteMessagesAsync_failedDay() throws Exception {
+        config.computeConfig.apiRetries = 0;
+        server.enqueue("rooms/history", 400, "{\"error\":{\"code\":400}}", null);
+        server.enqueue("rooms/history", HISTORY);
+        underTest = new JsonHipChatDAO(config, mock(Client.class));
+        DateTime start = new DateTime(2015, 1, 2, 0, 0, DTZ);
+        DateTime end = new DateTime(2015, 1, 2, 23, 0, DTZ);
+        try {
+            underTest.getCompleteMessagesAsync(start, end, room).join();
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IncompleteHistoryException);
+        }
+        assertEquals(3, underTest.getCompleteMessagesAsync(start, end, room).join().size());
+    }
+
+}
@@ -60,6 +60,34 @@ public class LocalChatDaoTest {
         assertFalse(users.isEmpty());
     }
 
+    /**
+     * Makes sure that bots are added to the users in load generation mode without changing the
+     * other users
+     */
+    @Test
+    public void testGetUsers_withBots() {
+        Map<String, User> users = underTest.getUsers();
+        chatConfig.numBots = 2;
+        chatConfig.targetMessagesPerSec = 10;
+        underTest = new LocalChatDao(config);
+        Map<String, User> usersWithBots = underTest.getUsers();
+        assertEquals(users.size() + 2, usersWithBots.size());
+        assertEquals(2, usersWithBots.values().stream().filter(User::isBot).count());
+        assertTrue(usersWithBots.keySet().containsAll(users.keySet()));
+    }
+
+    /**
+     * Makes sure that no bots are created outside of load generation mode
+     */
+    @Test
+    public void testGetUsers_botsWithoutLoadGeneration() {
+        Map<String, User> users = underTest.getUsers();
+        chatConfig.numBots = 2;
+        chatConfig.targetMessagesPerSec = 0;
+        underTest = new LocalChatDao(config);
+        assertEquals(users.keySet(), underTest.getUsers().keySet());
+    }
+
     @Test
     public void testGetUsersForRoom() {
         Map<String, User> expected = underTest.getUsers();
@@ -1,5 +1,8 @@
 package com.chatalytics.compute.chat.dao.slack;
 
+import com.chatalytics.compute.chat.dao.StubChatApiServer;
+import com.chatalytics.compute.exception.ChatApiException;
+import com.chatalytics.compute.exception.IncompleteHistoryException;
 import com.chatalytics.compute.exception.NotConnectedException;
 import com.chatalytics.core.InputSourceType;
 import com.chatalytics.core.config.ChatAlyticsConfig;
@@ -7,11 +10,17 @@ import com.chatalytics.core.config.SlackConfig;
 import com.chatalytics.core.model.data.Message;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
 import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.UniformInterfaceException;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.WebResource.Builder;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
 
 import org.joda.time.DateTime;
 import org.junit.Before;
@@ -19,8 +28,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -28,14 +41,19 @@ import java.util.List;
 import java.util.Map;
 
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -61,6 +79,7 @@ public class JsonSlackDAOTest {
         chatConfig.authTokens = Lists.newArrayList("0");
         this.config.computeConfig.chatConfig = chatConfig;
         this.apiRetries = config.computeConfig.apiRetries;
+        config.computeConfig.apiRetryBackoffMs = 1;
         Client mockClient = mock(Client.class);
         mockResource = mock(WebResource.class);
         when(mockClient.resource(chatConfig.getBaseAPIURL())).thenReturn(mockResource);
@@ -79,8 +98,8 @@ public class JsonSlackDAOTest {
         URI channelListURI = Resources.getResource("slack_api_responses/channels.list.txt").toURI();
         Path channelsPath = Paths.get(channelListURI);
         String channelsResponseStr = new String(Files.readAllBytes(channelsPath));
-        doReturn(channelsResponseStr).when(underTest).getJsonResultWithRetries(mockChanResource,
-                                                                               apiRetries);
+        doReturn(toStream(channelsResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockChanResource, apiRetries);
 
         Map<String, Room> rooms = underTest.getRooms();
         assertEquals(2, rooms.size());
@@ -101,8 +120,8 @@ public class JsonSlackDAOTest {
         URI userListURI = Resources.getResource("slack_api_responses/users.list.txt").toURI();
         Path usersPath = Paths.get(userListURI);
         String usersResponseStr = new String(Files.readAllBytes(usersPath));
-        doReturn(usersResponseStr).when(underTest).getJsonResultWithRetries(mockUserResource,
-                                                                            apiRetries);
+        doReturn(toStream(usersResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockUserResource, apiRetries);
 
         Map<String, User> users = underTest.getUsers();
         assertEquals(2, users.size());
@@ -116,44 +135,79 @@ public class JsonSlackDAOTest {
      */
     @Test
     public void testGetUsersForRoom() throws Exception {
+        StubChatApiServer server = new StubChatApiServer();
+        server.start();
+        chatConfig.baseAPIURL = server.getBaseUrl();
+        JsonSlackDAO stubbedDao = new JsonSlackDAO(config, mock(Client.class));
+        try {
+            server.enqueueResource("channels.info", "slack_api_responses/channels.info.txt");
+            server.enqueueResource("users.info", "slack_api_responses/users.info.1.txt");
+            server.enqueueResource("users.info", "slack_api_responses/users.info.2.txt");
+
+            Room mockRoom = mock(Room.class);
+            when(mockRoom.getRoomId()).thenReturn("C0SDFG423");
+            Map<String, User> usersForRoom = stubbedDao.getUsersForRoom(mockRoom);
+            assertEquals(2, usersForRoom.size());
+            for (User user : usersForRoom.values()) {
+                assertNotNull(user);
+            }
+            assertTrue(server.getRequests().contains("channels.info?channel=C0SDFG423&token=0"));
+            assertTrue(server.getRequests().contains("users.info?user=U023BECGF&token=0"));
+            assertTrue(server.getRequests().contains("users.info?user=U023TY454&token=0"));
+        } finally {
+            stubbedDao.close();
+            server.stop();
+        }
+    }
 
-        // channels.info
-        WebResource mockChanInfoResrc = mock(WebResource.class);
-        when(mockResource.path("channels.info")).thenReturn(mockChanInfoResrc);
-        when(mockChanInfoResrc.queryParam(anyString(), anyString())).thenReturn(mockChanInfoResrc);
-        URI chanInfoURI = Resources.getResource("slack_api_responses/channels.info.txt").toURI();
-        Path channelsInfoPath = Paths.get(chanInfoURI);
-        String chanInfoResponseStr = new String(Files.readAllBytes(channelsInfoPath));
-        doReturn(chanInfoResponseStr).when(underTest).getJsonResultWithRetries(mockChanInfoResrc,
-                                                                               apiRetries);
-
-        // users.info
-        WebResource mockUserInfoResource = mock(WebResource.class);
-        when(mockResource.path("users.info")).thenReturn(mockUserInfoResource);
-        // user 1
-        WebResource user1InfoResource = mock(WebResource.class);
-        when(mockUserInfoResource.queryParam("user", "U023BECGF")).thenReturn(user1InfoResource);
-        URI userInfoURI = Resources.getResource("slack_api_responses/users.info.1.txt").toURI();
-        Path usersInfoPath = Paths.get(userInfoURI);
-        String userInfoResponseStr = new String(Files.readAllBytes(usersInfoPath));
-        doReturn(userInfoResponseStr).when(underTest).getJsonResultWithRetries(user1InfoResource,
-                                                                               apiRetries);
-
-        // user 2
-        WebResource user2InfoResource = mock(WebResource.class);
-        when(mockUserInfoResource.queryParam("user", "U023TY454")).thenReturn(user2InfoResource);
-        userInfoURI = Resources.getResource("slack_api_responses/users.info.2.txt").toURI();
-        usersInfoPath = Paths.get(userInfoURI);
-        userInfoResponseStr = new String(Files.readAllBytes(usersInfoPath));
-        doReturn(userInfoResponseStr).when(underTest).getJsonResultWithRetries(user2InfoResource,
-                                                                               apiRetries);
+    /**
+     * Makes sure that the members of a room are fetched concurrently, but never more than the
+     * configured maximum at a time
+     */
+    @Test
+    public void testGetUsersForRoomAsync_boundedConcurrency() throws Exception {
+        StubChatApiServer server = new StubChatApiServer();
+        server.start();
+        chatConfig.baseAPIURL = server.getBaseUrl();
+        config.computeConfig.apiMaxConcurrentRequests = 2;
+        JsonSlackDAO stubbedDao = new JsonSlackDAO(config, mock(Client.class));
+        try {
+            List<String> memberIds = Lists.newArrayList();
+            for (int i = 0; i < 8; i++) {
+                memberIds.add("U" + i);
+            }
+            server.enqueue("channels.info", String.format("{\"ok\":true,\"channel\":{\"members\":"
+                + "[\"%s\"]}}", String.join("\",\"", memberIds)));
+            server.enqueueResource("users.info", "slack_api_responses/users.info.1.txt");
+            server.setResponseDelayMillis(50);
+
+            Room mockRoom = mock(Room.class);
+            when(mockRoom.getRoomId()).thenReturn("C0SDFG423");
+            Map<String, User> usersForRoom = stubbedDao.getUsersForRoomAsync(mockRoom).get();
+            assertEquals(memberIds.size(), usersForRoom.size());
+            assertEquals(memberIds.size() + 1, server.getRequests().size());
+            assertEquals(2, server.getMaxInFlight());
+        } finally {
+            stubbedDao.close();
+            server.stop();
+        }
+    }
 
-        Room mockRoom = mock(Room.class);
-        when(mockRoom.getRoomId()).thenReturn("C0SDFG423");
-        Map<String, User> usersForRoom = underTest.getUsersForRoom(mockRoom);
-        assertEquals(2, usersForRoom.size());
-        for (User user : usersForRoom.values()) {
-            assertNotNull(user);
+    /**
+     * Makes sure that rooms can be fetched asynchronously
+     */
+    @Test
+    public void testGetRoomsAsync() throws Exception {
+        StubChatApiServer server = new StubChatApiServer();
+        server.start();
+        chatConfig.baseAPIURL = server.getBaseUrl();
+        JsonSlackDAO stubbedDao = new JsonSlackDAO(config, mock(Client.class));
+        try {
+            server.enqueueResource("channels.list", "slack_api_responses/channels.list.txt");
+            assertEquals(2, stubbedDao.getRoomsAsync().get().size());
+        } finally {
+            stubbedDao.close();
+            server.stop();
         }
     }
 
@@ -170,8 +224,8 @@ public class JsonSlackDAOTest {
         URI historyURI = Resources.getResource("slack_api_responses/channels.history.txt").toURI();
         Path historyPath = Paths.get(historyURI);
         String historyResponseStr = new String(Files.readAllBytes(historyPath));
-        doReturn(historyResponseStr).when(underTest).getJsonResultWithRetries(mockHistoryResrc,
-                                                                              apiRetries);
+        doReturn(toStream(historyResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockHistoryResrc, apiRetries);
 
         Room mockRoom = mock(Room.class);
         when(mockRoom.getRoomId()).thenReturn("C0SDFG423");
@@ -184,6 +238,46 @@ public class JsonSlackDAOTest {
         }
     }
 
+    /**
+     * Makes sure that a history page the API didn't return fails the fetch instead of looking like
+     * the end of the history
+     */
+    @Test(expected = IncompleteHistoryException.class)
+    public void testGetMessages_notOk() throws Exception {
+        WebResource mockHistoryResrc = mock(WebResource.class);
+        when(mockResource.path("channels.history")).thenReturn(mockHistoryResrc);
+        when(mockHistoryResrc.queryParam(anyString(), anyString())).thenReturn(mockHistoryResrc);
+        doReturn(toStream("{\"ok\":false, \"error\":\"channel_not_found\"}")).when(underTest)
+            .getJsonStreamWithRetries(mockHistoryResrc, apiRetries);
+
+        Room mockRoom = mock(Room.class);
+        when(mockRoom.getRoomId()).thenReturn("C0SDFG423");
+        DateTime now = DateTime.now();
+        underTest.getMessages(now.minusDays(1), now, mockRoom);
+    }
+
+    /**
+     * Makes sure that a history page that can't be fetched fails the fetch
+     */
+    @Test
+    public void testGetMessages_requestFailed() throws Exception {
+        WebResource mockHistoryResrc = mock(WebResource.class);
+        when(mockResource.path("channels.history")).thenReturn(mockHistoryResrc);
+        when(mockHistoryResrc.queryParam(anyString(), anyString())).thenReturn(mockHistoryResrc);
+        ChatApiException exception = new ChatApiException("failed");
+        doThrow(exception).when(underTest).getJsonStreamWithRetries(mockHistoryResrc, apiRetries);
+
+        Room mockRoom = mock(Room.class);
+        when(mockRoom.getRoomId()).thenReturn("C0SDFG423");
+        DateTime now = DateTime.now();
+        try {
+            underTest.getMessages(now.minusDays(1), now, mockRoom);
+            fail();
+        } catch (IncompleteHistoryException e) {
+            assertEquals(exception, e.getCause());
+        }
+    }
+
     /**
      * Makes sure that the web socket URL can be properly read
      */
@@ -195,7 +289,8 @@ public class JsonSlackDAOTest {
         when(mockResource.path("rtm.start")).thenReturn(mockRtmResrc);
         String rtmResponseStr =
             "{\"ok\": true, \"url\":\"wss:\\/\\/ms9.slack-msgs.com\\/websocket\\/7I5yBpcvk\"}";
-        doReturn(rtmResponseStr).when(underTest).getJsonResultWithRetries(mockRtmResrc, apiRetries);
+        doReturn(toStream(rtmResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockRtmResrc, apiRetries);
 
         assertEquals(URI.create("wss://ms9.slack-msgs.com/websocket/7I5yBpcvk"),
                      underTest.getRealtimeWebSocketURI());
@@ -210,7 +305,8 @@ public class JsonSlackDAOTest {
         WebResource mockRtmResrc = mock(WebResource.class);
         when(mockResource.path("rtm.start")).thenReturn(mockRtmResrc);
         String rtmResponseStr = "{malformedJSON";
-        doReturn(rtmResponseStr).when(underTest).getJsonResultWithRetries(mockRtmResrc, apiRetries);
+        doReturn(toStream(rtmResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(mockRtmResrc, apiRetries);
         try {
             underTest.getRealtimeWebSocketURI();
         } catch (Exception e) {
@@ -226,11 +322,154 @@ public class JsonSlackDAOTest {
         Builder builder = mock(Builder.class);
         String errorReason = "broken";
         String jsonResult = String.format("{\"ok\":false, \"error\":\"%s\"}", errorReason);
-        when(builder.get(String.class)).thenReturn(jsonResult);
+        when(builder.get(InputStream.class)).thenReturn(toStream(jsonResult));
         when(mockRtmResrc.accept(MediaType.APPLICATION_JSON)).thenReturn(builder);
         underTest.getRealtimeWebSocketURI();
     }
 
+    /**
+     * Makes sure that rate limited requests are retried and that the token is added to every
+     * request
+     */
+    @Test
+    public void testGetJsonResultWithRetries_rateLimited() throws Exception {
+        WebResource listResource = mockListResource();
+        Builder builder = mock(Builder.class);
+        when(listResource.accept(MediaType.APPLICATION_JSON)).thenReturn(builder);
+        UniformInterfaceException rateLimitedException = createException(429, "0");
+        when(builder.get(InputStream.class)).thenThrow(rateLimitedException)
+                                            .thenReturn(toStream("{\"ok\":true}"));
+
+        InputStream result = underTest.getJsonStreamWithRetries(listResource, apiRetries);
+        assertEquals("{\"ok\":true}", readString(result));
+        verify(builder, times(2)).get(InputStream.class);
+        verify(listResource, times(2)).queryParam("token", "0");
+    }
+
+    /**
+     * Makes sure that rate limited attempts don't count against the retries
+     */
+    @Test
+    public void testGetJsonResultWithRetries_rateLimitedMoreThanRetries() throws Exception {
+        WebResource listResource = mockListResource();
+        Builder builder = mock(Builder.class);
+        when(listResource.accept(MediaType.APPLICATION_JSON)).thenReturn(builder);
+        UniformInterfaceException rateLimitedException = createException(429, "0");
+        UniformInterfaceException serverException = createException(503, null);
+        when(builder.get(InputStream.class)).thenThrow(rateLimitedException, rateLimitedException,
+                                                       rateLimitedException, rateLimitedException,
+                                                       rateLimitedException, serverException)
+                                            .thenReturn(toStream("{\"ok\":true}"));
+
+        InputStream result = underTest.getJsonStreamWithRetries(listResource, 1);
+        assertEquals("{\"ok\":true}", readString(result));
+        verify(builder, times(7)).get(InputStream.class);
+    }
+
+    /**
+     * Makes sure that a request that's still rate limited after the timeout fails
+     */
+    @Test(expected = ChatApiException.class)
+    public void testGetJsonResultWithRetries_rateLimitTimeout() throws Exception {
+        config.computeConfig.apiRateLimitTimeoutMs = 500;
+        underTest = new JsonSlackDAO(config, mock(Client.class));
+        WebResource listResource = mockListResource();
+        Builder builder = mock(Builder.class);
+        when(listResource.accept(MediaType.APPLICATION_JSON)).thenReturn(builder);
+        UniformInterfaceException rateLimitedException = createException(429, "1");
+        when(builder.get(InputStream.class)).thenThrow(rateLimitedException);
+
+        underTest.getJsonStreamWithRetries(listResource, apiRetries);
+    }
+
+    /**
+     * Makes sure that server errors are retried up to the number of retries and then fail
+     */
+    @Test
+    public void testGetJsonResultWithRetries_serverError() throws Exception {
+        WebResource listResource = mockListResource();
+        Builder builder = mock(Builder.class);
+        when(listResource.accept(MediaType.APPLICATION_JSON)).thenReturn(builder);
+        UniformInterfaceException exception = createException(503, null);
+        when(builder.get(InputStream.class)).thenThrow(exception);
+
+        try {
+            underTest.getJsonStreamWithRetries(listResource, apiRetries);
+            fail();
+        } catch (ChatApiException e) {
+            assertEquals(exception, e.getCause());
+        }
+        verify(builder, times(apiRetries + 1)).get(InputStream.class);
+    }
+
+    /**
+     * Makes sure that client errors are not retried
+     */
+    @Test
+    public void testGetJsonResultWithRetries_clientError() throws Exception {
+        WebResource listResource = mockListResource();
+        Builder builder = mock(Builder.class);
+        when(listResource.accept(MediaType.APPLICATION_JSON)).thenReturn(builder);
+        UniformInterfaceException exception = createException(404, null);
+        when(builder.get(InputStream.class)).thenThrow(exception);
+
+        try {
+            underTest.getJsonStreamWithRetries(listResource, apiRetries);
+            fail();
+        } catch (ChatApiException e) {
+            assertEquals(exception, e.getCause());
+        }
+        verify(builder, times(1)).get(InputStream.class);
+    }
+
+    /**
+     * Makes sure that requests that can't connect are retried without waiting for the rate limit
+     */
+    @Test
+    public void testGetJsonResultWithRetries_notConnected() throws Exception {
+        config.computeConfig.apiRequestsPerMinute = ImmutableMap.of("channels.history", 1);
+        underTest = new JsonSlackDAO(config, mock(Client.class));
+        WebResource listResource = mockListResource();
+        Builder builder = mock(Builder.class);
+        when(listResource.accept(MediaType.APPLICATION_JSON)).thenReturn(builder);
+        ClientHandlerException exception =
+            new ClientHandlerException(new ConnectException("Connection refused"));
+        when(builder.get(InputStream.class)).thenThrow(exception)
+                                            .thenReturn(toStream("{\"ok\":true}"));
+
+        long startMillis = System.currentTimeMillis();
+        InputStream result = underTest.getJsonStreamWithRetries(listResource, apiRetries);
+        assertEquals("{\"ok\":true}", readString(result));
+        assertTrue(System.currentTimeMillis() - startMillis < 30000);
+    }
+
+    private WebResource mockListResource() {
+        WebResource listResource = mock(WebResource.class);
+        URI listURI = URI.create("https://slack.com/api/channels.history");
+        when(listResource.getURI()).thenReturn(listURI);
+        when(listResource.queryParam(anyString(), anyString())).thenReturn(listResource);
+        return listResource;
+    }
+
+    private static InputStream toStream(String jsonStr) {
+        return new ByteArrayInputStream(jsonStr.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(InputStream jsonStream) throws IOException {
+        return new String(ByteStreams.toByteArray(jsonStream), StandardCharsets.UTF_8);
+    }
+
+    private UniformInterfaceException createException(int status, String retryAfter) {
+        ClientResponse response = mock(ClientResponse.class);
+        when(response.getStatus()).thenReturn(status);
+        MultivaluedMap<String, String> headers = new MultivaluedMapImpl();
+        if (retryAfter != null) {
+            headers.putSingle("Retry-After", retryAfter);
+        }
+        when(response.getHeaders()).thenReturn(headers);
+        return new UniformInterfaceException(response);
+    }
+
     @Test
     public void testGetEmojis() throws Exception {
         WebResource emojiResource = mock(WebResource.class);
@@ -238,8 +477,8 @@ public class JsonSlackDAOTest {
         URI emojiURI = Resources.getResource("slack_api_responses/emoji.list.txt").toURI();
         Path emojiPath = Paths.get(emojiURI);
         String emojiResponseStr = new String(Files.readAllBytes(emojiPath));
-        doReturn(emojiResponseStr).when(underTest).getJsonResultWithRetries(emojiResource,
-                                                                            apiRetries);
+        doReturn(toStream(emojiResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(emojiResource, apiRetries);
 
         Map<String, String> result = underTest.getEmojis();
         assertEquals(3, result.size());
@@ -256,8 +495,8 @@ public class JsonSlackDAOTest {
         WebResource emojiResource = mock(WebResource.class);
         when(mockResource.path("emoji.list")).thenReturn(emojiResource);
         String emojiResponseStr = "{ badJSON";
-        doReturn(emojiResponseStr).when(underTest).getJsonResultWithRetries(emojiResource,
-                                                                            apiRetries);
+        doReturn(toStream(emojiResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(emojiResource, apiRetries);
 
         Map<String, String> result = underTest.getEmojis();
         assertTrue(result.isEmpty());
@@ -268,8 +507,8 @@ public class JsonSlackDAOTest {
         WebResource emojiResource = mock(WebResource.class);
         when(mockResource.path("emoji.list")).thenReturn(emojiResource);
         String emojiResponseStr = "{}";
-        doReturn(emojiResponseStr).when(underTest).getJsonResultWithRetries(emojiResource,
-                                                                            apiRetries);
+        doReturn(toStream(emojiResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(emojiResource, apiRetries);
 
         Map<String, String> result = underTest.getEmojis();
         assertTrue(result.isEmpty());
@@ -280,8 +519,8 @@ public class JsonSlackDAOTest {
         WebResource emojiResource = mock(WebResource.class);
         when(mockResource.path("emoji.list")).thenReturn(emojiResource);
         String emojiResponseStr = "{\"emoji\": \"BAD JSON\"}";
-        doReturn(emojiResponseStr).when(underTest).getJsonResultWithRetries(emojiResource,
-                                                                            apiRetries);
+        doReturn(toStream(emojiResponseStr)).when(underTest)
+            .getJsonStreamWithRetries(emojiResource, apiRetries);
 
         Map<String, String> result = underTest.getEmojis();
         assertTrue(result.isEmpty());
@@ -1,14 +1,24 @@
 package com.chatalytics.compute.db.dao;
 
 import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.google.common.collect.ImmutableList;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 /**
  * Tests the {@link ChatAlyticsDAOImpl}
@@ -19,10 +29,11 @@ import static org.junit.Assert.assertEquals;
 public class ChatAlyticsDAOImplTest {
 
     private IChatAlyticsDAO underTest;
+    private ChatAlyticsConfig config;
 
     @Before
     public void setUp() throws Exception {
-        ChatAlyticsConfig config = new ChatAlyticsConfig();
+        config = new ChatAlyticsConfig();
         config.persistenceUnitName = "chatalytics-db-test";
 
         underTest = ChatAlyticsDAOFactory.createChatAlyticsDao(config);
@@ -41,6 +52,71 @@ public class ChatAlyticsDAOImplTest {
         assertEquals(expectedDate, underTest.getLastMessagePullTime());
     }
 
+    /**
+     * Makes sure that room pull times are stored per room and can be updated
+     */
+    @Test
+    public void testSetRoomPullTime() {
+        DateTime date = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+        underTest.setRoomPullTime("pullroom1", date);
+        underTest.setRoomPullTime("pullroom2", date);
+        underTest.setRoomPullTime("pullroom1", date.plusDays(1));
+
+        Map<String, DateTime> roomPullTimes = underTest.getRoomPullTimes();
+        assertEquals(date.plusDays(1), roomPullTimes.get("pullroom1"));
+        assertEquals(date, roomPullTimes.get("pullroom2"));
+    }
+
+    /**
+     * Makes sure that values of different types are all persisted in one batch
+     */
+    @Test
+    public void testPersistAll() {
+        DateTime date = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+        underTest.persistAll(ImmutableList.of(
+            new ChatEntity("batchuser", "room", date, "Jane Doe", 1, false),
+            new EmojiEntity("batchuser", "room", date, "smile", 2, false),
+            new MessageSummary("batchuser", "room", date, MessageType.MESSAGE, 1, false)));
+        underTest.persistAll(ImmutableList.of());
+
+        Interval interval = new Interval(date, date.plusMillis(1));
+        assertEquals(1, ChatAlyticsDAOFactory.createEntityDAO(config)
+                                             .getTotalMentionsForEntity("Jane Doe", interval,
+                                                                        ImmutableList.of(),
+                                                                        ImmutableList.of(), true));
+        assertEquals(2, ChatAlyticsDAOFactory.createEmojiDAO(config)
+                                             .getTotalMentionsForEmoji("smile", interval,
+                                                                       ImmutableList.of(),
+                                                                       ImmutableList.of(), true));
+        assertEquals(1, ChatAlyticsDAOFactory.createMessageSummaryDAO(config)
+                                             .getTotalMessageSummaries(interval,
+                                                                       ImmutableList.of(),
+                                                                       ImmutableList.of(), true));
+    }
+
+    /**
+     * Makes sure that when a batch fails, the values that can be persisted are and the ones that
+     * can't are returned
+     */
+    @Test
+    public void testPersistAll_failedValues() {
+        DateTime date = new DateTime(2016, 1, 2, 0, 0, DateTimeZone.UTC);
+        EmojiEntity persisted = new EmojiEntity("faileduser", "room", date, "joy", 1, false);
+        assertEquals(ImmutableList.of(), underTest.persistAll(ImmutableList.of(persisted)));
+
+        // the first emoji is detached now, so it can't be persisted again
+        EmojiEntity emoji = new EmojiEntity("faileduser", "room", date, "joy", 3, false);
+        List<EmojiEntity> failedValues = underTest.persistAll(ImmutableList.of(persisted, emoji));
+        assertEquals(1, failedValues.size());
+        assertSame(persisted, failedValues.get(0));
+
+        Interval interval = new Interval(date, date.plusMillis(1));
+        assertEquals(4, ChatAlyticsDAOFactory.createEmojiDAO(config)
+                                             .getTotalMentionsForEmoji("joy", interval,
+                                                                       ImmutableList.of(),
+                                                                       ImmutableList.of(), true));
+    }
+
     @After
     public void tearDown() throws Exception {
         underTest.stopAsync().awaitTerminated();
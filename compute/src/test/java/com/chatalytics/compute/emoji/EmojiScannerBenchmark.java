@@ -0,0 +1,114 @@
+package com.chatalytics.compute.emoji;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.PrimitiveIterator.OfInt;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link EmojiScanner} with the char iterator based scanner it replaced, over a corpus of
+ * chat messages with and without emojis. Run {@link #main(String[])} from the compute test
+ * classpath, or <code>org.openjdk.jmh.Main EmojiScannerBenchmark -prof gc</code> to also see the
+ * allocations per operation.
+ *
+ * @author giannis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmojiScannerBenchmark {
+
+    private static final Set<Character> BLACKLISTED_CHARS = ImmutableSet.of(' ', ',', '{', '}',
+                                                                            '\t', '\n', '/', '\\');
+
+    private List<String> corpus;
+    private EmojiScanner scanner;
+
+    @Setup
+    public void setUp() throws IOException {
+        corpus = Resources.readLines(Resources.getResource("emoji-corpus.txt"),
+                                     StandardCharsets.UTF_8);
+        scanner = new EmojiScanner(':', ':');
+        // load the unicode tables outside of the measurements
+        scanner.getEmojis("👍");
+    }
+
+    @Benchmark
+    public void indexedScanner(Blackhole blackhole) {
+        for (String message : corpus) {
+            blackhole.consume(scanner.getEmojis(message));
+        }
+    }
+
+    @Benchmark
+    public void charIteratorScanner(Blackhole blackhole) {
+        for (String message : corpus) {
+            blackhole.consume(charIteratorEmojis(message));
+        }
+    }
+
+    /**
+     * The scanner that was used by the emoji counter bolt before {@link EmojiScanner}
+     */
+    private static List<String> charIteratorEmojis(String message) {
+        List<String> emojis = Lists.newArrayList();
+        OfInt charIterator = message.chars().iterator();
+        boolean capturingEmoji = false;
+        StringBuilder emojiStrBuilder = new StringBuilder();
+        while (charIterator.hasNext()) {
+            char ch = (char) charIterator.next().intValue();
+            if (ch == ':') {
+                if (capturingEmoji) {
+                    if (emojiStrBuilder.length() <= 0) {
+                        emojiStrBuilder = new StringBuilder();
+                        continue;
+                    }
+                    emojis.add(emojiStrBuilder.toString());
+                    emojiStrBuilder = new StringBuilder();
+                }
+                capturingEmoji = !capturingEmoji;
+                continue;
+            }
+            if (capturingEmoji) {
+                if (BLACKLISTED_CHARS.contains(ch)) {
+                    capturingEmoji = !capturingEmoji;
+                    emojiStrBuilder = new StringBuilder();
+                    continue;
+                }
+                emojiStrBuilder.append(ch);
+            }
+        }
+        return emojis;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(EmojiScannerBenchmark.class.getSimpleName())
+                                              .build();
+        new Runner(options).run();
+    }
+}
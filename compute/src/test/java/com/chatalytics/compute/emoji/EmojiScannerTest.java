@@ -0,0 +1,55 @@
+package com.chatalytics.compute.emoji;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link EmojiScanner}
+ *
+ * @author giannis
+ */
+public class EmojiScannerTest {
+
+    @Test
+    public void testGetEmojis() {
+        EmojiScanner underTest = new EmojiScanner(':', ':');
+        assertEquals(ImmutableList.of("tada", "smile", "smile"),
+                     underTest.getEmojis("deploy is done :tada: :smile::smile:"));
+        assertEquals(ImmutableList.of("smile"), underTest.getEmojis("::smile:"));
+        assertTrue(underTest.getEmojis("no emojis here").isEmpty());
+        assertTrue(underTest.getEmojis("").isEmpty());
+    }
+
+    @Test
+    public void testGetEmojis_blacklistedChars() {
+        EmojiScanner underTest = new EmojiScanner(':', ':');
+        assertTrue(underTest.getEmojis("see http://example.com: and :not an emoji:").isEmpty());
+        assertTrue(underTest.getEmojis("{'a':1,'b':{'c':2}}").isEmpty());
+        assertTrue(underTest.getEmojis("dangling :smile").isEmpty());
+    }
+
+    @Test
+    public void testGetEmojis_configuredChars() {
+        EmojiScanner underTest = new EmojiScanner('(', ')');
+        assertEquals(ImmutableList.of("allthethings", "yey"),
+                     underTest.getEmojis("(allthethings) :smile: (yey)"));
+        assertEquals(ImmutableList.of("yey"), underTest.getEmojis("(not this(yey)"));
+    }
+
+    @Test
+    public void testGetEmojis_unicode() {
+        EmojiScanner underTest = new EmojiScanner(':', ':');
+        String thumbsUp = EmojiScanner.UnicodeEmojis.getName("👍", 0, 2);
+        String coffee = EmojiScanner.UnicodeEmojis.getName("☕", 0, 1);
+        assertEquals(ImmutableList.of(thumbsUp, thumbsUp, thumbsUp),
+                     underTest.getEmojis("lgtm 👍👍🏽 and 👍"));
+        assertEquals(ImmutableList.of(coffee, coffee, "smile"),
+                     underTest.getEmojis("standup ☕️ ☕ :smile:"));
+        assertEquals(ImmutableList.of(thumbsUp), underTest.getEmojis("great:👍"));
+        assertTrue(underTest.getEmojis("naïve café 中文 ½").isEmpty());
+    }
+}
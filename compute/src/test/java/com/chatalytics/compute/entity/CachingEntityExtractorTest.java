@@ -0,0 +1,78 @@
+package com.chatalytics.compute.entity;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link CachingEntityExtractor}
+ *
+ * @author giannis
+ */
+public class CachingEntityExtractorTest {
+
+    private IEntityExtractor delegate;
+
+    @Before
+    public void setUp() {
+        delegate = mock(IEntityExtractor.class);
+        when(delegate.extractEntities(anyString()))
+            .thenAnswer(invocation -> Lists.newArrayList(new EntitySpan(0, 4)));
+    }
+
+    @Test
+    public void testExtractEntities() {
+        CachingEntityExtractor underTest = new CachingEntityExtractor(delegate, 10, 0);
+        List<EntitySpan> expected = ImmutableList.of(new EntitySpan(0, 4));
+        assertEquals(expected, underTest.extractEntities("Jira is down"));
+        assertEquals(expected, underTest.extractEntities("Jira is down"));
+        assertEquals(expected, underTest.extractEntities("Jira is up"));
+
+        verify(delegate, times(1)).extractEntities("Jira is down");
+        verify(delegate, times(1)).extractEntities("Jira is up");
+        assertEquals(1, underTest.getStats().hitCount());
+        assertEquals(2, underTest.getStats().missCount());
+        assertEquals(2, underTest.size());
+    }
+
+    @Test
+    public void testExtractEntities_sizeEviction() {
+        CachingEntityExtractor underTest = new CachingEntityExtractor(delegate, 1, 0);
+        underTest.extractEntities("Jira is down");
+        underTest.extractEntities("Jira is up");
+        underTest.extractEntities("Jira is down");
+
+        verify(delegate, times(2)).extractEntities("Jira is down");
+        assertEquals(1, underTest.size());
+        assertEquals(2, underTest.getStats().evictionCount());
+    }
+
+    @Test
+    public void testExtractEntities_weightEviction() {
+        // each entry weighs its text length plus 4 for the span
+        CachingEntityExtractor underTest = new CachingEntityExtractor(delegate, 1000, 20);
+        underTest.extractEntities("Jira is down");
+        underTest.extractEntities("Jira is down");
+        assertEquals(1, underTest.getStats().hitCount());
+
+        underTest.extractEntities("Jira is up");
+        assertEquals(1, underTest.size());
+        assertEquals(1, underTest.getStats().evictionCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_noBounds() {
+        new CachingEntityExtractor(delegate, 0, 0);
+    }
+}
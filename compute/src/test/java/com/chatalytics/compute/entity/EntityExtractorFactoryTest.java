@@ -0,0 +1,48 @@
+package com.chatalytics.compute.entity;
+
+import com.chatalytics.core.EntityExtractorType;
+import com.chatalytics.core.config.ComputeConfig;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link EntityExtractorFactory}
+ *
+ * @author giannis
+ */
+public class EntityExtractorFactoryTest {
+
+    @Test
+    public void testReadDictionary() {
+        ComputeConfig config = new ComputeConfig();
+        assertTrue(EntityExtractorFactory.readDictionary(config).isEmpty());
+
+        config.entityDictionary = Lists.newArrayList("Chatalytics");
+        config.entityDictionaryFile = "test-entity-dictionary.txt";
+        assertEquals(ImmutableList.of("Chatalytics", "Jira", "Mount Everest"),
+                     EntityExtractorFactory.readDictionary(config));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadDictionary_missingFile() {
+        ComputeConfig config = new ComputeConfig();
+        config.entityDictionaryFile = "does-not-exist.txt";
+        EntityExtractorFactory.readDictionary(config);
+    }
+
+    @Test
+    public void testCreateEntityExtractor_gazetteer() {
+        ComputeConfig config = new ComputeConfig();
+        config.entityExtractor = EntityExtractorType.GAZETTEER;
+        config.entityDictionaryFile = "test-entity-dictionary.txt";
+        IEntityExtractor underTest = EntityExtractorFactory.createEntityExtractor(config);
+        assertTrue(underTest instanceof GazetteerEntityExtractor);
+        assertEquals(ImmutableList.of(new EntitySpan(0, 4)),
+                     underTest.extractEntities("jira is down"));
+    }
+}
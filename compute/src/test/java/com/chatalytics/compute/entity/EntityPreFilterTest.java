@@ -0,0 +1,124 @@
+package com.chatalytics.compute.entity;
+
+import com.chatalytics.core.EntityExtractorType;
+import com.chatalytics.core.config.ComputeConfig;
+import com.chatalytics.core.config.HipChatConfig;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link EntityPreFilter}
+ *
+ * @author giannis
+ */
+public class EntityPreFilterTest {
+
+    private ComputeConfig config;
+    private User user;
+    private Room room;
+
+    @Before
+    public void setUp() {
+        config = new ComputeConfig();
+        user = new User("u1", "email", false, false, false, null, "jane", null, null, null, null,
+                        null, null, null);
+        room = new Room("r1", "general", null, null, null, null, false, false, null, null);
+    }
+
+    @Test
+    public void testMayContainEntities() {
+        EntityPreFilter underTest = new EntityPreFilter(config);
+        assertTrue(underTest.mayContainEntities(createMessage("Jane Doe is going to climb")));
+        assertTrue(underTest.mayContainEntities(createMessage("we're going to \"Mount Everest\"")));
+    }
+
+    @Test
+    public void testMayContainEntities_nullMessage() {
+        EntityPreFilter underTest = new EntityPreFilter(config);
+        assertFalse(underTest.mayContainEntities(createMessage(null)));
+    }
+
+    @Test
+    public void testMayContainEntities_disabled() {
+        config.entityPreFilter = false;
+        EntityPreFilter underTest = new EntityPreFilter(config);
+        assertTrue(underTest.mayContainEntities(createMessage("ok")));
+        assertFalse(underTest.mayContainEntities(createMessage(null)));
+    }
+
+    @Test
+    public void testMayContainEntities_shapes() {
+        EntityPreFilter underTest = new EntityPreFilter(config);
+        assertFalse(underTest.mayContainEntities(createMessage("ok")));
+        assertFalse(underTest.mayContainEntities(createMessage("sounds good to me")));
+        assertFalse(underTest.mayContainEntities(createMessage(":thumbsup: :Parrot:")));
+        assertFalse(underTest.mayContainEntities(createMessage("👍👍")));
+        assertFalse(underTest.mayContainEntities(createMessage("https://Example.com/Page")));
+        assertFalse(underTest.mayContainEntities(createMessage("<@U03AFSSD> <#C09ADF43>")));
+        assertFalse(underTest.mayContainEntities(createMessage("   \t\n ")));
+        assertFalse(underTest.mayContainEntities(createMessage("A")));
+        assertFalse(underTest.mayContainEntities(createMessage("12345 678")));
+    }
+
+    @Test
+    public void testMayContainEntities_configuredEmojiChars() {
+        config.chatConfig = new HipChatConfig();
+        EntityPreFilter underTest = new EntityPreFilter(config);
+        assertFalse(underTest.mayContainEntities(createMessage("(Allthethings) (Yey)")));
+        assertTrue(underTest.mayContainEntities(createMessage(":Parrot:")));
+    }
+
+    @Test
+    public void testMayContainEntities_gazetteer() {
+        config.entityExtractor = EntityExtractorType.GAZETTEER;
+        EntityPreFilter underTest = new EntityPreFilter(config);
+        assertTrue(underTest.mayContainEntities(createMessage("jira is down")));
+        assertFalse(underTest.mayContainEntities(createMessage("ok")));
+        assertFalse(underTest.mayContainEntities(createMessage("  o k ")));
+        assertTrue(underTest.hasCandidateToken("Jira is down"));
+        assertFalse(underTest.hasCandidateToken("jira is down"));
+    }
+
+    @Test
+    public void testMayContainEntities_skipLists() {
+        config.entitySkipRooms = Lists.newArrayList("general");
+        EntityPreFilter underTest = new EntityPreFilter(config);
+        assertFalse(underTest.mayContainEntities(createMessage("Jane Doe is going to climb")));
+
+        config.entitySkipRooms = null;
+        config.entitySkipUsers = Lists.newArrayList("jane");
+        underTest = new EntityPreFilter(config);
+        assertFalse(underTest.mayContainEntities(createMessage("Jane Doe is going to climb")));
+
+        config.entitySkipUsers = Lists.newArrayList("someone-else");
+        underTest = new EntityPreFilter(config);
+        assertTrue(underTest.mayContainEntities(createMessage("Jane Doe is going to climb")));
+    }
+
+    @Test
+    public void testMayContainEntities_nullUserAndRoom() {
+        config.entitySkipRooms = Lists.newArrayList("general");
+        config.entitySkipUsers = Lists.newArrayList("jane");
+        EntityPreFilter underTest = new EntityPreFilter(config);
+        Message message = new Message(DateTime.now(), "jane", "u1", "Jane Doe", "r1",
+                                      MessageType.MESSAGE);
+        assertTrue(underTest.mayContainEntities(MessageEnvelope.of(message, null, null)));
+    }
+
+    private MessageEnvelope createMessage(String text) {
+        Message message = new Message(DateTime.now(), "jane", "u1", text, "r1",
+                                      MessageType.MESSAGE);
+        return MessageEnvelope.of(message, user, room);
+    }
+}
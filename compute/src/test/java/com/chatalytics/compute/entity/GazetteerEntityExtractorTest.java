@@ -0,0 +1,75 @@
+package com.chatalytics.compute.entity;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link GazetteerEntityExtractor}
+ *
+ * @author giannis
+ */
+public class GazetteerEntityExtractorTest {
+
+    @Test
+    public void testExtractEntities() {
+        GazetteerEntityExtractor underTest =
+            new GazetteerEntityExtractor(Lists.newArrayList("Jira", "Mount Everest"), false);
+        String text = "Jira is down, let's climb Mount Everest";
+        List<EntitySpan> result = underTest.extractEntities(text);
+        assertEquals(ImmutableList.of(new EntitySpan(0, 4), new EntitySpan(26, 39)), result);
+        assertEquals("Mount Everest", text.substring(26, 39));
+        assertTrue(underTest.extractEntities("jira is down").isEmpty());
+    }
+
+    @Test
+    public void testExtractEntities_ignoreCase() {
+        GazetteerEntityExtractor underTest =
+            new GazetteerEntityExtractor(Lists.newArrayList("Jira"), true);
+        assertEquals(ImmutableList.of(new EntitySpan(0, 4)),
+                     underTest.extractEntities("jIRA is down"));
+    }
+
+    @Test
+    public void testExtractEntities_wholeWords() {
+        GazetteerEntityExtractor underTest =
+            new GazetteerEntityExtractor(Lists.newArrayList("ops"), true);
+        assertTrue(underTest.extractEntities("oops devops opsy").isEmpty());
+        assertEquals(ImmutableList.of(new EntitySpan(4, 7), new EntitySpan(10, 13)),
+                     underTest.extractEntities("ask ops, (ops) team"));
+    }
+
+    @Test
+    public void testExtractEntities_overlaps() {
+        GazetteerEntityExtractor underTest = new GazetteerEntityExtractor(
+            Lists.newArrayList("new york", "york", "new york times", "times square"), true);
+        assertEquals(ImmutableList.of(new EntitySpan(0, 14)),
+                     underTest.extractEntities("new york times square"));
+        assertEquals(ImmutableList.of(new EntitySpan(4, 8), new EntitySpan(9, 21)),
+                     underTest.extractEntities("old york times square"));
+    }
+
+    @Test
+    public void testExtractEntities_multipleOccurrences() {
+        GazetteerEntityExtractor underTest =
+            new GazetteerEntityExtractor(Lists.newArrayList("he", "she", "hers"), false);
+        assertEquals(ImmutableList.of(new EntitySpan(0, 3), new EntitySpan(4, 8),
+                                      new EntitySpan(9, 11)),
+                     underTest.extractEntities("she hers he"));
+    }
+
+    @Test
+    public void testExtractEntities_emptyDictionary() {
+        GazetteerEntityExtractor underTest =
+            new GazetteerEntityExtractor(Lists.newArrayList("", "  "), true);
+        assertEquals(1, underTest.getNumStates());
+        assertTrue(underTest.extractEntities("anything goes").isEmpty());
+        assertTrue(underTest.extractEntities("").isEmpty());
+    }
+}
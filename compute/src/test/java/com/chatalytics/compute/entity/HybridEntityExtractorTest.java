@@ -0,0 +1,62 @@
+package com.chatalytics.compute.entity;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link HybridEntityExtractor}
+ *
+ * @author giannis
+ */
+public class HybridEntityExtractorTest {
+
+    private IEntityExtractor primary;
+    private IEntityExtractor fallback;
+
+    @Before
+    public void setUp() {
+        primary = mock(IEntityExtractor.class);
+        fallback = mock(IEntityExtractor.class);
+    }
+
+    @Test
+    public void testExtractEntities_primaryMatches() {
+        List<EntitySpan> spans = ImmutableList.of(new EntitySpan(0, 4));
+        when(primary.extractEntities("Jira is down")).thenReturn(spans);
+        HybridEntityExtractor underTest =
+            new HybridEntityExtractor(primary, fallback, text -> true);
+        assertEquals(spans, underTest.extractEntities("Jira is down"));
+        verify(fallback, never()).extractEntities(anyString());
+    }
+
+    @Test
+    public void testExtractEntities_fallback() {
+        List<EntitySpan> spans = ImmutableList.of(new EntitySpan(0, 8));
+        when(primary.extractEntities(anyString())).thenReturn(ImmutableList.of());
+        when(fallback.extractEntities("Jane Doe")).thenReturn(spans);
+        HybridEntityExtractor underTest =
+            new HybridEntityExtractor(primary, fallback, text -> true);
+        assertEquals(spans, underTest.extractEntities("Jane Doe"));
+    }
+
+    @Test
+    public void testExtractEntities_fallbackFiltered() {
+        when(primary.extractEntities(anyString())).thenReturn(ImmutableList.of());
+        HybridEntityExtractor underTest =
+            new HybridEntityExtractor(primary, fallback, text -> false);
+        assertTrue(underTest.extractEntities("sounds good").isEmpty());
+        verify(fallback, never()).extractEntities(anyString());
+    }
+}
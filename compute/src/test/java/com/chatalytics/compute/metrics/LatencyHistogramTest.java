@@ -0,0 +1,66 @@
+package com.chatalytics.compute.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link LatencyHistogram}
+ *
+ * @author giannis
+ */
+public class LatencyHistogramTest {
+
+    private LatencyHistogram underTest;
+
+    @Before
+    public void setUp() {
+        underTest = new LatencyHistogram(60);
+    }
+
+    /**
+     * Makes sure that the quantiles, the count and the sum of the recorded latencies are reported
+     */
+    @Test
+    public void testRecord() {
+        for (int i = 1; i <= 100; i++) {
+            underTest.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        underTest.record(-1);
+
+        Histogram snapshot = underTest.getSnapshot();
+        assertEquals(101, snapshot.getTotalCount());
+        assertEquals(50, TimeUnit.NANOSECONDS.toMillis(snapshot.getValueAtPercentile(50)));
+        assertEquals(101, underTest.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5050), underTest.getSumNanos());
+    }
+
+    /**
+     * Makes sure that the storm metric doesn't lose the window when it's reported and that the
+     * runnable is timed even if it fails
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetValueAndReset() {
+        try {
+            underTest.time(() -> {
+                throw new IllegalStateException("test");
+            });
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        underTest.record(TimeUnit.MILLISECONDS.toNanos(10));
+
+        Map<String, Object> values = (Map<String, Object>) underTest.getValueAndReset();
+        assertEquals(2L, values.get("count"));
+        assertEquals(10.0, (double) values.get("max_ms"), 0.1);
+        values = (Map<String, Object>) underTest.getValueAndReset();
+        assertEquals(2L, values.get("count"));
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.chatalytics.compute.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link MetricsRegistry}
+ *
+ * @author giannis
+ */
+public class MetricsRegistryTest {
+
+    private MetricsRegistry underTest;
+
+    @Before
+    public void setUp() {
+        underTest = new MetricsRegistry();
+    }
+
+    /**
+     * Makes sure that every kind of metric is written out in the Prometheus text format, with a
+     * single type line per metric name
+     */
+    @Test
+    public void testToText() {
+        Counter counter = new Counter();
+        counter.add(5);
+        underTest.registerCounter("tuples_total", "bolt", 1, counter);
+        underTest.registerCounter("tuples_total", "bolt", 2, new Counter());
+        underTest.registerGauge("spout_buffer_depth", "spout", 3, () -> 7);
+        LatencyHistogram histogram = new LatencyHistogram(60);
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(2));
+        underTest.registerHistogram("execute_latency_seconds", "bolt", 1, histogram);
+
+        String text = underTest.toText();
+        assertEquals(1, countOccurrences(text, "# TYPE chatalytics_tuples_total counter\n"));
+        assertTrue(text.contains("chatalytics_tuples_total{component=\"bolt\",task=\"1\"} 5\n"));
+        assertTrue(text.contains("chatalytics_tuples_total{component=\"bolt\",task=\"2\"} 0\n"));
+        assertTrue(text.contains("# TYPE chatalytics_spout_buffer_depth gauge\n"));
+        assertTrue(text.contains(
+            "chatalytics_spout_buffer_depth{component=\"spout\",task=\"3\"} 7\n"));
+        assertTrue(text.contains("# TYPE chatalytics_execute_latency_seconds summary\n"));
+        assertTrue(text.contains(
+            "chatalytics_execute_latency_seconds{component=\"bolt\",task=\"1\","
+                + "quantile=\"0.99\"} 0.002"));
+        assertTrue(text.contains(
+            "chatalytics_execute_latency_seconds_count{component=\"bolt\",task=\"1\"} 1\n"));
+        assertTrue(text.contains(
+            "chatalytics_execute_latency_seconds_sum{component=\"bolt\",task=\"1\"} 0.002\n"));
+    }
+
+    /**
+     * Makes sure that label values are escaped
+     */
+    @Test
+    public void testToText_escaped() {
+        underTest.registerGauge("gauge", "a\"b\\c", 1, () -> 1);
+        assertTrue(underTest.toText().contains("{component=\"a\\\"b\\\\c\",task=\"1\"}"));
+    }
+
+    /**
+     * Makes sure that unregistering a task only removes its own metrics
+     */
+    @Test
+    public void testUnregister() {
+        underTest.registerCounter("tuples_total", "bolt", 1, new Counter());
+        underTest.registerGauge("depth", "bolt", 1, () -> 1);
+        underTest.registerCounter("tuples_total", "bolt", 2, new Counter());
+
+        underTest.unregister("bolt", 1);
+        String text = underTest.toText();
+        assertFalse(text.contains("task=\"1\""));
+        assertFalse(text.contains("depth"));
+        assertTrue(text.contains("chatalytics_tuples_total{component=\"bolt\",task=\"2\"} 0\n"));
+    }
+
+    private static int countOccurrences(String text, String substring) {
+        int count = 0;
+        int index = text.indexOf(substring);
+        while (index >= 0) {
+            count++;
+            index = text.indexOf(substring, index + 1);
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.chatalytics.compute.storm;
+
+import com.chatalytics.compute.storm.bolt.EmojiCounterBolt;
+import com.chatalytics.compute.storm.bolt.EntityExtractionBolt;
+import com.chatalytics.compute.storm.bolt.MessageAnalysisBolt;
+import com.chatalytics.compute.storm.bolt.MessageSummaryBolt;
+import com.chatalytics.compute.storm.bolt.RealtimeBolt;
+import com.chatalytics.compute.storm.spout.LocalTestSpout;
+import com.chatalytics.core.InputSourceType;
+import com.chatalytics.core.MessageGrouping;
+import com.chatalytics.core.config.TopologyConfig;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.storm.generated.ComponentCommon;
+import org.apache.storm.generated.Grouping;
+import org.apache.storm.generated.StormTopology;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ChatAlyticsStormTopology}
+ *
+ * @author giannis
+ */
+public class ChatAlyticsStormTopologyTest {
+
+    @Test
+    public void testGet() {
+        StormTopology topology = new ChatAlyticsStormTopology(InputSourceType.LOCAL_TEST).get();
+        assertEquals(ImmutableSet.of(LocalTestSpout.SPOUT_ID), topology.get_spouts().keySet());
+        assertEquals(ImmutableSet.of(EntityExtractionBolt.BOLT_ID,
+                                     EmojiCounterBolt.BOLT_ID,
+                                     MessageSummaryBolt.BOLT_ID,
+                                     RealtimeBolt.BOLT_ID),
+                     topology.get_bolts().keySet());
+    }
+
+    @Test
+    public void testGet_fused() {
+        StormTopology topology =
+            new ChatAlyticsStormTopology(InputSourceType.LOCAL_TEST, true).get();
+        assertEquals(ImmutableSet.of(MessageAnalysisBolt.BOLT_ID, RealtimeBolt.BOLT_ID),
+                     topology.get_bolts().keySet());
+        assertEquals(3, topology.get_bolts().get(RealtimeBolt.BOLT_ID).get_common()
+                                .get_inputs_size());
+    }
+
+    /**
+     * Makes sure that the parallelism, the number of tasks and the grouping of the analysis bolts
+     * come from the topology config
+     */
+    @Test
+    public void testGet_topologyConfig() {
+        TopologyConfig topologyConfig = new TopologyConfig();
+        topologyConfig.parallelism = ImmutableMap.of(EntityExtractionBolt.BOLT_ID, 4,
+                                                     LocalTestSpout.SPOUT_ID, 2);
+        topologyConfig.numTasks = ImmutableMap.of(EntityExtractionBolt.BOLT_ID, 8);
+        topologyConfig.analysisGrouping = MessageGrouping.ROOM;
+        topologyConfig.aggregationBucketSecs = 60;
+        StormTopology topology =
+            new ChatAlyticsStormTopology(InputSourceType.LOCAL_TEST, false, topologyConfig).get();
+
+        assertEquals(2, topology.get_spouts().get(LocalTestSpout.SPOUT_ID).get_common()
+                                .get_parallelism_hint());
+        ComponentCommon entityBolt = topology.get_bolts().get(EntityExtractionBolt.BOLT_ID)
+                                             .get_common();
+        assertEquals(4, entityBolt.get_parallelism_hint());
+        assertTrue(entityBolt.get_json_conf().contains("\"topology.tasks\":8"));
+        ComponentCommon emojiBolt = topology.get_bolts().get(EmojiCounterBolt.BOLT_ID)
+                                            .get_common();
+        assertEquals(1, emojiBolt.get_parallelism_hint());
+        assertTrue(emojiBolt.get_json_conf().contains("\"topology.tick.tuple.freq.secs\":"
+                                                      + topologyConfig.aggregationFlushSecs));
+
+        Grouping entityGrouping = entityBolt.get_inputs().values().iterator().next();
+        assertTrue(entityGrouping.is_set_custom_serialized());
+        Grouping realtimeGrouping = topology.get_bolts().get(RealtimeBolt.BOLT_ID).get_common()
+                                            .get_inputs().values().iterator().next();
+        assertTrue(realtimeGrouping.is_set_shuffle());
+    }
+}
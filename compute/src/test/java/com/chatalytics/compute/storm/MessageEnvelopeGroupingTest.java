@@ -0,0 +1,83 @@
+package com.chatalytics.compute.storm;
+
+import com.chatalytics.core.MessageGrouping;
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.chatalytics.core.model.data.MessageType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+
+import org.apache.storm.generated.GlobalStreamId;
+import org.apache.storm.task.WorkerTopologyContext;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests {@link MessageEnvelopeGrouping}
+ *
+ * @author giannis
+ */
+public class MessageEnvelopeGroupingTest {
+
+    private static final List<Integer> TASKS = ImmutableList.of(3, 5, 7, 9);
+
+    private MessageEnvelopeGrouping underTest;
+
+    /**
+     * Makes sure that all the messages of a room go to the same task and that rooms are spread over
+     * all the tasks
+     */
+    @Test
+    public void testChooseTasks_room() {
+        underTest = prepare(MessageGrouping.ROOM);
+        Set<Integer> chosenTasks = Sets.newHashSet();
+        for (int room = 0; room < 100; room++) {
+            List<Integer> tasks = chooseTasks(envelope("r" + room, "u1"));
+            assertEquals(1, tasks.size());
+            assertEquals(tasks, chooseTasks(envelope("r" + room, "u2")));
+            chosenTasks.addAll(tasks);
+        }
+        assertEquals(Sets.newHashSet(TASKS), chosenTasks);
+    }
+
+    /**
+     * Makes sure that all the messages of a user go to the same task, no matter the room
+     */
+    @Test
+    public void testChooseTasks_user() {
+        underTest = prepare(MessageGrouping.USER);
+        for (int user = 0; user < 100; user++) {
+            List<Integer> tasks = chooseTasks(envelope("r1", "u" + user));
+            assertTrue(TASKS.containsAll(tasks));
+            assertEquals(tasks, chooseTasks(envelope("r2", "u" + user)));
+        }
+        assertEquals(1, chooseTasks(envelope("r1", null)).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_shuffle() {
+        new MessageEnvelopeGrouping(MessageGrouping.SHUFFLE);
+    }
+
+    private MessageEnvelopeGrouping prepare(MessageGrouping grouping) {
+        MessageEnvelopeGrouping envelopeGrouping = new MessageEnvelopeGrouping(grouping);
+        envelopeGrouping.prepare(mock(WorkerTopologyContext.class),
+                                 new GlobalStreamId("spout", "default"), TASKS);
+        return envelopeGrouping;
+    }
+
+    private List<Integer> chooseTasks(MessageEnvelope envelope) {
+        return underTest.chooseTasks(1, ImmutableList.of(envelope));
+    }
+
+    private static MessageEnvelope envelope(String roomId, String userId) {
+        return new MessageEnvelope(DateTime.now(), MessageType.MESSAGE, "text", userId, "user",
+                                   false, roomId, "room");
+    }
+}
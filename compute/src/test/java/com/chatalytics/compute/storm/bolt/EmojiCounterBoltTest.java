@@ -1,10 +1,11 @@
 package com.chatalytics.compute.storm.bolt;
 
 import com.chatalytics.compute.config.ConfigurationConstants;
+import com.chatalytics.compute.metrics.ComponentMetrics;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.chatalytics.core.model.data.EmojiEntity;
-import com.chatalytics.core.model.data.FatMessage;
 import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageEnvelope;
 import com.chatalytics.core.model.data.MessageType;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
@@ -12,6 +13,8 @@ import com.chatalytics.core.util.YamlUtils;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import org.apache.storm.Constants;
+import org.apache.storm.metric.api.IMetric;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
@@ -32,7 +35,9 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -66,8 +71,8 @@ public class EmojiCounterBoltTest {
         Message message = new Message(mentionTime, "randomFrom", "randomUserId",
                                       String.format("test message with :%s:", emoji),
                                       "randomRoomId", MessageType.MESSAGE);
-        FatMessage fatMessage = new FatMessage(message, user, room);
-        List<Object> values = Lists.newArrayList(fatMessage);
+        MessageEnvelope envelope = MessageEnvelope.of(message, user, room);
+        List<Object> values = Lists.newArrayList(envelope);
 
         TopologyContext context = mock(TopologyContext.class);
         Fields fields = mock(Fields.class);
@@ -85,6 +90,64 @@ public class EmojiCounterBoltTest {
         underTest.prepare(stormConf, context, collector);
         underTest.execute(input);
         verify(collector).emit(any(Values.class));
+        verify(collector).ack(input);
+        assertEquals(0, underTest.getPendingBuckets());
+    }
+
+    /**
+     * Makes sure that tick tuples are ignored when the emoji counts aren't aggregated
+     */
+    @Test
+    public void testExecute_tickWithoutAggregation() {
+        Tuple tick = mock(Tuple.class);
+        when(tick.getSourceComponent()).thenReturn(Constants.SYSTEM_COMPONENT_ID);
+        when(tick.getSourceStreamId()).thenReturn(Constants.SYSTEM_TICK_STREAM_ID);
+
+        ChatAlyticsConfig config = new ChatAlyticsConfig();
+        config.persistenceUnitName = "chatalytics-db-test";
+        Map<Object, Object> stormConf = Maps.newHashMapWithExpectedSize(1);
+        stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
+        OutputCollector collector = mock(OutputCollector.class);
+
+        underTest.prepare(stormConf, mock(TopologyContext.class), collector);
+        underTest.execute(tick);
+        verifyZeroInteractions(collector);
+    }
+
+    /**
+     * Makes sure that emoji counts are only persisted on tick tuples once their bucket is over
+     */
+    @Test
+    public void testExecute_tick() {
+        Message message = new Message(mentionTime.minusHours(1), "randomFrom", "randomUserId",
+                                      String.format(":%s: :%s:", emoji, emoji), "randomRoomId",
+                                      MessageType.MESSAGE);
+        MessageEnvelope envelope = MessageEnvelope.of(message, user, room);
+        Tuple input = mock(Tuple.class);
+        when(input.getValue(0)).thenReturn(envelope);
+        when(input.getSourceComponent()).thenReturn("spout");
+        when(input.getSourceStreamId()).thenReturn("default");
+        Tuple tick = mock(Tuple.class);
+        when(tick.getSourceComponent()).thenReturn(Constants.SYSTEM_COMPONENT_ID);
+        when(tick.getSourceStreamId()).thenReturn(Constants.SYSTEM_TICK_STREAM_ID);
+
+        ChatAlyticsConfig config = new ChatAlyticsConfig();
+        config.persistenceUnitName = "chatalytics-db-test";
+        config.computeConfig.topologyConfig.aggregationBucketSecs = 60;
+        Map<Object, Object> stormConf = Maps.newHashMapWithExpectedSize(1);
+        stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
+        OutputCollector collector = mock(OutputCollector.class);
+
+        underTest.prepare(stormConf, mock(TopologyContext.class), collector);
+        underTest.execute(input);
+        underTest.execute(input);
+        assertEquals(1, underTest.getPendingBuckets());
+        verify(collector, times(2)).emit(any(Values.class));
+        verify(collector, times(2)).ack(input);
+
+        underTest.execute(tick);
+        assertEquals(0, underTest.getPendingBuckets());
+        verify(collector, times(2)).emit(any(Values.class));
     }
 
     @Test
@@ -93,9 +156,9 @@ public class EmojiCounterBoltTest {
                                       String.format("test message with :%s:", emoji),
                                       "randomRoomId", MessageType.MESSAGE);
 
-        FatMessage fatMessage = new FatMessage(message, user, room);
+        MessageEnvelope envelope = MessageEnvelope.of(message, user, room);
 
-        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(fatMessage);
+        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(envelope);
 
         assertEquals(1, emojis.size());
         EmojiEntity firstEmoji = emojis.get(0);
@@ -112,9 +175,9 @@ public class EmojiCounterBoltTest {
                                       String.format("test message with :%s:", emoji),
                                       "randomRoomId", MessageType.MESSAGE);
 
-        FatMessage fatMessage = new FatMessage(message, user, null);
+        MessageEnvelope envelope = MessageEnvelope.of(message, user, null);
 
-        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(fatMessage);
+        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(envelope);
 
         assertEquals(1, emojis.size());
         EmojiEntity firstEmoji = emojis.get(0);
@@ -129,8 +192,8 @@ public class EmojiCounterBoltTest {
     public void testGetEmojisFromMessage_nullMessage() {
         Message message = new Message(mentionTime, "randomFrom", "randomUserId", null,
                                       "randomRoomId", MessageType.MESSAGE);
-        FatMessage fatMessage = new FatMessage(message, user, room);
-        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(fatMessage);
+        MessageEnvelope envelope = MessageEnvelope.of(message, user, room);
+        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(envelope);
         assertTrue(emojis.isEmpty());
     }
 
@@ -145,9 +208,9 @@ public class EmojiCounterBoltTest {
                                                     emoji, emoji, emoji),
                                       "randomRoomId", MessageType.MESSAGE);
 
-        FatMessage fatMessage = new FatMessage(message, user, room);
+        MessageEnvelope envelope = MessageEnvelope.of(message, user, room);
 
-        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(fatMessage);
+        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(envelope);
 
         assertEquals(1, emojis.size());
         EmojiEntity firstEmoji = emojis.get(0);
@@ -165,9 +228,9 @@ public class EmojiCounterBoltTest {
                                           + "test :%s:", emoji, emoji, emoji),
                                       "randomRoomId", MessageType.MESSAGE);
 
-        FatMessage fatMessage = new FatMessage(message, user, room);
+        MessageEnvelope envelope = MessageEnvelope.of(message, user, room);
 
-        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(fatMessage);
+        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(envelope);
 
         assertEquals(1, emojis.size());
         EmojiEntity firstEmoji = emojis.get(0);
@@ -184,9 +247,9 @@ public class EmojiCounterBoltTest {
                                       String.format("::%s: test :%s:", emoji, emoji),
                                       "randomRoomId", MessageType.MESSAGE);
 
-        FatMessage fatMessage = new FatMessage(message, user, room);
+        MessageEnvelope envelope = MessageEnvelope.of(message, user, room);
 
-        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(fatMessage);
+        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(envelope);
 
         assertEquals(1, emojis.size());
         EmojiEntity firstEmoji = emojis.get(0);
@@ -203,9 +266,9 @@ public class EmojiCounterBoltTest {
                                       "{'test':true,'value':'hello'}",
                                       "randomRoomId", MessageType.MESSAGE);
 
-        FatMessage fatMessage = new FatMessage(message, user, room);
+        MessageEnvelope envelope = MessageEnvelope.of(message, user, room);
 
-        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(fatMessage);
+        List<EmojiEntity> emojis = underTest.getEmojisFromMessage(envelope);
 
         assertEquals(0, emojis.size());
     }
@@ -229,7 +292,8 @@ public class EmojiCounterBoltTest {
         OutputCollector collector = mock(OutputCollector.class);
 
         underTest.prepare(stormConf, context, collector);
-        verifyZeroInteractions(context);
+        verify(context).registerMetric(eq("execute-latency-seconds"), any(IMetric.class),
+                                       eq(ComponentMetrics.METRICS_INTERVAL_SECS));
         verifyZeroInteractions(collector);
     }
 
@@ -3,8 +3,8 @@ package com.chatalytics.compute.storm.bolt;
 import com.chatalytics.compute.config.ConfigurationConstants;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.chatalytics.core.model.data.ChatEntity;
-import com.chatalytics.core.model.data.FatMessage;
 import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageEnvelope;
 import com.chatalytics.core.model.data.MessageType;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
@@ -83,8 +83,8 @@ public class EntityExtractionBoltTest {
         Message msg = new Message(DateTime.now(), "jane", "u1",
                                   String.format("Today, %s is going to climb %s", ent1, ent2),
                                   "r1", MessageType.MESSAGE);
-        FatMessage fatMessage = new FatMessage(msg, user, room);
-        List<Object> values = Lists.newArrayList(fatMessage);
+        MessageEnvelope envelope = MessageEnvelope.of(msg, user, room);
+        List<Object> values = Lists.newArrayList(envelope);
         Tuple input = new TupleImpl(context, values, 0, "stream-id");
 
         underTest.execute(input);
@@ -106,8 +106,8 @@ public class EntityExtractionBoltTest {
         Message msg = new Message(date, mentionName, userId,
                                   String.format("Today, %s is going to climb %s", ent1, ent2),
                                   roomId, MessageType.MESSAGE);
-        FatMessage fatMessage = new FatMessage(msg, user, room);
-        List<ChatEntity> entities = underTest.extractEntities(fatMessage);
+        MessageEnvelope envelope = MessageEnvelope.of(msg, user, room);
+        List<ChatEntity> entities = underTest.extractEntities(envelope);
         Map<String, ChatEntity> entitiesMap = Maps.newHashMapWithExpectedSize(entities.size());
         entities.forEach((entity) -> entitiesMap.put(entity.getValue(), entity));
         assertEquals(2, entities.size());
@@ -131,8 +131,8 @@ public class EntityExtractionBoltTest {
         when(mockUser.getMentionName()).thenReturn("jane");
         Room mockRoom = mock(Room.class);
         when(mockRoom.getName()).thenReturn("theroom");
-        FatMessage fatMessage = new FatMessage(msg, mockUser, mockRoom);
-        List<ChatEntity> result = underTest.extractEntities(fatMessage);
+        MessageEnvelope envelope = MessageEnvelope.of(msg, mockUser, mockRoom);
+        List<ChatEntity> result = underTest.extractEntities(envelope);
         assertTrue(result.isEmpty());
     }
 
@@ -145,8 +145,8 @@ public class EntityExtractionBoltTest {
         Message msg = new Message(DateTime.now(), mentionName, userId,
                                   String.format("Today, I'm going to climb %s and %s", ent, ent),
                                   roomId, MessageType.MESSAGE);
-        FatMessage fatMessage = new FatMessage(msg, user, room);
-        List<ChatEntity> entities = underTest.extractEntities(fatMessage);
+        MessageEnvelope envelope = MessageEnvelope.of(msg, user, room);
+        List<ChatEntity> entities = underTest.extractEntities(envelope);
         assertEquals(1, entities.size());
         assertEquals(2, entities.get(0).getOccurrences());
     }
@@ -160,12 +160,57 @@ public class EntityExtractionBoltTest {
         Message msg = new Message(DateTime.now(), mentionName, userId,
                                   String.format("Today, I'm going to climb %s", ent),
                                   roomId, MessageType.MESSAGE);
-        FatMessage fatMessage = new FatMessage(msg, user, null);
-        List<ChatEntity> entities = underTest.extractEntities(fatMessage);
+        MessageEnvelope envelope = MessageEnvelope.of(msg, user, null);
+        List<ChatEntity> entities = underTest.extractEntities(envelope);
         assertEquals(1, entities.size());
         assertNull(entities.get(0).getRoomName());
     }
 
+    /**
+     * Makes sure that messages that can't contain entities never reach the classifier
+     */
+    @Test
+    public void testExtractEntities_preFiltered() {
+        Message msg = new Message(DateTime.now(), "jane", "1", "ok thanks :thumbsup:", "100",
+                                  MessageType.MESSAGE);
+        MessageEnvelope envelope = MessageEnvelope.of(msg, user, room);
+        List<ChatEntity> entities = underTest.extractEntities(envelope);
+        assertTrue(entities.isEmpty());
+        assertEquals(1, underTest.getSkippedMessages());
+    }
+
+    /**
+     * Makes sure that repeated messages are served from the cache but still get the user, room and
+     * time of the message they came from
+     */
+    @Test
+    public void testExtractEntities_cached() {
+        String text = "Today, Jane Doe is going to climb Mount Everest";
+        DateTime date1 = DateTime.now().withZone(DateTimeZone.UTC);
+        Message msg = new Message(date1, "jane", "1", text, "100", MessageType.MESSAGE);
+        List<ChatEntity> entities = underTest.extractEntities(MessageEnvelope.of(msg, user, room));
+        assertEquals(2, entities.size());
+
+        User otherUser = new User("otherUserId", "email", false, false, false, null,
+                                  "otherUserName", null, null, null, null, null, null, null);
+        Room otherRoom = new Room("otherRoomId", "otherRoomName", null, null, null, null, false,
+                                  false, null, null);
+        DateTime date2 = date1.plusMinutes(1);
+        msg = new Message(date2, "other", "2", text, "200", MessageType.MESSAGE);
+        entities = underTest.extractEntities(MessageEnvelope.of(msg, otherUser, otherRoom));
+        assertEquals(2, entities.size());
+        for (ChatEntity entity : entities) {
+            assertEquals("otherUserName", entity.getUsername());
+            assertEquals("otherRoomName", entity.getRoomName());
+            assertEquals(date2, entity.getMentionTime());
+        }
+
+        Map<String, Object> cacheMetrics = underTest.getCacheMetrics();
+        assertEquals(1L, cacheMetrics.get("hits"));
+        assertEquals(1L, cacheMetrics.get("misses"));
+        assertEquals(0L, underTest.getCacheMetrics().get("hits"));
+    }
+
     @After
     public void tearDown() throws Exception {
         underTest.cleanup();
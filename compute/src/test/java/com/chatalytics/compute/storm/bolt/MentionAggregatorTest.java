@@ -0,0 +1,128 @@
+package com.chatalytics.compute.storm.bolt;
+
+import com.chatalytics.compute.db.dao.IChatAlyticsDAO;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link MentionAggregator}
+ *
+ * @author giannis
+ */
+public class MentionAggregatorTest {
+
+    private static final long BUCKET_MILLIS = 60000;
+
+    private MentionAggregator<EmojiEntity> underTest;
+    private DateTime bucketStart;
+
+    @Before
+    public void setUp() {
+        underTest = new MentionAggregator<>(BUCKET_MILLIS,
+            (emoji, start, occurrences) -> new EmojiEntity(emoji.getUsername(),
+                                                           emoji.getRoomName(), start,
+                                                           emoji.getValue(), occurrences,
+                                                           emoji.isBot()));
+        bucketStart = new DateTime(2016, 5, 1, 10, 30, DateTimeZone.UTC);
+    }
+
+    /**
+     * Makes sure that occurrences of the same user, room and value are summed up per bucket and
+     * dated with the start of the bucket
+     */
+    @Test
+    public void testFlushClosed() {
+        underTest.add(emoji("u1", "smile", bucketStart.plusSeconds(1), 2));
+        underTest.add(emoji("u1", "smile", bucketStart.plusSeconds(59), 3));
+        underTest.add(emoji("u2", "smile", bucketStart.plusSeconds(10), 1));
+        underTest.add(emoji("u1", "smile", bucketStart.plusSeconds(60), 1));
+        assertEquals(3, underTest.size());
+
+        // the first bucket is still open
+        assertTrue(underTest.flushClosed(bucketStart.getMillis() + BUCKET_MILLIS - 1).isEmpty());
+
+        List<EmojiEntity> flushed = underTest.flushClosed(bucketStart.getMillis() + BUCKET_MILLIS);
+        assertEquals(2, flushed.size());
+        assertTrue(flushed.contains(emoji("u1", "smile", bucketStart, 5)));
+        assertTrue(flushed.contains(emoji("u2", "smile", bucketStart, 1)));
+        assertEquals(1, underTest.size());
+
+        // late values of a flushed bucket go in the next flush
+        underTest.add(emoji("u1", "smile", bucketStart.plusSeconds(30), 4));
+        flushed = underTest.flushClosed(bucketStart.getMillis() + BUCKET_MILLIS);
+        assertEquals(1, flushed.size());
+        assertEquals(emoji("u1", "smile", bucketStart, 4), flushed.get(0));
+    }
+
+    @Test
+    public void testFlushAll() {
+        underTest.add(emoji("u1", "smile", bucketStart, 1));
+        underTest.add(emoji("u1", "smile", null, 1));
+        underTest.add(emoji("u1", "smile", null, 1));
+        List<EmojiEntity> flushed = underTest.flushAll();
+        assertEquals(2, flushed.size());
+        assertTrue(flushed.contains(emoji("u1", "smile", null, 2)));
+        assertEquals(0, underTest.size());
+    }
+
+    /**
+     * Makes sure that buckets are only removed once they're persisted, and that buckets that
+     * couldn't be persisted are kept for the next flush along with anything added to them later
+     */
+    @Test
+    public void testFlushClosed_failedWrite() {
+        IChatAlyticsDAO dao = mock(IChatAlyticsDAO.class);
+        when(dao.persistAll(anyListOf(EmojiEntity.class)))
+            .thenAnswer(invocation -> invocation.getArguments()[0]);
+        underTest.add(emoji("u1", "smile", bucketStart.plusSeconds(1), 2));
+        underTest.add(emoji("u2", "smile", bucketStart.plusSeconds(1), 1));
+        long nowMillis = bucketStart.getMillis() + BUCKET_MILLIS;
+
+        assertEquals(2, underTest.flushClosed(nowMillis, dao::persistAll));
+        assertEquals(2, underTest.size());
+
+        underTest.add(emoji("u1", "smile", bucketStart.plusSeconds(2), 3));
+        reset(dao);
+        List<EmojiEntity> written = Lists.newArrayList();
+        when(dao.persistAll(anyListOf(EmojiEntity.class))).thenAnswer(invocation -> {
+            List<?> values = (List<?>) invocation.getArguments()[0];
+            values.forEach(value -> written.add((EmojiEntity) value));
+            return values.stream()
+                         .filter(value -> "u2".equals(((EmojiEntity) value).getUsername()))
+                         .collect(Collectors.toList());
+        });
+        assertEquals(1, underTest.flushClosed(nowMillis, dao::persistAll));
+        assertEquals(2, written.size());
+        assertTrue(written.contains(emoji("u1", "smile", bucketStart, 5)));
+        assertTrue(written.contains(emoji("u2", "smile", bucketStart, 1)));
+        assertEquals(1, underTest.size());
+
+        List<EmojiEntity> flushed = underTest.flushAll();
+        assertEquals(Lists.newArrayList(emoji("u2", "smile", bucketStart, 1)), flushed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_noBucketSize() {
+        new MentionAggregator<EmojiEntity>(0, (emoji, start, occurrences) -> emoji);
+    }
+
+    private static EmojiEntity emoji(String username, String value, DateTime mentionTime,
+                                     int occurrences) {
+        return new EmojiEntity(username, "room", mentionTime, value, occurrences, false);
+    }
+}
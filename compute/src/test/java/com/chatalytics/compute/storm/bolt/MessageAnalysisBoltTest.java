@@ -0,0 +1,226 @@
+package com.chatalytics.compute.storm.bolt;
+
+import com.chatalytics.compute.config.ConfigurationConstants;
+import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
+import com.chatalytics.compute.db.dao.IChatAlyticsDAO;
+import com.chatalytics.compute.db.dao.IEmojiDAO;
+import com.chatalytics.compute.db.dao.IEntityDAO;
+import com.chatalytics.compute.metrics.Counter;
+import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.IMentionable;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.chatalytics.core.util.YamlUtils;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.apache.storm.metric.api.IMetric;
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.topology.OutputFieldsDeclarer;
+import org.apache.storm.tuple.Fields;
+import org.apache.storm.tuple.Tuple;
+import org.apache.storm.tuple.TupleImpl;
+import org.apache.storm.tuple.Values;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link MessageAnalysisBolt}
+ *
+ * @author giannis
+ */
+public class MessageAnalysisBoltTest {
+
+    private MessageAnalysisBolt underTest;
+    private ChatAlyticsConfig config;
+    private TopologyContext context;
+    private OutputCollector collector;
+    private User user;
+    private Room room;
+
+    @Before
+    public void setUp() {
+        underTest = new MessageAnalysisBolt();
+
+        config = new ChatAlyticsConfig();
+        config.computeConfig.apiRetries = 0;
+        config.persistenceUnitName = "chatalytics-db-test";
+        Map<Object, Object> stormConf = Maps.newHashMapWithExpectedSize(1);
+        stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
+
+        collector = mock(OutputCollector.class);
+        context = mock(TopologyContext.class);
+        Fields fields = mock(Fields.class);
+        when(fields.size()).thenReturn(1);
+        when(context.getComponentOutputFields(anyString(), anyString())).thenReturn(fields);
+        underTest.prepare(stormConf, context, collector);
+
+        user = new User("analysisUserId", "email", false, false, false, null, "analysisUser", null,
+                        null, null, null, null, null, null);
+        room = new Room("analysisRoomId", "analysisRoom", null, null, null, null, false, false,
+                        null, null);
+    }
+
+    /**
+     * Makes sure that all the results of a message are emitted on their own stream and persisted
+     */
+    @Test
+    public void testExecute() {
+        DateTime date = DateTime.now().withZone(DateTimeZone.UTC);
+        Message msg = new Message(date, "analysisUser", "analysisUserId",
+                                  "Today, Jane Doe is going to climb Mount Everest :mountain:",
+                                  "analysisRoomId", MessageType.MESSAGE);
+        List<Object> values = Lists.newArrayList(MessageEnvelope.of(msg, user, room));
+        Tuple input = new TupleImpl(context, values, 0, "stream-id");
+
+        underTest.execute(input);
+
+        verify(collector, times(2)).emit(eq(MessageAnalysisBolt.CHAT_ENTITY_STREAM_ID),
+                                         any(Values.class));
+        verify(collector).emit(eq(MessageAnalysisBolt.EMOJI_ENTITY_STREAM_ID), any(Values.class));
+        verify(collector).emit(eq(MessageAnalysisBolt.MESSAGE_SUMMARY_STREAM_ID),
+                               any(Values.class));
+
+        Interval interval = new Interval(date, date.plusMillis(1));
+        List<String> usernames = ImmutableList.of("analysisUser");
+        IEntityDAO entityDao = ChatAlyticsDAOFactory.createEntityDAO(config);
+        assertEquals(2, entityDao.getAllMentions(interval, ImmutableList.of(), usernames, true)
+                                 .size());
+        IEmojiDAO emojiDao = ChatAlyticsDAOFactory.createEmojiDAO(config);
+        assertEquals(1, emojiDao.getAllMentions(interval, ImmutableList.of(), usernames, true)
+                                .size());
+    }
+
+    /**
+     * Makes sure that a message is failed when none of its results are persisted
+     */
+    @Test
+    public void testExecute_allValuesFailed() {
+        IChatAlyticsDAO dao = mockDao();
+        when(dao.persistAll(any())).thenAnswer(invocation -> invocation.getArguments()[0]);
+        MessageAnalysisBolt bolt = prepareWithDao(dao);
+        Tuple input = createInput();
+
+        bolt.execute(input);
+        verify(collector).fail(input);
+        verify(collector, never()).ack(input);
+        verify(dao).persistAll(any());
+        bolt.cleanup();
+    }
+
+    /**
+     * Makes sure that results that can't be persisted while others were are retried, and then
+     * dropped and counted instead of failing the message
+     */
+    @Test
+    public void testExecute_someValuesFailed() {
+        IChatAlyticsDAO dao = mockDao();
+        List<List<IMentionable<?>>> persisted = Lists.newArrayList();
+        when(dao.persistAll(any())).thenAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            List<IMentionable<?>> values = (List<IMentionable<?>>) invocation.getArguments()[0];
+            persisted.add(values);
+            return values.subList(values.size() - 1, values.size());
+        });
+        MessageAnalysisBolt bolt = prepareWithDao(dao);
+        Tuple input = createInput();
+
+        bolt.execute(input);
+        verify(collector).ack(input);
+        verify(collector, never()).fail(input);
+        assertEquals(2, persisted.size());
+        assertEquals(1, persisted.get(1).size());
+        assertTrue(persisted.get(1).get(0) instanceof MessageSummary);
+        ArgumentCaptor<IMetric> droppedValues = ArgumentCaptor.forClass(IMetric.class);
+        verify(context).registerMetric(eq("db-dropped-values-total"), droppedValues.capture(),
+                                       anyInt());
+        assertEquals(1, ((Counter) droppedValues.getValue()).getCount());
+        bolt.cleanup();
+    }
+
+    private IChatAlyticsDAO mockDao() {
+        IChatAlyticsDAO dao = mock(IChatAlyticsDAO.class);
+        when(dao.isRunning()).thenReturn(true);
+        when(dao.stopAsync()).thenReturn(dao);
+        return dao;
+    }
+
+    private MessageAnalysisBolt prepareWithDao(IChatAlyticsDAO dao) {
+        MessageAnalysisBolt bolt = spy(new MessageAnalysisBolt());
+        doReturn(dao).when(bolt).createDao(any(ChatAlyticsConfig.class));
+        reset(collector, context);
+        bolt.prepare(ImmutableMap.of(ConfigurationConstants.CHATALYTICS_CONFIG.txt,
+                                     YamlUtils.writeYaml(config)), context, collector);
+        return bolt;
+    }
+
+    private Tuple createInput() {
+        Message msg = new Message(DateTime.now().withZone(DateTimeZone.UTC), "analysisUser",
+                                  "analysisUserId", "Jane Doe is going to climb :mountain:",
+                                  "analysisRoomId", MessageType.MESSAGE);
+        Tuple input = mock(Tuple.class);
+        when(input.getValue(0)).thenReturn(MessageEnvelope.of(msg, user, room));
+        return input;
+    }
+
+    @Test
+    public void testToBatch() {
+        DateTime date = DateTime.now();
+        ChatEntity entity = new ChatEntity("u", "r", date, "Jane Doe", 1, false);
+        EmojiEntity emoji = new EmojiEntity("u", "r", date, "smile", 1, false);
+        MessageSummary summary = new MessageSummary("u", "r", date, MessageType.MESSAGE, 1, false);
+        List<IMentionable<?>> batch = MessageAnalysisBolt.toBatch(ImmutableList.of(entity),
+                                                                  ImmutableList.of(emoji),
+                                                                  summary);
+        assertEquals(ImmutableList.of(entity, emoji, summary), batch);
+    }
+
+    @Test
+    public void testDeclareOutputFields() {
+        OutputFieldsDeclarer fields = mock(OutputFieldsDeclarer.class);
+        underTest.declareOutputFields(fields);
+        verify(fields).declareStream(eq(MessageAnalysisBolt.CHAT_ENTITY_STREAM_ID),
+                                     any(Fields.class));
+        verify(fields).declareStream(eq(MessageAnalysisBolt.EMOJI_ENTITY_STREAM_ID),
+                                     any(Fields.class));
+        verify(fields).declareStream(eq(MessageAnalysisBolt.MESSAGE_SUMMARY_STREAM_ID),
+                                     any(Fields.class));
+    }
+
+    @After
+    public void tearDown() {
+        underTest.cleanup();
+    }
+}
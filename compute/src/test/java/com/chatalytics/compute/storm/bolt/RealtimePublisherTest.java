@@ -0,0 +1,227 @@
+package com.chatalytics.compute.storm.bolt;
+
+import com.chatalytics.compute.metrics.Counter;
+import com.chatalytics.compute.metrics.LatencyHistogram;
+import com.chatalytics.core.config.ComputeConfig;
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.realtime.ChatAlyticsEventBatchDecoder;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link RealtimePublisher}
+ *
+ * @author giannis
+ */
+public class RealtimePublisherTest {
+
+    private static final URI RT_URI = URI.create("ws://localhost:9000/rtcompute/PUBLISHER");
+
+    private RealtimePublisher underTest;
+    private ComputeConfig config;
+    private WebSocketContainer container;
+    private List<String> frames;
+    private List<SendHandler> pendingHandlers;
+    private boolean completeSends;
+    private Counter lostEvents;
+
+    @Before
+    public void setUp() {
+        lostEvents = new Counter();
+        config = new ComputeConfig();
+        config.rtPublishBatchSize = 3;
+        config.rtPublishLingerMs = 200;
+        config.rtReconnectBackoffMs = 1;
+        config.rtMaxReconnectBackoffMs = 10;
+        container = mock(WebSocketContainer.class);
+        frames = new CopyOnWriteArrayList<>();
+        pendingHandlers = new CopyOnWriteArrayList<>();
+        completeSends = true;
+    }
+
+    @After
+    public void tearDown() {
+        if (underTest != null) {
+            underTest.stop(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Makes sure that queued events are sent in frames of up to the batch size
+     */
+    @Test
+    public void testPublish() throws Exception {
+        Session session = mockSession();
+        when(container.connectToServer(any(Endpoint.class), any(ClientEndpointConfig.class),
+                                       any(URI.class))).thenReturn(session);
+        underTest = new RealtimePublisher(container, RT_URI, config, new LatencyHistogram(60),
+                                          lostEvents);
+        for (int i = 0; i < 7; i++) {
+            assertTrue(underTest.publish(createEvent("user" + i)));
+        }
+        underTest.start();
+
+        waitFor(() -> frames.size() == 3);
+        ChatAlyticsEventBatchDecoder decoder = new ChatAlyticsEventBatchDecoder();
+        List<ChatAlyticsEvent> events = Lists.newArrayList();
+        List<Integer> frameSizes = Lists.newArrayList();
+        for (String frame : frames) {
+            List<ChatAlyticsEvent> frameEvents = decoder.decode(frame).getEvents();
+            frameSizes.add(frameEvents.size());
+            events.addAll(frameEvents);
+        }
+        assertEquals(Lists.newArrayList(3, 3, 1), frameSizes);
+        for (int i = 0; i < 7; i++) {
+            assertEquals("user" + i, ((MessageSummary) events.get(i).getEvent()).getUsername());
+        }
+        assertEquals(0, underTest.getQueueDepth());
+        assertEquals(0, underTest.getFailedCount());
+    }
+
+    /**
+     * Makes sure that events are dropped instead of blocking when the queue is full
+     */
+    @Test
+    public void testPublish_queueFull() {
+        config.rtPublishQueueCapacity = 2;
+        underTest = new RealtimePublisher(container, RT_URI, config, new LatencyHistogram(60),
+                                          lostEvents);
+        assertTrue(underTest.publish(createEvent("user")));
+        assertTrue(underTest.publish(createEvent("user")));
+        assertFalse(underTest.publish(createEvent("user")));
+        assertEquals(2, underTest.getQueueDepth());
+        assertEquals(1, underTest.getDroppedCount());
+        assertEquals(1, lostEvents.getCount());
+    }
+
+    /**
+     * Makes sure that the publisher keeps trying to connect and reconnects when the session closes
+     */
+    @Test
+    public void testReconnect() throws Exception {
+        AtomicBoolean firstSessionOpen = new AtomicBoolean(true);
+        Session firstSession = mockSession(firstSessionOpen);
+        Session secondSession = mockSession();
+        when(container.connectToServer(any(Endpoint.class), any(ClientEndpointConfig.class),
+                                       any(URI.class)))
+            .thenThrow(new DeploymentException("test"))
+            .thenReturn(firstSession)
+            .thenReturn(secondSession);
+        config.rtPublishLingerMs = 0;
+        underTest = new RealtimePublisher(container, RT_URI, config, new LatencyHistogram(60),
+                                          lostEvents);
+        underTest.start();
+
+        underTest.publish(createEvent("user"));
+        waitFor(() -> frames.size() == 1);
+        verify(firstSession.getAsyncRemote()).sendText(anyString(), any(SendHandler.class));
+
+        firstSessionOpen.set(false);
+        verify(container, timeout(10000).times(3)).connectToServer(any(Endpoint.class),
+                                                                   any(ClientEndpointConfig.class),
+                                                                   any(URI.class));
+        underTest.publish(createEvent("user"));
+        waitFor(() -> frames.size() == 2);
+        verify(secondSession.getAsyncRemote()).sendText(anyString(), any(SendHandler.class));
+    }
+
+    /**
+     * Makes sure that no more than the max in flight frames are sent before they complete
+     */
+    @Test
+    public void testPublish_maxInFlight() throws Exception {
+        config.rtPublishBatchSize = 1;
+        config.rtPublishMaxInFlight = 1;
+        completeSends = false;
+        Session session = mockSession();
+        when(container.connectToServer(any(Endpoint.class), any(ClientEndpointConfig.class),
+                                       any(URI.class))).thenReturn(session);
+        underTest = new RealtimePublisher(container, RT_URI, config, new LatencyHistogram(60),
+                                          lostEvents);
+        underTest.publish(createEvent("user1"));
+        underTest.publish(createEvent("user2"));
+        underTest.start();
+
+        waitFor(() -> frames.size() == 1);
+        Thread.sleep(300);
+        assertEquals(1, frames.size());
+
+        pendingHandlers.get(0).onResult(new SendResult());
+        waitFor(() -> frames.size() == 2);
+        pendingHandlers.get(1).onResult(new SendResult(new RuntimeException("test")));
+        waitFor(() -> underTest.getFailedCount() == 1);
+        assertEquals(1, lostEvents.getCount());
+    }
+
+    private Session mockSession() {
+        return mockSession(new AtomicBoolean(true));
+    }
+
+    private Session mockSession(AtomicBoolean open) {
+        Session session = mock(Session.class);
+        Async async = mock(Async.class);
+        when(session.isOpen()).thenAnswer(invocation -> open.get());
+        when(session.getAsyncRemote()).thenReturn(async);
+        doAnswer(invocation -> {
+            frames.add((String) invocation.getArguments()[0]);
+            SendHandler handler = (SendHandler) invocation.getArguments()[1];
+            if (completeSends) {
+                handler.onResult(new SendResult());
+            } else {
+                pendingHandlers.add(handler);
+            }
+            return null;
+        }).when(async).sendText(anyString(), any(SendHandler.class));
+        return session;
+    }
+
+    private ChatAlyticsEvent createEvent(String username) {
+        MessageSummary msgSummary = new MessageSummary(username, "room",
+                                                       DateTime.now(DateTimeZone.UTC),
+                                                       MessageType.MESSAGE, 1, false);
+        return new ChatAlyticsEvent(DateTime.now(DateTimeZone.UTC), "message_summary", msgSummary);
+    }
+
+    private void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+}
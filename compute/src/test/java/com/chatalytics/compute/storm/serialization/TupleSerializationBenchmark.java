@@ -0,0 +1,125 @@
+package com.chatalytics.compute.storm.serialization;
+
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.collect.Lists;
+
+import org.apache.storm.Config;
+import org.apache.storm.serialization.KryoValuesDeserializer;
+import org.apache.storm.serialization.KryoValuesSerializer;
+import org.apache.storm.utils.Utils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares serializing the tuples the spouts and bolts emit with the serializers registered by
+ * {@link TupleSerializers} against the Java serialization fallback the topology used before. The
+ * spouts used to emit a {@link FatMessage} and now emit its {@link MessageEnvelope}. Both
+ * serializations go through the tuple serializer Storm uses between workers. The bytes per tuple
+ * are printed during the setup. Run {@link #main(String[])} from the compute test classpath, or
+ * <code>org.openjdk.jmh.Main TupleSerializationBenchmark -prof gc</code> to also see the
+ * allocations per operation.
+ *
+ * @author giannis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TupleSerializationBenchmark {
+
+    @Param({ "fatMessage", "messageEnvelope", "chatEntity" })
+    public String payload;
+
+    @Param({ "java", "kryo" })
+    public String serialization;
+
+    private List<Object> tuple;
+    private byte[] serializedTuple;
+    private KryoValuesSerializer serializer;
+    private KryoValuesDeserializer deserializer;
+
+    @Setup
+    public void setUp() throws IOException {
+        Config stormConfig = new Config();
+        if ("kryo".equals(serialization)) {
+            TupleSerializers.register(stormConfig);
+        } else {
+            stormConfig.setFallBackOnJavaSerialization(true);
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> conf = Utils.readStormConfig();
+        conf.putAll(stormConfig);
+        serializer = new KryoValuesSerializer(conf);
+        deserializer = new KryoValuesDeserializer(conf);
+
+        DateTime date = new DateTime(DateTimeZone.UTC);
+        if (!"chatEntity".equals(payload)) {
+            User user = new User("U024BE7LH", "giannis@example.com", false, false, false,
+                                 "Giannis Neokleous", "giannis", "https://example.com/giannis.png",
+                                 date, date.minusYears(1), "active", null, "America/New_York",
+                                 "Engineer");
+            Room room = new Room("C024BE91L", "general", "Company wide announcements", date,
+                                 date.minusYears(1), "U024BE7LH", false, false, null, null);
+            Message message = new Message(date, user.getName(), user.getUserId(),
+                                          "Is anyone going to the Storm meetup in New York? :+1:",
+                                          room.getRoomId(), MessageType.MESSAGE);
+            FatMessage fatMessage = new FatMessage(message, user, room);
+            if ("fatMessage".equals(payload)) {
+                tuple = Lists.newArrayList(fatMessage);
+            } else {
+                tuple = Lists.newArrayList(MessageEnvelope.of(fatMessage));
+            }
+        } else {
+            tuple = Lists.newArrayList(new ChatEntity("giannis", "general", date, "New York", 1,
+                                                      false));
+        }
+        serializedTuple = serializer.serialize(tuple);
+        System.out.printf("%n%s with %s serialization: %d bytes per tuple%n", payload,
+                          serialization, serializedTuple.length);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return serializer.serialize(tuple);
+    }
+
+    @Benchmark
+    public List<Object> deserialize() throws IOException {
+        return deserializer.deserialize(serializedTuple);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(TupleSerializationBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,147 @@
+package com.chatalytics.compute.storm.serialization;
+
+import com.chatalytics.core.model.data.ChatEntity;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageEnvelope;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.collect.Lists;
+
+import org.apache.storm.Config;
+import org.apache.storm.serialization.KryoValuesDeserializer;
+import org.apache.storm.serialization.KryoValuesSerializer;
+import org.apache.storm.utils.Utils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link TupleSerializers}
+ *
+ * @author giannis
+ */
+public class TupleSerializersTest {
+
+    private KryoValuesSerializer serializer;
+    private KryoValuesDeserializer deserializer;
+
+    @Before
+    public void setUp() {
+        Config stormConfig = new Config();
+        TupleSerializers.register(stormConfig);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> conf = Utils.readStormConfig();
+        conf.putAll(stormConfig);
+        serializer = new KryoValuesSerializer(conf);
+        deserializer = new KryoValuesDeserializer(conf);
+    }
+
+    /**
+     * Makes sure that a fat message and everything in it survive a round trip
+     */
+    @Test
+    public void testRegister_fatMessage() throws Exception {
+        DateTime date = new DateTime(2016, 5, 20, 13, 30, 15, 123, DateTimeZone.UTC);
+        Message message = new Message(date, "Giannis", "U1", "hello :smile:", "C1",
+                                      MessageType.MESSAGE);
+        User user = new User("U1", "giannis@example.com", false, true, false, "Giannis", "giannis",
+                             null, date, date.minusDays(1), "active", null, "America/New_York",
+                             "Engineer");
+        Room room = new Room("C1", "general", "the general room", null,
+                             date.withZone(DateTimeZone.forID("Europe/Athens")), "U1", false,
+                             true, null, "xmpp");
+        assertRoundTrip(new FatMessage(message, user, room));
+        assertRoundTrip(new FatMessage(new Message(null, null, null, null, null, null), null,
+                                       null));
+    }
+
+    /**
+     * Makes sure that a message envelope survives a round trip and that the user and room names of
+     * different envelopes are the same strings after they're read
+     */
+    @Test
+    public void testRegister_messageEnvelope() throws Exception {
+        DateTime date = DateTime.now(DateTimeZone.UTC);
+        MessageEnvelope first = new MessageEnvelope(date, MessageType.MESSAGE, "hello :smile:",
+                                                    "U1", "giannis", false, "C1", "general");
+        MessageEnvelope second = new MessageEnvelope(date, MessageType.MESSAGE, "bye", "U1",
+                                                     "giannis", false, "C1", "general");
+        assertRoundTrip(first);
+        assertRoundTrip(new MessageEnvelope(null, null, null, null, null, true, null, null));
+
+        MessageEnvelope readFirst = roundTrip(first);
+        MessageEnvelope readSecond = roundTrip(second);
+        assertSame(readFirst.getUserId(), readSecond.getUserId());
+        assertSame(readFirst.getUsername(), readSecond.getUsername());
+        assertSame(readFirst.getRoomId(), readSecond.getRoomId());
+        assertSame(readFirst.getRoomName(), readSecond.getRoomName());
+    }
+
+    /**
+     * Makes sure that the mentionables the bolts emit survive a round trip
+     */
+    @Test
+    public void testRegister_mentionables() throws Exception {
+        DateTime date = DateTime.now(DateTimeZone.UTC);
+        assertRoundTrip(new ChatEntity("giannis", "general", date, "New York", 2, false));
+        assertRoundTrip(new EmojiEntity("bot", "random", date, "+1", 1, true));
+        assertRoundTrip(new MessageSummary("giannis", "general", date, MessageType.BOT_MESSAGE, 1,
+                                           false));
+        assertRoundTrip(new MessageSummary(null, null, null, null, 0, false));
+    }
+
+    /**
+     * Makes sure that dates keep their zone and that a UTC date takes a few bytes
+     */
+    @Test
+    public void testRegister_compactDateTime() throws Exception {
+        DateTime date = DateTime.now(DateTimeZone.UTC);
+        assertRoundTrip(date);
+        assertRoundTrip(date.withZone(DateTimeZone.forOffsetHours(-5)));
+        assertTrue(serializer.serialize(Lists.newArrayList(date)).length <= 10);
+    }
+
+    /**
+     * Makes sure that an object without a registered serializer is not java serialized
+     */
+    @Test
+    public void testRegister_noJavaSerialization() throws Exception {
+        try {
+            serializer.serialize(Lists.newArrayList(new UnregisteredPayload()));
+            fail("Expected the unregistered payload to fail");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(UnregisteredPayload.class.getName()));
+        }
+    }
+
+    private void assertRoundTrip(Object value) throws Exception {
+        assertEquals(value, roundTrip(value));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T roundTrip(T value) throws Exception {
+        byte[] bytes = serializer.serialize(Lists.newArrayList(value));
+        List<Object> values = deserializer.deserialize(bytes);
+        assertEquals(1, values.size());
+        return (T) values.get(0);
+    }
+
+    private static class UnregisteredPayload implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.chatalytics.core.IngestOverflowPolicy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link IngestBuffer}
+ *
+ * @author giannis
+ */
+public class IngestBufferTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testAdd_dropOldest() throws Exception {
+        try (IngestBuffer<String> underTest =
+                 new IngestBuffer<>(2, IngestOverflowPolicy.DROP_OLDEST, null)) {
+            assertTrue(underTest.add("a"));
+            assertTrue(underTest.add("b"));
+            assertTrue(underTest.add("c"));
+            assertEquals(2, underTest.getDepth());
+            assertEquals(1, underTest.getDroppedCount());
+            assertEquals("b", underTest.poll());
+            assertEquals("c", underTest.poll());
+            assertNull(underTest.poll());
+
+            Map<String, Object> metrics = underTest.getMetrics();
+            assertEquals(1L, metrics.get("dropped"));
+            assertEquals(0, metrics.get("depth"));
+            assertEquals(0L, underTest.getMetrics().get("dropped"));
+        }
+    }
+
+    @Test
+    public void testAdd_block() throws Exception {
+        IngestBuffer<String> underTest = new IngestBuffer<>(2, IngestOverflowPolicy.BLOCK, null);
+        assertTrue(underTest.add("a"));
+        assertTrue(underTest.add("a"));
+        CompletableFuture<Boolean> blockedAdd =
+            CompletableFuture.supplyAsync(() -> underTest.add("b"));
+        Thread.sleep(50);
+        assertFalse(blockedAdd.isDone());
+
+        assertEquals("a", underTest.poll());
+        assertTrue(blockedAdd.get(5, TimeUnit.SECONDS));
+        assertEquals("a", underTest.poll());
+        assertEquals("b", underTest.poll());
+        assertEquals(1, underTest.getBlockedCount());
+
+        // closing wakes up blocked threads
+        underTest.add("c");
+        underTest.add("c");
+        blockedAdd = CompletableFuture.supplyAsync(() -> underTest.add("d"));
+        Thread.sleep(50);
+        underTest.close();
+        assertFalse(blockedAdd.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Makes sure that spilled messages are polled in order after the in memory ones and that they
+     * survive a restart
+     */
+    @Test
+    public void testAdd_spill() throws Exception {
+        File spillFile = new File(tempFolder.getRoot(), "test.spill");
+        IngestBuffer<String> underTest = new IngestBuffer<>(2, IngestOverflowPolicy.SPILL,
+                                                            spillFile);
+        for (String value : new String[] { "a", "b", "c", "d" }) {
+            assertTrue(underTest.add(value));
+        }
+        assertEquals(2, underTest.getSpilledCount());
+        assertTrue(underTest.getSpillBytes() > 0);
+
+        assertEquals("a", underTest.poll());
+        assertEquals("b", underTest.poll());
+        // the buffer has room but new messages still go after the spilled ones
+        assertTrue(underTest.add("e"));
+        assertEquals("c", underTest.poll());
+        underTest.close();
+
+        underTest = new IngestBuffer<>(2, IngestOverflowPolicy.SPILL, spillFile);
+        assertEquals("d", underTest.poll());
+        assertEquals("e", underTest.poll());
+        assertNull(underTest.poll());
+        assertEquals(0, underTest.getSpillBytes());
+        assertEquals(8, spillFile.length());
+
+        // once drained, messages go to memory again
+        assertTrue(underTest.add("f"));
+        assertEquals(0, underTest.getSpillBytes());
+        assertEquals("f", underTest.poll());
+        underTest.close();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testConstructor_spillWithoutFile() {
+        new IngestBuffer<String>(2, IngestOverflowPolicy.SPILL, null);
+    }
+}
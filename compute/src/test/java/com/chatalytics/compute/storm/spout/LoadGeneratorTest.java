@@ -0,0 +1,163 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.chatalytics.core.config.LocalTestConfig;
+import com.chatalytics.core.model.data.FatMessage;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.model.data.Room;
+import com.chatalytics.core.model.data.User;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link LoadGenerator}
+ *
+ * @author giannis
+ */
+public class LoadGeneratorTest {
+
+    private static final DateTime START = new DateTime(2016, 5, 1, 2, 0, DateTimeZone.UTC);
+
+    private LocalTestConfig config;
+    private List<User> users;
+    private List<Room> rooms;
+    private List<String> sentences;
+
+    @Before
+    public void setUp() {
+        config = new LocalTestConfig();
+        config.targetMessagesPerSec = 1000;
+        users = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            users.add(createUser("u" + i, false));
+        }
+        users.add(createUser("b0", true));
+        rooms = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            rooms.add(new Room("r" + i, "room" + i, null, START, START, null, false, false, null,
+                               null));
+        }
+        sentences = ImmutableList.of("hello there", "ok", "ship it");
+    }
+
+    /**
+     * Makes sure that the same seed generates the same messages at the same times
+     */
+    @Test
+    public void testNext_deterministic() {
+        LoadGenerator first = createGenerator(42);
+        LoadGenerator second = createGenerator(42);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(first.getNextSendNanos(), second.getNextSendNanos());
+            assertEquals(first.next(), second.next());
+        }
+    }
+
+    /**
+     * Makes sure that messages are scheduled at the target rate on average and dated with their
+     * scheduled time
+     */
+    @Test
+    public void testNext_rate() {
+        LoadGenerator underTest = createGenerator(0);
+        long lastSendNanos = 0;
+        FatMessage message = null;
+        for (int i = 0; i < 100000; i++) {
+            lastSendNanos = underTest.getNextSendNanos();
+            message = underTest.next();
+        }
+        // 100k messages at 1000 per second take about 100 seconds
+        double seconds = lastSendNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        assertEquals(100, seconds, 2);
+        assertEquals(START.plus(TimeUnit.NANOSECONDS.toMillis(lastSendNanos)),
+                     message.getMessage().getDate());
+    }
+
+    /**
+     * Makes sure that the most popular users and rooms get most of the messages and that bots send
+     * the configured share of messages
+     */
+    @Test
+    public void testNext_distributions() {
+        config.botMessageRatio = 0.1;
+        LoadGenerator underTest = createGenerator(0);
+        int[] userCounts = new int[20];
+        int[] roomCounts = new int[5];
+        int botMessages = 0;
+        int messages = 100000;
+        for (int i = 0; i < messages; i++) {
+            FatMessage message = underTest.next();
+            if (message.getUser().isBot()) {
+                assertEquals(MessageType.BOT_MESSAGE, message.getMessage().getType());
+                botMessages++;
+                continue;
+            }
+            userCounts[Integer.parseInt(message.getUser().getUserId().substring(1))]++;
+            roomCounts[Integer.parseInt(message.getRoom().getRoomId().substring(1))]++;
+        }
+        assertEquals(0.1, botMessages / (double) messages, 0.01);
+        // users are ranked by ID, so u0 is the most popular and u1 gets about half as much
+        assertEquals(0.5, userCounts[1] / (double) userCounts[0], 0.05);
+        for (int i = 1; i < userCounts.length; i++) {
+            assertTrue(userCounts[0] > userCounts[i]);
+        }
+        assertTrue(roomCounts[0] > roomCounts[4] * 4);
+    }
+
+    /**
+     * Makes sure that the rate follows the daily cycle
+     */
+    @Test
+    public void testGetRate_diurnal() {
+        config.diurnalAmplitude = 0.5;
+        config.diurnalPeakHour = 14;
+        LoadGenerator underTest = createGenerator(0);
+        // the generator starts at 2:00, the quietest time of the day
+        assertEquals(500, underTest.getRate(0), 0.01);
+        assertEquals(1500, underTest.getRate(TimeUnit.HOURS.toNanos(12)), 0.01);
+        assertEquals(1000, underTest.getRate(TimeUnit.HOURS.toNanos(6)), 0.01);
+    }
+
+    /**
+     * Makes sure that bursts raise the rate for their duration
+     */
+    @Test
+    public void testGetRate_bursts() {
+        config.burstsPerHour = 60;
+        config.burstMultiplier = 4;
+        config.burstDurationSecs = 10;
+        LoadGenerator underTest = createGenerator(0);
+        int burstSeconds = 0;
+        for (long second = 0; second < TimeUnit.HOURS.toSeconds(1); second++) {
+            double rate = underTest.getRate(TimeUnit.SECONDS.toNanos(second));
+            assertTrue(rate == 1000 || rate == 4000);
+            if (rate == 4000) {
+                burstSeconds++;
+            }
+        }
+        // about 60 bursts of 10 seconds
+        assertTrue(burstSeconds > 300 && burstSeconds < 900);
+    }
+
+    private LoadGenerator createGenerator(long seed) {
+        return new LoadGenerator(config, users, rooms, sentences, ImmutableList.of(), START,
+                                 new Random(seed));
+    }
+
+    private static User createUser(String userId, boolean bot) {
+        return new User(userId, null, false, false, bot, userId, userId, null, START, START, null,
+                        null, null, null);
+    }
+
+}
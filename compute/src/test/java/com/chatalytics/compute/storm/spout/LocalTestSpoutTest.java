@@ -6,6 +6,7 @@ import com.chatalytics.core.config.LocalTestConfig;
 import com.chatalytics.core.util.YamlUtils;
 import com.google.common.collect.Maps;
 
+import org.apache.storm.metric.api.IMetric;
 import org.apache.storm.spout.SpoutOutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
@@ -18,7 +19,10 @@ import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 /**
@@ -85,6 +89,27 @@ public class LocalTestSpoutTest {
         verify(collector).emit(any(Values.class));
     }
 
+    /**
+     * Makes sure that in load generation mode the scheduled messages are emitted without sleeping,
+     * at most a batch at a time
+     */
+    @Test
+    public void testNextTuple_loadGeneration() throws Exception {
+        chatConfig.messageCorpusFile = "test-corpus.txt";
+        chatConfig.randomSeed = 0L;
+        chatConfig.targetMessagesPerSec = 1000000;
+        config.computeConfig.spoutMaxBatchSize = 10;
+        stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
+        SpoutOutputCollector collector = mock(SpoutOutputCollector.class);
+        TopologyContext context = mock(TopologyContext.class);
+        underTest.open(stormConf, context, collector);
+        verify(context).registerMetric(eq(LocalTestSpout.LOAD_GENERATOR_METRIC), any(IMetric.class),
+                                       anyInt());
+        Thread.sleep(10);
+        underTest.nextTuple();
+        verify(collector, times(10)).emit(any(Values.class));
+    }
+
     @Test
     public void testDeclareOutputFields() {
         OutputFieldsDeclarer fields = mock(OutputFieldsDeclarer.class);
@@ -0,0 +1,86 @@
+package com.chatalytics.compute.storm.spout;
+
+import org.apache.storm.spout.SpoutOutputCollector;
+import org.apache.storm.tuple.Values;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+/**
+ * Tests {@link ReliableEmitter}
+ *
+ * @author giannis
+ */
+public class ReliableEmitterTest {
+
+    private SpoutOutputCollector collector;
+    private AtomicLong clock;
+    private ReliableEmitter<String> underTest;
+
+    @Before
+    public void setUp() {
+        collector = mock(SpoutOutputCollector.class);
+        clock = new AtomicLong(0);
+        underTest = new ReliableEmitter<>(2, 2, 100, 150, clock::get);
+    }
+
+    @Test
+    public void testEmit() {
+        assertTrue(underTest.canEmit());
+        underTest.emit(collector, "a");
+        underTest.emit(collector, "b");
+        assertFalse(underTest.canEmit());
+        verify(collector).emit(new Values("a"), 0L);
+        verify(collector).emit(new Values("b"), 1L);
+
+        underTest.ack(0L);
+        assertTrue(underTest.canEmit());
+        assertEquals(1, underTest.getPendingCount());
+
+        // unknown ids are ignored
+        underTest.ack(5L);
+        underTest.fail(5L);
+        assertEquals(1, underTest.getPendingCount());
+    }
+
+    /**
+     * Makes sure that failed values are replayed after an exponential backoff and dropped after too
+     * many replays
+     */
+    @Test
+    public void testFail() {
+        underTest.emit(collector, "a");
+        verify(collector).emit(new Values("a"), 0L);
+
+        underTest.fail(0L);
+        assertEquals(1, underTest.getReplayCount());
+        assertEquals(0, underTest.emitReplays(collector));
+        clock.set(100);
+        assertEquals(1, underTest.emitReplays(collector));
+        verify(collector, times(2)).emit(new Values("a"), 0L);
+
+        // second backoff is capped
+        underTest.fail(0L);
+        clock.set(249);
+        assertEquals(0, underTest.emitReplays(collector));
+        clock.set(250);
+        assertEquals(1, underTest.emitReplays(collector));
+        verify(collector, times(3)).emit(new Values("a"), 0L);
+
+        // out of replays
+        underTest.fail(0L);
+        assertEquals(0, underTest.getPendingCount());
+        assertEquals(0, underTest.getReplayCount());
+        assertEquals(1, underTest.getDroppedCount());
+        verifyNoMoreInteractions(collector);
+    }
+}
@@ -0,0 +1,100 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link RingBuffer}
+ *
+ * @author giannis
+ */
+public class RingBufferTest {
+
+    @Test
+    public void testOfferAndPoll() {
+        RingBuffer<Integer> underTest = new RingBuffer<>(3);
+        assertEquals(4, underTest.capacity());
+        assertTrue(underTest.isEmpty());
+        assertNull(underTest.poll());
+
+        // wrap around a few times
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(underTest.offer(i));
+            }
+            assertFalse(underTest.offer(4));
+            assertEquals(4, underTest.size());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(Integer.valueOf(i), underTest.poll());
+            }
+            assertNull(underTest.poll());
+        }
+    }
+
+    @Test
+    public void testOfferAndPoll_capacityOne() {
+        RingBuffer<Integer> underTest = new RingBuffer<>(1);
+        assertEquals(2, underTest.capacity());
+        assertTrue(underTest.offer(1));
+        assertTrue(underTest.offer(2));
+        assertFalse(underTest.offer(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalidCapacity() {
+        new RingBuffer<>(0);
+    }
+
+    /**
+     * Makes sure that concurrent producers and a consumer don't lose or duplicate values
+     */
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        RingBuffer<Integer> underTest = new RingBuffer<>(16);
+        int producers = 4;
+        int valuesPerProducer = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        List<Future<?>> futures = Lists.newArrayList();
+        for (int producer = 0; producer < producers; producer++) {
+            int offset = producer * valuesPerProducer;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < valuesPerProducer; i++) {
+                    while (!underTest.offer(offset + i)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+
+        List<Integer> polled = Lists.newArrayListWithCapacity(producers * valuesPerProducer);
+        while (polled.size() < producers * valuesPerProducer) {
+            Integer value = underTest.poll();
+            if (value != null) {
+                polled.add(value);
+            }
+        }
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        Collections.sort(polled);
+        for (int i = 0; i < polled.size(); i++) {
+            assertEquals(Integer.valueOf(i), polled.get(i));
+        }
+        assertTrue(underTest.isEmpty());
+    }
+}
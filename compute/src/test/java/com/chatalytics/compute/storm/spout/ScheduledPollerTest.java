@@ -0,0 +1,111 @@
+package com.chatalytics.compute.storm.spout;
+
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ScheduledPoller}
+ *
+ * @author giannis
+ */
+public class ScheduledPollerTest {
+
+    private ScheduledPoller<Integer> underTest;
+
+    @After
+    public void tearDown() {
+        if (underTest != null) {
+            underTest.stop(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Makes sure that the values of a pull are polled in order and that the next pull only starts
+     * after all of them were polled
+     */
+    @Test
+    public void testPoll() throws Exception {
+        AtomicInteger pulls = new AtomicInteger();
+        underTest = new ScheduledPoller<>("test-poller", 0, 2, sink -> {
+            int pull = pulls.incrementAndGet();
+            for (int i = 0; i < 3; i++) {
+                sink.put(pull * 10 + i);
+            }
+        });
+        assertFalse(underTest.isStarted());
+        assertNull(underTest.poll());
+
+        underTest.start();
+        assertTrue(underTest.isStarted());
+        List<Integer> values = pollValues(6);
+        assertEquals(Lists.newArrayList(10, 11, 12, 20, 21, 22), values);
+        assertTrue(underTest.getCompletedPulls() >= 1);
+    }
+
+    /**
+     * Makes sure that a failed pull is retried
+     */
+    @Test
+    public void testPoll_failedPull() throws Exception {
+        AtomicInteger pulls = new AtomicInteger();
+        underTest = new ScheduledPoller<>("test-poller", 0, 2, sink -> {
+            if (pulls.incrementAndGet() == 1) {
+                sink.put(1);
+                throw new RuntimeException("test");
+            }
+            sink.put(2);
+        });
+        underTest.start();
+        assertEquals(Lists.newArrayList(1, 2), pollValues(2));
+    }
+
+    /**
+     * Makes sure that stopping the poller interrupts a blocked pull
+     */
+    @Test
+    public void testStop() throws Exception {
+        CountDownLatch pullStarted = new CountDownLatch(1);
+        CountDownLatch pullInterrupted = new CountDownLatch(1);
+        underTest = new ScheduledPoller<>("test-poller", 0, 1, sink -> {
+            pullStarted.countDown();
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                pullInterrupted.countDown();
+                throw e;
+            }
+        });
+        underTest.start();
+        assertTrue(pullStarted.await(5, TimeUnit.SECONDS));
+        assertTrue(underTest.stop(5, TimeUnit.SECONDS));
+        assertTrue(pullInterrupted.await(5, TimeUnit.SECONDS));
+        assertNull(underTest.poll());
+    }
+
+    private List<Integer> pollValues(int count) throws InterruptedException {
+        List<Integer> values = Lists.newArrayList();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (values.size() < count && System.currentTimeMillis() < deadline) {
+            Integer value = underTest.poll();
+            if (value == null) {
+                Thread.sleep(1);
+            } else {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+}
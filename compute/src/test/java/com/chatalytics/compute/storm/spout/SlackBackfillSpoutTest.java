@@ -3,10 +3,12 @@ package com.chatalytics.compute.storm.spout;
 import com.chatalytics.compute.chat.dao.IChatApiDAO;
 import com.chatalytics.compute.config.ConfigurationConstants;
 import com.chatalytics.compute.db.dao.IChatAlyticsDAO;
+import com.chatalytics.compute.exception.IncompleteHistoryException;
+import com.chatalytics.compute.metrics.ComponentMetrics;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.chatalytics.core.config.SlackBackfillerConfig;
-import com.chatalytics.core.model.data.FatMessage;
 import com.chatalytics.core.model.data.Message;
+import com.chatalytics.core.model.data.MessageEnvelope;
 import com.chatalytics.core.model.data.MessageType;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
@@ -15,6 +17,7 @@ import com.google.common.collect.Maps;
 
 import org.apache.storm.shade.com.google.common.collect.ImmutableMap;
 import org.apache.storm.shade.com.google.common.collect.Lists;
+import org.apache.storm.metric.api.IMetric;
 import org.apache.storm.spout.SpoutOutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
@@ -26,14 +29,23 @@ import org.joda.time.Interval;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -62,6 +74,7 @@ public class SlackBackfillSpoutTest {
         config.persistenceUnitName = "chatalytics-db-test";
         chatConfig = new SlackBackfillerConfig();
         chatConfig.authTokens = Lists.newArrayList("0");
+        chatConfig.maxRequestsPerSec = 0;
         config.computeConfig.chatConfig = chatConfig;
         context = mock(TopologyContext.class);
         collector = mock(SpoutOutputCollector.class);
@@ -73,7 +86,9 @@ public class SlackBackfillSpoutTest {
         chatConfig.startDate = DateTime.now().toString();
         stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
         underTest.open(stormConf, context, collector);
-        verifyZeroInteractions(collector, context);
+        verify(context).registerMetric(eq("spout-buffer-depth"), any(IMetric.class),
+                                       eq(ComponentMetrics.METRICS_INTERVAL_SECS));
+        verifyZeroInteractions(collector);
     }
 
     @Test
@@ -82,7 +97,9 @@ public class SlackBackfillSpoutTest {
         chatConfig.startDate = null;
         stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
         underTest.open(stormConf, context, collector);
-        verifyZeroInteractions(collector, context);
+        verify(context).registerMetric(eq("spout-buffer-depth"), any(IMetric.class),
+                                       eq(ComponentMetrics.METRICS_INTERVAL_SECS));
+        verifyZeroInteractions(collector);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -93,7 +110,7 @@ public class SlackBackfillSpoutTest {
     }
 
     @Test
-    public void testNextTuple() {
+    public void testPull() throws Exception {
         chatConfig.granularityMins = 0;
         stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
         IChatAlyticsDAO dbDao = mock(IChatAlyticsDAO.class);
@@ -112,20 +129,185 @@ public class SlackBackfillSpoutTest {
         when(slackDao.getUsers()).thenReturn(users);
         when(slackDao.getRooms()).thenReturn(rooms);
 
-        underTest.nextTuple();
+        pull();
         verify(slackDao).getUsers();
         verify(slackDao).getRooms();
         verify(dbDao).setLastMessagePullTime(any(DateTime.class));
         verify(dbDao).getLastMessagePullTime();
+        verify(dbDao).getRoomPullTimes();
+        verify(dbDao).setRoomPullTime(eq("r1"), any(DateTime.class));
         verifyNoMoreInteractions(dbDao);
     }
 
+    /**
+     * Makes sure that the last pull time isn't moved forward when a room fails, and that the rooms
+     * that succeeded are checkpointed
+     */
+    @Test
+    public void testPull_failedRoom() throws Exception {
+        chatConfig.granularityMins = 0;
+        IChatAlyticsDAO dbDao = mock(IChatAlyticsDAO.class);
+        IChatApiDAO slackDao = mock(IChatApiDAO.class);
+        underTest.open(chatConfig, slackDao, dbDao, context, collector);
+
+        Room room1 = new Room("r1", "room1", null, DateTime.now(), DateTime.now(), null, false,
+                              false, null, null);
+        Room room2 = new Room("r2", "room2", null, DateTime.now(), DateTime.now(), null, false,
+                              false, null, null);
+        when(dbDao.getLastMessagePullTime()).thenReturn(DateTime.now(DateTimeZone.UTC)
+                                                                .minusDays(1));
+        when(slackDao.getRooms()).thenReturn(ImmutableMap.of("r1", room1, "r2", room2));
+        doThrow(new RuntimeException("test")).when(slackDao)
+            .forEachMessagePage(any(DateTime.class), any(DateTime.class), eq(room2), any());
+
+        pull();
+        verify(dbDao).setRoomPullTime(eq("r1"), any(DateTime.class));
+        verify(dbDao, never()).setRoomPullTime(eq("r2"), any(DateTime.class));
+        verify(dbDao, never()).setLastMessagePullTime(any(DateTime.class));
+    }
+
+    /**
+     * Makes sure that nextTuple returns right away while a backfill is running, and that it emits
+     * the fetched pages and saves the last pull time once the backfill is done
+     */
+    @Test
+    public void testNextTuple_doesNotBlock() throws Exception {
+        chatConfig.granularityMins = 0;
+        IChatAlyticsDAO dbDao = mock(IChatAlyticsDAO.class);
+        IChatApiDAO slackDao = mock(IChatApiDAO.class);
+        underTest.open(chatConfig, slackDao, dbDao, context, collector);
+
+        Map<String, User> users = ImmutableMap.of("u1", new User("u1", "email", false, false, false,
+                                                                 "name", "mention_name", null,
+                                                                 DateTime.now(), DateTime.now(),
+                                                                 null, null, null, null));
+        Room room = new Room("r1", "room", null, DateTime.now(), DateTime.now(), null, false, false,
+                             null, null);
+        Message message = new Message(DateTime.now(), "from", "u1", "test message", "r1",
+                                      MessageType.MESSAGE);
+        CountDownLatch usersLatch = new CountDownLatch(1);
+        when(dbDao.getLastMessagePullTime()).thenReturn(DateTime.now(DateTimeZone.UTC)
+                                                                .minusDays(1));
+        when(slackDao.getUsers()).thenAnswer(invocation -> {
+            usersLatch.await();
+            return users;
+        });
+        when(slackDao.getRooms()).thenReturn(ImmutableMap.of("r1", room));
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            Consumer<List<Message>> pageConsumer =
+                (Consumer<List<Message>>) invocation.getArguments()[3];
+            pageConsumer.accept(Lists.newArrayList(message));
+            return null;
+        }).when(slackDao).forEachMessagePage(any(DateTime.class), any(DateTime.class), eq(room),
+                                             any());
+
+        // the backfill is stuck getting the users
+        underTest.nextTuple();
+        underTest.nextTuple();
+        verifyZeroInteractions(collector);
+
+        usersLatch.countDown();
+        ScheduledPoller<PulledMessages> poller = underTest.getPoller();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (poller.getCompletedPulls() == 0 && System.currentTimeMillis() < deadline) {
+            underTest.nextTuple();
+            Thread.sleep(1);
+        }
+        assertEquals(1, poller.getCompletedPulls());
+        verify(collector).emit(any(Values.class));
+        verify(dbDao).setRoomPullTime(eq("r1"), any(DateTime.class));
+        verify(dbDao).setLastMessagePullTime(any(DateTime.class));
+    }
+
+    /**
+     * Makes sure that rooms resume from their pull time, that their history is fetched in windows
+     * and that every window is checkpointed after its messages are emitted
+     */
+    @Test
+    public void testBackfillRooms_resumeInWindows() throws Exception {
+        chatConfig.windowDays = 10;
+        IChatAlyticsDAO dbDao = mock(IChatAlyticsDAO.class);
+        IChatApiDAO slackDao = mock(IChatApiDAO.class);
+        underTest.open(chatConfig, slackDao, dbDao, context, collector);
+
+        Map<String, User> users = ImmutableMap.of("u1", new User("u1", "email", false, false, false,
+                                                                 "name", "mention_name", null,
+                                                                 DateTime.now(), DateTime.now(),
+                                                                 null, null, null, null));
+        Room room1 = new Room("r1", "room1", null, DateTime.now(), DateTime.now(), null, false,
+                              false, null, null);
+        Room room2 = new Room("r2", "room2", null, DateTime.now(), DateTime.now(), null, false,
+                              false, null, null);
+        DateTime start = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+        Interval interval = new Interval(start, start.plusDays(25));
+        // room 1 was done in a previous run and room 2 got through its first window
+        when(dbDao.getRoomPullTimes()).thenReturn(ImmutableMap.of("r1", interval.getEnd(),
+                                                                  "r2", start.plusDays(10)));
+        Message message = new Message(start.plusDays(12), "from", "u1", "test message", "r2",
+                                      MessageType.MESSAGE);
+        stubMessagePages(slackDao, start.plusDays(10), start.plusDays(20), room2,
+                         Lists.newArrayList(message));
+
+        assertTrue(backfillRooms(users, ImmutableMap.of("r1", room1, "r2", room2),
+                                           interval));
+        verify(slackDao).forEachMessagePage(eq(start.plusDays(10)), eq(start.plusDays(20)),
+                                            eq(room2), any());
+        verify(slackDao).forEachMessagePage(eq(start.plusDays(20)), eq(start.plusDays(25)),
+                                            eq(room2), any());
+        verifyNoMoreInteractions(slackDao);
+        InOrder inOrder = inOrder(collector, dbDao);
+        inOrder.verify(collector).emit(any(Values.class));
+        inOrder.verify(dbDao).setRoomPullTime("r2", start.plusDays(20));
+        inOrder.verify(dbDao).setRoomPullTime("r2", start.plusDays(25));
+        verify(dbDao, never()).setRoomPullTime(eq("r1"), any(DateTime.class));
+    }
+
+    /**
+     * Makes sure that a window whose history can't be fully fetched isn't checkpointed, even if
+     * some of its pages were emitted, while the windows before it are
+     */
+    @Test
+    public void testBackfillRooms_failedWindow() throws Exception {
+        chatConfig.windowDays = 10;
+        IChatAlyticsDAO dbDao = mock(IChatAlyticsDAO.class);
+        IChatApiDAO slackDao = mock(IChatApiDAO.class);
+        underTest.open(chatConfig, slackDao, dbDao, context, collector);
+
+        Map<String, User> users = ImmutableMap.of("u1", new User("u1", "email", false, false, false,
+                                                                 "name", "mention_name", null,
+                                                                 DateTime.now(), DateTime.now(),
+                                                                 null, null, null, null));
+        Room room = new Room("r1", "room1", null, DateTime.now(), DateTime.now(), null, false,
+                             false, null, null);
+        DateTime start = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+        Interval interval = new Interval(start, start.plusDays(25));
+        when(dbDao.getRoomPullTimes()).thenReturn(ImmutableMap.of());
+        Message message = new Message(start.plusDays(12), "from", "u1", "test message", "r1",
+                                      MessageType.MESSAGE);
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            Consumer<List<Message>> pageConsumer =
+                (Consumer<List<Message>>) invocation.getArguments()[3];
+            pageConsumer.accept(Lists.newArrayList(message));
+            throw new IncompleteHistoryException("test");
+        }).when(slackDao).forEachMessagePage(eq(start.plusDays(10)), eq(start.plusDays(20)),
+                                             eq(room), any());
+
+        assertFalse(backfillRooms(users, ImmutableMap.of("r1", room), interval));
+        verify(collector).emit(any(Values.class));
+        verify(dbDao).setRoomPullTime("r1", start.plusDays(10));
+        verify(dbDao, never()).setRoomPullTime("r1", start.plusDays(20));
+        verify(slackDao, never()).forEachMessagePage(eq(start.plusDays(20)), any(DateTime.class),
+                                                     eq(room), any());
+    }
+
     /**
      * This test makes sure that backfilling doesn't run when the latest pull time is after the
      * current time
      */
     @Test
-    public void testNextTuple_outsideOfInterval() {
+    public void testPull_outsideOfInterval() throws Exception {
         chatConfig.granularityMins = 0;
         stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
         IChatAlyticsDAO dbDao = mock(IChatAlyticsDAO.class);
@@ -133,18 +315,18 @@ public class SlackBackfillSpoutTest {
         underTest.open(chatConfig, slackDao, dbDao, context, collector);
         when(dbDao.getLastMessagePullTime()).thenReturn(DateTime.now(DateTimeZone.UTC).plusDays(2));
 
-        underTest.nextTuple();
+        pull();
         verify(dbDao).getLastMessagePullTime();
         verifyNoMoreInteractions(dbDao);
         verifyZeroInteractions(slackDao);
     }
 
     /**
-     * Check to see if a {@link FatMessage} gets emitted when the user is not null, the message type
-     * is valid and the room is not archived
+     * Check to see if a {@link MessageEnvelope} gets emitted when the user is not null, the message
+     * type is valid and the room is not archived
      */
     @Test
-    public void testBackfillRooms() {
+    public void testBackfillRooms() throws Exception {
         stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
         IChatAlyticsDAO dbDao = mock(IChatAlyticsDAO.class);
         IChatApiDAO slackDao = mock(IChatApiDAO.class);
@@ -162,17 +344,18 @@ public class SlackBackfillSpoutTest {
                                       MessageType.MESSAGE);
         List<Message> messages = Lists.newArrayList(message);
 
-        when(slackDao.getMessages(interval.getStart(), interval.getEnd(), room)).thenReturn(messages);
+        stubMessagePages(slackDao, interval.getStart(), interval.getEnd(), room, messages);
 
-        underTest.backfillRooms(users, rooms, interval);
-        verify(slackDao).getMessages(interval.getStart(), interval.getEnd(), room);
+        backfillRooms(users, rooms, interval);
+        verify(slackDao).forEachMessagePage(eq(interval.getStart()), eq(interval.getEnd()),
+                                            eq(room), any());
         verifyNoMoreInteractions(slackDao);
         verify(collector).emit(any(Values.class));
         verifyNoMoreInteractions(collector);
     }
 
     @Test
-    public void testBackfillRooms_archivedRoom() {
+    public void testBackfillRooms_archivedRoom() throws Exception {
         stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
         IChatAlyticsDAO dbDao = mock(IChatAlyticsDAO.class);
         IChatApiDAO slackDao = mock(IChatApiDAO.class);
@@ -187,12 +370,12 @@ public class SlackBackfillSpoutTest {
                                                                  null, null));
         Interval interval = new Interval(DateTime.now().minusDays(1), DateTime.now());
 
-        underTest.backfillRooms(users, rooms, interval);
+        backfillRooms(users, rooms, interval);
         verifyZeroInteractions(collector, slackDao);
     }
 
     @Test
-    public void testBackfillRooms_unknownMessageType() {
+    public void testBackfillRooms_unknownMessageType() throws Exception {
         stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
         IChatAlyticsDAO dbDao = mock(IChatAlyticsDAO.class);
         IChatApiDAO slackDao = mock(IChatApiDAO.class);
@@ -210,16 +393,17 @@ public class SlackBackfillSpoutTest {
                                       MessageType.UNKNOWN);
         List<Message> messages = Lists.newArrayList(message);
 
-        when(slackDao.getMessages(interval.getStart(), interval.getEnd(), room)).thenReturn(messages);
+        stubMessagePages(slackDao, interval.getStart(), interval.getEnd(), room, messages);
 
-        underTest.backfillRooms(users, rooms, interval);
-        verify(slackDao).getMessages(interval.getStart(), interval.getEnd(), room);
+        backfillRooms(users, rooms, interval);
+        verify(slackDao).forEachMessagePage(eq(interval.getStart()), eq(interval.getEnd()),
+                                            eq(room), any());
         verifyNoMoreInteractions(slackDao);
         verifyZeroInteractions(collector);
     }
 
     @Test
-    public void testBackfillRooms_nullUser() {
+    public void testBackfillRooms_nullUser() throws Exception {
         stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
         IChatAlyticsDAO dbDao = mock(IChatAlyticsDAO.class);
         IChatApiDAO slackDao = mock(IChatApiDAO.class);
@@ -237,16 +421,17 @@ public class SlackBackfillSpoutTest {
                                       MessageType.MESSAGE);
         List<Message> messages = Lists.newArrayList(message);
 
-        when(slackDao.getMessages(interval.getStart(), interval.getEnd(), room)).thenReturn(messages);
+        stubMessagePages(slackDao, interval.getStart(), interval.getEnd(), room, messages);
 
-        underTest.backfillRooms(users, rooms, interval);
-        verify(slackDao).getMessages(interval.getStart(), interval.getEnd(), room);
+        backfillRooms(users, rooms, interval);
+        verify(slackDao).forEachMessagePage(eq(interval.getStart()), eq(interval.getEnd()),
+                                            eq(room), any());
         verifyNoMoreInteractions(slackDao);
         verifyZeroInteractions(collector);
     }
 
     @Test
-    public void testBackfillRooms_botUser() {
+    public void testBackfillRooms_botUser() throws Exception {
         stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
         IChatAlyticsDAO dbDao = mock(IChatAlyticsDAO.class);
         IChatApiDAO slackDao = mock(IChatApiDAO.class);
@@ -264,15 +449,47 @@ public class SlackBackfillSpoutTest {
                                       MessageType.BOT_MESSAGE);
         List<Message> messages = Lists.newArrayList(message);
 
-        when(slackDao.getMessages(interval.getStart(), interval.getEnd(), room)).thenReturn(messages);
+        stubMessagePages(slackDao, interval.getStart(), interval.getEnd(), room, messages);
 
-        underTest.backfillRooms(users, rooms, interval);
-        verify(slackDao).getMessages(interval.getStart(), interval.getEnd(), room);
+        backfillRooms(users, rooms, interval);
+        verify(slackDao).forEachMessagePage(eq(interval.getStart()), eq(interval.getEnd()),
+                                            eq(room), any());
         verifyNoMoreInteractions(slackDao);
         verify(collector).emit(any(Values.class));
         verifyNoMoreInteractions(collector);
     }
 
+    /**
+     * Runs a pull and emits everything it pulled, like {@link SlackBackfillSpout#nextTuple()} does
+     */
+    private void pull() throws InterruptedException {
+        List<PulledMessages> pages = Lists.newArrayList();
+        underTest.pull(pages::add);
+        pages.forEach(underTest::emit);
+    }
+
+    /**
+     * Backfills the rooms and emits everything that was fetched
+     */
+    private boolean backfillRooms(Map<String, User> users, Map<String, Room> rooms,
+                                  Interval interval) throws InterruptedException {
+        List<PulledMessages> pages = Lists.newArrayList();
+        boolean backfilled = underTest.backfillRooms(users, rooms, interval, pages::add);
+        pages.forEach(underTest::emit);
+        return backfilled;
+    }
+
+    private void stubMessagePages(IChatApiDAO slackDao, DateTime start, DateTime end, Room room,
+                                  List<Message> messages) {
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            Consumer<List<Message>> pageConsumer =
+                (Consumer<List<Message>>) invocation.getArguments()[3];
+            pageConsumer.accept(messages);
+            return null;
+        }).when(slackDao).forEachMessagePage(eq(start), eq(end), eq(room), any());
+    }
+
     @Test
     public void testGetRunInterval() {
         DateTime startDate = DateTime.now(DateTimeZone.UTC).minusDays(1);
@@ -1,7 +1,6 @@
 package com.chatalytics.compute.storm.spout;
 
 import com.chatalytics.compute.chat.dao.slack.JsonSlackDAO;
-import com.chatalytics.compute.config.ConfigurationConstants;
 import com.chatalytics.compute.exception.NotConnectedException;
 import com.chatalytics.core.config.ChatAlyticsConfig;
 import com.chatalytics.core.config.SlackConfig;
@@ -9,8 +8,6 @@ import com.chatalytics.core.model.data.Message;
 import com.chatalytics.core.model.data.MessageType;
 import com.chatalytics.core.model.data.Room;
 import com.chatalytics.core.model.data.User;
-import com.chatalytics.core.util.YamlUtils;
-import com.google.common.collect.Maps;
 
 import org.apache.storm.shade.com.google.common.collect.ImmutableMap;
 import org.apache.storm.spout.SpoutOutputCollector;
@@ -24,15 +21,17 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.net.URI;
-import java.util.HashMap;
 import java.util.Map;
 
 import javax.websocket.DeploymentException;
 import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -52,7 +51,6 @@ public class SlackMessageSpoutTest {
     private SlackMessageSpout underTest;
     private SpoutOutputCollector mockCollector;
     private TopologyContext mockContext;
-    private HashMap<String, String> stormConf;
 
     private ChatAlyticsConfig config;
 
@@ -63,7 +61,6 @@ public class SlackMessageSpoutTest {
         underTest = new SlackMessageSpout();
         mockCollector = mock(SpoutOutputCollector.class);
         mockContext = mock(TopologyContext.class);
-        stormConf = Maps.newHashMapWithExpectedSize(1);
         config = new ChatAlyticsConfig();
         chatConfig = new SlackConfig();
         config.computeConfig.chatConfig = chatConfig;
@@ -72,8 +69,10 @@ public class SlackMessageSpoutTest {
 
     @Test(expected = NotConnectedException.class)
     public void testOpen_withAuthException() throws Exception {
-        stormConf.put(ConfigurationConstants.CHATALYTICS_CONFIG.txt, YamlUtils.writeYaml(config));
-        underTest.open(stormConf, mockContext, mockCollector);
+        JsonSlackDAO slackDao = mock(JsonSlackDAO.class);
+        when(slackDao.getRealtimeWebSocketURI()).thenThrow(new NotConnectedException("not_authed"));
+        underTest.open(config, slackDao, mock(WebSocketContainer.class), mockContext,
+                       mockCollector);
     }
 
     /**
@@ -108,8 +107,6 @@ public class SlackMessageSpoutTest {
         JsonSlackDAO slackDao = mock(JsonSlackDAO.class);
         when(slackDao.getRealtimeWebSocketURI()).thenReturn(WEB_SOCKET_TEST_URI);
 
-        underTest.open(config, slackDao, mockSocketContainer, mockContext, mockCollector);
-
         String userId = "U03AFSSD";
 
         // make the chat API DAO return a map of users
@@ -120,6 +117,8 @@ public class SlackMessageSpoutTest {
                                                            null, null, null));
         when(slackDao.getUsers()).thenReturn(users);
 
+        underTest.open(config, slackDao, mockSocketContainer, mockContext, mockCollector);
+
         Message triggerMessage = new Message(DateTime.now(), "Test User", userId, "test msg",
                                              "C09ADF43", MessageType.MESSAGE);
 
@@ -129,7 +128,7 @@ public class SlackMessageSpoutTest {
         verify(slackDao).getRealtimeWebSocketURI();
         verifyNoMoreInteractions(slackDao);
         underTest.nextTuple();
-        verify(mockCollector).emit(any(Values.class));
+        verify(mockCollector).emit(any(Values.class), any());
         verifyNoMoreInteractions(mockCollector);
 
         // make sure nothing got emitted
@@ -137,6 +136,57 @@ public class SlackMessageSpoutTest {
         verifyNoMoreInteractions(mockCollector);
     }
 
+    /**
+     * Makes sure that message events are emitted, that user and channel events update the
+     * directory and that everything else is ignored
+     */
+    @Test
+    public void testOnRealtimeEvent() throws Exception {
+        JsonSlackDAO slackDao = mock(JsonSlackDAO.class);
+        Map<String, Room> rooms = ImmutableMap.of("C024BE91L", new Room("C024BE91L", "fun",
+                                                                        "topic", null,
+                                                                        DateTime.now(), "U1",
+                                                                        false, false, null,
+                                                                        null));
+        when(slackDao.getRooms()).thenReturn(rooms);
+        when(slackDao.getRealtimeWebSocketURI()).thenReturn(WEB_SOCKET_TEST_URI);
+        WebSocketContainer webSocket = mock(WebSocketContainer.class);
+        when(webSocket.connectToServer(underTest, WEB_SOCKET_TEST_URI))
+            .thenReturn(mock(Session.class));
+        underTest.open(config, slackDao, webSocket, mockContext, mockCollector);
+        Session session = mock(Session.class);
+
+        // the user is unknown until the user_change event
+        underTest.onRealtimeEvent(messageJsonStr, session);
+        underTest.nextTuple();
+        verifyZeroInteractions(mockCollector);
+
+        underTest.onRealtimeEvent(userChangeJsonStr, session);
+        assertEquals("bobby", underTest.getDirectory().getUser("U023BECGF").getMentionName());
+        underTest.onRealtimeEvent(messageJsonStr, session);
+        underTest.nextTuple();
+        verify(mockCollector).emit(any(Values.class), any());
+
+        underTest.onRealtimeEvent(channelCreatedJsonStr, session);
+        assertEquals("new-room", underTest.getDirectory().getRoom("C024BE92L").getName());
+
+        // renames keep the rest of the room
+        underTest.onRealtimeEvent("{\"type\": \"channel_rename\", \"channel\": {"
+            + "\"id\": \"C024BE91L\", \"name\": \"more-fun\", \"created\": 1360782804}}",
+                                  session);
+        Room renamedRoom = underTest.getDirectory().getRoom("C024BE91L");
+        assertEquals("more-fun", renamedRoom.getName());
+        assertEquals("topic", renamedRoom.getTopic());
+
+        underTest.onRealtimeEvent("{\"type\": \"hello\"}", session);
+        underTest.onRealtimeEvent("bad event string", session);
+        underTest.onRealtimeEvent("{\"type\": \"user_change\"}", session);
+        underTest.nextTuple();
+        verifyNoMoreInteractions(mockCollector);
+        verify(slackDao).getUsers();
+        verify(slackDao).getRooms();
+    }
+
     @Test
     public void testOnMessageEvent_botUser() throws Exception {
         JsonSlackDAO slackDao = mock(JsonSlackDAO.class);
@@ -164,7 +214,7 @@ public class SlackMessageSpoutTest {
         verify(slackDao).getRealtimeWebSocketURI();
         verifyNoMoreInteractions(slackDao);
         underTest.nextTuple();
-        verify(mockCollector).emit(any(Values.class));
+        verify(mockCollector).emit(any(Values.class), any());
         verifyNoMoreInteractions(mockCollector);
     }
 
@@ -225,7 +275,7 @@ public class SlackMessageSpoutTest {
         verify(slackDao).getRealtimeWebSocketURI();
         verifyNoMoreInteractions(slackDao);
         underTest.nextTuple();
-        verify(mockCollector).emit(any(Values.class));
+        verify(mockCollector).emit(any(Values.class), any());
         verifyNoMoreInteractions(mockCollector);
 
         // make sure nothing got emitted
@@ -233,6 +283,88 @@ public class SlackMessageSpoutTest {
         verifyNoMoreInteractions(mockCollector);
     }
 
+    /**
+     * Makes sure that no more than the max pending messages are emitted, that acked messages make
+     * room for new ones and that failed messages are kept for replay
+     */
+    @Test
+    public void testNextTuple_ackAndFail() throws Exception {
+        config.computeConfig.maxSpoutPending = 2;
+        config.computeConfig.spoutReplayBackoffMs = 0;
+        JsonSlackDAO slackDao = mock(JsonSlackDAO.class);
+        Map<String, User> users = ImmutableMap.of("u1", new User("u1", "email", false, false, false,
+                                                                 "name", "mention_name", null,
+                                                                 DateTime.now(), DateTime.now(),
+                                                                 null, null, null, null));
+        when(slackDao.getUsers()).thenReturn(users);
+        when(slackDao.getRooms()).thenReturn(ImmutableMap.of());
+        when(slackDao.getRealtimeWebSocketURI()).thenReturn(WEB_SOCKET_TEST_URI);
+        WebSocketContainer webSocket = mock(WebSocketContainer.class);
+        when(webSocket.connectToServer(underTest, WEB_SOCKET_TEST_URI))
+            .thenReturn(mock(Session.class));
+        underTest.open(config, slackDao, webSocket, mockContext, mockCollector);
+
+        for (int i = 0; i < 3; i++) {
+            Message message = new Message(DateTime.now(), "name", "u1", "msg " + i, "r1",
+                                          MessageType.MESSAGE);
+            underTest.onMessageEvent(message, mock(Session.class));
+        }
+
+        underTest.nextTuple();
+        verify(mockCollector).emit(any(Values.class), eq(0L));
+        verify(mockCollector).emit(any(Values.class), eq(1L));
+        verifyNoMoreInteractions(mockCollector);
+        assertEquals(2, underTest.getEmitter().getPendingCount());
+
+        // ack one to make room for the last message and fail the other one
+        underTest.ack(0L);
+        underTest.fail(1L);
+        underTest.nextTuple();
+        verify(mockCollector, times(2)).emit(any(Values.class), eq(1L));
+        verify(mockCollector).emit(any(Values.class), eq(2L));
+        verifyNoMoreInteractions(mockCollector);
+
+        underTest.ack(1L);
+        underTest.ack(2L);
+        assertEquals(0, underTest.getEmitter().getPendingCount());
+    }
+
+    /**
+     * Makes sure that a single {@link SlackMessageSpout#nextTuple()} call doesn't emit more than
+     * the max batch size
+     */
+    @Test
+    public void testNextTuple_maxBatchSize() throws Exception {
+        config.computeConfig.spoutMaxBatchSize = 2;
+        JsonSlackDAO slackDao = mock(JsonSlackDAO.class);
+        Map<String, User> users = ImmutableMap.of("u1", new User("u1", "email", false, false, false,
+                                                                 "name", "mention_name", null,
+                                                                 DateTime.now(), DateTime.now(),
+                                                                 null, null, null, null));
+        when(slackDao.getUsers()).thenReturn(users);
+        when(slackDao.getRooms()).thenReturn(ImmutableMap.of());
+        when(slackDao.getRealtimeWebSocketURI()).thenReturn(WEB_SOCKET_TEST_URI);
+        WebSocketContainer webSocket = mock(WebSocketContainer.class);
+        when(webSocket.connectToServer(underTest, WEB_SOCKET_TEST_URI))
+            .thenReturn(mock(Session.class));
+        underTest.open(config, slackDao, webSocket, mockContext, mockCollector);
+
+        for (int i = 0; i < 3; i++) {
+            Message message = new Message(DateTime.now(), "name", "u1", "msg " + i, "r1",
+                                          MessageType.MESSAGE);
+            underTest.onMessageEvent(message, mock(Session.class));
+        }
+        assertEquals(3, underTest.getIngestBuffer().getDepth());
+
+        underTest.nextTuple();
+        verify(mockCollector, times(2)).emit(any(Values.class), any());
+        assertEquals(1, underTest.getIngestBuffer().getDepth());
+
+        underTest.nextTuple();
+        verify(mockCollector, times(3)).emit(any(Values.class), any());
+        assertEquals(0, underTest.getIngestBuffer().getDepth());
+    }
+
     @Test
     public void testDeclareOutputFields() {
         OutputFieldsDeclarer mockFields = mock(OutputFieldsDeclarer.class);
@@ -245,6 +377,37 @@ public class SlackMessageSpoutTest {
         underTest.onError(new RuntimeException("test"));
     }
 
+    private final String messageJsonStr = "{" +
+                                              "\"type\": \"message\"," +
+                                              "\"channel\": \"C024BE91L\"," +
+                                              "\"user\": \"U023BECGF\"," +
+                                              "\"text\": \"test message\"," +
+                                              "\"ts\": \"1431708451.000186\"" +
+                                          "}";
+
+    private final String userChangeJsonStr = "{" +
+                                                 "\"type\": \"user_change\"," +
+                                                 "\"user\": {" +
+                                                     "\"id\": \"U023BECGF\"," +
+                                                     "\"name\": \"bobby\"," +
+                                                     "\"deleted\": false," +
+                                                     "\"profile\": {" +
+                                                         "\"real_name\": \"Bobby Tables\"," +
+                                                         "\"image_32\": \"https://a.b/c.jpg\"" +
+                                                     "}" +
+                                                 "}" +
+                                             "}";
+
+    private final String channelCreatedJsonStr = "{" +
+                                                      "\"type\": \"channel_created\"," +
+                                                      "\"channel\": {" +
+                                                          "\"id\": \"C024BE92L\"," +
+                                                          "\"name\": \"new-room\"," +
+                                                          "\"created\": 1360782804," +
+                                                          "\"creator\": \"U024BE7LH\"" +
+                                                      "}" +
+                                                  "}";
+
     @After
     public void tearDown() throws Exception {
         underTest.close();
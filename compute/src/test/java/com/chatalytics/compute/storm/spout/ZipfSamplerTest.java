@@ -0,0 +1,49 @@
+package com.chatalytics.compute.storm.spout;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link ZipfSampler}
+ *
+ * @author giannis
+ */
+public class ZipfSamplerTest {
+
+    @Test
+    public void testSample() {
+        ZipfSampler underTest = new ZipfSampler(3, 1);
+        Random rand = new Random(0);
+        int[] counts = new int[3];
+        int samples = 110000;
+        for (int i = 0; i < samples; i++) {
+            counts[underTest.sample(rand)]++;
+        }
+        // the probabilities are 6/11, 3/11 and 2/11
+        assertEquals(60000, counts[0], 1000);
+        assertEquals(30000, counts[1], 1000);
+        assertEquals(20000, counts[2], 1000);
+    }
+
+    @Test
+    public void testSample_uniform() {
+        ZipfSampler underTest = new ZipfSampler(4, 0);
+        Random rand = new Random(0);
+        int[] counts = new int[4];
+        for (int i = 0; i < 40000; i++) {
+            counts[underTest.sample(rand)]++;
+        }
+        for (int count : counts) {
+            assertEquals(10000, count, 500);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_emptySampler() {
+        new ZipfSampler(0, 1);
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.chatalytics.compute.storm.trident;
+
+import com.chatalytics.core.InputSourceType;
+import com.chatalytics.core.config.TopologyConfig;
+import com.google.common.collect.Lists;
+
+import org.apache.storm.generated.StormTopology;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link ChatAlyticsTridentTopology}
+ *
+ * @author giannis
+ */
+public class ChatAlyticsTridentTopologyTest {
+
+    @Test
+    public void testGet() {
+        StormTopology topology =
+            new ChatAlyticsTridentTopology(InputSourceType.SLACK, new TopologyConfig()).get();
+        assertFalse(topology.get_bolts().isEmpty());
+        // the wrapped rich spout runs as a bolt, driven by the trident batch coordinator
+        assertEquals(1, topology.get_spouts_size());
+    }
+
+    /**
+     * Makes sure that spouts that don't replay failed messages are rejected, since their failed
+     * batches would be undercounted
+     */
+    @Test
+    public void testGet_unreplayableSpouts() {
+        for (InputSourceType type : Lists.newArrayList(InputSourceType.HIPCHAT,
+                                                       InputSourceType.SLACK_BACKFILL,
+                                                       InputSourceType.LOCAL_TEST)) {
+            try {
+                new ChatAlyticsTridentTopology(type, new TopologyConfig()).get();
+                fail("Expected " + type + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
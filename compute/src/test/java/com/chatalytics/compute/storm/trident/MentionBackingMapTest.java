@@ -0,0 +1,108 @@
+package com.chatalytics.compute.storm.trident;
+
+import com.chatalytics.compute.db.dao.ChatAlyticsDAOFactory;
+import com.chatalytics.compute.db.dao.IEmojiDAO;
+import com.chatalytics.compute.db.dao.IMentionStateDAO;
+import com.chatalytics.core.config.ChatAlyticsConfig;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.MentionState;
+import com.google.common.collect.ImmutableList;
+
+import org.apache.storm.trident.operation.builtin.Sum;
+import org.apache.storm.trident.state.CombinerValueUpdater;
+import org.apache.storm.trident.state.ValueUpdater;
+import org.apache.storm.trident.state.map.MapState;
+import org.apache.storm.trident.state.map.OpaqueMap;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests {@link MentionBackingMap}
+ *
+ * @author giannis
+ */
+public class MentionBackingMapTest {
+
+    private static final String EMOJI = "trident_emoji";
+
+    private MentionBackingMap underTest;
+    private ChatAlyticsConfig config;
+    private IMentionStateDAO dao;
+    private IEmojiDAO emojiDao;
+    private DateTime bucketStart;
+    private List<List<Object>> keys;
+
+    @Before
+    public void setUp() {
+        config = new ChatAlyticsConfig();
+        config.persistenceUnitName = "chatalytics-db-test";
+        dao = ChatAlyticsDAOFactory.createMentionStateDAO(config);
+        dao.startAsync().awaitRunning();
+        emojiDao = ChatAlyticsDAOFactory.createEmojiDAO(config);
+        emojiDao.startAsync().awaitRunning();
+        underTest = new MentionBackingMap(dao);
+        bucketStart = new DateTime(2016, 5, 1, 10, 0, DateTimeZone.UTC);
+        keys = ImmutableList.of(ImmutableList.of(MentionType.EMOJI.name(), EMOJI, "user", "room",
+                                                 false, bucketStart.getMillis()));
+    }
+
+    /**
+     * Makes sure that a replayed batch replaces its earlier update instead of adding to it, and
+     * that the count is what's stored in the mention table
+     */
+    @Test
+    public void testMultiPut_replayedBatch() {
+        MapState<Object> state = OpaqueMap.build(underTest);
+        assertNull(state.multiGet(keys).get(0));
+
+        update(state, 1, 2);
+        assertEquals(2, getTotalMentions());
+
+        // batch 1 fails after the update and is replayed with different messages
+        update(state, 1, 3);
+        assertEquals(3, getTotalMentions());
+
+        update(state, 2, 4);
+        assertEquals(7, getTotalMentions());
+        assertEquals(7L, ((Number) state.multiGet(keys).get(0)).longValue());
+    }
+
+    private void update(MapState<Object> state, long txid, int occurrences) {
+        state.beginCommit(txid);
+        List<ValueUpdater> updaters =
+            ImmutableList.of(new CombinerValueUpdater(new Sum(), occurrences));
+        state.multiUpdate(keys, updaters);
+        state.commit(txid);
+    }
+
+    private int getTotalMentions() {
+        Interval interval = new Interval(bucketStart, bucketStart.plusHours(1));
+        return emojiDao.getTotalMentionsForEmoji(EMOJI, interval, ImmutableList.of(),
+                                                 ImmutableList.of(), false);
+    }
+
+    @After
+    public void tearDown() {
+        EntityManager em = ChatAlyticsDAOFactory.getEntityManagerFactory(config)
+                                                .createEntityManager();
+        em.getTransaction().begin();
+        em.createNativeQuery("DELETE FROM " + EmojiEntity.EMOJI_TABLE_NAME).executeUpdate();
+        em.createNativeQuery("DELETE FROM " + MentionState.MENTION_STATE_TABLE_NAME)
+          .executeUpdate();
+        em.getTransaction().commit();
+        em.close();
+        emojiDao.stopAsync().awaitTerminated();
+        dao.stopAsync().awaitTerminated();
+    }
+}
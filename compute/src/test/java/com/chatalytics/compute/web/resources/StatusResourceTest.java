@@ -1,9 +1,13 @@
 package com.chatalytics.compute.web.resources;
 
+import com.chatalytics.compute.metrics.Counter;
+import com.chatalytics.compute.metrics.MetricsRegistry;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests {@link StatusResource}
@@ -24,4 +28,17 @@ public class StatusResourceTest {
         String result = underTest.health();
         assertEquals("OK", result);
     }
+
+    @Test
+    public void testMetrics() {
+        MetricsRegistry registry = MetricsRegistry.getDefault();
+        registry.registerCounter("test_total", "test-component", 1, new Counter());
+        try {
+            String result = underTest.metrics();
+            assertTrue(result.contains(
+                "chatalytics_test_total{component=\"test-component\",task=\"1\"} 0\n"));
+        } finally {
+            registry.unregister("test-component", 1);
+        }
+    }
 }
@@ -0,0 +1,24 @@
+package com.chatalytics.core;
+
+/**
+ * The engines that can be used for extracting entities from chat messages
+ *
+ * @author giannis
+ */
+public enum EntityExtractorType {
+
+    /**
+     * The Stanford CRF named entity classifier
+     */
+    CRF,
+
+    /**
+     * A dictionary (gazetteer) of known entity names that are matched in a single pass
+     */
+    GAZETTEER,
+
+    /**
+     * Runs the gazetteer first and falls back to the CRF classifier if nothing was found
+     */
+    HYBRID
+}
@@ -0,0 +1,25 @@
+package com.chatalytics.core;
+
+/**
+ * What a spout does with a new message when its ingest buffer is full
+ *
+ * @author giannis
+ */
+public enum IngestOverflowPolicy {
+
+    /**
+     * Wait until there's room in the buffer. This pushes back on the chat connection but never
+     * loses a message
+     */
+    BLOCK,
+
+    /**
+     * Drop the oldest buffered message to make room for the new one
+     */
+    DROP_OLDEST,
+
+    /**
+     * Append the message to a local file that is drained once the buffer has room again
+     */
+    SPILL
+}
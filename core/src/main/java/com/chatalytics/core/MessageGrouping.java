@@ -0,0 +1,24 @@
+package com.chatalytics.core;
+
+/**
+ * How the messages emitted by a spout are distributed among the tasks of the analysis bolts
+ *
+ * @author giannis
+ */
+public enum MessageGrouping {
+
+    /**
+     * Spread the messages evenly over all the tasks
+     */
+    SHUFFLE,
+
+    /**
+     * Send all the messages of a room to the same task, so that a bolt can keep state per room
+     */
+    ROOM,
+
+    /**
+     * Send all the messages of a user to the same task, so that a bolt can keep state per user
+     */
+    USER
+}
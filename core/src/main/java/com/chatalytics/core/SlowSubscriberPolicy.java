@@ -0,0 +1,26 @@
+package com.chatalytics.core;
+
+/**
+ * What a realtime server does with a new event when the outbound queue of a subscriber is full
+ * because the subscriber can't keep up
+ *
+ * @author giannis
+ */
+public enum SlowSubscriberPolicy {
+
+    /**
+     * Drop the oldest queued event to make room for the new one, so the subscriber catches up with
+     * the latest events
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the new event and keep the queued ones
+     */
+    DROP_NEWEST,
+
+    /**
+     * Close the session of the subscriber. It can reconnect and start over with the latest events
+     */
+    DISCONNECT
+}
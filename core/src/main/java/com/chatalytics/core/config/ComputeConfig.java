@@ -1,6 +1,11 @@
 package com.chatalytics.core.config;
 
+import com.chatalytics.core.EntityExtractorType;
+import com.chatalytics.core.IngestOverflowPolicy;
+import com.chatalytics.core.SlowSubscriberPolicy;
+
 import java.io.Serializable;
+import java.util.List;
 import java.util.Map;
 
 public class ComputeConfig implements Serializable {
@@ -11,14 +16,233 @@ public class ComputeConfig implements Serializable {
 
     public int apiRetries = 3;
 
+    /**
+     * Optional maximum requests per minute and auth token for chat API methods, e.g.
+     * <code>channels.history</code>. Overrides the documented limits of the chat API
+     */
+    public Map<String, Integer> apiRequestsPerMinute;
+
+    /**
+     * Maximum requests per minute and auth token for chat API methods without a known limit. Set to
+     * 0 to use the default of the chat API
+     */
+    public int apiDefaultRequestsPerMinute = 0;
+
+    /**
+     * Maximum number of chat API requests in flight at the same time, across all auth tokens
+     */
+    public int apiMaxConcurrentRequests = 8;
+
+    /**
+     * Delay before retrying a failed chat API request. It doubles with every retry and is jittered
+     */
+    public long apiRetryBackoffMs = 500;
+
+    /**
+     * Maximum delay before retrying a failed chat API request
+     */
+    public long apiMaxRetryBackoffMs = 30000;
+
+    /**
+     * How long a chat API request keeps being retried while the API rate limits it. Rate limited
+     * attempts don't count against <code>apiRetries</code>
+     */
+    public long apiRateLimitTimeoutMs = 300000;
+
+    /**
+     * Optional directory for caching the message history of days that are over, for chat APIs that
+     * return the history one day at a time. Cached days are never fetched again. Disabled when not
+     * set
+     */
+    public String apiHistoryCacheDir;
+
+    /**
+     * Parallelism, groupings and workers of the storm topology, and whether it's submitted to a
+     * remote cluster
+     */
+    public TopologyConfig topologyConfig = new TopologyConfig();
+
+    /**
+     * Maximum number of emitted but not yet acked tuples per spout task. This is also set as
+     * <code>topology.max.spout.pending</code>
+     */
+    public int maxSpoutPending = 1000;
+
+    /**
+     * Number of times a failed tuple is replayed by a reliable spout before it's dropped
+     */
+    public int spoutMaxReplays = 5;
+
+    /**
+     * Delay before the first replay of a failed tuple. It doubles with every replay
+     */
+    public long spoutReplayBackoffMs = 1000;
+
+    /**
+     * Maximum delay before replaying a failed tuple
+     */
+    public long spoutMaxReplayBackoffMs = 60000;
+
+    /**
+     * Maximum number of tuples a spout emits in a single <code>nextTuple</code> call
+     */
+    public int spoutMaxBatchSize = 100;
+
+    /**
+     * How often polling spouts check if there's new chat history to pull. Pulls run in the
+     * background, so this only bounds how late a pull can start
+     */
+    public long spoutPollIntervalSecs = 60;
+
+    /**
+     * Maximum time spouts and the topology get to stop on shutdown before they're abandoned
+     */
+    public long shutdownTimeoutSecs = 30;
+
+    /**
+     * Number of received messages a realtime spout buffers before applying the
+     * <code>ingestOverflowPolicy</code>. Rounded up to a power of two
+     */
+    public int ingestBufferCapacity = 8192;
+
+    /**
+     * What to do with new messages when the ingest buffer is full
+     */
+    public IngestOverflowPolicy ingestOverflowPolicy = IngestOverflowPolicy.BLOCK;
+
+    /**
+     * Directory for the spill files of the <code>SPILL</code> overflow policy. Defaults to the
+     * system temporary directory
+     */
+    public String ingestSpillDir;
+
+    /**
+     * How often spouts reload all the users and rooms of the chat
+     */
+    public long chatDirectoryRefreshSecs = 900;
+
+    /**
+     * Minimum time between two user or room reloads caused by messages from unknown users or rooms
+     */
+    public long chatDirectoryMinMissReloadSecs = 30;
+
     public String apiDateFormat;
 
     public final String rtComputePath = "/rtcompute";
 
     public int rtComputePort = 9000;
 
+    /**
+     * Host of the compute realtime server the realtime bolts publish to. It has to be reachable
+     * from the storm workers when the topology runs on a remote cluster
+     */
+    public String rtComputeHost = "localhost";
+
+    /**
+     * Maximum number of events realtime bolts send to the compute realtime server in a single frame
+     */
+    public int rtPublishBatchSize = 100;
+
+    /**
+     * Maximum time a realtime event waits for more events to be batched with before it's sent
+     */
+    public long rtPublishLingerMs = 50;
+
+    /**
+     * Number of events a realtime bolt queues while it's sending or reconnecting. New events are
+     * dropped when the queue is full, so a slow realtime server never stalls the bolt
+     */
+    public int rtPublishQueueCapacity = 10000;
+
+    /**
+     * Maximum number of frames a realtime bolt sends without waiting for them to complete
+     */
+    public int rtPublishMaxInFlight = 4;
+
+    /**
+     * Delay before reconnecting to the compute realtime server. It doubles with every failed
+     * attempt
+     */
+    public long rtReconnectBackoffMs = 500;
+
+    /**
+     * Maximum delay before reconnecting to the compute realtime server
+     */
+    public long rtMaxReconnectBackoffMs = 30000;
+
+    /**
+     * Number of events the compute realtime server queues per subscriber before applying the
+     * <code>rtSlowSubscriberPolicy</code>
+     */
+    public int rtSubscriberQueueCapacity = 1000;
+
+    /**
+     * What the compute realtime server does with new events when a subscriber can't keep up
+     */
+    public SlowSubscriberPolicy rtSlowSubscriberPolicy = SlowSubscriberPolicy.DROP_OLDEST;
+
     public ChatConfig chatConfig;
 
+    /**
+     * Set to true to run the entity, emoji and message summary analysis in a single bolt. Leave it
+     * false to run them in separate bolts that can be scaled independently
+     */
+    public boolean fusedMessageAnalysis = false;
+
+    /**
+     * The engine used for extracting entities from messages
+     */
+    public EntityExtractorType entityExtractor = EntityExtractorType.CRF;
+
+    /**
+     * Optional resource with one entity name per line used by the gazetteer entity extractor
+     */
+    public String entityDictionaryFile;
+
+    /**
+     * Optional list of entity names used by the gazetteer entity extractor. These are added to the
+     * ones read from <code>entityDictionaryFile</code>
+     */
+    public List<String> entityDictionary;
+
+    /**
+     * Set to false if the gazetteer entity extractor should match entity names case sensitively
+     */
+    public boolean entityDictionaryIgnoreCase = true;
+
+    /**
+     * Maximum number of message texts whose extracted entities are cached. Set to 0, together with
+     * <code>entityCacheMaxWeight</code>, to disable the cache
+     */
+    public long entityCacheMaxSize = 10000;
+
+    /**
+     * If greater than 0, the entity cache is bounded by this many characters of cached text instead
+     * of by <code>entityCacheMaxSize</code>
+     */
+    public long entityCacheMaxWeight = 0;
+
+    /**
+     * Set to false to run every message through the entity classifier, even the ones that can't
+     * contain any entities (e.g. emoji only messages, links, lower case acks)
+     */
+    public boolean entityPreFilter = true;
+
+    /**
+     * Messages with fewer non whitespace characters than this are never classified
+     */
+    public int entityMinMessageLength = 3;
+
+    /**
+     * Optional list of room names whose messages are never classified
+     */
+    public List<String> entitySkipRooms;
+
+    /**
+     * Optional list of user mention names (usually bots) whose messages are never classified
+     */
+    public List<String> entitySkipUsers;
+
     /**
      * Map of property name to file to read
      */
@@ -37,6 +37,73 @@ public class LocalTestConfig implements ChatConfig {
      */
     public String messageCorpusFile;
 
+    /**
+     * Number of fake bot users to create in load generation mode. No bots are created otherwise,
+     * so they never send the messages emitted every <code>sleepMs</code>
+     */
+    public int numBots = 0;
+
+    /**
+     * Average number of messages per second to emit. Setting this turns on load generation mode,
+     * where messages are emitted on a schedule that doesn't depend on how fast the topology
+     * processes them, and users, rooms, sentences, emojis and entities are picked with a Zipf
+     * distribution. When 0, one uniformly random message is emitted every <code>sleepMs</code>
+     */
+    public double targetMessagesPerSec = 0;
+
+    /**
+     * Exponent of the Zipf distributions of the load generator. The higher it is, the more
+     * messages go to the most popular users, rooms, emojis and entities. 0 picks them uniformly
+     */
+    public double zipfExponent = 1.0;
+
+    /**
+     * Fraction of generated messages sent by bots. Requires <code>numBots</code> to be set
+     */
+    public double botMessageRatio = 0;
+
+    /**
+     * Fraction of generated messages that contain an emoji
+     */
+    public double emojiMessageRatio = 0.2;
+
+    /**
+     * Fraction of generated messages that mention an entity. Entities are taken from the compute
+     * config <code>entityDictionary</code> if it's set
+     */
+    public double entityMessageRatio = 0.3;
+
+    /**
+     * How much the message rate varies over a day, from 0 (constant) to 1 (no messages at the
+     * quietest time of day)
+     */
+    public double diurnalAmplitude = 0;
+
+    /**
+     * The hour of the day with the highest message rate
+     */
+    public int diurnalPeakHour = 14;
+
+    /**
+     * Length of a simulated day in seconds. Lower it to go through the daily cycle faster
+     */
+    public long dayLengthSecs = 24 * 60 * 60;
+
+    /**
+     * Average number of bursts per hour. Bursts start at random times
+     */
+    public double burstsPerHour = 0;
+
+    /**
+     * How many times higher the message rate is during a burst
+     */
+    public double burstMultiplier = 5;
+
+    /**
+     * How long a burst lasts
+     */
+    public long burstDurationSecs = 30;
+
     public char emojiStartChar = ':';
 
     public char emojiEndChar = ':';
@@ -19,4 +19,27 @@ public class SlackBackfillerConfig extends SlackConfig {
      */
     public String startDate;
 
+    /**
+     * Number of rooms whose history is fetched in parallel
+     */
+    public int roomParallelism = 4;
+
+    /**
+     * The history of every room is fetched in windows of this many days, oldest first. The room's
+     * progress is saved after every window so that a restarted backfill resumes from there
+     */
+    public int windowDays = 30;
+
+    /**
+     * Optional maximum number of history requests per second across all rooms. The chat API client
+     * already keeps every auth token under Slack's limits, so set this only to slow the backfill
+     * down further. Disabled when 0
+     */
+    public double maxRequestsPerSec = 0;
+
+    /**
+     * Maximum number of fetched pages waiting to be emitted. Fetching pauses when it's reached
+     */
+    public int maxBufferedPages = 16;
+
 }
@@ -0,0 +1,83 @@
+package com.chatalytics.core.config;
+
+import com.chatalytics.core.MessageGrouping;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * How the storm topology is laid out and where it runs. Components are referred to by their storm
+ * IDs, e.g. <code>ENTITY_EXTRACTION_BOLT_ID</code>.
+ *
+ * @author giannis
+ */
+public class TopologyConfig implements Serializable {
+
+    private static final long serialVersionUID = -3154935386624425139L;
+
+    /**
+     * Set to true to submit the topology to the storm cluster in the storm config with
+     * <code>StormSubmitter</code>, in which case the compute engine has to be started with
+     * <code>storm jar</code>. Leave it false to run the topology in a local cluster in the same
+     * JVM. A submitted topology keeps running when the compute engine stops and is stopped with
+     * <code>storm kill</code>
+     */
+    public boolean remoteCluster = false;
+
+    public String topologyName = "chat-topology";
+
+    /**
+     * Number of worker JVMs the topology runs in
+     */
+    public int numWorkers = 1;
+
+    /**
+     * Optional parallelism hint, i.e. the initial number of executors, per component ID. Components
+     * that are not listed get 1. Spouts that pull from a chat API should be left at 1, since every
+     * one of their tasks would pull all the messages
+     */
+    public Map<String, Integer> parallelism;
+
+    /**
+     * Optional number of tasks per component ID. Defaults to the parallelism hint. More tasks than
+     * executors leave room to rebalance the topology to more executors without resubmitting it
+     */
+    public Map<String, Integer> numTasks;
+
+    /**
+     * How the spout messages are distributed among the tasks of the analysis bolts
+     */
+    public MessageGrouping analysisGrouping = MessageGrouping.SHUFFLE;
+
+    /**
+     * Size of the time buckets the emoji and message summary bolts aggregate their counts in before
+     * persisting them. Every bucket is persisted as one row per user, room and value, dated with
+     * the start of the bucket, so this is also the time resolution of the stored counts. 0, the
+     * default, persists every count as it comes.
+     * <p/>
+     * Aggregating bolts ack a message as soon as its counts are added to a bucket, so the counts
+     * of the buckets that weren't persisted yet, up to <code>aggregationBucketSecs</code> plus
+     * <code>aggregationFlushSecs</code> worth of messages, are lost if a worker dies and the spout
+     * won't replay them. <code>maxSpoutPending</code> doesn't bound them either, since the messages
+     * are no longer pending. Only enable it when fewer database writes are worth that
+     */
+    public int aggregationBucketSecs = 0;
+
+    /**
+     * How often the aggregating bolts get a tick tuple and persist the buckets that are over
+     */
+    public int aggregationFlushSecs = 10;
+
+    /**
+     * Set to true to build the trident topology instead, which counts entities, emojis and message
+     * summaries exactly once per time bucket, even when batches are replayed. It doesn't publish
+     * realtime events, and only supports the slack input type, whose spout replays failed messages
+     */
+    public boolean trident = false;
+
+    /**
+     * Number of mention counts every partition of the trident state keeps in memory
+     */
+    public int tridentStateCacheSize = 10000;
+
+}
@@ -1,5 +1,7 @@
 package com.chatalytics.core.config;
 
+import com.chatalytics.core.SlowSubscriberPolicy;
+
 import java.io.Serializable;
 
 public class WebConfig implements Serializable {
@@ -8,4 +10,27 @@ public class WebConfig implements Serializable {
 
     public int port = 80;
 
+    /**
+     * Number of realtime events queued per connected client before applying the
+     * <code>slowSubscriberPolicy</code>
+     */
+    public int subscriberQueueCapacity = 256;
+
+    /**
+     * What the web server does with new realtime events when a client can't keep up
+     */
+    public SlowSubscriberPolicy slowSubscriberPolicy = SlowSubscriberPolicy.DROP_OLDEST;
+
+    /**
+     * Length of the windows whose event counts are sent to the clients of the windowed realtime
+     * stream. Has to be a multiple of <code>eventWindowSlideSecs</code>
+     */
+    public int eventWindowSecs = 10;
+
+    /**
+     * How often the windowed realtime stream sends the counts of the last window. Set it lower than
+     * <code>eventWindowSecs</code> for sliding windows
+     */
+    public int eventWindowSlideSecs = 10;
+
 }
@@ -0,0 +1,30 @@
+package com.chatalytics.core.model.data;
+
+import com.google.common.collect.ImmutableList;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A batch of {@link ChatAlyticsEvent}s that are sent through a socket as a single frame. It's
+ * written out as a JSON array of events
+ *
+ * @author giannis
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public class ChatAlyticsEventBatch implements Serializable {
+
+    private static final long serialVersionUID = 3215287447315985611L;
+
+    private final List<ChatAlyticsEvent> events;
+
+    public ChatAlyticsEventBatch(List<ChatAlyticsEvent> events) {
+        this.events = ImmutableList.copyOf(events);
+    }
+}
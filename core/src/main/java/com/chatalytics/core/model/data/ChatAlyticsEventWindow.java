@@ -0,0 +1,44 @@
+package com.chatalytics.core.model.data;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.joda.time.DateTime;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * The counts of the {@link ChatAlyticsEvent}s received in a window of time, by event type and
+ * value, e.g. the number of times every emoji was used in the last 10 seconds. Values that weren't
+ * seen in the window are left out
+ *
+ * @author giannis
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public class ChatAlyticsEventWindow implements Serializable {
+
+    private static final long serialVersionUID = -4781318937105290417L;
+
+    private final DateTime windowStart;
+    private final DateTime windowEnd;
+    /**
+     * Event type to value to the sum of its occurrences
+     */
+    private final Map<String, Map<String, Long>> counts;
+
+    public ChatAlyticsEventWindow(DateTime windowStart, DateTime windowEnd,
+                                  Map<String, Map<String, Long>> counts) {
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        ImmutableMap.Builder<String, Map<String, Long>> countsBuilder = ImmutableMap.builder();
+        counts.forEach((type, valueCounts) -> countsBuilder.put(type,
+                                                                ImmutableMap.copyOf(valueCounts)));
+        this.counts = countsBuilder.build();
+    }
+}
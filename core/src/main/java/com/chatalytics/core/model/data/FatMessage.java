@@ -9,7 +9,8 @@ import java.io.Serializable;
 
 /**
  * Bean that represents a chat message. This bean contains actual {@link Room} and {@link User}
- * objects instead of IDs. The slimmer version of this object is {@link Message}.
+ * objects instead of IDs. The slimmer version of this object is {@link Message}. Tuples carry a
+ * {@link MessageEnvelope} instead.
  *
  * @author giannis
  *
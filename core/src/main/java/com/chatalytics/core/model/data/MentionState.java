@@ -0,0 +1,135 @@
+package com.chatalytics.core.model.data;
+
+import com.google.common.base.MoreObjects;
+
+import lombok.EqualsAndHashCode;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * The transactional state of an aggregated mention count. The count itself is stored as the
+ * occurrences of a row in one of the mention tables. This keeps the ID of the last batch that
+ * updated the count and the count before that batch, so that a replayed batch overwrites its own
+ * update instead of adding to it
+ *
+ * @author giannis
+ *
+ */
+@Entity
+@Table(name = MentionState.MENTION_STATE_TABLE_NAME)
+@EqualsAndHashCode
+public class MentionState {
+
+    public static final String MENTION_STATE_TABLE_NAME = "MENTION_STATE";
+    private static final String STATE_KEY_COLUMN = "STATE_KEY";
+    private static final String MENTION_TYPE_COLUMN = "MENTION_TYPE";
+    private static final String MENTION_ID_COLUMN = "MENTION_ID";
+    private static final String TXID_COLUMN = "TXID";
+    private static final String CURR_COLUMN = "CURR";
+    private static final String PREV_COLUMN = "PREV";
+
+    private String stateKey;
+    private String mentionType;
+    private Long mentionId;
+    private Long txid;
+    private Long curr;
+    private Long prev;
+
+    public MentionState() {
+    }
+
+    /**
+     * @param stateKey
+     *            Uniquely identifies the user, room, value and time of the count
+     * @param mentionType
+     *            The name of the entity class of the mention row
+     * @param mentionId
+     *            The ID of the mention row or null if it wasn't persisted yet
+     * @param txid
+     *            The ID of the batch that last updated the count
+     * @param curr
+     *            The count after the last batch
+     * @param prev
+     *            The count before the last batch
+     */
+    public MentionState(String stateKey, String mentionType, Long mentionId, Long txid, Long curr,
+                        Long prev) {
+        this.stateKey = stateKey;
+        this.mentionType = mentionType;
+        this.mentionId = mentionId;
+        this.txid = txid;
+        this.curr = curr;
+        this.prev = prev;
+    }
+
+    @Id
+    @Column(name = STATE_KEY_COLUMN)
+    public String getStateKey() {
+        return stateKey;
+    }
+
+    protected void setStateKey(String stateKey) {
+        this.stateKey = stateKey;
+    }
+
+    @Column(name = MENTION_TYPE_COLUMN)
+    public String getMentionType() {
+        return mentionType;
+    }
+
+    protected void setMentionType(String mentionType) {
+        this.mentionType = mentionType;
+    }
+
+    @Column(name = MENTION_ID_COLUMN)
+    public Long getMentionId() {
+        return mentionId;
+    }
+
+    public void setMentionId(Long mentionId) {
+        this.mentionId = mentionId;
+    }
+
+    @Column(name = TXID_COLUMN)
+    public Long getTxid() {
+        return txid;
+    }
+
+    public void setTxid(Long txid) {
+        this.txid = txid;
+    }
+
+    @Column(name = CURR_COLUMN)
+    public Long getCurr() {
+        return curr;
+    }
+
+    public void setCurr(Long curr) {
+        this.curr = curr;
+    }
+
+    @Column(name = PREV_COLUMN)
+    public Long getPrev() {
+        return prev;
+    }
+
+    public void setPrev(Long prev) {
+        this.prev = prev;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this.getClass())
+                          .add("stateKey", stateKey)
+                          .add("mentionType", mentionType)
+                          .add("mentionId", mentionId)
+                          .add("txid", txid)
+                          .add("curr", curr)
+                          .add("prev", prev)
+                          .toString();
+    }
+
+}
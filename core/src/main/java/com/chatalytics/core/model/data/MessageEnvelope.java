@@ -0,0 +1,93 @@
+package com.chatalytics.core.model.data;
+
+import com.google.common.base.MoreObjects;
+
+import org.joda.time.DateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * Compact version of a {@link FatMessage} that is emitted in tuples. It only has the parts of the
+ * message, user and room that the bolts read, so it's a fraction of the size of the full
+ * {@link User} and {@link Room} objects. Bolts that need more can look the user and room up by
+ * their IDs.
+ *
+ * @author giannis
+ */
+@AllArgsConstructor
+@EqualsAndHashCode
+@Getter
+public class MessageEnvelope implements Serializable {
+
+    private final DateTime date;
+    private final MessageType type;
+    private final String text;
+    private final String userId;
+    /**
+     * The mention name of the user
+     */
+    private final String username;
+    private final boolean bot;
+    private final String roomId;
+    private final String roomName;
+
+    private static final long serialVersionUID = -2750465262262313305L;
+
+    /**
+     * @see #of(Message, User, Room)
+     */
+    public static MessageEnvelope of(FatMessage fatMessage) {
+        return of(fatMessage.getMessage(), fatMessage.getUser(), fatMessage.getRoom());
+    }
+
+    /**
+     * Creates the envelope of a message. The IDs and names are the ones of the user and room
+     * objects, which are shared by all the messages of a user or room. A message without a user is
+     * considered to be from a bot.
+     *
+     * @param message
+     *            The message
+     * @param user
+     *            The user that sent the message. Can be null
+     * @param room
+     *            The room the message was sent to. Can be null
+     * @return The envelope of the message
+     */
+    public static MessageEnvelope of(Message message, User user, Room room) {
+        String userId = message.getFromUserId();
+        String username = null;
+        boolean bot = true;
+        if (user != null) {
+            userId = user.getUserId();
+            username = user.getMentionName();
+            bot = user.isBot();
+        }
+        String roomId = message.getRoomId();
+        String roomName = null;
+        if (room != null) {
+            roomId = room.getRoomId();
+            roomName = room.getName();
+        }
+        return new MessageEnvelope(message.getDate(), message.getType(), message.getMessage(),
+                                   userId, username, bot, roomId, roomName);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this.getClass())
+                          .add("date", date)
+                          .add("type", type)
+                          .add("text", text)
+                          .add("userId", userId)
+                          .add("username", username)
+                          .add("bot", bot)
+                          .add("roomId", roomId)
+                          .add("roomName", roomName)
+                          .toString();
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.chatalytics.core.model.data;
+
+import com.google.common.base.MoreObjects;
+
+import org.joda.time.DateTime;
+
+import lombok.EqualsAndHashCode;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Class representing the time up to which the messages of a room have been pulled. This lets a
+ * backfill resume room by room instead of starting over
+ *
+ * @author giannis
+ *
+ */
+@Entity
+@Table(name = RoomPullTime.ROOM_PULL_TIME_TABLE_NAME)
+@EqualsAndHashCode
+public class RoomPullTime {
+
+    public static final String ROOM_PULL_TIME_TABLE_NAME = "ROOM_PULL_TIME";
+    private static final String ROOM_ID_COLUMN = "ROOM_ID";
+    private static final String TIME_COLUMN = "TIME";
+
+    private String roomId;
+    private DateTime time;
+
+    public RoomPullTime() {
+    }
+
+    public RoomPullTime(String roomId, DateTime time) {
+        this.roomId = roomId;
+        this.time = time;
+    }
+
+    @Id
+    @Column(name = ROOM_ID_COLUMN)
+    public String getRoomId() {
+        return roomId;
+    }
+
+    protected void setRoomId(String roomId) {
+        this.roomId = roomId;
+    }
+
+    @Column(name = TIME_COLUMN)
+    public DateTime getTime() {
+        return time;
+    }
+
+    public void setTime(DateTime time) {
+        this.time = time;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this.getClass())
+                          .add("roomId", roomId)
+                          .add("time", time)
+                          .toString();
+    }
+
+}
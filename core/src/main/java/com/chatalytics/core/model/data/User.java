@@ -4,6 +4,8 @@ import com.google.common.base.MoreObjects;
 
 import org.joda.time.DateTime;
 
+import java.io.Serializable;
+
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -17,7 +19,7 @@ import lombok.Getter;
 @AllArgsConstructor
 @EqualsAndHashCode
 @Getter
-public class User {
+public class User implements Serializable {
 
     private final String userId;
     private final String email;
@@ -34,6 +36,8 @@ public class User {
     private final String timezone;
     private final String title;
 
+    private static final long serialVersionUID = 5829541366215436716L;
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this.getClass())
@@ -22,4 +22,5 @@ public class HistoryResult {
     private final boolean has_more;
     private final boolean ok;
     private final String latest;
+    private final String error;
 }
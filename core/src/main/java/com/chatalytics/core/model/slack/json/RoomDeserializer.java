@@ -29,11 +29,13 @@ public class RoomDeserializer extends JsonChatDeserializer<Room> {
 
         String roomId = node.get("id").asText();
         String name = node.get("name").asText();
-        String topic = node.get("topic").get("value").asText();
+        // channel realtime events only carry the id, name, creation date and creator
+        JsonNode topicNode = node.get("topic");
+        String topic = topicNode == null ? null : getAsTextOrNull(topicNode.get("value"));
 
         DateTime creationDate = new DateTime(node.get("created").asLong() * 1000L);
-        String ownerUserId = node.get("creator").asText();
-        boolean archived = node.get("is_archived").asBoolean();
+        String ownerUserId = getAsTextOrNull(node.get("creator"));
+        boolean archived = getAsBooleanOrFalse(node.get("is_archived"));
         boolean privateRoom = false;
         return new Room(roomId, name, topic, null, creationDate, ownerUserId, archived,
                         privateRoom, null, null);
@@ -0,0 +1,67 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.ChatAlyticsEventBatch;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.base.Strings;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.websocket.DecodeException;
+import javax.websocket.Decoder;
+import javax.websocket.EndpointConfig;
+
+/**
+ * Socket decoder for {@link ChatAlyticsEventBatch}es. A single {@link ChatAlyticsEvent} that isn't
+ * in an array is decoded as a batch of one, so publishers that send one event per frame still work
+ *
+ * @author giannis
+ *
+ */
+public class ChatAlyticsEventBatchDecoder implements Decoder.Text<ChatAlyticsEventBatch> {
+
+    private final ObjectReader reader;
+
+    public ChatAlyticsEventBatchDecoder() {
+        reader = JsonObjectMapperFactory.createObjectMapper()
+                                        .readerFor(new TypeReference<List<ChatAlyticsEvent>>() {})
+                                        .with(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
+    }
+
+    @Override
+    public void init(EndpointConfig config) { }
+
+    /**
+     * Decodes the string to a {@link ChatAlyticsEventBatch}
+     *
+     * @param str
+     *            A JSON array of events or a single event
+     * @return A deserialized {@link ChatAlyticsEventBatch}
+     */
+    @Override
+    public ChatAlyticsEventBatch decode(String str) throws DecodeException {
+        try {
+            List<ChatAlyticsEvent> events = reader.readValue(str);
+            return new ChatAlyticsEventBatch(events);
+        } catch (IOException e) {
+            throw new DecodeException("Could not decode event batch", e.getMessage());
+        }
+    }
+
+    /**
+     * @return Returns true if <code>str</code> is not null or empty
+     */
+    @Override
+    public boolean willDecode(String str) {
+        return !Strings.isNullOrEmpty(str);
+    }
+
+    @Override
+    public void destroy() {
+        // no-op
+    }
+}
@@ -0,0 +1,43 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.ChatAlyticsEventBatch;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.websocket.EncodeException;
+import javax.websocket.Encoder;
+import javax.websocket.EndpointConfig;
+
+/**
+ * Encoder for passing {@link ChatAlyticsEventBatch}es through sockets as JSON arrays of events
+ *
+ * @author giannis
+ *
+ */
+public class ChatAlyticsEventBatchEncoder implements Encoder.Text<ChatAlyticsEventBatch> {
+
+    private final ObjectMapper objectMapper;
+
+    public ChatAlyticsEventBatchEncoder() {
+        objectMapper = JsonObjectMapperFactory.createObjectMapper();
+    }
+
+    @Override
+    public void init(EndpointConfig config) { }
+
+    @Override
+    public String encode(ChatAlyticsEventBatch batch) throws EncodeException {
+        try {
+            return objectMapper.writeValueAsString(batch.getEvents());
+        } catch (JsonProcessingException e) {
+            throw new EncodeException(batch, "Can't encode batch. Reason: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // no op
+    }
+
+}
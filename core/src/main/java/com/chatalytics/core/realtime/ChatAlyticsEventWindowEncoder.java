@@ -0,0 +1,43 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.chatalytics.core.model.data.ChatAlyticsEventWindow;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.websocket.EncodeException;
+import javax.websocket.Encoder;
+import javax.websocket.EndpointConfig;
+
+/**
+ * Encoder for passing {@link ChatAlyticsEventWindow}s through sockets as JSON objects
+ *
+ * @author giannis
+ *
+ */
+public class ChatAlyticsEventWindowEncoder implements Encoder.Text<ChatAlyticsEventWindow> {
+
+    private final ObjectMapper objectMapper;
+
+    public ChatAlyticsEventWindowEncoder() {
+        objectMapper = JsonObjectMapperFactory.createObjectMapper();
+    }
+
+    @Override
+    public void init(EndpointConfig config) { }
+
+    @Override
+    public String encode(ChatAlyticsEventWindow window) throws EncodeException {
+        try {
+            return objectMapper.writeValueAsString(window);
+        } catch (JsonProcessingException e) {
+            throw new EncodeException(window, "Can't encode window. Reason: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // no op
+    }
+
+}
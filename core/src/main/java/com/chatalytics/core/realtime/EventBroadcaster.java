@@ -0,0 +1,297 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.SlowSubscriberPolicy;
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.websocket.EncodeException;
+import javax.websocket.Session;
+
+/**
+ * Broadcasts {@link ChatAlyticsEvent}s to the sessions of realtime subscribers. Every event is
+ * encoded once and the same frame is queued to every subscriber, each with its own bounded
+ * {@link SubscriberQueue}, so a slow subscriber can't hold up the others or make the server buffer
+ * an unbounded number of frames for it.
+ * <p/>
+ * Subscribers can set {@link SubscriptionFilter}s to only get some of the events. The filters are
+ * kept in an immutable {@link SubscriptionIndex} that is rebuilt when subscribers or their filters
+ * change, so broadcasting an event only looks at the filters that can match its type and room, and
+ * an event that no subscriber wants isn't even encoded.
+ * <p/>
+ * Subscribers are removed when their sessions are removed, or as soon as their queues close
+ * themselves, so broadcasting doesn't have to look for closed sessions.
+ * <p/>
+ * This class is thread safe.
+ *
+ * @author giannis
+ */
+public class EventBroadcaster {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventBroadcaster.class);
+
+    private final int queueCapacity;
+    private final SlowSubscriberPolicy policy;
+    private final ChatAlyticsEventEncoder encoder;
+    private final Map<Session, SubscriberQueue> subscribers;
+    private final AtomicInteger nextSubscriberId;
+    private final Map<Session, List<SubscriptionFilter>> filters;
+    private final Queue<SubscriberQueue> closedQueues;
+
+    private volatile SubscriptionIndex index;
+
+    /**
+     * @param queueCapacity
+     *            Maximum number of events queued per subscriber
+     * @param policy
+     *            What to do with new events when the queue of a subscriber is full
+     */
+    public EventBroadcaster(int queueCapacity, SlowSubscriberPolicy policy) {
+        Preconditions.checkArgument(queueCapacity > 0, "Queue capacity has to be positive");
+        this.queueCapacity = queueCapacity;
+        this.policy = policy;
+        this.encoder = new ChatAlyticsEventEncoder();
+        this.subscribers = new ConcurrentHashMap<>();
+        this.nextSubscriberId = new AtomicInteger();
+        this.filters = new ConcurrentHashMap<>();
+        this.closedQueues = new ConcurrentLinkedQueue<>();
+        this.index = SubscriptionIndex.EMPTY;
+    }
+
+    /**
+     * Adds the session of a new subscriber, which gets every event until it sets its filters.
+     * Doesn't touch the session
+     *
+     * @return The queue of the subscriber
+     */
+    public SubscriberQueue addSession(Session session) {
+        SubscriberQueue queue = new SubscriberQueue(nextSubscriberId.incrementAndGet(), session,
+                                                    queueCapacity, policy, this::onQueueClosed);
+        SubscriberQueue previousQueue;
+        synchronized (this) {
+            previousQueue = subscribers.put(session, queue);
+            filters.remove(session);
+            rebuildIndex();
+        }
+        if (previousQueue != null) {
+            previousQueue.close();
+        }
+        return queue;
+    }
+
+    /**
+     * Replaces the filters of a subscriber. An event is sent to the subscriber if it passes any of
+     * the filters
+     *
+     * @param session
+     *            The session of the subscriber
+     * @param sessionFilters
+     *            The new filters. Null to get every event, empty to get none
+     * @return False if the session wasn't added
+     */
+    public synchronized boolean setFilters(Session session,
+                                           List<SubscriptionFilter> sessionFilters) {
+        if (!subscribers.containsKey(session)) {
+            return false;
+        }
+        if (sessionFilters == null) {
+            filters.remove(session);
+        } else {
+            filters.put(session, ImmutableList.copyOf(sessionFilters));
+        }
+        rebuildIndex();
+        return true;
+    }
+
+    /**
+     * @return The filters of a subscriber or null if it gets every event
+     */
+    public List<SubscriptionFilter> getFilters(Session session) {
+        return filters.get(session);
+    }
+
+    /**
+     * @return The distinct filters of all the subscribers in the order they subscribed, or null if
+     *         there are no subscribers or any subscriber gets every event. An upstream source only
+     *         has to send the events that pass any of them
+     */
+    public List<SubscriptionFilter> getAllFilters() {
+        if (subscribers.isEmpty()) {
+            return null;
+        }
+        Set<SubscriptionFilter> allFilters = Sets.newLinkedHashSet();
+        List<SubscriberQueue> queues = subscribers.values().stream()
+            .sorted(Comparator.comparingInt(SubscriberQueue::getId))
+            .collect(Collectors.toList());
+        for (SubscriberQueue queue : queues) {
+            List<SubscriptionFilter> sessionFilters = filters.get(queue.getSession());
+            if (sessionFilters == null) {
+                return null;
+            }
+            allFilters.addAll(sessionFilters);
+        }
+        return Lists.newArrayList(allFilters);
+    }
+
+    /**
+     * Removes the session of a subscriber and drops its queued events
+     *
+     * @return The queue of the removed subscriber or null if the session wasn't added
+     */
+    public SubscriberQueue removeSession(Session session) {
+        SubscriberQueue queue;
+        synchronized (this) {
+            queue = subscribers.remove(session);
+            filters.remove(session);
+            rebuildIndex();
+        }
+        if (queue != null) {
+            queue.close();
+        }
+        return queue;
+    }
+
+    /**
+     * Removes the sessions that are closed, including the ones that no event was sent to since
+     * they closed. Looks at every subscriber, so it's meant to be called when a subscriber
+     * connects rather than for every event
+     *
+     * @return The queues of the removed subscribers, including the ones that closed themselves
+     *         since they were last returned
+     */
+    public List<SubscriberQueue> removeClosedSessions() {
+        List<SubscriberQueue> staleQueues = subscribers.values().stream()
+            .filter(queue -> !queue.isClosed() && !queue.getSession().isOpen())
+            .collect(Collectors.toList());
+        if (!staleQueues.isEmpty()) {
+            synchronized (this) {
+                for (SubscriberQueue queue : staleQueues) {
+                    if (subscribers.remove(queue.getSession(), queue)) {
+                        filters.remove(queue.getSession());
+                    }
+                }
+                rebuildIndex();
+            }
+            staleQueues.forEach(SubscriberQueue::close);
+        }
+        List<SubscriberQueue> removedQueues = takeClosedQueues();
+        removedQueues.addAll(staleQueues);
+        return removedQueues;
+    }
+
+    /**
+     * Encodes the event once and queues it to all the open sessions whose filters it passes
+     *
+     * @param event
+     *            The event to broadcast
+     * @return The queues of the subscribers that were removed since the last broadcast because
+     *         they were disconnected or their sessions were closed
+     */
+    public List<SubscriberQueue> broadcast(ChatAlyticsEvent event) {
+        Collection<SubscriberQueue> queues = index.match(event);
+        if (queues.isEmpty()) {
+            return takeClosedQueues();
+        }
+        String frame;
+        try {
+            frame = encoder.encode(event);
+        } catch (EncodeException e) {
+            LOG.error("Can't encode realtime event {}", event, e);
+            return takeClosedQueues();
+        }
+        for (SubscriberQueue queue : queues) {
+            queue.offer(frame);
+        }
+        return takeClosedQueues();
+    }
+
+    /**
+     * Queues a frame that is already encoded to all the open sessions, regardless of their filters
+     *
+     * @param frame
+     *            The frame to broadcast
+     * @return The queues of the subscribers that were removed since the last broadcast because
+     *         they were disconnected or their sessions were closed
+     */
+    public List<SubscriberQueue> broadcastFrame(String frame) {
+        for (SubscriberQueue queue : subscribers.values()) {
+            queue.offer(frame);
+        }
+        return takeClosedQueues();
+    }
+
+    /**
+     * @return The sessions of all the subscribers
+     */
+    public Set<Session> getSessions() {
+        return Collections.unmodifiableSet(subscribers.keySet());
+    }
+
+    /**
+     * @return The stats of all the subscribers, ordered by subscriber ID
+     */
+    public List<SubscriberStats> getSubscriberStats() {
+        return subscribers.values().stream()
+                          .map(SubscriberQueue::getStats)
+                          .sorted(Comparator.comparingInt(SubscriberStats::getSubscriberId))
+                          .collect(Collectors.toList());
+    }
+
+    /**
+     * Removes a subscriber whose queue closed itself. Not called while holding the lock of the
+     * queue
+     */
+    private void onQueueClosed(SubscriberQueue queue) {
+        synchronized (this) {
+            if (!subscribers.remove(queue.getSession(), queue)) {
+                return;
+            }
+            filters.remove(queue.getSession());
+            rebuildIndex();
+        }
+        closedQueues.add(queue);
+    }
+
+    /**
+     * @return The queues that closed themselves since this was last called
+     */
+    private List<SubscriberQueue> takeClosedQueues() {
+        List<SubscriberQueue> queues = Lists.newArrayList();
+        SubscriberQueue queue;
+        while ((queue = closedQueues.poll()) != null) {
+            queues.add(queue);
+        }
+        return queues;
+    }
+
+    /**
+     * Called while holding the lock of the broadcaster, after the subscribers or their filters
+     * changed
+     */
+    private void rebuildIndex() {
+        Map<SubscriberQueue, List<SubscriptionFilter>> queueFilters = Maps.newHashMap();
+        for (Map.Entry<Session, SubscriberQueue> subscriber : subscribers.entrySet()) {
+            queueFilters.put(subscriber.getValue(), filters.get(subscriber.getKey()));
+        }
+        index = new SubscriptionIndex(queueFilters);
+    }
+
+}
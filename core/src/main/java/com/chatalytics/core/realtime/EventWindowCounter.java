@@ -0,0 +1,119 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.ChatAlyticsEventWindow;
+import com.chatalytics.core.model.data.IMentionable;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import org.joda.time.DateTime;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+
+/**
+ * Counts the occurrences of realtime events by type and value in tumbling or sliding windows, so
+ * that subscribers can get one frame of counts per window instead of every event. Events are
+ * counted in panes of the slide size and every {@link #slide(DateTime)} closes the current pane and
+ * returns the counts of the panes in the window. When the window is as long as the slide the
+ * windows are tumbling and every window holds only the counts since the previous one. Sliding
+ * windows hold the totals of all their panes, not the changes since the previous window, so that
+ * a window never depends on the ones before it.
+ * <p/>
+ * Events are counted in the window they're received in, not in the one of their mention time.
+ * Only typed events carrying an {@link IMentionable} are counted. This class is thread safe.
+ *
+ * @author giannis
+ */
+public class EventWindowCounter {
+
+    private final long windowMillis;
+    private final int panesPerWindow;
+    private final Deque<Map<String, Map<String, Long>>> panes;
+    private final Map<String, Map<String, Long>> totals;
+
+    private Map<String, Map<String, Long>> currentPane;
+
+    /**
+     * @param windowMillis
+     *            The length of a window
+     * @param slideMillis
+     *            How often a window is produced. The window has to be a multiple of it
+     */
+    public EventWindowCounter(long windowMillis, long slideMillis) {
+        Preconditions.checkArgument(slideMillis > 0, "Slide has to be positive");
+        Preconditions.checkArgument(windowMillis >= slideMillis && windowMillis % slideMillis == 0,
+                                    "Window has to be a multiple of the slide");
+        this.windowMillis = windowMillis;
+        this.panesPerWindow = (int) (windowMillis / slideMillis);
+        this.panes = new ArrayDeque<>(panesPerWindow);
+        this.totals = Maps.newHashMap();
+        this.currentPane = Maps.newHashMap();
+    }
+
+    /**
+     * Adds the occurrences of an event to the current pane
+     */
+    public synchronized void add(ChatAlyticsEvent event) {
+        Serializable payload = event.getEvent();
+        if (event.getType() == null || !(payload instanceof IMentionable)) {
+            return;
+        }
+        IMentionable<?> mentionable = (IMentionable<?>) payload;
+        addCount(currentPane, event.getType(), String.valueOf(mentionable.getValue()),
+                 mentionable.getOccurrences());
+    }
+
+    /**
+     * Closes the current pane and starts a new one
+     *
+     * @param now
+     *            The end of the window
+     * @return The counts of the window that ends now
+     */
+    public synchronized ChatAlyticsEventWindow slide(DateTime now) {
+        Map<String, Map<String, Long>> closedPane = currentPane;
+        currentPane = Maps.newHashMap();
+        panes.addLast(closedPane);
+        addAll(closedPane, 1);
+        if (panes.size() > panesPerWindow) {
+            addAll(panes.removeFirst(), -1);
+        }
+        return new ChatAlyticsEventWindow(now.minus(windowMillis), now, totals);
+    }
+
+    /**
+     * Drops all the counts
+     */
+    public synchronized void reset() {
+        panes.clear();
+        totals.clear();
+        currentPane = Maps.newHashMap();
+    }
+
+    private void addAll(Map<String, Map<String, Long>> pane, int sign) {
+        pane.forEach((type, valueCounts) -> valueCounts.forEach(
+            (value, count) -> addCount(totals, type, value, sign * count)));
+    }
+
+    /**
+     * Adds to a count and removes the counts that drop to 0, so that windows only hold the values
+     * that were seen in them
+     */
+    private static void addCount(Map<String, Map<String, Long>> counts, String type, String value,
+                                 long delta) {
+        Map<String, Long> valueCounts = counts.computeIfAbsent(type, key -> Maps.newHashMap());
+        long count = valueCounts.getOrDefault(value, 0L) + delta;
+        if (count == 0) {
+            valueCounts.remove(value);
+            if (valueCounts.isEmpty()) {
+                counts.remove(type);
+            }
+        } else {
+            valueCounts.put(value, count);
+        }
+    }
+
+}
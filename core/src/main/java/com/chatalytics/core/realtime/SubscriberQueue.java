@@ -0,0 +1,266 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.SlowSubscriberPolicy;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Queues;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+/**
+ * Bounded outbound queue of a single realtime subscriber. Only one frame per subscriber is sent at
+ * a time and the next one is sent when it completes, so a slow subscriber only ever holds
+ * <code>capacity</code> frames, plus the one being sent, instead of buffering every event in the
+ * socket. When the queue is full the {@link SlowSubscriberPolicy} decides what to drop. The queue
+ * closes itself when it disconnects the subscriber or finds its session closed, and tells its
+ * close listener.
+ * <p/>
+ * This class is thread safe.
+ *
+ * @author giannis
+ */
+public class SubscriberQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SubscriberQueue.class);
+
+    private final int id;
+    private final Session session;
+    private final int capacity;
+    private final SlowSubscriberPolicy policy;
+    private final Consumer<SubscriberQueue> closeListener;
+    private final Deque<QueuedFrame> frames;
+    private final LongAdder sentFrames;
+    private final LongAdder droppedFrames;
+    private QueuedFrame sendingFrame;
+    private boolean closed;
+
+    /**
+     * @param id
+     *            The ID of the subscriber
+     * @param session
+     *            The session of the subscriber
+     * @param capacity
+     *            Maximum number of frames waiting to be sent
+     * @param policy
+     *            What to do with new frames when the queue is full
+     */
+    public SubscriberQueue(int id, Session session, int capacity, SlowSubscriberPolicy policy) {
+        this(id, session, capacity, policy, queue -> { });
+    }
+
+    /**
+     * @param id
+     *            The ID of the subscriber
+     * @param session
+     *            The session of the subscriber
+     * @param capacity
+     *            Maximum number of frames waiting to be sent
+     * @param policy
+     *            What to do with new frames when the queue is full
+     * @param closeListener
+     *            Called once when the queue closes itself, but not when {@link #close()} is called
+     */
+    public SubscriberQueue(int id, Session session, int capacity, SlowSubscriberPolicy policy,
+                           Consumer<SubscriberQueue> closeListener) {
+        Preconditions.checkArgument(capacity > 0, "Capacity has to be positive");
+        this.id = id;
+        this.session = session;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.closeListener = closeListener;
+        this.frames = Queues.newArrayDeque();
+        this.sentFrames = new LongAdder();
+        this.droppedFrames = new LongAdder();
+    }
+
+    /**
+     * Queues a frame and sends it right away if nothing else is being sent. Never blocks
+     *
+     * @param frame
+     *            The encoded frame
+     * @return False if the frame was dropped
+     */
+    public boolean offer(String frame) {
+        if (!session.isOpen()) {
+            closeSelf();
+            return false;
+        }
+        QueuedFrame next = null;
+        boolean disconnect = false;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (frames.size() >= capacity) {
+                switch (policy) {
+                    case DROP_NEWEST:
+                        droppedFrames.increment();
+                        return false;
+                    case DISCONNECT:
+                        droppedFrames.add(frames.size() + 1);
+                        frames.clear();
+                        closed = true;
+                        disconnect = true;
+                        break;
+                    default:
+                        droppedFrames.increment();
+                        frames.pollFirst();
+                }
+            }
+            if (!disconnect) {
+                frames.addLast(new QueuedFrame(frame, System.nanoTime()));
+                next = takeNext();
+            }
+        }
+        if (disconnect) {
+            LOG.warn("Subscriber {} can't keep up with {} queued events. Disconnecting it", id,
+                     capacity);
+            disconnect();
+            closeListener.accept(this);
+            return false;
+        }
+        send(next);
+        return true;
+    }
+
+    /**
+     * Stops sending frames and drops the queued ones. Doesn't close the session
+     */
+    public synchronized void close() {
+        closed = true;
+        frames.clear();
+    }
+
+    /**
+     * @return True if the queue was closed or the subscriber was disconnected
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public synchronized int getQueueDepth() {
+        return frames.size();
+    }
+
+    /**
+     * @return How long the oldest frame that wasn't sent yet has been waiting, or 0 if there's no
+     *         such frame
+     */
+    public long getLagMillis() {
+        long oldestNanos;
+        synchronized (this) {
+            QueuedFrame oldest = sendingFrame != null ? sendingFrame : frames.peekFirst();
+            if (oldest == null) {
+                return 0;
+            }
+            oldestNanos = oldest.queuedNanos;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldestNanos);
+    }
+
+    public long getSentCount() {
+        return sentFrames.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedFrames.sum();
+    }
+
+    public SubscriberStats getStats() {
+        return new SubscriberStats(id, getQueueDepth(), getLagMillis(), getSentCount(),
+                                   getDroppedCount());
+    }
+
+    /**
+     * Takes the next frame to send, if nothing is being sent. Has to be called while holding the
+     * lock
+     */
+    private QueuedFrame takeNext() {
+        if (sendingFrame != null || closed) {
+            return null;
+        }
+        sendingFrame = frames.pollFirst();
+        return sendingFrame;
+    }
+
+    private void send(QueuedFrame frame) {
+        if (frame == null) {
+            return;
+        }
+        try {
+            session.getAsyncRemote().sendText(frame.text, this::onSent);
+        } catch (RuntimeException e) {
+            LOG.debug("Can't send event to subscriber {}. Reason: {}", id, e.getMessage());
+            onSent(new SendResult(e));
+        }
+    }
+
+    private void onSent(SendResult result) {
+        if (result.isOK()) {
+            sentFrames.increment();
+        } else {
+            droppedFrames.increment();
+        }
+        QueuedFrame next;
+        synchronized (this) {
+            sendingFrame = null;
+            next = takeNext();
+        }
+        send(next);
+    }
+
+    /**
+     * Closes the queue after its session was found closed, and tells the listener unless the queue
+     * was already closed
+     */
+    private void closeSelf() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            frames.clear();
+        }
+        closeListener.accept(this);
+    }
+
+    private void disconnect() {
+        try {
+            session.close(new CloseReason(CloseCodes.TRY_AGAIN_LATER,
+                                          "Subscriber can't keep up with the events"));
+        } catch (IOException e) {
+            LOG.warn("Couldn't close subscriber {}. Reason: {}", id, e.getMessage());
+        }
+    }
+
+    private static class QueuedFrame {
+
+        private final String text;
+        private final long queuedNanos;
+
+        private QueuedFrame(String text, long queuedNanos) {
+            this.text = text;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+
+}
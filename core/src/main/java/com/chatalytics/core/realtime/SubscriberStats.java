@@ -0,0 +1,37 @@
+package com.chatalytics.core.realtime;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Point in time stats of the outbound queue of a realtime subscriber
+ *
+ * @author giannis
+ */
+@AllArgsConstructor
+@EqualsAndHashCode
+@Getter
+@ToString
+public class SubscriberStats {
+
+    /**
+     * The ID of the subscriber, unique within its {@link EventBroadcaster}
+     */
+    private final int subscriberId;
+    /**
+     * Number of events waiting to be sent, not counting the one being sent
+     */
+    private final int queueDepth;
+    /**
+     * How long the oldest event that wasn't sent yet has been waiting, or 0 if the subscriber is
+     * caught up
+     */
+    private final long lagMillis;
+    private final long sentCount;
+    /**
+     * Number of events dropped because the queue was full or they failed to send
+     */
+    private final long droppedCount;
+}
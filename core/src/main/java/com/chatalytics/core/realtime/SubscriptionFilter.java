@@ -0,0 +1,78 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.IMentionable;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.io.Serializable;
+import java.util.Set;
+
+/**
+ * Filter a realtime subscriber sends to only receive some of the {@link ChatAlyticsEvent}s. Every
+ * field that is not set matches everything, so an empty filter matches all the events. Rooms,
+ * users, values and the bot flag are matched against the {@link IMentionable} an event carries.
+ * Events that carry something else only match filters that don't set any of them.
+ *
+ * @author giannis
+ */
+@Getter
+@Setter
+@EqualsAndHashCode
+@ToString
+public class SubscriptionFilter implements Serializable {
+
+    private static final long serialVersionUID = 5546081915413245702L;
+
+    /**
+     * Event types, e.g. <code>emoji_entity</code>, <code>chat_entity</code> or
+     * <code>message_summary</code>
+     */
+    private Set<String> types;
+    /**
+     * Room names
+     */
+    private Set<String> rooms;
+    /**
+     * User mention names
+     */
+    private Set<String> users;
+    /**
+     * Entity names, emoji aliases or message types
+     */
+    private Set<String> values;
+    /**
+     * True to only match bots, false to only match people
+     */
+    private Boolean bot;
+
+    /**
+     * @return True if the event passes the filter
+     */
+    public boolean matches(ChatAlyticsEvent event) {
+        if (!matchesAny(types, event.getType())) {
+            return false;
+        }
+        Serializable payload = event.getEvent();
+        if (payload instanceof IMentionable) {
+            IMentionable<?> mentionable = (IMentionable<?>) payload;
+            return matchesAny(rooms, mentionable.getRoomName())
+                && matchesAny(users, mentionable.getUsername())
+                && matchesAny(values, String.valueOf(mentionable.getValue()))
+                && (bot == null || bot == mentionable.isBot());
+        }
+        return isEmpty(rooms) && isEmpty(users) && isEmpty(values) && bot == null;
+    }
+
+    private static boolean matchesAny(Set<String> allowed, String value) {
+        return isEmpty(allowed) || allowed.contains(value);
+    }
+
+    private static boolean isEmpty(Set<String> set) {
+        return set == null || set.isEmpty();
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.json.JsonObjectMapperFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.base.Strings;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.websocket.DecodeException;
+import javax.websocket.Decoder;
+import javax.websocket.EncodeException;
+import javax.websocket.Encoder;
+import javax.websocket.EndpointConfig;
+
+/**
+ * {@link Encoder} and {@link Decoder} for the {@link SubscriptionFilter}s realtime subscribers send
+ * through the web socket. Subscribers can send a single filter or a JSON array of filters, in which
+ * case an event has to pass any of them. An empty array matches no events
+ *
+ * @author giannis
+ *
+ */
+public class SubscriptionFilterEncoderDecoder implements Encoder.Text<List<SubscriptionFilter>>,
+                                                         Decoder.Text<List<SubscriptionFilter>> {
+
+    private final ObjectMapper objectMapper;
+    private final ObjectReader reader;
+
+    public SubscriptionFilterEncoderDecoder() {
+        objectMapper = JsonObjectMapperFactory.createObjectMapper();
+        reader = objectMapper.readerFor(new TypeReference<List<SubscriptionFilter>>() {})
+                             .with(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
+    }
+
+    @Override
+    public void init(EndpointConfig config) {}
+
+    @Override
+    public void destroy() {}
+
+    @Override
+    public List<SubscriptionFilter> decode(String filtersStr) throws DecodeException {
+        try {
+            return reader.readValue(filtersStr);
+        } catch (IOException e) {
+            throw new DecodeException(filtersStr, "Could not decode subscription filters", e);
+        }
+    }
+
+    @Override
+    public boolean willDecode(String str) {
+        return !Strings.isNullOrEmpty(str);
+    }
+
+    @Override
+    public String encode(List<SubscriptionFilter> filters) throws EncodeException {
+        try {
+            return objectMapper.writeValueAsString(filters);
+        } catch (JsonProcessingException e) {
+            throw new EncodeException(filters, "Can't encode filters. Reason: " + e.getMessage());
+        }
+    }
+
+}
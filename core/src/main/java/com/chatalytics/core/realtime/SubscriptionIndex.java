@@ -0,0 +1,135 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.IMentionable;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable index of the {@link SubscriptionFilter}s of realtime subscribers by event type and
+ * room, so that dispatching an event only looks at the filters that can match it instead of at the
+ * filters of every subscriber. Filters that don't set any types or rooms are indexed as matching
+ * any of them. Subscribers without filters get every event.
+ *
+ * @author giannis
+ */
+class SubscriptionIndex {
+
+    static final SubscriptionIndex EMPTY = new SubscriptionIndex(Collections.emptyMap());
+
+    private final ImmutableTable<String, String, List<Entry>> byTypeAndRoom;
+    private final ImmutableListMultimap<String, Entry> byType;
+    private final ImmutableListMultimap<String, Entry> byRoom;
+    private final ImmutableList<Entry> any;
+
+    /**
+     * @param filters
+     *            The filters of every subscriber. Subscribers with null filters get every event,
+     *            while subscribers with no filters get no events
+     */
+    SubscriptionIndex(Map<SubscriberQueue, List<SubscriptionFilter>> filters) {
+        Table<String, String, List<Entry>> byTypeAndRoom = HashBasedTable.create();
+        ListMultimap<String, Entry> byType = ArrayListMultimap.create();
+        ListMultimap<String, Entry> byRoom = ArrayListMultimap.create();
+        ImmutableList.Builder<Entry> any = ImmutableList.builder();
+        for (Map.Entry<SubscriberQueue, List<SubscriptionFilter>> subscriber : filters.entrySet()) {
+            SubscriberQueue queue = subscriber.getKey();
+            if (subscriber.getValue() == null) {
+                any.add(new Entry(queue, null));
+                continue;
+            }
+            for (SubscriptionFilter filter : subscriber.getValue()) {
+                Entry entry = new Entry(queue, filter);
+                Set<String> types = filter.getTypes();
+                Set<String> rooms = filter.getRooms();
+                boolean anyType = types == null || types.isEmpty();
+                boolean anyRoom = rooms == null || rooms.isEmpty();
+                if (anyType && anyRoom) {
+                    any.add(entry);
+                } else if (anyRoom) {
+                    types.forEach(type -> byType.put(type, entry));
+                } else if (anyType) {
+                    rooms.forEach(room -> byRoom.put(room, entry));
+                } else {
+                    for (String type : types) {
+                        for (String room : rooms) {
+                            List<Entry> entries = byTypeAndRoom.get(type, room);
+                            if (entries == null) {
+                                entries = Lists.newArrayList();
+                                byTypeAndRoom.put(type, room, entries);
+                            }
+                            entries.add(entry);
+                        }
+                    }
+                }
+            }
+        }
+        this.byTypeAndRoom = ImmutableTable.copyOf(byTypeAndRoom);
+        this.byType = ImmutableListMultimap.copyOf(byType);
+        this.byRoom = ImmutableListMultimap.copyOf(byRoom);
+        this.any = any.build();
+    }
+
+    /**
+     * @return The queues of the subscribers with a filter that matches the event, without
+     *         duplicates
+     */
+    Collection<SubscriberQueue> match(ChatAlyticsEvent event) {
+        Set<SubscriberQueue> queues = Sets.newLinkedHashSet();
+        String type = event.getType();
+        addMatching(any, event, queues);
+        if (type != null) {
+            addMatching(byType.get(type), event, queues);
+        }
+        Serializable payload = event.getEvent();
+        if (payload instanceof IMentionable) {
+            String room = ((IMentionable<?>) payload).getRoomName();
+            if (room != null) {
+                addMatching(byRoom.get(room), event, queues);
+                if (type != null) {
+                    List<Entry> entries = byTypeAndRoom.get(type, room);
+                    if (entries != null) {
+                        addMatching(entries, event, queues);
+                    }
+                }
+            }
+        }
+        return queues;
+    }
+
+    private static void addMatching(List<Entry> entries, ChatAlyticsEvent event,
+                                    Set<SubscriberQueue> queues) {
+        for (Entry entry : entries) {
+            if (!queues.contains(entry.queue)
+                    && (entry.filter == null || entry.filter.matches(event))) {
+                queues.add(entry.queue);
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final SubscriberQueue queue;
+        private final SubscriptionFilter filter;
+
+        private Entry(SubscriberQueue queue, SubscriptionFilter filter) {
+            this.queue = queue;
+            this.filter = filter;
+        }
+    }
+
+}
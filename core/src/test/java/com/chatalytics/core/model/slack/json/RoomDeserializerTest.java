@@ -46,6 +46,24 @@ public class RoomDeserializerTest {
         assertNull(r.getLastActiveDate());
     }
 
+    /**
+     * Makes sure that the partial rooms of <code>channel_created</code> realtime events can be read
+     */
+    @Test
+    public void testDeserialize_partialRoom() throws Exception {
+        String partialRoomJsonStr = "{" +
+                                        "\"id\": \"C024BE91L\"," +
+                                        "\"name\": \"fun\"," +
+                                        "\"created\": 1360782804," +
+                                        "\"creator\": \"U024BE7LH\"" +
+                                    "}";
+        Room r = objMapper.readValue(partialRoomJsonStr, Room.class);
+        assertEquals("C024BE91L", r.getRoomId());
+        assertEquals("fun", r.getName());
+        assertNull(r.getTopic());
+        assertFalse(r.isArchived());
+    }
+
     private final String roomJsonStr = "{" +
                                            "\"id\": \"C024BE91L\"," +
                                            "\"name\": \"fun\"," +
@@ -0,0 +1,213 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.SlowSubscriberPolicy;
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.Set;
+
+import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.SendHandler;
+import javax.websocket.Session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link EventBroadcaster}
+ *
+ * @author giannis
+ */
+public class EventBroadcasterTest {
+
+    private EventBroadcaster underTest;
+
+    @Before
+    public void setUp() {
+        underTest = new EventBroadcaster(10, SlowSubscriberPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Makes sure that an event is encoded once and the same frame is sent to all the open sessions,
+     * while closed sessions are removed
+     */
+    @Test
+    public void testBroadcast() throws Exception {
+        Async firstRemote = mock(Async.class);
+        Session firstSession = mockSession(firstRemote);
+        Async secondRemote = mock(Async.class);
+        Session secondSession = mockSession(secondRemote);
+        Session closedSession = mock(Session.class);
+        underTest.addSession(firstSession);
+        underTest.addSession(secondSession);
+        SubscriberQueue closedQueue = underTest.addSession(closedSession);
+        verifyZeroInteractions(firstSession, secondSession, closedSession);
+
+        ChatAlyticsEvent event = createEvent();
+        List<SubscriberQueue> removedQueues = underTest.broadcast(event);
+        assertEquals(1, removedQueues.size());
+        assertSame(closedQueue, removedQueues.get(0));
+        assertTrue(closedQueue.isClosed());
+        verify(closedSession, never()).getAsyncRemote();
+
+        ArgumentCaptor<String> firstFrame = ArgumentCaptor.forClass(String.class);
+        verify(firstRemote).sendText(firstFrame.capture(), any(SendHandler.class));
+        ArgumentCaptor<String> secondFrame = ArgumentCaptor.forClass(String.class);
+        verify(secondRemote).sendText(secondFrame.capture(), any(SendHandler.class));
+        assertSame(firstFrame.getValue(), secondFrame.getValue());
+        assertEquals(event, new ChatAlyticsEventDecoder().decode(firstFrame.getValue()));
+        assertEquals(2, underTest.getSessions().size());
+    }
+
+    /**
+     * Makes sure that a subscriber that is disconnected for being too slow is removed right away
+     * and returned once
+     */
+    @Test
+    public void testBroadcast_disconnectedSubscriber() throws Exception {
+        underTest = new EventBroadcaster(1, SlowSubscriberPolicy.DISCONNECT);
+        Async remote = mock(Async.class);
+        Session slowSession = mockSession(remote);
+        SubscriberQueue slowQueue = underTest.addSession(slowSession);
+
+        assertTrue(underTest.broadcast(createEvent()).isEmpty());
+        assertTrue(underTest.broadcast(createEvent()).isEmpty());
+        assertEquals(ImmutableList.of(slowQueue), underTest.broadcast(createEvent()));
+        assertTrue(underTest.getSessions().isEmpty());
+        assertNull(underTest.getAllFilters());
+        assertTrue(underTest.broadcastFrame("frame").isEmpty());
+        assertTrue(underTest.removeClosedSessions().isEmpty());
+        verify(remote).sendText(anyString(), any(SendHandler.class));
+    }
+
+    /**
+     * Makes sure that the stats of every subscriber are returned in order and that removed
+     * subscribers are dropped
+     */
+    @Test
+    public void testGetSubscriberStats() {
+        Async remote = mock(Async.class);
+        Session firstSession = mockSession(remote);
+        Session secondSession = mockSession(remote);
+        int firstId = underTest.addSession(firstSession).getId();
+        int secondId = underTest.addSession(secondSession).getId();
+        underTest.broadcast(createEvent());
+        underTest.broadcast(createEvent());
+
+        List<SubscriberStats> stats = underTest.getSubscriberStats();
+        assertEquals(2, stats.size());
+        assertEquals(firstId, stats.get(0).getSubscriberId());
+        assertEquals(1, stats.get(0).getQueueDepth());
+        assertEquals(secondId, stats.get(1).getSubscriberId());
+        verify(remote, times(2)).sendText(anyString(), any(SendHandler.class));
+
+        underTest.removeSession(firstSession);
+        assertEquals(1, underTest.getSubscriberStats().size());
+    }
+
+    /**
+     * Makes sure that events are only sent to the subscribers with a filter they pass, that
+     * subscribers without filters get every event and that events nobody wants aren't sent
+     */
+    @Test
+    public void testBroadcast_filters() {
+        Async typeRemote = mock(Async.class);
+        Session typeSession = mockSession(typeRemote);
+        Async roomRemote = mock(Async.class);
+        Session roomSession = mockSession(roomRemote);
+        Async noneRemote = mock(Async.class);
+        Session noneSession = mockSession(noneRemote);
+        Async allRemote = mock(Async.class);
+        Session allSession = mockSession(allRemote);
+        underTest.addSession(typeSession);
+        underTest.addSession(roomSession);
+        underTest.addSession(noneSession);
+        underTest.addSession(allSession);
+        assertNull(underTest.getAllFilters());
+
+        SubscriptionFilter typeFilter = createFilter(ImmutableSet.of("message_summary"), null);
+        SubscriptionFilter typeAndRoomFilter = createFilter(ImmutableSet.of("message_summary"),
+                                                            ImmutableSet.of("room"));
+        assertTrue(underTest.setFilters(typeSession, ImmutableList.of(typeFilter,
+                                                                      typeAndRoomFilter)));
+        SubscriptionFilter roomFilter = createFilter(null, ImmutableSet.of("other"));
+        assertTrue(underTest.setFilters(roomSession, ImmutableList.of(roomFilter)));
+        assertTrue(underTest.setFilters(noneSession, ImmutableList.of()));
+        assertFalse(underTest.setFilters(mock(Session.class), ImmutableList.of()));
+        assertNull(underTest.getAllFilters());
+
+        // matches both filters of the first subscriber, which only gets it once
+        underTest.broadcast(createEvent());
+        verify(typeRemote).sendText(anyString(), any(SendHandler.class));
+        verifyZeroInteractions(roomRemote, noneRemote);
+        verify(allRemote).sendText(anyString(), any(SendHandler.class));
+
+        underTest.removeSession(allSession);
+        assertEquals(ImmutableList.of(typeFilter, typeAndRoomFilter, roomFilter),
+                     underTest.getAllFilters());
+        assertEquals(ImmutableList.of(roomFilter), underTest.getFilters(roomSession));
+
+        // nobody wants emojis from other rooms
+        DateTime now = DateTime.now(DateTimeZone.UTC);
+        underTest.broadcast(new ChatAlyticsEvent(now, "emoji_entity",
+                                                 new EmojiEntity("user", "room3", now, "smile", 1,
+                                                                 false)));
+        underTest.broadcast(new ChatAlyticsEvent(now, "emoji_entity",
+                                                 new EmojiEntity("user", "other", now, "smile", 1,
+                                                                 false)));
+        verify(typeRemote).sendText(anyString(), any(SendHandler.class));
+        verify(roomRemote).sendText(anyString(), any(SendHandler.class));
+        verifyZeroInteractions(noneRemote);
+
+        // clearing the filters makes the subscriber get every event
+        underTest.setFilters(noneSession, null);
+        assertNull(underTest.getFilters(noneSession));
+        assertNull(underTest.getAllFilters());
+        underTest.broadcast(createEvent());
+        verify(noneRemote).sendText(anyString(), any(SendHandler.class));
+    }
+
+    private SubscriptionFilter createFilter(Set<String> types, Set<String> rooms) {
+        SubscriptionFilter filter = new SubscriptionFilter();
+        filter.setTypes(types);
+        filter.setRooms(rooms);
+        return filter;
+    }
+
+    private Session mockSession(Async remote) {
+        Session session = mock(Session.class);
+        when(session.isOpen()).thenReturn(true);
+        when(session.getAsyncRemote()).thenReturn(remote);
+        return session;
+    }
+
+    private ChatAlyticsEvent createEvent() {
+        MessageSummary msgSummary = new MessageSummary("user", "room",
+                                                       DateTime.now(DateTimeZone.UTC),
+                                                       MessageType.MESSAGE, 1, false);
+        return new ChatAlyticsEvent(DateTime.now(DateTimeZone.UTC), "message_summary", msgSummary);
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.ChatAlyticsEventWindow;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.google.common.collect.ImmutableMap;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link EventWindowCounter}
+ *
+ * @author giannis
+ */
+public class EventWindowCounterTest {
+
+    private static final DateTime NOW = new DateTime(2016, 5, 1, 12, 0, DateTimeZone.UTC);
+
+    private EventWindowCounter underTest;
+
+    /**
+     * Makes sure that tumbling windows only hold the counts since the previous window
+     */
+    @Test
+    public void testSlide_tumbling() {
+        underTest = new EventWindowCounter(10000, 10000);
+        underTest.add(createEmojiEvent("smile", 2));
+        underTest.add(createEmojiEvent("smile", 1));
+        underTest.add(createEmojiEvent("joy", 1));
+        underTest.add(new ChatAlyticsEvent(NOW, "message_summary",
+                                           new MessageSummary("user", "room", NOW,
+                                                              MessageType.MESSAGE, 1, false)));
+        underTest.add(new ChatAlyticsEvent(NOW, "other", "not mentionable"));
+
+        ChatAlyticsEventWindow window = underTest.slide(NOW);
+        assertEquals(NOW.minusSeconds(10), window.getWindowStart());
+        assertEquals(NOW, window.getWindowEnd());
+        assertEquals(ImmutableMap.of("emoji_entity", ImmutableMap.of("smile", 3L, "joy", 1L),
+                                     "message_summary", ImmutableMap.of("message", 1L)),
+                     window.getCounts());
+
+        underTest.add(createEmojiEvent("joy", 1));
+        window = underTest.slide(NOW.plusSeconds(10));
+        assertEquals(ImmutableMap.of("emoji_entity", ImmutableMap.of("joy", 1L)),
+                     window.getCounts());
+        assertTrue(underTest.slide(NOW.plusSeconds(20)).getCounts().isEmpty());
+    }
+
+    /**
+     * Makes sure that sliding windows hold the counts of the last panes and drop the older ones
+     */
+    @Test
+    public void testSlide_sliding() {
+        underTest = new EventWindowCounter(3000, 1000);
+        underTest.add(createEmojiEvent("smile", 1));
+        assertEquals(ImmutableMap.of("emoji_entity", ImmutableMap.of("smile", 1L)),
+                     underTest.slide(NOW).getCounts());
+
+        underTest.add(createEmojiEvent("smile", 2));
+        underTest.add(createEmojiEvent("joy", 1));
+        assertEquals(ImmutableMap.of("emoji_entity", ImmutableMap.of("smile", 3L, "joy", 1L)),
+                     underTest.slide(NOW.plusSeconds(1)).getCounts());
+        assertEquals(ImmutableMap.of("emoji_entity", ImmutableMap.of("smile", 3L, "joy", 1L)),
+                     underTest.slide(NOW.plusSeconds(2)).getCounts());
+
+        // the first pane is out of the window
+        ChatAlyticsEventWindow window = underTest.slide(NOW.plusSeconds(3));
+        assertEquals(NOW, window.getWindowStart());
+        assertEquals(ImmutableMap.of("emoji_entity", ImmutableMap.of("smile", 2L, "joy", 1L)),
+                     window.getCounts());
+        assertTrue(underTest.slide(NOW.plusSeconds(4)).getCounts().isEmpty());
+    }
+
+    /**
+     * Makes sure that reset drops the counts of the current pane and of the window
+     */
+    @Test
+    public void testReset() {
+        underTest = new EventWindowCounter(3000, 1000);
+        underTest.add(createEmojiEvent("smile", 1));
+        underTest.slide(NOW);
+        underTest.add(createEmojiEvent("joy", 1));
+        underTest.reset();
+        assertTrue(underTest.slide(NOW.plusSeconds(1)).getCounts().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_windowNotMultipleOfSlide() {
+        new EventWindowCounter(2500, 1000);
+    }
+
+    private ChatAlyticsEvent createEmojiEvent(String emoji, int occurrences) {
+        return new ChatAlyticsEvent(NOW, "emoji_entity",
+                                    new EmojiEntity("user", "room", NOW, emoji, occurrences,
+                                                    false));
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.SlowSubscriberPolicy;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link SubscriberQueue}
+ *
+ * @author giannis
+ */
+public class SubscriberQueueTest {
+
+    private SubscriberQueue underTest;
+    private Session session;
+    private List<String> sentFrames;
+    private List<SendHandler> pendingHandlers;
+
+    @Before
+    public void setUp() {
+        session = mock(Session.class);
+        when(session.isOpen()).thenReturn(true);
+        Async async = mock(Async.class);
+        when(session.getAsyncRemote()).thenReturn(async);
+        sentFrames = Lists.newArrayList();
+        pendingHandlers = Lists.newArrayList();
+        doAnswer(invocation -> {
+            sentFrames.add((String) invocation.getArguments()[0]);
+            pendingHandlers.add((SendHandler) invocation.getArguments()[1]);
+            return null;
+        }).when(async).sendText(anyString(), any(SendHandler.class));
+    }
+
+    /**
+     * Makes sure that only one frame is sent at a time and that the queued ones are sent in order
+     * when it completes
+     */
+    @Test
+    public void testOffer() {
+        underTest = new SubscriberQueue(1, session, 10, SlowSubscriberPolicy.DROP_OLDEST);
+        assertTrue(underTest.offer("a"));
+        assertTrue(underTest.offer("b"));
+        assertTrue(underTest.offer("c"));
+        assertEquals(Lists.newArrayList("a"), sentFrames);
+        assertEquals(2, underTest.getQueueDepth());
+
+        pendingHandlers.get(0).onResult(new SendResult());
+        assertEquals(Lists.newArrayList("a", "b"), sentFrames);
+        pendingHandlers.get(1).onResult(new SendResult(new RuntimeException("test")));
+        pendingHandlers.get(2).onResult(new SendResult());
+        assertEquals(Lists.newArrayList("a", "b", "c"), sentFrames);
+
+        SubscriberStats stats = underTest.getStats();
+        assertEquals(new SubscriberStats(1, 0, 0, 2, 1), stats);
+    }
+
+    /**
+     * Makes sure that the oldest queued frame is dropped when the queue is full
+     */
+    @Test
+    public void testOffer_dropOldest() {
+        underTest = new SubscriberQueue(1, session, 2, SlowSubscriberPolicy.DROP_OLDEST);
+        for (String frame : new String[] { "a", "b", "c", "d" }) {
+            assertTrue(underTest.offer(frame));
+        }
+        assertEquals(1, underTest.getDroppedCount());
+        assertTrue(underTest.getLagMillis() >= 0);
+
+        pendingHandlers.get(0).onResult(new SendResult());
+        pendingHandlers.get(1).onResult(new SendResult());
+        assertEquals(Lists.newArrayList("a", "c", "d"), sentFrames);
+    }
+
+    /**
+     * Makes sure that the new frame is dropped when the queue is full
+     */
+    @Test
+    public void testOffer_dropNewest() {
+        underTest = new SubscriberQueue(1, session, 2, SlowSubscriberPolicy.DROP_NEWEST);
+        assertTrue(underTest.offer("a"));
+        assertTrue(underTest.offer("b"));
+        assertTrue(underTest.offer("c"));
+        assertFalse(underTest.offer("d"));
+        assertEquals(1, underTest.getDroppedCount());
+
+        pendingHandlers.get(0).onResult(new SendResult());
+        pendingHandlers.get(1).onResult(new SendResult());
+        assertEquals(Lists.newArrayList("a", "b", "c"), sentFrames);
+    }
+
+    /**
+     * Makes sure that the session is closed and the queued frames dropped when the queue is full
+     */
+    @Test
+    public void testOffer_disconnect() throws Exception {
+        underTest = new SubscriberQueue(1, session, 2, SlowSubscriberPolicy.DISCONNECT);
+        assertTrue(underTest.offer("a"));
+        assertTrue(underTest.offer("b"));
+        assertTrue(underTest.offer("c"));
+        verify(session, never()).close(any(CloseReason.class));
+
+        assertFalse(underTest.offer("d"));
+        verify(session).close(any(CloseReason.class));
+        assertTrue(underTest.isClosed());
+        assertEquals(0, underTest.getQueueDepth());
+        assertEquals(3, underTest.getDroppedCount());
+        assertFalse(underTest.offer("e"));
+
+        pendingHandlers.get(0).onResult(new SendResult());
+        assertEquals(Lists.newArrayList("a"), sentFrames);
+    }
+
+    /**
+     * Makes sure that the close listener is called once when the queue disconnects the subscriber
+     */
+    @Test
+    public void testOffer_disconnectNotifiesListener() {
+        List<SubscriberQueue> closedQueues = Lists.newArrayList();
+        underTest = new SubscriberQueue(1, session, 1, SlowSubscriberPolicy.DISCONNECT,
+                                        closedQueues::add);
+        assertTrue(underTest.offer("a"));
+        assertTrue(underTest.offer("b"));
+        assertTrue(closedQueues.isEmpty());
+
+        assertFalse(underTest.offer("c"));
+        assertFalse(underTest.offer("d"));
+        assertEquals(Lists.newArrayList(underTest), closedQueues);
+    }
+
+    /**
+     * Makes sure that nothing is sent to a closed session and that the queue closes itself and
+     * calls the close listener, but not when it's closed explicitly
+     */
+    @Test
+    public void testOffer_closedSession() {
+        List<SubscriberQueue> closedQueues = Lists.newArrayList();
+        underTest = new SubscriberQueue(1, session, 10, SlowSubscriberPolicy.DROP_OLDEST,
+                                        closedQueues::add);
+        when(session.isOpen()).thenReturn(false);
+        assertFalse(underTest.offer("a"));
+        assertFalse(underTest.offer("b"));
+        assertTrue(underTest.isClosed());
+        assertTrue(sentFrames.isEmpty());
+        assertEquals(Lists.newArrayList(underTest), closedQueues);
+
+        SubscriberQueue closedQueue = new SubscriberQueue(2, session, 10,
+                                                          SlowSubscriberPolicy.DROP_OLDEST,
+                                                          closedQueues::add);
+        closedQueue.close();
+        assertFalse(closedQueue.offer("a"));
+        assertEquals(1, closedQueues.size());
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.chatalytics.core.realtime;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import javax.websocket.DecodeException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link SubscriptionFilterEncoderDecoder}
+ *
+ * @author giannis
+ */
+public class SubscriptionFilterEncoderDecoderTest {
+
+    private SubscriptionFilterEncoderDecoder underTest;
+
+    @Before
+    public void setUp() {
+        underTest = new SubscriptionFilterEncoderDecoder();
+    }
+
+    @Test
+    public void testWillDecode() {
+        assertFalse(underTest.willDecode(null));
+        assertFalse(underTest.willDecode(""));
+        assertTrue(underTest.willDecode("{}"));
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        SubscriptionFilter first = new SubscriptionFilter();
+        first.setTypes(ImmutableSet.of("emoji_entity"));
+        first.setRooms(ImmutableSet.of("room1", "room2"));
+        SubscriptionFilter second = new SubscriptionFilter();
+        second.setUsers(ImmutableSet.of("user"));
+        second.setBot(false);
+        List<SubscriptionFilter> filters = ImmutableList.of(first, second);
+        assertEquals(filters, underTest.decode(underTest.encode(filters)));
+
+        assertNull(underTest.decode(underTest.encode(null)));
+    }
+
+    /**
+     * Makes sure that clients can send a single filter instead of an array
+     */
+    @Test
+    public void testDecode_singleFilter() throws Exception {
+        List<SubscriptionFilter> filters =
+            underTest.decode("{\"types\":[\"emoji_entity\"],\"bot\":true}");
+        assertEquals(1, filters.size());
+        assertEquals(ImmutableSet.of("emoji_entity"), filters.get(0).getTypes());
+        assertNull(filters.get(0).getRooms());
+        assertTrue(filters.get(0).getBot());
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecode_invalid() throws Exception {
+        underTest.decode("{\"types\":");
+    }
+
+    @After
+    public void tearDown() {
+        underTest.destroy();
+    }
+}
@@ -0,0 +1,94 @@
+package com.chatalytics.core.realtime;
+
+import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.google.common.collect.ImmutableSet;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link SubscriptionFilter}
+ *
+ * @author giannis
+ */
+public class SubscriptionFilterTest {
+
+    private SubscriptionFilter underTest;
+    private ChatAlyticsEvent emojiEvent;
+    private ChatAlyticsEvent summaryEvent;
+
+    @Before
+    public void setUp() {
+        underTest = new SubscriptionFilter();
+        DateTime now = DateTime.now(DateTimeZone.UTC);
+        emojiEvent = new ChatAlyticsEvent(now, "emoji_entity",
+                                          new EmojiEntity("user", "room", now, "smile", 1, false));
+        summaryEvent = new ChatAlyticsEvent(now, "message_summary",
+                                            new MessageSummary("bot", "other", now,
+                                                               MessageType.BOT_MESSAGE, 1, true));
+    }
+
+    /**
+     * Makes sure that a filter without any fields set matches everything
+     */
+    @Test
+    public void testMatches_empty() {
+        assertTrue(underTest.matches(emojiEvent));
+        assertTrue(underTest.matches(summaryEvent));
+        assertTrue(underTest.matches(new ChatAlyticsEvent(DateTime.now(), "other", "text")));
+
+        underTest.setTypes(ImmutableSet.of());
+        assertTrue(underTest.matches(emojiEvent));
+    }
+
+    /**
+     * Makes sure that every field that is set has to match
+     */
+    @Test
+    public void testMatches() {
+        underTest.setTypes(ImmutableSet.of("emoji_entity", "message_summary"));
+        assertTrue(underTest.matches(emojiEvent));
+        assertTrue(underTest.matches(summaryEvent));
+
+        underTest.setRooms(ImmutableSet.of("room"));
+        assertTrue(underTest.matches(emojiEvent));
+        assertFalse(underTest.matches(summaryEvent));
+
+        underTest.setUsers(ImmutableSet.of("user"));
+        underTest.setValues(ImmutableSet.of("smile"));
+        assertTrue(underTest.matches(emojiEvent));
+        underTest.setValues(ImmutableSet.of("joy"));
+        assertFalse(underTest.matches(emojiEvent));
+
+        underTest = new SubscriptionFilter();
+        underTest.setValues(ImmutableSet.of("bot_message"));
+        assertFalse(underTest.matches(emojiEvent));
+        assertTrue(underTest.matches(summaryEvent));
+
+        underTest = new SubscriptionFilter();
+        underTest.setBot(false);
+        assertTrue(underTest.matches(emojiEvent));
+        assertFalse(underTest.matches(summaryEvent));
+    }
+
+    /**
+     * Makes sure that events that aren't mentionable only match on their type
+     */
+    @Test
+    public void testMatches_notMentionable() {
+        ChatAlyticsEvent event = new ChatAlyticsEvent(DateTime.now(), "other", "text");
+        underTest.setTypes(ImmutableSet.of("other"));
+        assertTrue(underTest.matches(event));
+        underTest.setRooms(ImmutableSet.of("room"));
+        assertFalse(underTest.matches(event));
+    }
+
+}
@@ -52,10 +52,13 @@ public class ServerMain extends Application {
 
     private final ChatAlyticsConfig config;
     private final RealtimeComputeClient realtimeComputeClient;
+    private final EventsResource eventsResource;
 
-    public ServerMain(ChatAlyticsConfig config, RealtimeComputeClient realtimeComputeClient) {
+    public ServerMain(ChatAlyticsConfig config, RealtimeComputeClient realtimeComputeClient,
+                      EventsResource eventsResource) {
         this.config = config;
         this.realtimeComputeClient = realtimeComputeClient;
+        this.eventsResource = eventsResource;
 
         // Sets up classpath scanning for Swagger + JAXRS
         // Resources available at localhost/swagger.json
@@ -73,9 +76,9 @@ public class ServerMain extends Application {
         LOG.info("Loading config {}", configName);
         ChatAlyticsConfig config = YamlUtils.readChatAlyticsConfig(configName);
 
-        EventsResource eventResource = new EventsResource();
+        EventsResource eventResource = new EventsResource(config.webConfig);
         RealtimeComputeClient computeClient = new RealtimeComputeClient(config, eventResource);
-        ServerMain serverMain = new ServerMain(config, computeClient);
+        ServerMain serverMain = new ServerMain(config, computeClient, eventResource);
 
         LOG.info("Starting compute client");
         serverMain.startComputeClient();
@@ -115,7 +118,7 @@ public class ServerMain extends Application {
                                new UsersResource(config),
                                new RoomsResource(config),
                                new MessageSummaryResource(config),
-                               new StatusResource(),
+                               new StatusResource(eventsResource),
                                new ApiListingResource(),
                                jsonProvider);
     }
@@ -142,18 +145,21 @@ public class ServerMain extends Application {
 
         ServerContainer wsContainer = WebSocketServerContainerInitializer.configureContext(context);
 
-        ServerEndpointConfig serverConfig =
-                ServerEndpointConfig.Builder
-                                    .create(EventsResource.class, EventsResource.RT_EVENT_ENDPOINT)
-                                    .configurator(new Configurator() {
-                                        @Override
-                                        public <T> T getEndpointInstance(Class<T> endpointClass)
-                                                throws InstantiationException {
-                                            return endpointClass.cast(rtEventResource);
-                                        }
-                                    }).build();
-
-        wsContainer.addEndpoint(serverConfig);
+        Configurator configurator = new Configurator() {
+            @Override
+            public <T> T getEndpointInstance(Class<T> endpointClass) throws InstantiationException {
+                return endpointClass.cast(rtEventResource);
+            }
+        };
+        // the same instance serves both the event stream and the windowed stream
+        for (String path : new String[] { EventsResource.RT_EVENT_ENDPOINT,
+                                          EventsResource.RT_WINDOW_ENDPOINT }) {
+            ServerEndpointConfig serverConfig =
+                    ServerEndpointConfig.Builder.create(EventsResource.class, path)
+                                                .configurator(configurator)
+                                                .build();
+            wsContainer.addEndpoint(serverConfig);
+        }
     }
 
     /**
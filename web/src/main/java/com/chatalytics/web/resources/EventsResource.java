@@ -1,22 +1,41 @@
 package com.chatalytics.web.resources;
 
+import com.chatalytics.core.config.WebConfig;
 import com.chatalytics.core.model.data.ChatAlyticsEvent;
+import com.chatalytics.core.model.data.ChatAlyticsEventWindow;
 import com.chatalytics.core.realtime.ChatAlyticsEventDecoder;
 import com.chatalytics.core.realtime.ChatAlyticsEventEncoder;
+import com.chatalytics.core.realtime.ChatAlyticsEventWindowEncoder;
 import com.chatalytics.core.realtime.ConnectionTypeEncoderDecoder;
+import com.chatalytics.core.realtime.EventBroadcaster;
+import com.chatalytics.core.realtime.EventWindowCounter;
+import com.chatalytics.core.realtime.SubscriberStats;
+import com.chatalytics.core.realtime.SubscriptionFilter;
+import com.chatalytics.core.realtime.SubscriptionFilterEncoderDecoder;
 import com.chatalytics.web.constant.WebConstants;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-import org.apache.storm.shade.com.google.common.collect.Sets;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.websocket.ClientEndpoint;
 import javax.websocket.CloseReason;
+import javax.websocket.DecodeException;
+import javax.websocket.EncodeException;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
@@ -27,30 +46,71 @@ import javax.websocket.server.ServerEndpoint;
 /**
  * This resource will pipe {@link ChatAlyticsEvent}s received from the compute server to any clients
  * listening for realtime events using sockets. The compute client and this resource clients are
- * sharing a set of all the open client sessions
+ * sharing a set of all the open client sessions. Every event is encoded once and queued to each
+ * client, whose queue is bounded so that slow clients can't make the server buffer frames for them.
+ * <p/>
+ * Clients can send {@link SubscriptionFilter}s at any time to only get the events that pass them.
+ * When every client has filters, their union is sent to the compute server, so that events no
+ * client wants aren't even sent to this server.
+ * <p/>
+ * Clients that connect to {@link #RT_WINDOW_ENDPOINT} instead get one
+ * {@link ChatAlyticsEventWindow} frame every <code>eventWindowSlideSecs</code> with the event
+ * counts of the last <code>eventWindowSecs</code> by type and value. The counts are kept once for
+ * all these clients, so sending them costs the same no matter how many events are received.
+ * Frames hold the totals of their window rather than the changes since the previous frame. With
+ * tumbling windows, the default, that's the same thing. With sliding windows it means a client
+ * that connects late or has a frame dropped for being slow still gets correct counts with the
+ * next frame. Windows are only counted while there are clients of the windowed stream. Filters
+ * don't apply to windows
  *
  * @author giannis
  */
 @ServerEndpoint(value = EventsResource.RT_EVENT_ENDPOINT,
-                decoders = { ChatAlyticsEventDecoder.class },
                 encoders = { ChatAlyticsEventEncoder.class })
-@ClientEndpoint(decoders = { ChatAlyticsEventDecoder.class, ConnectionTypeEncoderDecoder.class })
+@ClientEndpoint(decoders = { ConnectionTypeEncoderDecoder.class })
 public class EventsResource {
 
     public static final String RT_EVENT_ENDPOINT = WebConstants.API_PATH + "events";
+    public static final String RT_WINDOW_ENDPOINT = RT_EVENT_ENDPOINT + "/windows";
     private static final Logger LOG = LoggerFactory.getLogger(EventsResource.class);
 
-    private final Set<Session> sessions;
+    private final EventBroadcaster broadcaster;
+    private final ChatAlyticsEventDecoder eventDecoder;
+    private final SubscriptionFilterEncoderDecoder filterEncoderDecoder;
+    private final EventBroadcaster windowBroadcaster;
+    private final EventWindowCounter windowCounter;
+    private final ChatAlyticsEventWindowEncoder windowEncoder;
+    private final long windowSlideMillis;
     private boolean connectedToCompute;
+    private volatile Session computeSession;
+    /**
+     * The filters last sent to the compute server. Null when it sends every event
+     */
+    private List<SubscriptionFilter> computeFilters;
+    private ScheduledExecutorService windowScheduler;
 
     public EventsResource() {
-        this.sessions = Sets.newConcurrentHashSet();
+        this(new WebConfig());
+    }
+
+    public EventsResource(WebConfig config) {
+        this.broadcaster = new EventBroadcaster(config.subscriberQueueCapacity,
+                                                config.slowSubscriberPolicy);
+        this.eventDecoder = new ChatAlyticsEventDecoder();
+        this.filterEncoderDecoder = new SubscriptionFilterEncoderDecoder();
+        this.windowBroadcaster = new EventBroadcaster(config.subscriberQueueCapacity,
+                                                      config.slowSubscriberPolicy);
+        this.windowSlideMillis = TimeUnit.SECONDS.toMillis(config.eventWindowSlideSecs);
+        long windowMillis = TimeUnit.SECONDS.toMillis(config.eventWindowSecs);
+        this.windowCounter = new EventWindowCounter(windowMillis, windowSlideMillis);
+        this.windowEncoder = new ChatAlyticsEventWindowEncoder();
         connectedToCompute = false;
     }
 
     @OnOpen
     public void onOpen(Session session) {
-        if (session.getRequestURI().getPath().startsWith(RT_EVENT_ENDPOINT)) {
+        String path = session.getRequestURI().getPath();
+        if (path.startsWith(RT_EVENT_ENDPOINT)) {
             LOG.info("Got a new web subscription connection request with ID {}", session.getId());
             if (!connectedToCompute) {
                 try {
@@ -62,18 +122,21 @@ public class EventsResource {
                 return;
             }
             // cleanup sessions
-            Set<Session> closedSessions = Sets.newHashSet();
-            for (Session existingSession : sessions) {
-                if (!existingSession.isOpen()) {
-                    closedSessions.add(existingSession);
-                }
-            }
-            sessions.removeAll(closedSessions);
+            broadcaster.removeClosedSessions();
+            windowBroadcaster.removeClosedSessions();
 
-            sessions.add(session);
+            if (path.startsWith(RT_WINDOW_ENDPOINT)) {
+                windowBroadcaster.addSession(session);
+                startWindows();
+            } else {
+                broadcaster.addSession(session);
+                stopWindowsIfUnused();
+            }
+            syncComputeFilters();
         } else {
             LOG.info("Handshaked with compute server...");
             connectedToCompute = true;
+            onComputeSession(session);
         }
     }
 
@@ -90,13 +153,42 @@ public class EventsResource {
         if (session.getRequestURI().getPath().startsWith(RT_EVENT_ENDPOINT)) {
             LOG.info("Closing session {}. Reason {}", session.getId(), reason);
             try {
-                sessions.remove(session);
+                removeSubscriber(session);
                 session.close();
             } catch (IOException e) {
                 LOG.warn("Couldn't close {}", session.getId());
             }
         } else {
             connectedToCompute = false;
+            onComputeSession(null);
+        }
+    }
+
+    /**
+     * Called whenever a text message is received. Clients send the filters of the events they want
+     * and the compute server sends events. An endpoint can only have one text message handler, so
+     * messages are decoded here depending on who sent them
+     *
+     * @param message
+     *            The received message
+     * @param session
+     *            The session that sent the message
+     */
+    @OnMessage
+    public void onText(String message, Session session) {
+        try {
+            if (session.getRequestURI().getPath().startsWith(RT_EVENT_ENDPOINT)) {
+                List<SubscriptionFilter> filters = filterEncoderDecoder.decode(message);
+                LOG.debug("Client {} set filters {}", session.getId(), filters);
+                if (broadcaster.setFilters(session, filters)) {
+                    syncComputeFilters();
+                }
+            } else {
+                onMessage(eventDecoder.decode(message));
+            }
+        } catch (DecodeException e) {
+            LOG.warn("Can't decode message from session {}. Reason: {}", session.getId(),
+                     e.getMessage());
         }
     }
 
@@ -106,7 +198,6 @@ public class EventsResource {
      * @param event
      *            The triggering event
      */
-    @OnMessage
     public void onMessage(ChatAlyticsEvent event) {
 
         LOG.debug("Got realtime event: {}", event);
@@ -114,36 +205,141 @@ public class EventsResource {
         // don't expose package info to client
         event.setClazz(null);
 
-        Set<Session> closedSessions = Sets.newHashSet();
-        for (Session clientSession : sessions) {
-            if (!clientSession.isOpen()) {
-                closedSessions.add(clientSession);
-                continue;
-            }
-
-            clientSession.getAsyncRemote().sendObject(event);
+        broadcaster.broadcast(event);
+        if (!windowBroadcaster.getSessions().isEmpty()) {
+            windowCounter.add(event);
         }
+    }
 
-        sessions.removeAll(closedSessions);
+    /**
+     * Sends the counts of the window that ends now to the clients of the windowed stream
+     *
+     * @param now
+     *            The end of the window
+     */
+    @VisibleForTesting
+    protected void sendWindow(DateTime now) {
+        ChatAlyticsEventWindow window = windowCounter.slide(now);
+        if (windowBroadcaster.getSessions().isEmpty()) {
+            return;
+        }
+        try {
+            windowBroadcaster.broadcastFrame(windowEncoder.encode(window));
+        } catch (EncodeException e) {
+            LOG.error("Can't encode event window {}", window, e);
+        }
     }
 
     /**
-     * Called whenever an exception occurs while the websocket session is active
+     * Called whenever an exception occurs while the websocket session is active. Clients whose
+     * session was closed by the exception are removed
      *
+     * @param session
+     *            The session the exception occurred in
      * @param t
      *            The exception
      */
     @OnError
-    public void onError(Throwable t) {
+    public void onError(Session session, Throwable t) {
         LOG.error(Throwables.getStackTraceAsString(t));
+        if (session != null && !session.isOpen()
+                && session.getRequestURI().getPath().startsWith(RT_EVENT_ENDPOINT)) {
+            removeSubscriber(session);
+        }
     }
 
     @VisibleForTesting
     protected Set<Session> getSessions() {
-        return sessions;
+        return broadcaster.getSessions();
+    }
+
+    /**
+     * @return The queue stats of all the connected clients, under <code>events</code> for the
+     *         clients of the event stream and <code>windows</code> for the clients of the windowed
+     *         stream. Subscriber IDs are only unique within a stream
+     */
+    public Map<String, List<SubscriberStats>> getSubscriberStats() {
+        return ImmutableMap.of("events", broadcaster.getSubscriberStats(),
+                               "windows", windowBroadcaster.getSubscriberStats());
     }
 
     protected boolean isConnectedToCompute() {
         return connectedToCompute;
     }
+
+    /**
+     * @return True if windows are being sent to the clients of the windowed stream
+     */
+    @VisibleForTesting
+    protected synchronized boolean isSendingWindows() {
+        return windowScheduler != null;
+    }
+
+    private void removeSubscriber(Session session) {
+        broadcaster.removeSession(session);
+        windowBroadcaster.removeSession(session);
+        stopWindowsIfUnused();
+        syncComputeFilters();
+    }
+
+    /**
+     * Starts sending windows when the first client of the windowed stream connects
+     */
+    private synchronized void startWindows() {
+        if (windowScheduler != null) {
+            return;
+        }
+        windowScheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("event-windows").setDaemon(true).build());
+        windowScheduler.scheduleAtFixedRate(() -> {
+            try {
+                sendWindow(DateTime.now(DateTimeZone.UTC));
+            } catch (RuntimeException e) {
+                LOG.error("Can't send event window", e);
+            }
+        }, windowSlideMillis, windowSlideMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sending windows and drops the counts once the last client of the windowed stream is
+     * gone, so that a client connecting later starts with an empty window
+     */
+    private synchronized void stopWindowsIfUnused() {
+        if (windowScheduler == null || !windowBroadcaster.getSessions().isEmpty()) {
+            return;
+        }
+        windowScheduler.shutdownNow();
+        windowScheduler = null;
+        windowCounter.reset();
+    }
+
+    private synchronized void onComputeSession(Session session) {
+        computeSession = session;
+        // a new compute session sends every event until it gets filters
+        computeFilters = null;
+        syncComputeFilters();
+    }
+
+    /**
+     * Sends the union of the client filters to the compute server, if it changed since it was last
+     * sent
+     */
+    private synchronized void syncComputeFilters() {
+        Session session = computeSession;
+        if (session == null) {
+            return;
+        }
+        // the windowed stream counts every event
+        List<SubscriptionFilter> filters =
+            windowBroadcaster.getSessions().isEmpty() ? broadcaster.getAllFilters() : null;
+        if (Objects.equals(filters, computeFilters)) {
+            return;
+        }
+        try {
+            session.getAsyncRemote().sendText(filterEncoderDecoder.encode(filters));
+            computeFilters = filters;
+        } catch (EncodeException | RuntimeException e) {
+            LOG.warn("Couldn't send filters to the compute server. Reason: {}", e.getMessage());
+        }
+    }
 }
@@ -1,9 +1,15 @@
 package com.chatalytics.web.resources;
 
+import com.chatalytics.core.realtime.SubscriberStats;
 import com.chatalytics.web.constant.WebConstants;
 
+import java.util.List;
+import java.util.Map;
+
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
 
 /**
  * USed to query the status of the web server
@@ -15,9 +21,26 @@ public class StatusResource {
 
     public static final String STATUS_ENDPOINT = WebConstants.API_PATH + "status";
 
+    private final EventsResource eventsResource;
+
+    public StatusResource(EventsResource eventsResource) {
+        this.eventsResource = eventsResource;
+    }
+
     @GET
     @Path("health")
     public String health() {
         return "OK";
     }
+
+    /**
+     * @return The queue depth, lag and dropped events of every client connected for realtime
+     *         events, keyed by the stream they're connected to
+     */
+    @GET
+    @Path("subscribers")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, List<SubscriberStats>> subscribers() {
+        return eventsResource.getSubscriberStats();
+    }
 }
@@ -1,9 +1,19 @@
 package com.chatalytics.web.resources;
 
+import com.chatalytics.core.json.JsonObjectMapperFactory;
 import com.chatalytics.core.model.data.ChatAlyticsEvent;
-
+import com.chatalytics.core.model.data.EmojiEntity;
+import com.chatalytics.core.model.data.MessageSummary;
+import com.chatalytics.core.model.data.MessageType;
+import com.chatalytics.core.realtime.ChatAlyticsEventEncoder;
+import com.chatalytics.core.realtime.SubscriptionFilterEncoderDecoder;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 import java.net.URI;
@@ -11,14 +21,18 @@ import java.util.Set;
 
 import javax.websocket.CloseReason;
 import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.SendHandler;
 import javax.websocket.Session;
 
 import static com.chatalytics.compute.web.realtime.RealtimeResource.RT_COMPUTE_ENDPOINT;
 import static com.chatalytics.web.resources.EventsResource.RT_EVENT_ENDPOINT;
+import static com.chatalytics.web.resources.EventsResource.RT_WINDOW_ENDPOINT;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -257,14 +271,155 @@ public class EventsResourceTest {
 
         // close the first session
         when(firstClientSession.isOpen()).thenReturn(false);
-        ChatAlyticsEvent event = mock(ChatAlyticsEvent.class);
+        MessageSummary msgSummary = new MessageSummary("user", "room", DateTime.now(),
+                                                       MessageType.MESSAGE, 1, false);
+        ChatAlyticsEvent event = new ChatAlyticsEvent(DateTime.now(), "message_summary",
+                                                      msgSummary);
         underTest.onMessage(event);
 
-        verify(event).setClazz(null);
+        assertNull(event.getClazz());
         verify(firstClientSession, never()).getAsyncRemote();
         verify(secondClientSession).getAsyncRemote();
-        verify(asyncRemote).sendObject(event);
+        verify(asyncRemote).sendText(anyString(), any(SendHandler.class));
+        assertEquals(1, underTest.getSessions().size());
+        assertEquals(1, underTest.getSubscriberStats().get("events").size());
+    }
+
+    /**
+     * Makes sure that clients only get the events that pass their filters, that the union of the
+     * client filters is sent to the compute server and that events from the compute server are
+     * decoded and broadcasted
+     */
+    @Test
+    public void testOnText() throws Exception {
+        Session computeSession = mock(Session.class);
+        Async computeRemote = mock(Async.class);
+        when(computeSession.getRequestURI()).thenReturn(URI.create("http://fake"
+            + RT_COMPUTE_ENDPOINT));
+        when(computeSession.getAsyncRemote()).thenReturn(computeRemote);
+        underTest.onOpen(computeSession);
+
+        Session clientSession = mock(Session.class);
+        Async clientRemote = mock(Async.class);
+        when(clientSession.getRequestURI()).thenReturn(URI.create("http://fake"
+            + RT_EVENT_ENDPOINT));
+        when(clientSession.isOpen()).thenReturn(true);
+        when(clientSession.getAsyncRemote()).thenReturn(clientRemote);
+        underTest.onOpen(clientSession);
+        verify(computeSession, never()).getAsyncRemote();
+
+        String filter = "{\"types\":[\"emoji_entity\"]}";
+        underTest.onText(filter, clientSession);
+        ArgumentCaptor<String> computeFilters = ArgumentCaptor.forClass(String.class);
+        verify(computeRemote).sendText(computeFilters.capture());
+        assertEquals(new SubscriptionFilterEncoderDecoder().decode(filter),
+                     new SubscriptionFilterEncoderDecoder().decode(computeFilters.getValue()));
+
+        // sending the same filters again doesn't update the compute server
+        underTest.onText("[" + filter + "]", clientSession);
+        verify(computeRemote).sendText(anyString());
+
+        ChatAlyticsEventEncoder encoder = new ChatAlyticsEventEncoder();
+        MessageSummary msgSummary = new MessageSummary("user", "room", DateTime.now(),
+                                                       MessageType.MESSAGE, 1, false);
+        underTest.onText(encoder.encode(new ChatAlyticsEvent(DateTime.now(), "message_summary",
+                                                             msgSummary)), computeSession);
+        verify(clientRemote, never()).sendText(anyString(), any(SendHandler.class));
+        EmojiEntity emoji = new EmojiEntity("user", "room", DateTime.now(), "smile", 1, false);
+        underTest.onText(encoder.encode(new ChatAlyticsEvent(DateTime.now(), "emoji_entity",
+                                                             emoji)), computeSession);
+        verify(clientRemote).sendText(anyString(), any(SendHandler.class));
+
+        // invalid messages are ignored
+        underTest.onText("{", clientSession);
+        underTest.onText("{", computeSession);
+
+        // the compute server sends every event again once the client is gone
+        underTest.close(clientSession, mock(CloseReason.class));
+        verify(computeRemote).sendText("null");
+    }
+
+    /**
+     * Makes sure that clients of the windowed stream only get the counts of every window and that
+     * the compute server sends every event while they're connected
+     */
+    @Test
+    public void testSendWindow() throws Exception {
+        Session computeSession = mock(Session.class);
+        Async computeRemote = mock(Async.class);
+        when(computeSession.getRequestURI()).thenReturn(URI.create("http://fake"
+            + RT_COMPUTE_ENDPOINT));
+        when(computeSession.getAsyncRemote()).thenReturn(computeRemote);
+        underTest.onOpen(computeSession);
+
+        Session clientSession = mock(Session.class);
+        when(clientSession.getRequestURI()).thenReturn(URI.create("http://fake"
+            + RT_EVENT_ENDPOINT));
+        when(clientSession.isOpen()).thenReturn(true);
+        when(clientSession.getAsyncRemote()).thenReturn(mock(Async.class));
+        underTest.onOpen(clientSession);
+        underTest.onText("{\"types\":[\"message_summary\"]}", clientSession);
+        verify(computeRemote).sendText(anyString());
+
+        Session windowSession = mock(Session.class);
+        Async windowRemote = mock(Async.class);
+        when(windowSession.getRequestURI()).thenReturn(URI.create("http://fake"
+            + RT_WINDOW_ENDPOINT));
+        when(windowSession.isOpen()).thenReturn(true);
+        when(windowSession.getAsyncRemote()).thenReturn(windowRemote);
+        underTest.onOpen(windowSession);
         assertEquals(1, underTest.getSessions().size());
+        verify(computeRemote).sendText("null");
+
+        DateTime now = DateTime.now(DateTimeZone.UTC);
+        for (int i = 0; i < 3; i++) {
+            underTest.onMessage(new ChatAlyticsEvent(now, "emoji_entity",
+                                                     new EmojiEntity("user", "room", now, "smile",
+                                                                     1, false)));
+        }
+        verify(windowRemote, never()).sendText(anyString(), any(SendHandler.class));
+
+        underTest.sendWindow(now);
+        ArgumentCaptor<String> frame = ArgumentCaptor.forClass(String.class);
+        verify(windowRemote).sendText(frame.capture(), any(SendHandler.class));
+        JsonNode window = JsonObjectMapperFactory.createObjectMapper().readTree(frame.getValue());
+        assertEquals(3, window.get("counts").get("emoji_entity").get("smile").asInt());
+        assertEquals(now.getMillis(), window.get("window_end").asLong());
+        assertEquals(1, underTest.getSubscriberStats().get("events").size());
+        assertEquals(1, underTest.getSubscriberStats().get("windows").size());
+
+        // the filters of the other client are sent again once the windowed stream is gone
+        assertTrue(underTest.isSendingWindows());
+        underTest.close(windowSession, mock(CloseReason.class));
+        verify(computeRemote, times(3)).sendText(anyString());
+        assertFalse(underTest.isSendingWindows());
+    }
+
+    /**
+     * Makes sure that windows stop being sent when the last client of the windowed stream fails
+     */
+    @Test
+    public void testOnError_windowSession() {
+        Session computeSession = mock(Session.class);
+        when(computeSession.getRequestURI()).thenReturn(URI.create("http://fake"
+            + RT_COMPUTE_ENDPOINT));
+        when(computeSession.getAsyncRemote()).thenReturn(mock(Async.class));
+        underTest.onOpen(computeSession);
+
+        Session windowSession = mock(Session.class);
+        when(windowSession.getRequestURI()).thenReturn(URI.create("http://fake"
+            + RT_WINDOW_ENDPOINT));
+        when(windowSession.isOpen()).thenReturn(true);
+        underTest.onOpen(windowSession);
+        assertTrue(underTest.isSendingWindows());
+
+        // still open, so it's kept
+        underTest.onError(windowSession, new IOException());
+        assertTrue(underTest.isSendingWindows());
+
+        when(windowSession.isOpen()).thenReturn(false);
+        underTest.onError(windowSession, new IOException());
+        assertFalse(underTest.isSendingWindows());
     }
 
     /**
@@ -272,6 +427,6 @@ public class EventsResourceTest {
      */
     @Test
     public void testOnError() {
-        underTest.onError(new RuntimeException());
+        underTest.onError(null, new RuntimeException());
     }
 }
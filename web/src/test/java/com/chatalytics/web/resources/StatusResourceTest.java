@@ -1,9 +1,16 @@
 package com.chatalytics.web.resources;
 
+import com.chatalytics.core.realtime.SubscriberStats;
+import com.google.common.collect.ImmutableSet;
+
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests {@link StatusResource}
@@ -16,7 +23,7 @@ public class StatusResourceTest {
 
     @Before
     public void setUp() {
-        underTest = new StatusResource();
+        underTest = new StatusResource(new EventsResource());
     }
 
     @Test
@@ -24,4 +31,12 @@ public class StatusResourceTest {
         String result = underTest.health();
         assertEquals("OK", result);
     }
+
+    @Test
+    public void testSubscribers() {
+        Map<String, List<SubscriberStats>> subscribers = underTest.subscribers();
+        assertEquals(ImmutableSet.of("events", "windows"), subscribers.keySet());
+        assertTrue(subscribers.get("events").isEmpty());
+        assertTrue(subscribers.get("windows").isEmpty());
+    }
 }